@@ -0,0 +1,63 @@
+package at.diwh.cryptoPrimitive.benchmark;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.Cipheranbieter;
+import at.diwh.cryptoPrimitive.crypto.Cipherauswahl;
+
+/**
+ * Vergleicht die Cipheranbieter mit genau der Rechnung, die auch {@link Cipherauswahl} beim Start misst (CTR plus HMAC
+ * für STREAM, GCM für CONTAINER), nur mit ordentlichem Aufwärmen. Damit kann man nachprüfen, ob die schnelle Messung
+ * beim Start richtig entscheidet.
+ * @author JavaAlchemist
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class CipheranbieterBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Auswahl {
+
+		@Param({ "sunjce", "bc" })
+		public String anbieter;
+
+		@Param({ "STREAM", "CONTAINER" })
+		public AesFormat format;
+
+		public Cipheranbieter cipheranbieter;
+
+		@Setup(Level.Trial)
+		public void vorbereiten() {
+			cipheranbieter = "bc".equals(anbieter) ? Cipherauswahl.BOUNCYCASTLE : Cipherauswahl.SUNJCE;
+			if (!cipheranbieter.istVerfuegbar()) {
+				throw new IllegalStateException("Cipheranbieter " + anbieter + " fehlt im Classpath");
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] verschluesseln(Nutzlast n, Auswahl a, Durchsatz d) throws GeneralSecurityException {
+		byte[] chiffrat = Cipherauswahl.verschluesseleProbe(a.format, a.cipheranbieter, n.daten);
+		d.megabyte += n.megabyte();
+		return chiffrat;
+	}
+}
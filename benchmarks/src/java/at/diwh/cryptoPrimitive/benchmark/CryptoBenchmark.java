@@ -0,0 +1,114 @@
+package at.diwh.cryptoPrimitive.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.diwh.cryptoPrimitive.crypto.AesEntschluesselungsStream;
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.util.StreamingTools;
+import at.diwh.cryptoTools.exception.CryptoException;
+import at.diwh.cryptoTools.hid.CryptoHID;
+
+/**
+ * Misst die AES-Pfade: den Round Trip über CryptoHID (so wie Application ihn macht) und zum Vergleich das eigene
+ * Stream-Format. Der Master-Schlüssel ist im Stream-Fall schon abgeleitet, gemessen wird also die reine Verschlüsselung.
+ * @author JavaAlchemist
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class CryptoBenchmark {
+
+	private static final String PASSPHRASE = "Benchmark-Passphrase";
+
+	@State(Scope.Benchmark)
+	public static class Schluessel {
+		public CryptoHID hid;
+		public Schluesselverwaltung sv;
+		public byte[] hidChiffrat;
+		public byte[] streamChiffrat;
+
+		@Setup(Level.Trial)
+		public void vorbereiten(Nutzlast n) throws CryptoException, IOException {
+			hid = new CryptoHID();
+			sv = new Schluesselverwaltung(PASSPHRASE);
+			hidChiffrat = hid.aes256_encrypt(PASSPHRASE, n.daten);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(n.daten.length + 128);
+			OutputStream out = StreamingTools.verschluesselungsStream(bos, sv, AesFormat.STREAM);
+			out.write(n.daten);
+			out.close();
+			streamChiffrat = bos.toByteArray();
+		}
+
+		@TearDown(Level.Trial)
+		public void aufraeumen() {
+			sv.close();
+		}
+	}
+
+	@Benchmark
+	public byte[] cryptoHidVerschluesseln(Nutzlast n, Schluessel s, Durchsatz d) throws CryptoException, IOException {
+		byte[] chiffrat = s.hid.aes256_encrypt(PASSPHRASE, n.daten);
+		d.megabyte += n.megabyte();
+		return chiffrat;
+	}
+
+	@Benchmark
+	public byte[] cryptoHidEntschluesseln(Nutzlast n, Schluessel s, Durchsatz d) throws CryptoException, IOException {
+		byte[] klartext = s.hid.aes256_decrypt(PASSPHRASE, s.hidChiffrat);
+		d.megabyte += n.megabyte();
+		return klartext;
+	}
+
+	@Benchmark
+	public byte[] cryptoHidRoundTrip(Nutzlast n, Schluessel s, Durchsatz d) throws CryptoException, IOException {
+		byte[] klartext = s.hid.aes256_decrypt(PASSPHRASE, s.hid.aes256_encrypt(PASSPHRASE, n.daten));
+		d.megabyte += n.megabyte();
+		return klartext;
+	}
+
+	/**
+	 * Von Datei zu Datei im Stream-Format; ab {@link StreamingTools#KANAL_AB} über gemappte FileChannels.
+	 * Gezählt wird die Größe des Zips, nicht die der Nutzlast.
+	 */
+	@Benchmark
+	public long dateiVerschluesseln(Nutzlast n, Schluessel s, Durchsatz d) throws IOException {
+		long gelesen = StreamingTools.verschluessele(n.zipDatei, new File(n.verzeichnis, "ziel.AES256"), s.sv, AesFormat.STREAM);
+		d.megabyte += gelesen / (1024.0 * 1024.0);
+		return gelesen;
+	}
+
+	@Benchmark
+	public long streamRoundTrip(Nutzlast n, Schluessel s, Durchsatz d) throws IOException {
+		OutputStream out = StreamingTools.verschluesselungsStream(OutputStream.nullOutputStream(), s.sv, AesFormat.STREAM);
+		out.write(n.daten);
+		out.close();
+		InputStream in = new AesEntschluesselungsStream(new ByteArrayInputStream(s.streamChiffrat), s.sv, StreamingTools.STANDARD_PUFFER);
+		long gelesen = StreamingTools.kopiere(in, OutputStream.nullOutputStream(), new byte[StreamingTools.STANDARD_PUFFER]);
+		in.close();
+		d.megabyte += n.megabyte();
+		return gelesen;
+	}
+}
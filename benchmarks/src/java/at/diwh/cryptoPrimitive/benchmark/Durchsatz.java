@@ -0,0 +1,25 @@
+package at.diwh.cryptoPrimitive.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Zusatzzähler für JMH: jeder Benchmark addiert die verarbeiteten MB, im Throughput-Modus erscheint das als
+ * <code>megabyte</code> in MB pro Zeiteinheit (bei OutputTimeUnit SECONDS also MB/s).
+ * @author JavaAlchemist
+ *
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Durchsatz {
+
+	public double megabyte;
+
+	@Setup(Level.Iteration)
+	public void zuruecksetzen() {
+		megabyte = 0;
+	}
+}
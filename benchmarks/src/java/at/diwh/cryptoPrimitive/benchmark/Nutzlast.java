@@ -0,0 +1,90 @@
+package at.diwh.cryptoPrimitive.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import at.diwh.cryptoPrimitive.util.ZippingTools;
+
+/**
+ * Die Testdaten für alle Benchmarks: 1 KB bis 1 GB, entweder gut komprimierbar (Text) oder gar nicht (Zufall).
+ * Die Daten sind bei gleichen Parametern immer gleich (fester Seed), damit Läufe vergleichbar bleiben.
+ * <br/>Pro Trial wird ein temporäres Verzeichnis mit einem fertigen Zip angelegt und am Ende wieder gelöscht.
+ * @author JavaAlchemist
+ *
+ */
+@State(Scope.Benchmark)
+public class Nutzlast {
+
+	public enum Art { KOMPRIMIERBAR, ZUFALL }
+
+	private static final String[] WOERTER = { "Versicherung", "Datum", "Betrag", "Konto", "Name", "Adresse", "0815", 
+			"Beitrag", "Leistung", ";", "\n", "2020-12-31", "EUR", "Wien", "Graz" };
+
+	@Param({ "1", "1024", "65536", "1048576" })
+	public int groesseKB;
+
+	@Param({ "KOMPRIMIERBAR", "ZUFALL" })
+	public Art art;
+
+	public byte[] daten;
+	public ZipEntry entry;
+	public File verzeichnis;
+	public File zipDatei;
+	public File zielDatei;
+	public ByteBuffer zielPuffer;
+
+	@Setup(Level.Trial)
+	public void erzeuge() throws IOException {
+		daten = erzeugeDaten(groesseKB * 1024, art);
+		entry = new ZipEntry("nutzlast.bin");
+		verzeichnis = Files.createTempDirectory("cpbench").toFile();
+		zipDatei = new File(verzeichnis, "quelle.zip");
+		zielDatei = new File(verzeichnis, "ziel.zip");
+		ZippingTools.writeZipEntryToNewZipFile(zipDatei, entry, daten);
+		zielPuffer = ByteBuffer.allocateDirect(daten.length);
+	}
+
+	@TearDown(Level.Trial)
+	public void raeumeAuf() {
+		for (File f : verzeichnis.listFiles()) {
+			f.delete();
+		}
+		verzeichnis.delete();
+	}
+
+	/**
+	 * @return die Nutzlast in MB, für den {@link Durchsatz}
+	 */
+	public double megabyte() {
+		return daten.length / (1024.0 * 1024.0);
+	}
+
+	static byte[] erzeugeDaten(int laenge, Art art) {
+		Random r = new Random(4711);
+		byte[] b = new byte[laenge];
+		if (art == Art.ZUFALL) {
+			r.nextBytes(b);
+			return b;
+		}
+		int pos = 0;
+		while (pos < laenge) {
+			byte[] wort = (WOERTER[r.nextInt(WOERTER.length)] + " ").getBytes(StandardCharsets.UTF_8);
+			int n = Math.min(wort.length, laenge - pos);
+			System.arraycopy(wort, 0, b, pos, n);
+			pos += n;
+		}
+		return b;
+	}
+}
@@ -0,0 +1,99 @@
+package at.diwh.cryptoPrimitive.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.diwh.cryptoPrimitive.util.ParallelZipSchreiber;
+import at.diwh.cryptoPrimitive.util.StreamingTools;
+import at.diwh.cryptoPrimitive.util.ZipVerzeichnis;
+import at.diwh.cryptoPrimitive.util.ZippingTools;
+
+/**
+ * Misst die Lese- und Schreibpfade von {@link ZippingTools}. Durchsatz in MB/s über den {@link Durchsatz}-Zähler,
+ * Latenz-Perzentile über SampleTime, Allokationen mit <code>-prof gc</code>.
+ * @author JavaAlchemist
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class ZippingToolsBenchmark {
+
+	@Benchmark
+	public void schreibeZipFile(Nutzlast n, Durchsatz d) throws IOException {
+		ZippingTools.writeZipEntryToNewZipFile(n.zielDatei, n.entry, n.daten);
+		d.megabyte += n.megabyte();
+	}
+
+	@Benchmark
+	public byte[] schreibeZipByteArray(Nutzlast n, Durchsatz d) throws IOException {
+		byte[] zip = ZippingTools.writeZipEntryToNewZipFile(n.entry, n.daten);
+		d.megabyte += n.megabyte();
+		return zip;
+	}
+
+	/**
+	 * Ein Eintrag blockweise auf allen Kernen komprimiert, ohne Schwelle. Skalierung über die Kerne z.B. mit
+	 * <code>-jvmArgsAppend -XX:ActiveProcessorCount=2</code> vergleichen.
+	 */
+	@Benchmark
+	public void schreibeZipParallel(Nutzlast n, Durchsatz d) throws IOException {
+		ParallelZipSchreiber zip = new ParallelZipSchreiber(OutputStream.nullOutputStream(), ForkJoinPool.commonPool(),
+				StreamingTools.PARALLELITAET, ParallelZipSchreiber.STANDARD_BLOCKGROESSE);
+		zip.schreibeEintrag(new ZipEntry(n.entry.getName()), new ByteArrayInputStream(n.daten), Deflater.DEFAULT_COMPRESSION);
+		zip.close();
+		d.megabyte += n.megabyte();
+	}
+
+	@Benchmark
+	public byte[] ladeEintrag(Nutzlast n, Durchsatz d) throws IOException {
+		byte[] daten = ZippingTools.loadDataFromZipEntry(n.zipDatei, n.entry);
+		d.megabyte += n.megabyte();
+		return daten;
+	}
+
+	/**
+	 * Entpacken in einen vorab angelegten direct ByteBuffer, ohne Ergebnis-Array.
+	 */
+	@Benchmark
+	public ByteBuffer ladeEintragInPuffer(Nutzlast n, Durchsatz d) throws IOException {
+		n.zielPuffer.clear();
+		ZippingTools.loadDataFromZipEntry(n.zipDatei, n.entry, n.zielPuffer);
+		d.megabyte += n.megabyte();
+		return n.zielPuffer;
+	}
+
+	/**
+	 * Verzeichnis mit warmem Cache (der Normalfall bei wiederholtem Zugriff).
+	 */
+	@Benchmark
+	public List<ZipEntry> verzeichnis(Nutzlast n) throws IOException {
+		return ZippingTools.fetchZipDirectory(n.zipDatei);
+	}
+
+	/**
+	 * Verzeichnis ohne Cache, d.h. Central Directory wird jedes Mal gelesen.
+	 */
+	@Benchmark
+	public List<ZipEntry> verzeichnisKalt(Nutzlast n) throws IOException {
+		ZipVerzeichnis.leereCache();
+		return ZippingTools.fetchZipDirectory(n.zipDatei);
+	}
+}
@@ -0,0 +1,180 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Beschreibt das segmentierte Container-Format für .AES256-Dateien.
+ * <br/>Aufbau: <code>Header(56) | Segment 0 | Segment 1 | ... | Segment n-1 | Index(24)</code>
+ * <br/>Header: <code>MAGIC(8) | Iterationen(4) | Master-Salt(16) | Datei-Salt(16) | Segmentgröße(4) | Nonce-Präfix(8)</code>
+ * (Version 1, <code>CPAESC01</code>, hatte nur einen Salt direkt für PBKDF2 und wird weiterhin gelesen)
+ * <br/>Segment: der Klartext in Stücken fester Größe (das letzte darf kürzer oder leer sein), jedes einzeln mit AES-256/GCM
+ * verschlüsselt, d.h. Chiffrat plus 16 Bytes Tag. Nonce ist Präfix plus Segmentnummer.
+ * <br/>Index: <code>Segmentanzahl(8) | Klartextlänge(8) | ENDE_MAGIC(8)</code>
+ * <br/>Jedes Segment authentifiziert als AAD den Header, seine Nummer und ob es das letzte ist. Das letzte Segment
+ * authentifiziert zusätzlich den Index. Damit fallen Vertauschen, Abschneiden und Anhängen auf, obwohl jedes Segment
+ * für sich entschlüsselt werden kann - also parallel und für beliebige Byte-Bereiche.
+ * <br/>Die GCM-Instanzen kommen vom {@link Cipheranbieter}, den die {@link Cipherauswahl} für das Format gewählt hat.
+ * @author JavaAlchemist
+ *
+ */
+public class AesContainerFormat {
+
+	public static final byte[] MAGIC = { 'C', 'P', 'A', 'E', 'S', 'C', '0', '2' };
+	public static final byte[] MAGIC_V1 = { 'C', 'P', 'A', 'E', 'S', 'C', '0', '1' };
+	public static final byte[] ENDE_MAGIC = { 'C', 'P', 'A', 'E', 'S', 'I', 'D', 'X' };
+	public static final int HEADER_LAENGE = MAGIC.length + 4 + 2 * AesStreamFormat.SALT_LAENGE + 4 + 8;
+	public static final int HEADER_LAENGE_V1 = MAGIC_V1.length + 4 + AesStreamFormat.SALT_LAENGE + 4 + 8;
+	public static final int INDEX_LAENGE = 8 + 8 + ENDE_MAGIC.length;
+	public static final int TAG_LAENGE = 16;
+	public static final int STANDARD_SEGMENTGROESSE = 256 * 1024;
+
+	static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+	static final String ZWECK = "CPAESC02";
+
+	private AesContainerFormat() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * @param kopf - die ersten Bytes der Daten
+	 * @return true, wenn die Daten mit dem Container-Magic (Version 1 oder 2) beginnen
+	 */
+	public static boolean istContainerFormat(byte[] kopf) {
+		return AesStreamFormat.beginntMit(kopf, MAGIC) || AesStreamFormat.beginntMit(kopf, MAGIC_V1);
+	}
+
+	/**
+	 * @param magic - die ersten 8 Bytes
+	 * @return die Länge des ganzen Headers für diese Version, -1 wenn es kein Container ist
+	 */
+	static int headerLaenge(byte[] magic) {
+		if (AesStreamFormat.beginntMit(magic, MAGIC)) {
+			return HEADER_LAENGE;
+		}
+		if (AesStreamFormat.beginntMit(magic, MAGIC_V1)) {
+			return HEADER_LAENGE_V1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Baut einen Header der aktuellen Version mit frischem Datei-Salt und Nonce-Präfix.
+	 */
+	static byte[] baueHeader(Schluesselverwaltung sv, int segmentGroesse) {
+		byte[] header = new byte[HEADER_LAENGE];
+		int pos = 0;
+		System.arraycopy(MAGIC, 0, header, pos, MAGIC.length);
+		pos += MAGIC.length;
+		AesStreamFormat.schreibeInt(header, pos, sv.getIterationen());
+		pos += 4;
+		System.arraycopy(sv.getMasterSalt(), 0, header, pos, AesStreamFormat.SALT_LAENGE);
+		pos += AesStreamFormat.SALT_LAENGE;
+		System.arraycopy(AesStreamFormat.zufallsBytes(AesStreamFormat.SALT_LAENGE), 0, header, pos, AesStreamFormat.SALT_LAENGE);
+		pos += AesStreamFormat.SALT_LAENGE;
+		AesStreamFormat.schreibeInt(header, pos, segmentGroesse);
+		pos += 4;
+		System.arraycopy(AesStreamFormat.zufallsBytes(8), 0, header, pos, 8);
+		return header;
+	}
+
+	/**
+	 * @return die Segmentgröße, steht in jeder Version direkt vor dem Nonce-Präfix
+	 */
+	static int segmentGroesse(byte[] header) {
+		return AesStreamFormat.leseInt(header, header.length - 12);
+	}
+
+	static byte[] baueIndex(long segmentAnzahl, long klartextLaenge) {
+		byte[] index = new byte[INDEX_LAENGE];
+		schreibeLong(index, 0, segmentAnzahl);
+		schreibeLong(index, 8, klartextLaenge);
+		System.arraycopy(ENDE_MAGIC, 0, index, 16, ENDE_MAGIC.length);
+		return index;
+	}
+
+	/**
+	 * Leitet den AES-Schlüssel zu einem Header ab. Version 1 nimmt die ersten 32 Bytes einer direkten PBKDF2-Ableitung
+	 * (damals wurden 64 abgeleitet, daher auch hier).
+	 */
+	static SecretKeySpec leiteSchluesselAb(Schluesselverwaltung sv, byte[] header) throws GeneralSecurityException, IOException {
+		int iterationen = AesStreamFormat.leseIterationen(header);
+		int pos = MAGIC.length + 4;
+		byte[] roh;
+		if (AesStreamFormat.beginntMit(header, MAGIC_V1)) {
+			roh = sv.leiteDirektAb(Arrays.copyOfRange(header, pos, pos + AesStreamFormat.SALT_LAENGE), iterationen, 64);
+		} else {
+			byte[] masterSalt = Arrays.copyOfRange(header, pos, pos + AesStreamFormat.SALT_LAENGE);
+			pos += AesStreamFormat.SALT_LAENGE;
+			byte[] dateiSalt = Arrays.copyOfRange(header, pos, pos + AesStreamFormat.SALT_LAENGE);
+			roh = sv.leiteDateiSchluesselAb(masterSalt, iterationen, dateiSalt, ZWECK, 32);
+		}
+		try {
+			return new SecretKeySpec(roh, 0, 32, "AES");
+		} finally {
+			Arrays.fill(roh, (byte) 0);
+		}
+	}
+
+	/**
+	 * Verschlüsselt ein Segment.
+	 * @param index - nur beim letzten Segment, sonst null
+	 * @return Chiffrat plus Tag
+	 */
+	static byte[] verschluesseleSegment(SecretKeySpec schluessel, byte[] header, long nummer, byte[] daten, int laenge,
+			byte[] index) throws GeneralSecurityException {
+		Cipher c = Cipherauswahl.fuer(AesFormat.CONTAINER).cipher(CIPHER_TRANSFORMATION);
+		c.init(Cipher.ENCRYPT_MODE, schluessel, new GCMParameterSpec(TAG_LAENGE * 8, nonce(header, nummer)));
+		c.updateAAD(aad(header, nummer, index));
+		return c.doFinal(daten, 0, laenge);
+	}
+
+	/**
+	 * Entschlüsselt und prüft ein Segment.
+	 * @param index - nur beim letzten Segment, sonst null
+	 * @return der Klartext
+	 * @throws GeneralSecurityException wenn das Segment manipuliert oder der Schlüssel falsch ist
+	 */
+	static byte[] entschluesseleSegment(SecretKeySpec schluessel, byte[] header, long nummer, byte[] chiffrat, int laenge,
+			byte[] index) throws GeneralSecurityException {
+		Cipher c = Cipherauswahl.fuer(AesFormat.CONTAINER).cipher(CIPHER_TRANSFORMATION);
+		c.init(Cipher.DECRYPT_MODE, schluessel, new GCMParameterSpec(TAG_LAENGE * 8, nonce(header, nummer)));
+		c.updateAAD(aad(header, nummer, index));
+		return c.doFinal(chiffrat, 0, laenge);
+	}
+
+	private static byte[] nonce(byte[] header, long nummer) {
+		if (nummer < 0 || nummer > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException("Zu viele Segmente: " + nummer);
+		}
+		byte[] nonce = new byte[12];
+		System.arraycopy(header, header.length - 8, nonce, 0, 8);
+		AesStreamFormat.schreibeInt(nonce, 8, (int) nummer);
+		return nonce;
+	}
+
+	private static byte[] aad(byte[] header, long nummer, byte[] index) {
+		byte[] aad = new byte[header.length + 9 + (index == null ? 0 : index.length)];
+		System.arraycopy(header, 0, aad, 0, header.length);
+		schreibeLong(aad, header.length, nummer);
+		aad[header.length + 8] = (byte) (index == null ? 0 : 1);
+		if (index != null) {
+			System.arraycopy(index, 0, aad, header.length + 9, index.length);
+		}
+		return aad;
+	}
+
+	static void schreibeLong(byte[] ziel, int offset, long wert) {
+		AesStreamFormat.schreibeInt(ziel, offset, (int) (wert >>> 32));
+		AesStreamFormat.schreibeInt(ziel, offset + 4, (int) wert);
+	}
+
+	static long leseLong(byte[] quelle, int offset) {
+		return ((long) AesStreamFormat.leseInt(quelle, offset) << 32) | (AesStreamFormat.leseInt(quelle, offset + 4) & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,239 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Liest eine Datei im {@link AesContainerFormat} mit wahlfreiem Zugriff. Header und Index werden beim Öffnen gelesen,
+ * danach wird nur das entschlüsselt, was man wirklich braucht.
+ * <br/>Die Lesemethoden sind thread-safe (positionsbasiertes Lesen vom FileChannel), mehrere Threads dürfen also
+ * gleichzeitig verschiedene Segmente holen.
+ * @author JavaAlchemist
+ *
+ */
+public class AesContainerLeser implements Closeable {
+
+	private final FileChannel kanal;
+	private final byte[] header;
+	private final byte[] index;
+	private final SecretKeySpec schluessel;
+	private final int segmentGroesse;
+	private final long segmentAnzahl;
+	private final long klartextLaenge;
+
+	/**
+	 * Öffnet die Datei, prüft den Aufbau und leitet den Schlüssel ab.
+	 * @param f - Datei im Container-Format (Version 1 oder 2)
+	 * @param sv - liefert den Dateischlüssel zur Passphrase, mit der verschlüsselt wurde
+	 * @throws IOException wenn die Datei kein gültiger Container ist
+	 */
+	public AesContainerLeser(File f, Schluesselverwaltung sv) throws IOException {
+		this.kanal = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long dateiLaenge = kanal.size();
+			int headerLaenge = dateiLaenge < AesContainerFormat.MAGIC.length ? -1 
+					: AesContainerFormat.headerLaenge(lese(0, AesContainerFormat.MAGIC.length));
+			if (headerLaenge < 0 || dateiLaenge < headerLaenge + AesContainerFormat.TAG_LAENGE + AesContainerFormat.INDEX_LAENGE) {
+				throw new IOException("Kein gültiger Container oder Datei zu kurz: " + f);
+			}
+			this.header = lese(0, headerLaenge);
+			this.index = lese(dateiLaenge - AesContainerFormat.INDEX_LAENGE, AesContainerFormat.INDEX_LAENGE);
+			if (!Arrays.equals(AesContainerFormat.ENDE_MAGIC, Arrays.copyOfRange(index, 16, 16 + AesContainerFormat.ENDE_MAGIC.length))) {
+				throw new IOException("Kein gültiger Container (Index fehlt): " + f);
+			}
+			this.segmentGroesse = AesContainerFormat.segmentGroesse(header);
+			this.segmentAnzahl = AesContainerFormat.leseLong(index, 0);
+			this.klartextLaenge = AesContainerFormat.leseLong(index, 8);
+			// der Index ist erst mit dem letzten Segment authentisiert, bis dahin nur Divisionen, damit nichts überläuft
+			if (segmentGroesse < 1 || segmentGroesse > Integer.MAX_VALUE - AesContainerFormat.TAG_LAENGE
+					|| segmentAnzahl < 1 || klartextLaenge < 0 || klartextLaenge > dateiLaenge
+					|| segmentAnzahl > (dateiLaenge - headerLaenge) / AesContainerFormat.TAG_LAENGE
+					|| segmentAnzahl - 1 > klartextLaenge / segmentGroesse
+					|| (klartextLaenge + segmentGroesse - 1) / segmentGroesse > segmentAnzahl) {
+				throw new IOException("Index passt nicht zur Segmentgröße, Container ist beschädigt: " + f);
+			}
+			long erwartet = headerLaenge + klartextLaenge + segmentAnzahl * AesContainerFormat.TAG_LAENGE
+					+ AesContainerFormat.INDEX_LAENGE;
+			if (erwartet != dateiLaenge) {
+				throw new IOException("Index passt nicht zur Dateigröße, Container ist beschädigt: " + f);
+			}
+			this.schluessel = AesContainerFormat.leiteSchluesselAb(sv, header);
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			kanal.close();
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException("Container kann nicht geöffnet werden: " + f, e);
+		}
+	}
+
+	public long getKlartextLaenge() {
+		return klartextLaenge;
+	}
+
+	public long getSegmentAnzahl() {
+		return segmentAnzahl;
+	}
+
+	public int getSegmentGroesse() {
+		return segmentGroesse;
+	}
+
+	/**
+	 * Entschlüsselt genau ein Segment und prüft seinen Tag.
+	 * @param nummer - 0 bis getSegmentAnzahl()-1
+	 * @return der Klartext des Segments
+	 * @throws IOException wenn das Segment manipuliert oder die Passphrase falsch ist
+	 */
+	public byte[] entschluesseleSegment(long nummer) throws IOException {
+		if (nummer < 0 || nummer >= segmentAnzahl) {
+			throw new IndexOutOfBoundsException("Segment " + nummer + " gibt es nicht");
+		}
+		boolean letztes = nummer == segmentAnzahl - 1;
+		long klartextImSegment = letztes ? klartextLaenge - nummer * segmentGroesse : segmentGroesse;
+		long position = header.length + nummer * (segmentGroesse + (long) AesContainerFormat.TAG_LAENGE);
+		byte[] chiffrat = lese(position, (int) klartextImSegment + AesContainerFormat.TAG_LAENGE);
+		try {
+			return AesContainerFormat.entschluesseleSegment(schluessel, header, nummer, chiffrat, chiffrat.length, letztes ? index : null);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Segment " + nummer + " ist nicht authentisch (falsche Passphrase oder Datei beschädigt)", e);
+		}
+	}
+
+	/**
+	 * Liest einen Byte-Bereich des Klartexts. Entschlüsselt werden nur die Segmente, die den Bereich überdecken.
+	 * @param position - Position im Klartext
+	 * @param ziel - wohin
+	 * @param off - ab wo im Ziel
+	 * @param len - wie viele Bytes höchstens
+	 * @return Anzahl der gelieferten Bytes, -1 wenn position hinter dem Ende liegt
+	 * @throws IOException
+	 */
+	public int leseBereich(long position, byte[] ziel, int off, int len) throws IOException {
+		if (position >= klartextLaenge) {
+			return -1;
+		}
+		int gesamt = 0;
+		while (gesamt < len && position < klartextLaenge) {
+			long nummer = position / segmentGroesse;
+			int imSegment = (int) (position - nummer * segmentGroesse);
+			byte[] klartext = entschluesseleSegment(nummer);
+			int stueck = Math.min(len - gesamt, klartext.length - imSegment);
+			System.arraycopy(klartext, imSegment, ziel, off + gesamt, stueck);
+			gesamt += stueck;
+			position += stueck;
+		}
+		return gesamt;
+	}
+
+	/**
+	 * Entschlüsselt den ganzen Container in der richtigen Reihenfolge nach <i>out</i>.
+	 * @param out - Ziel, wird nicht geschlossen
+	 * @param pool - für paralleles Entschlüsseln, null für sequentiell
+	 * @param parallelitaet - wie viele Segmente höchstens gleichzeitig in Arbeit sind
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws IOException
+	 */
+	public long entschluesseleNach(OutputStream out, ExecutorService pool, int parallelitaet) throws IOException {
+		if (pool == null) {
+			for (long nummer = 0; nummer < segmentAnzahl; nummer++) {
+				out.write(entschluesseleSegment(nummer));
+			}
+			return klartextLaenge;
+		}
+		ArrayDeque<Future<byte[]>> offen = new ArrayDeque<Future<byte[]>>();
+		try {
+			for (long i = 0; i < segmentAnzahl; i++) {
+				final long nummer = i;
+				offen.add(pool.submit(() -> entschluesseleSegment(nummer)));
+				while (offen.size() > Math.max(1, parallelitaet)) {
+					out.write(offen.removeFirst().get());
+				}
+			}
+			while (!offen.isEmpty()) {
+				out.write(offen.removeFirst().get());
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Fehler beim Entschlüsseln", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Unterbrochen beim Entschlüsseln", e);
+		} finally {
+			for (Future<byte[]> f : offen) {
+				f.cancel(true);
+			}
+		}
+		return klartextLaenge;
+	}
+
+	/**
+	 * Der Klartext als Stream, von vorne nach hinten, z.B. für einen ZipInputStream. Im Speicher ist immer nur das
+	 * aktuelle Segment; jedes Segment wird vor dem ersten Byte geprüft. <i>close()</i> schließt auch diesen Leser.
+	 * @return der Stream
+	 */
+	public InputStream alsStream() {
+		return new InputStream() {
+			private long naechstes = 0;
+			private byte[] segment = new byte[0];
+			private int pos = 0;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				while (pos == segment.length) {
+					if (naechstes >= segmentAnzahl) {
+						return -1;
+					}
+					segment = entschluesseleSegment(naechstes++);
+					pos = 0;
+				}
+				int n = Math.min(len, segment.length - pos);
+				System.arraycopy(segment, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				AesContainerLeser.this.close();
+			}
+		};
+	}
+
+	private byte[] lese(long position, int laenge) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(laenge);
+		while (bb.hasRemaining()) {
+			if (kanal.read(bb, position + bb.position()) < 0) {
+				throw new IOException("Unerwartetes Dateiende");
+			}
+		}
+		return bb.array();
+	}
+
+	@Override
+	public void close() throws IOException {
+		kanal.close();
+	}
+}
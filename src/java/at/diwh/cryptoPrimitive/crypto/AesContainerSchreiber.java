@@ -0,0 +1,135 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Schreibt Daten im {@link AesContainerFormat}. Mit einem ExecutorService werden mehrere Segmente gleichzeitig
+ * verschlüsselt und in der richtigen Reihenfolge geschrieben; ohne läuft alles im aufrufenden Thread.
+ * <br/>Im Speicher sind höchstens <i>parallelitaet</i> + 1 Segmente. Erst <i>close()</i> schreibt das letzte Segment
+ * und den Index.
+ * @author JavaAlchemist
+ *
+ */
+public class AesContainerSchreiber extends OutputStream {
+
+	private final OutputStream out;
+	private final byte[] header;
+	private final SecretKeySpec schluessel;
+	private final int segmentGroesse;
+	private final ExecutorService pool;
+	private final int parallelitaet;
+	private final ArrayDeque<Future<byte[]>> offen = new ArrayDeque<Future<byte[]>>();
+	private byte[] puffer;
+	private int fuellstand = 0;
+	private long segmentNummer = 0;
+	private long klartextLaenge = 0;
+	private boolean geschlossen = false;
+
+	/**
+	 * Schreibt sofort den Header.
+	 * @param out - Ziel
+	 * @param sv - liefert den Dateischlüssel
+	 * @param segmentGroesse - Klartext-Bytes pro Segment
+	 * @param pool - für paralleles Verschlüsseln, null für sequentiell
+	 * @param parallelitaet - wie viele Segmente höchstens gleichzeitig in Arbeit sind
+	 * @throws IOException
+	 */
+	public AesContainerSchreiber(OutputStream out, Schluesselverwaltung sv, int segmentGroesse, ExecutorService pool, int parallelitaet) throws IOException {
+		if (segmentGroesse < 1) {
+			throw new IllegalArgumentException("Segmentgröße muss positiv sein");
+		}
+		this.out = out;
+		this.segmentGroesse = segmentGroesse;
+		this.pool = pool;
+		this.parallelitaet = Math.max(1, parallelitaet);
+		this.header = AesContainerFormat.baueHeader(sv, segmentGroesse);
+		try {
+			this.schluessel = AesContainerFormat.leiteSchluesselAb(sv, header);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Verschlüsselung kann nicht initialisiert werden", e);
+		}
+		this.puffer = new byte[segmentGroesse];
+		out.write(header);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (geschlossen) {
+			throw new IOException("Stream ist bereits geschlossen");
+		}
+		while (len > 0) {
+			if (fuellstand == segmentGroesse) {
+				// erst jetzt wissen wir, dass es nicht das letzte Segment ist
+				sendeSegment(null);
+			}
+			int stueck = Math.min(len, segmentGroesse - fuellstand);
+			System.arraycopy(b, off, puffer, fuellstand, stueck);
+			fuellstand += stueck;
+			off += stueck;
+			len -= stueck;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (geschlossen) {
+			return;
+		}
+		geschlossen = true;
+		try {
+			byte[] index = AesContainerFormat.baueIndex(segmentNummer + 1, klartextLaenge + fuellstand);
+			sendeSegment(index);
+			while (!offen.isEmpty()) {
+				schreibeAeltestes();
+			}
+			out.write(index);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void sendeSegment(final byte[] index) throws IOException {
+		final byte[] daten = puffer;
+		final int laenge = fuellstand;
+		final long nummer = segmentNummer++;
+		klartextLaenge += laenge;
+		fuellstand = 0;
+		if (pool == null) {
+			try {
+				out.write(AesContainerFormat.verschluesseleSegment(schluessel, header, nummer, daten, laenge, index));
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Fehler beim Verschlüsseln von Segment " + nummer, e);
+			}
+			return;
+		}
+		puffer = new byte[segmentGroesse]; // der alte gehört jetzt dem Worker
+		offen.add(pool.submit(() -> AesContainerFormat.verschluesseleSegment(schluessel, header, nummer, daten, laenge, index)));
+		while (offen.size() > parallelitaet) {
+			schreibeAeltestes();
+		}
+	}
+
+	private void schreibeAeltestes() throws IOException {
+		try {
+			out.write(offen.removeFirst().get());
+		} catch (ExecutionException e) {
+			throw new IOException("Fehler beim Verschlüsseln", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Unterbrochen beim Verschlüsseln", e);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * Liest Daten im {@link AesStreamFormat} und liefert den Klartext. Die letzten 32 Bytes sind der HMAC,
+ * die werden immer zurückgehalten, bis das Ende des Streams erreicht ist.
+ * <br/><b>Achtung</b>: Der Klartext wird geliefert, <i>bevor</i> der HMAC geprüft ist. Stimmt der HMAC am Ende nicht,
+ * wirft <i>read()</i> eine IOException. Wer in eine Datei schreibt, muss sie in diesem Fall wegwerfen.
+ * @author JavaAlchemist
+ *
+ */
+public class AesEntschluesselungsStream extends FilterInputStream {
+
+	private final Cipher cipher;
+	private final Mac mac;
+	private final byte[] roh;
+	private final byte[] klartext;
+	private int rohFuellstand = 0;
+	private int klartextPos = 0;
+	private int klartextEnde = 0;
+	private boolean eof = false;
+
+	/**
+	 * Liest sofort den Header und leitet den Schlüssel ab.
+	 * @param in - Quelle im Stream-Format (Version 1 oder 2)
+	 * @param sv - liefert den Dateischlüssel zur Passphrase, mit der verschlüsselt wurde
+	 * @param puffergroesse - Größe des Arbeitspuffers in Bytes
+	 * @throws IOException wenn der Header nicht passt
+	 */
+	public AesEntschluesselungsStream(InputStream in, Schluesselverwaltung sv, int puffergroesse) throws IOException {
+		super(in);
+		byte[] magic = AesStreamFormat.leseKopf(in, AesStreamFormat.MAGIC.length);
+		int headerLaenge = AesStreamFormat.headerLaenge(magic);
+		if (headerLaenge < 0) {
+			throw new IOException("Kein gültiger Header im AES-Stream-Format");
+		}
+		byte[] rest = AesStreamFormat.leseKopf(in, headerLaenge - magic.length);
+		if (rest.length < headerLaenge - magic.length) {
+			throw new IOException("AES-Stream ist abgeschnitten (Header unvollständig)");
+		}
+		byte[] header = Arrays.copyOf(magic, headerLaenge);
+		System.arraycopy(rest, 0, header, magic.length, rest.length);
+		byte[] schluessel = null;
+		try {
+			schluessel = AesStreamFormat.leiteSchluesselAb(sv, header);
+			this.cipher = AesStreamFormat.erzeugeCipher(Cipher.DECRYPT_MODE, schluessel, AesStreamFormat.iv(header));
+			this.mac = AesStreamFormat.erzeugeMac(schluessel);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Entschlüsselung kann nicht initialisiert werden", e);
+		} finally {
+			if (schluessel != null) {
+				Arrays.fill(schluessel, (byte) 0);
+			}
+		}
+		mac.update(header);
+		this.roh = new byte[puffergroesse + AesStreamFormat.MAC_LAENGE];
+		this.klartext = new byte[roh.length];
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n < 0 ? -1 : (b[0] & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (klartextPos == klartextEnde) {
+			if (eof) {
+				return -1;
+			}
+			fuellePuffer();
+		}
+		int n = Math.min(len, klartextEnde - klartextPos);
+		System.arraycopy(klartext, klartextPos, b, off, n);
+		klartextPos += n;
+		return n;
+	}
+
+	/**
+	 * Liest nach, entschlüsselt alles bis auf die letzten 32 Bytes und prüft am Ende den HMAC.
+	 */
+	private void fuellePuffer() throws IOException {
+		int len = in.read(roh, rohFuellstand, roh.length - rohFuellstand);
+		klartextPos = 0;
+		klartextEnde = 0;
+		if (len < 0) {
+			eof = true;
+			if (rohFuellstand != AesStreamFormat.MAC_LAENGE) {
+				throw new IOException("AES-Stream ist abgeschnitten");
+			}
+			byte[] erwartet = mac.doFinal();
+			if (!MessageDigest.isEqual(erwartet, Arrays.copyOf(roh, AesStreamFormat.MAC_LAENGE))) {
+				throw new IOException("Integritätsprüfung fehlgeschlagen (falsche Passphrase oder Datei beschädigt)");
+			}
+			return;
+		}
+		rohFuellstand += len;
+		int verarbeitbar = rohFuellstand - AesStreamFormat.MAC_LAENGE;
+		if (verarbeitbar <= 0) {
+			return;
+		}
+		mac.update(roh, 0, verarbeitbar);
+		try {
+			klartextEnde = cipher.update(roh, 0, verarbeitbar, klartext, 0);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Fehler beim Entschlüsseln", e);
+		}
+		System.arraycopy(roh, verarbeitbar, roh, 0, AesStreamFormat.MAC_LAENGE);
+		rohFuellstand = AesStreamFormat.MAC_LAENGE;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] weg = new byte[(int) Math.min(n, klartext.length)];
+		long gesamt = 0;
+		while (gesamt < n) {
+			int len = read(weg, 0, (int) Math.min(weg.length, n - gesamt));
+			if (len < 0) {
+				break;
+			}
+			gesamt += len;
+		}
+		return gesamt;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return klartextEnde - klartextPos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,59 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Die Formate, in denen eine .AES256-Datei vorliegen kann. Alle haben die gleiche Endung, unterschieden wird am Dateianfang.
+ * @author JavaAlchemist
+ *
+ */
+public enum AesFormat {
+
+	/** das ursprüngliche Format von CryptoHID, wird immer ganz in den Speicher gelesen */
+	LEGACY,
+	/** {@link AesStreamFormat}: ein durchgehender AES/CTR-Stream mit HMAC am Ende */
+	STREAM,
+	/** {@link AesContainerFormat}: unabhängig authentifizierte AES/GCM-Segmente, wahlfreier Zugriff möglich */
+	CONTAINER;
+
+	/**
+	 * @param name - Formatname aus der Kommandozeile, Groß/Klein egal
+	 * @return das Format
+	 * @throws IllegalArgumentException für unbekannte Namen
+	 */
+	public static AesFormat fuerName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	/**
+	 * Erkennt das Format am Magic am Dateianfang. Alles ohne bekanntes Magic ist LEGACY.
+	 * @param f - .AES256-Datei
+	 * @return das Format der Datei
+	 * @throws IOException
+	 */
+	public static AesFormat erkenne(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			return erkenne(AesStreamFormat.leseKopf(in, AesStreamFormat.MAGIC.length));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param kopf - die ersten Bytes der Daten (mindestens 8)
+	 * @return das Format der Daten
+	 */
+	public static AesFormat erkenne(byte[] kopf) {
+		if (AesStreamFormat.istStreamFormat(kopf)) {
+			return STREAM;
+		}
+		if (AesContainerFormat.istContainerFormat(kopf)) {
+			return CONTAINER;
+		}
+		return LEGACY;
+	}
+}
@@ -0,0 +1,195 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Beschreibt das Stream-Format für .AES256-Dateien, das ohne ganze byte-Arrays im Heap auskommt.
+ * <br/>Aufbau: <code>MAGIC(8) | Iterationen(4) | Master-Salt(16) | Datei-Salt(16) | IV(16) | AES-256/CTR Chiffrat | HMAC-SHA256(32)</code>
+ * <br/>Der HMAC läuft über Header und Chiffrat (encrypt-then-MAC). Damit kann man in einem Durchgang ver- und entschlüsseln,
+ * ohne die Länge der Daten vorher kennen zu müssen. Die Schlüssel kommen aus der {@link Schluesselverwaltung}.
+ * <br/>Version 1 (<code>CPAESS01</code>) hatte statt der beiden Salts nur einen Salt direkt für PBKDF2, die wird weiterhin gelesen.
+ * <br/>Cipher und HMAC kommen vom {@link Cipheranbieter}, den die {@link Cipherauswahl} für das Format gewählt hat.
+ * <br/>Das alte Format von CryptoHID hat kein Magic, daher erkennt man die Stream-Dateien eindeutig am Dateianfang.
+ * @author JavaAlchemist
+ *
+ */
+public class AesStreamFormat {
+
+	public static final byte[] MAGIC = { 'C', 'P', 'A', 'E', 'S', 'S', '0', '2' };
+	public static final byte[] MAGIC_V1 = { 'C', 'P', 'A', 'E', 'S', 'S', '0', '1' };
+	public static final int ITERATIONEN = 100000;
+	/**
+	 * Grenzen für die Iterationen aus einem Header. Der Header ist nicht authentisiert; ohne Grenze legt eine Datei mit
+	 * 2^31 Iterationen die Schlüsselableitung (und damit alle Threads, die auf sie warten) für Stunden lahm.
+	 */
+	public static final int MIN_ITERATIONEN = 10000;
+	public static final int MAX_ITERATIONEN = 10000000;
+	public static final int SALT_LAENGE = 16;
+	public static final int IV_LAENGE = 16;
+	public static final int MAC_LAENGE = 32;
+	public static final int HEADER_LAENGE = MAGIC.length + 4 + SALT_LAENGE + SALT_LAENGE + IV_LAENGE;
+	public static final int HEADER_LAENGE_V1 = MAGIC_V1.length + 4 + SALT_LAENGE + IV_LAENGE;
+
+	static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+	static final String MAC_ALGORITHMUS = "HmacSHA256";
+	static final String ZWECK = "CPAESS02";
+
+	private static final SecureRandom ZUFALL = new SecureRandom();
+
+	private AesStreamFormat() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Prüft, ob die Datei mit dem Magic des Stream-Formats beginnt.
+	 * @param f - die zu prüfende Datei
+	 * @return true, wenn es eine Stream-Datei ist, false für alles andere (z.B. das alte CryptoHID-Format)
+	 * @throws IOException
+	 */
+	public static boolean istStreamFormat(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			return istStreamFormat(leseKopf(in, MAGIC.length));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Prüft, ob die übergebenen Bytes mit dem Magic des Stream-Formats (Version 1 oder 2) beginnen.
+	 * @param kopf - die ersten Bytes der Daten
+	 * @return true, wenn es Stream-Daten sind
+	 */
+	public static boolean istStreamFormat(byte[] kopf) {
+		return beginntMit(kopf, MAGIC) || beginntMit(kopf, MAGIC_V1);
+	}
+
+	static boolean beginntMit(byte[] kopf, byte[] magic) {
+		if (kopf == null || kopf.length < magic.length) {
+			return false;
+		}
+		return Arrays.equals(magic, Arrays.copyOf(kopf, magic.length));
+	}
+
+	/**
+	 * Liest bis zu <i>anzahl</i> Bytes. Weniger nur dann, wenn der Stream vorher zu Ende ist.
+	 */
+	static byte[] leseKopf(InputStream in, int anzahl) throws IOException {
+		byte[] kopf = new byte[anzahl];
+		int gelesen = 0;
+		while (gelesen < anzahl) {
+			int len = in.read(kopf, gelesen, anzahl - gelesen);
+			if (len < 0) {
+				return Arrays.copyOf(kopf, gelesen);
+			}
+			gelesen += len;
+		}
+		return kopf;
+	}
+
+	static byte[] zufallsBytes(int laenge) {
+		byte[] b = new byte[laenge];
+		ZUFALL.nextBytes(b);
+		return b;
+	}
+
+	/**
+	 * Baut einen Header der aktuellen Version mit frischem Datei-Salt und IV.
+	 */
+	static byte[] baueHeader(Schluesselverwaltung sv) {
+		byte[] header = new byte[HEADER_LAENGE];
+		int pos = 0;
+		System.arraycopy(MAGIC, 0, header, pos, MAGIC.length);
+		pos += MAGIC.length;
+		schreibeInt(header, pos, sv.getIterationen());
+		pos += 4;
+		System.arraycopy(sv.getMasterSalt(), 0, header, pos, SALT_LAENGE);
+		pos += SALT_LAENGE;
+		System.arraycopy(zufallsBytes(SALT_LAENGE), 0, header, pos, SALT_LAENGE);
+		pos += SALT_LAENGE;
+		System.arraycopy(zufallsBytes(IV_LAENGE), 0, header, pos, IV_LAENGE);
+		return header;
+	}
+
+	/**
+	 * @param magic - die ersten 8 Bytes
+	 * @return die Länge des ganzen Headers für diese Version, -1 wenn es kein Stream-Format ist
+	 */
+	static int headerLaenge(byte[] magic) {
+		if (beginntMit(magic, MAGIC)) {
+			return HEADER_LAENGE;
+		}
+		if (beginntMit(magic, MAGIC_V1)) {
+			return HEADER_LAENGE_V1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Leitet zu einem Header die 64 Bytes Schlüsselmaterial ab: die ersten 32 für AES, die zweiten 32 für den HMAC.
+	 */
+	static byte[] leiteSchluesselAb(Schluesselverwaltung sv, byte[] header) throws GeneralSecurityException, IOException {
+		int iterationen = leseIterationen(header);
+		int pos = MAGIC.length + 4;
+		if (beginntMit(header, MAGIC_V1)) {
+			return sv.leiteDirektAb(Arrays.copyOfRange(header, pos, pos + SALT_LAENGE), iterationen, 64);
+		}
+		byte[] masterSalt = Arrays.copyOfRange(header, pos, pos + SALT_LAENGE);
+		byte[] dateiSalt = Arrays.copyOfRange(header, pos + SALT_LAENGE, pos + 2 * SALT_LAENGE);
+		return sv.leiteDateiSchluesselAb(masterSalt, iterationen, dateiSalt, ZWECK, 64);
+	}
+
+	/**
+	 * Liest die Iterationen aus einem Header (Stream- oder Container-Format, sie stehen immer direkt nach der Magic).
+	 * @throws IOException wenn sie außerhalb von {@link #MIN_ITERATIONEN} bis {@link #MAX_ITERATIONEN} liegen
+	 */
+	static int leseIterationen(byte[] header) throws IOException {
+		int iterationen = leseInt(header, MAGIC.length);
+		if (iterationen < MIN_ITERATIONEN || iterationen > MAX_ITERATIONEN) {
+			throw new IOException("Unplausible Anzahl PBKDF2-Iterationen im Header: " + iterationen);
+		}
+		return iterationen;
+	}
+
+	/**
+	 * @return der IV, der immer am Ende des Headers steht
+	 */
+	static byte[] iv(byte[] header) {
+		return Arrays.copyOfRange(header, header.length - IV_LAENGE, header.length);
+	}
+
+	static Cipher erzeugeCipher(int modus, byte[] schluessel, byte[] iv) throws GeneralSecurityException {
+		Cipher c = Cipherauswahl.fuer(AesFormat.STREAM).cipher(CIPHER_TRANSFORMATION);
+		c.init(modus, new SecretKeySpec(schluessel, 0, 32, "AES"), new IvParameterSpec(iv));
+		return c;
+	}
+
+	static Mac erzeugeMac(byte[] schluessel) throws GeneralSecurityException {
+		Mac m = Cipherauswahl.fuer(AesFormat.STREAM).mac(MAC_ALGORITHMUS);
+		m.init(new SecretKeySpec(schluessel, 32, 32, MAC_ALGORITHMUS));
+		return m;
+	}
+
+	static void schreibeInt(byte[] ziel, int offset, int wert) {
+		ziel[offset] = (byte) (wert >>> 24);
+		ziel[offset + 1] = (byte) (wert >>> 16);
+		ziel[offset + 2] = (byte) (wert >>> 8);
+		ziel[offset + 3] = (byte) wert;
+	}
+
+	static int leseInt(byte[] quelle, int offset) {
+		return ((quelle[offset] & 0xFF) << 24) | ((quelle[offset + 1] & 0xFF) << 16)
+				| ((quelle[offset + 2] & 0xFF) << 8) | (quelle[offset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,176 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * Ver- und entschlüsselt Dateien im {@link AesStreamFormat} direkt zwischen zwei FileChannels, ohne Streams und ohne
+ * byte-Arrays im Heap. Die Quelle wird fensterweise in den Speicher gemappt, das Chiffrat (bzw. der Klartext) geht über
+ * einen direct ByteBuffer des Aufrufers in den Ziel-Channel.
+ * <br/>Das Ergebnis ist Byte für Byte das gleiche Format wie bei {@link AesVerschluesselungsStream} und
+ * {@link AesEntschluesselungsStream}, die Dateien sind also untereinander austauschbar. Die Größe ist nur durch das
+ * Dateisystem begrenzt, nicht durch die 2 GB eines Arrays.
+ * <br/>Wie beim Stream wird beim Entschlüsseln der Klartext geschrieben, <i>bevor</i> der HMAC geprüft ist. Wirft
+ * {@link #entschluessele(FileChannel, FileChannel, Schluesselverwaltung, ByteBuffer)} eine Exception, muss das Ziel
+ * weggeworfen werden.
+ * @author JavaAlchemist
+ *
+ */
+public class AesStreamKanal {
+
+	/**
+	 * So viel wird auf einmal gemappt. Mehr als 2 GB geht pro Mapping ohnehin nicht, und kleinere Fenster halten den
+	 * Adressraum klein, bis der GC die alten Mappings freigibt.
+	 */
+	public static final long FENSTER = 64L * 1024 * 1024;
+
+	private AesStreamKanal() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Verschlüsselt den ganzen Inhalt von <i>quelle</i> ab Position 0 und schreibt Header, Chiffrat und HMAC an die
+	 * aktuelle Position von <i>ziel</i>.
+	 * @param quelle - die Klartext-Datei, wird nicht geschlossen
+	 * @param ziel - die .AES256-Datei, wird nicht geschlossen
+	 * @param sv - liefert den Dateischlüssel
+	 * @param puffer - Arbeitspuffer, am besten direct; Inhalt wird überschrieben
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long verschluessele(FileChannel quelle, FileChannel ziel, Schluesselverwaltung sv, ByteBuffer puffer) throws IOException {
+		byte[] header = AesStreamFormat.baueHeader(sv);
+		Cipher cipher;
+		Mac mac;
+		byte[] schluessel = null;
+		try {
+			schluessel = AesStreamFormat.leiteSchluesselAb(sv, header);
+			cipher = AesStreamFormat.erzeugeCipher(Cipher.ENCRYPT_MODE, schluessel, AesStreamFormat.iv(header));
+			mac = AesStreamFormat.erzeugeMac(schluessel);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Verschlüsselung kann nicht initialisiert werden", e);
+		} finally {
+			if (schluessel != null) {
+				Arrays.fill(schluessel, (byte) 0);
+			}
+		}
+		mac.update(header);
+		schreibe(ziel, ByteBuffer.wrap(header));
+		long laenge = quelle.size();
+		for (long pos = 0; pos < laenge; pos += FENSTER) {
+			MappedByteBuffer fenster = quelle.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(FENSTER, laenge - pos));
+			while (fenster.hasRemaining()) {
+				bearbeite(cipher, fenster, puffer);
+				mac.update(puffer); // encrypt-then-MAC: über das Chiffrat
+				puffer.rewind();
+				schreibe(ziel, puffer);
+			}
+		}
+		try {
+			byte[] rest = cipher.doFinal(); // CTR hat keinen Rest
+			mac.update(rest);
+			schreibe(ziel, ByteBuffer.wrap(rest));
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Fehler beim Abschließen der Verschlüsselung", e);
+		}
+		schreibe(ziel, ByteBuffer.wrap(mac.doFinal()));
+		return laenge;
+	}
+
+	/**
+	 * Entschlüsselt den ganzen Inhalt von <i>quelle</i> (Version 1 oder 2 des Stream-Formats) an die aktuelle Position
+	 * von <i>ziel</i> und prüft am Ende den HMAC.
+	 * @param quelle - die .AES256-Datei, wird nicht geschlossen
+	 * @param ziel - die Klartext-Datei, wird nicht geschlossen
+	 * @param sv - liefert den Dateischlüssel zur Passphrase, mit der verschlüsselt wurde
+	 * @param puffer - Arbeitspuffer, am besten direct; Inhalt wird überschrieben
+	 * @return Anzahl der geschriebenen Klartext-Bytes
+	 * @throws IOException wenn Header oder HMAC nicht passen oder die Datei abgeschnitten ist
+	 */
+	public static long entschluessele(FileChannel quelle, FileChannel ziel, Schluesselverwaltung sv, ByteBuffer puffer) throws IOException {
+		long dateiLaenge = quelle.size();
+		int headerLaenge = dateiLaenge < AesStreamFormat.MAGIC.length ? -1
+				: AesStreamFormat.headerLaenge(lese(quelle, 0, AesStreamFormat.MAGIC.length));
+		if (headerLaenge < 0) {
+			throw new IOException("Kein gültiger Header im AES-Stream-Format");
+		}
+		if (dateiLaenge < headerLaenge + AesStreamFormat.MAC_LAENGE) {
+			throw new IOException("AES-Stream ist abgeschnitten");
+		}
+		byte[] header = lese(quelle, 0, headerLaenge);
+		Cipher cipher;
+		Mac mac;
+		byte[] schluessel = null;
+		try {
+			schluessel = AesStreamFormat.leiteSchluesselAb(sv, header);
+			cipher = AesStreamFormat.erzeugeCipher(Cipher.DECRYPT_MODE, schluessel, AesStreamFormat.iv(header));
+			mac = AesStreamFormat.erzeugeMac(schluessel);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Entschlüsselung kann nicht initialisiert werden", e);
+		} finally {
+			if (schluessel != null) {
+				Arrays.fill(schluessel, (byte) 0);
+			}
+		}
+		mac.update(header);
+		long ende = dateiLaenge - AesStreamFormat.MAC_LAENGE;
+		long geschrieben = 0;
+		for (long pos = headerLaenge; pos < ende; pos += FENSTER) {
+			MappedByteBuffer fenster = quelle.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(FENSTER, ende - pos));
+			mac.update(fenster.duplicate());
+			while (fenster.hasRemaining()) {
+				bearbeite(cipher, fenster, puffer);
+				geschrieben += schreibe(ziel, puffer);
+			}
+		}
+		byte[] erwartet = mac.doFinal();
+		if (!MessageDigest.isEqual(erwartet, lese(quelle, ende, AesStreamFormat.MAC_LAENGE))) {
+			throw new IOException("Integritätsprüfung fehlgeschlagen (falsche Passphrase oder Datei beschädigt)");
+		}
+		return geschrieben;
+	}
+
+	/**
+	 * Schickt höchstens einen Puffer voll aus <i>fenster</i> durch den Cipher. Danach steht das Ergebnis in
+	 * <i>puffer</i> (position 0, limit = Länge).
+	 */
+	private static void bearbeite(Cipher cipher, ByteBuffer fenster, ByteBuffer puffer) throws IOException {
+		puffer.clear();
+		ByteBuffer stueck = fenster.slice();
+		int n = Math.min(stueck.remaining(), puffer.capacity());
+		stueck.limit(n);
+		try {
+			cipher.update(stueck, puffer); // CTR: Ausgabe ist genau so lang wie die Eingabe
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Fehler beim Ver- oder Entschlüsseln", e);
+		}
+		fenster.position(fenster.position() + n);
+		puffer.flip();
+	}
+
+	private static int schreibe(FileChannel ziel, ByteBuffer bb) throws IOException {
+		int n = bb.remaining();
+		while (bb.hasRemaining()) {
+			ziel.write(bb);
+		}
+		return n;
+	}
+
+	private static byte[] lese(FileChannel kanal, long position, int laenge) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(laenge);
+		while (bb.hasRemaining()) {
+			if (kanal.read(bb, position + bb.position()) < 0) {
+				throw new IOException("AES-Stream ist abgeschnitten");
+			}
+		}
+		return bb.array();
+	}
+}
@@ -0,0 +1,95 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * Verschlüsselt alles, was hineingeschrieben wird, im {@link AesStreamFormat} und reicht es an den darunterliegenden
+ * Stream weiter. Der Puffer hat eine feste Größe, egal wie groß die Daten insgesamt sind.
+ * <br/>Erst beim <i>close()</i> wird der HMAC angehängt. Ohne close() ist die Datei also unbrauchbar.
+ * @author JavaAlchemist
+ *
+ */
+public class AesVerschluesselungsStream extends FilterOutputStream {
+
+	private final Cipher cipher;
+	private final Mac mac;
+	private final byte[] chiffrat;
+	private boolean geschlossen = false;
+
+	/**
+	 * Schreibt sofort den Header in den Ziel-Stream.
+	 * @param out - Ziel für Header, Chiffrat und HMAC
+	 * @param sv - liefert den Dateischlüssel
+	 * @param puffergroesse - Größe des Arbeitspuffers in Bytes
+	 * @throws IOException
+	 */
+	public AesVerschluesselungsStream(OutputStream out, Schluesselverwaltung sv, int puffergroesse) throws IOException {
+		super(out);
+		byte[] header = AesStreamFormat.baueHeader(sv);
+		byte[] schluessel = null;
+		try {
+			schluessel = AesStreamFormat.leiteSchluesselAb(sv, header);
+			this.cipher = AesStreamFormat.erzeugeCipher(Cipher.ENCRYPT_MODE, schluessel, AesStreamFormat.iv(header));
+			this.mac = AesStreamFormat.erzeugeMac(schluessel);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Verschlüsselung kann nicht initialisiert werden", e);
+		} finally {
+			if (schluessel != null) {
+				Arrays.fill(schluessel, (byte) 0);
+			}
+		}
+		this.chiffrat = new byte[puffergroesse];
+		mac.update(header);
+		out.write(header);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (geschlossen) {
+			throw new IOException("Stream ist bereits geschlossen");
+		}
+		while (len > 0) {
+			int stueck = Math.min(len, chiffrat.length);
+			int n;
+			try {
+				n = cipher.update(b, off, stueck, chiffrat, 0);
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Fehler beim Verschlüsseln", e);
+			}
+			mac.update(chiffrat, 0, n);
+			out.write(chiffrat, 0, n);
+			off += stueck;
+			len -= stueck;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (geschlossen) {
+			return;
+		}
+		geschlossen = true;
+		try {
+			byte[] rest = cipher.doFinal(); // CTR hat keinen Rest, aber sauber ist sauber
+			mac.update(rest);
+			out.write(rest);
+			out.write(mac.doFinal());
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Fehler beim Abschließen der Verschlüsselung", e);
+		} finally {
+			out.close();
+		}
+	}
+}
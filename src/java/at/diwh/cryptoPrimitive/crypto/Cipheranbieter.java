@@ -0,0 +1,41 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * Liefert die Cipher- und Mac-Instanzen für die eigenen Formate (Stream und Container). Welcher Anbieter genommen wird,
+ * entscheidet {@link Cipherauswahl} einmal pro Format und Lauf.
+ * <br/>Ein Anbieter muss zu den Formaten passen, d.h. Dateien, die er schreibt, muss jeder andere Anbieter lesen können
+ * und umgekehrt. Das prüft die Auswahl, bevor sie einen Anbieter nimmt.
+ * @author JavaAlchemist
+ *
+ */
+public interface Cipheranbieter {
+
+	/**
+	 * @return der Name für Ausgaben und die Option <code>--cipher</code>
+	 */
+	String getName();
+
+	/**
+	 * @return false, wenn der Anbieter in dieser JVM fehlt (z.B. BouncyCastle nicht im Classpath)
+	 */
+	boolean istVerfuegbar();
+
+	/**
+	 * @param transformation - z.B. <code>AES/GCM/NoPadding</code>
+	 * @return eine neue, nicht initialisierte Instanz
+	 * @throws GeneralSecurityException wenn der Anbieter die Transformation nicht kennt
+	 */
+	Cipher cipher(String transformation) throws GeneralSecurityException;
+
+	/**
+	 * @param algorithmus - z.B. <code>HmacSHA256</code>
+	 * @return eine neue, nicht initialisierte Instanz
+	 * @throws GeneralSecurityException wenn der Anbieter den Algorithmus nicht kennt
+	 */
+	Mac mac(String algorithmus) throws GeneralSecurityException;
+}
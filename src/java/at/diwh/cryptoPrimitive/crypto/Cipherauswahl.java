@@ -0,0 +1,294 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Wählt pro Format einmal den {@link Cipheranbieter}, über den alle Dateien des Laufs ver- und entschlüsselt werden.
+ * <br/>SunJCE bekommt von HotSpot Intrinsics für AES, CTR und GHASH (AES-NI, CLMUL, auf ARM die Crypto-Extensions),
+ * BouncyCastle rechnet AES in reinem Java. Vorgabe <code>auto</code>:
+ * <br/>___ nur Anbieter, die verfügbar sind und zum Format passen (Round Trip mit dem Standard-Provider der JVM in beide
+ * Richtungen),
+ * <br/>___ sind die Intrinsics für das Format eingeschaltet, gewinnt SunJCE ohne Messung,
+ * <br/>___ sonst läuft ein kurzer Vergleich (je ca. {@link #MESSDAUER_MS} ms Aufwärmen und Messen über
+ * {@link #PROBE_GROESSE} Bytes), der schnellste gewinnt.
+ * <br/>Mit <code>messen</code> wird immer gemessen, <code>sunjce</code> bzw. <code>bc</code> erzwingen einen Anbieter. Die
+ * Vorgabe kommt aus {@link #setVorgabe(String)} oder der System-Property {@link #PROPERTY}.
+ * <br/>Die Messung ist grob (der JIT ist nach 50 ms nicht fertig), für die Wahl zwischen Faktor 1 und Faktor 5 reicht sie.
+ * Gleichstand geht an SunJCE. Das alte CryptoHID-Format ist eine fremde Bibliothek und läuft an der Auswahl vorbei.
+ * @author JavaAlchemist
+ *
+ */
+public class Cipherauswahl {
+
+	public static final String PROPERTY = "cryptoPrimitive.cipher";
+	public static final Cipheranbieter SUNJCE = new JcaAnbieter("sunjce", "SunJCE");
+	public static final Cipheranbieter BOUNCYCASTLE = new JcaAnbieter("bc", "BC");
+	public static final int PROBE_GROESSE = 64 * 1024;
+	public static final long MESSDAUER_MS = 50;
+
+	private static final List<String> VORGABEN = Arrays.asList("auto", "messen", "sunjce", "bc");
+	private static final byte[] PROBE_SCHLUESSEL = new byte[64];
+	private static final byte[] PROBE_IV = new byte[16];
+
+	// eine falsche System-Property fällt erst bei der ersten Auswahl auf, nicht schon beim Laden der Klasse
+	private static String vorgabe = System.getProperty(PROPERTY, "auto");
+	private static final Map<AesFormat, Cipheranbieter> gewaehlt = new EnumMap<AesFormat, Cipheranbieter>(AesFormat.class);
+	private static final Map<AesFormat, String> begruendung = new EnumMap<AesFormat, String>(AesFormat.class);
+
+	static {
+		for (int i = 0; i < PROBE_SCHLUESSEL.length; i++) {
+			PROBE_SCHLUESSEL[i] = (byte) (i * 7 + 1);
+		}
+		for (int i = 0; i < PROBE_IV.length; i++) {
+			PROBE_IV[i] = (byte) (0xA0 + i);
+		}
+	}
+
+	private Cipherauswahl() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Setzt die Vorgabe für den Rest des Laufs und verwirft schon getroffene Entscheidungen.
+	 * @param wert - <code>auto</code>, <code>messen</code>, <code>sunjce</code> oder <code>bc</code>, Groß/Klein egal
+	 * @throws IllegalArgumentException für andere Werte
+	 */
+	public static synchronized void setVorgabe(String wert) {
+		vorgabe = normalisiere(wert);
+		gewaehlt.clear();
+		begruendung.clear();
+	}
+
+	/**
+	 * Liefert den Anbieter für ein Format. Beim ersten Aufruf pro Format wird entschieden (und eventuell gemessen),
+	 * danach kommt das Ergebnis aus dem Cache.
+	 * @param format - STREAM oder CONTAINER
+	 * @return der Anbieter
+	 * @throws IllegalArgumentException für LEGACY
+	 * @throws IllegalStateException wenn der erzwungene Anbieter fehlt oder nicht zum Format passt, oder gar keiner passt
+	 */
+	public static synchronized Cipheranbieter fuer(AesFormat format) {
+		if (format == AesFormat.LEGACY) {
+			throw new IllegalArgumentException("Das Format LEGACY läuft über CryptoHID, nicht über einen Cipheranbieter");
+		}
+		Cipheranbieter a = gewaehlt.get(format);
+		if (a == null) {
+			a = waehle(format);
+			gewaehlt.put(format, a);
+		}
+		return a;
+	}
+
+	/**
+	 * @param format - STREAM oder CONTAINER
+	 * @return eine Zeile für die Konsole: Anbieter und warum er gewählt wurde
+	 */
+	public static synchronized String beschreibung(AesFormat format) {
+		Cipheranbieter a = fuer(format);
+		return format + ": " + a + ", " + begruendung.get(format);
+	}
+
+	/**
+	 * Verschlüsselt die Probe so, wie das Format es tut (CTR plus HMAC bzw. GCM mit AAD). Öffentlich, damit der
+	 * JMH-Benchmark genau dasselbe misst wie die Auswahl.
+	 * @param format - STREAM oder CONTAINER
+	 * @param anbieter - null für den Standard-Provider der JVM
+	 * @param daten - Klartext
+	 * @return das Chiffrat (bei STREAM mit angehängtem HMAC)
+	 * @throws GeneralSecurityException
+	 */
+	public static byte[] verschluesseleProbe(AesFormat format, Cipheranbieter anbieter, byte[] daten) throws GeneralSecurityException {
+		Cipher c = cipher(format, anbieter, Cipher.ENCRYPT_MODE);
+		if (format == AesFormat.CONTAINER) {
+			return c.doFinal(daten);
+		}
+		byte[] ergebnis = Arrays.copyOf(c.doFinal(daten), daten.length + AesStreamFormat.MAC_LAENGE);
+		Mac m = mac(anbieter);
+		m.update(ergebnis, 0, daten.length);
+		System.arraycopy(m.doFinal(), 0, ergebnis, daten.length, AesStreamFormat.MAC_LAENGE);
+		return ergebnis;
+	}
+
+	/**
+	 * Umkehrung von {@link #verschluesseleProbe(AesFormat, Cipheranbieter, byte[])}.
+	 * @throws GeneralSecurityException auch wenn Tag oder HMAC nicht stimmen
+	 */
+	static byte[] entschluesseleProbe(AesFormat format, Cipheranbieter anbieter, byte[] chiffrat) throws GeneralSecurityException {
+		Cipher c = cipher(format, anbieter, Cipher.DECRYPT_MODE);
+		if (format == AesFormat.CONTAINER) {
+			return c.doFinal(chiffrat);
+		}
+		int laenge = chiffrat.length - AesStreamFormat.MAC_LAENGE;
+		Mac m = mac(anbieter);
+		m.update(chiffrat, 0, laenge);
+		if (!MessageDigest.isEqual(m.doFinal(), Arrays.copyOfRange(chiffrat, laenge, chiffrat.length))) {
+			throw new GeneralSecurityException("HMAC der Probe stimmt nicht");
+		}
+		return c.doFinal(chiffrat, 0, laenge);
+	}
+
+	private static Cipheranbieter waehle(AesFormat format) {
+		vorgabe = normalisiere(vorgabe);
+		if (!"auto".equals(vorgabe) && !"messen".equals(vorgabe)) {
+			Cipheranbieter a = "bc".equals(vorgabe) ? BOUNCYCASTLE : SUNJCE;
+			if (!a.istVerfuegbar() || !istKompatibel(format, a)) {
+				throw new IllegalStateException("Cipher-Anbieter " + a.getName() + " ist nicht verfügbar oder passt nicht zum Format " + format);
+			}
+			begruendung.put(format, "vorgegeben");
+			return a;
+		}
+		List<Cipheranbieter> kandidaten = new ArrayList<Cipheranbieter>();
+		for (Cipheranbieter a : new Cipheranbieter[] { SUNJCE, BOUNCYCASTLE }) {
+			if (a.istVerfuegbar() && istKompatibel(format, a)) {
+				kandidaten.add(a);
+			}
+		}
+		if (kandidaten.isEmpty()) {
+			throw new IllegalStateException("Kein Cipher-Anbieter passt zum Format " + format);
+		}
+		if (kandidaten.size() == 1) {
+			begruendung.put(format, "einziger passender Anbieter");
+			return kandidaten.get(0);
+		}
+		if ("auto".equals(vorgabe) && kandidaten.get(0) == SUNJCE && hatIntrinsics(format)) {
+			begruendung.put(format, "AES-Intrinsics der JVM aktiv");
+			return SUNJCE;
+		}
+		Cipheranbieter bester = null;
+		double besterDurchsatz = 0;
+		StringBuilder sb = new StringBuilder("gemessen");
+		for (Cipheranbieter a : kandidaten) {
+			double mbs = messe(format, a);
+			sb.append(String.format(Locale.ROOT, " %s=%.0f MB/s", a.getName(), mbs));
+			// strikt größer: bei Gleichstand bleibt der erste, also SunJCE
+			if (bester == null || mbs > besterDurchsatz) {
+				bester = a;
+				besterDurchsatz = mbs;
+			}
+		}
+		begruendung.put(format, sb.toString());
+		return bester;
+	}
+
+	/**
+	 * Der Anbieter muss mit dem Standard-Provider der JVM in beide Richtungen dasselbe ergeben.
+	 */
+	private static boolean istKompatibel(AesFormat format, Cipheranbieter a) {
+		byte[] probe = new byte[4099];
+		for (int i = 0; i < probe.length; i++) {
+			probe[i] = (byte) (i * 31);
+		}
+		try {
+			return Arrays.equals(probe, entschluesseleProbe(format, null, verschluesseleProbe(format, a, probe)))
+					&& Arrays.equals(probe, entschluesseleProbe(format, a, verschluesseleProbe(format, null, probe)));
+		} catch (GeneralSecurityException e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Fragt HotSpot, ob SunJCE für das Format Intrinsics bekommt. <code>UseAES</code> schaltet die JVM nur ein, wenn die
+	 * CPU die Befehle hat. Die eigentlichen Intrinsics-Schalter sind Diagnose-Optionen und nur mit
+	 * <code>-XX:+UnlockDiagnosticVMOptions</code> sichtbar, dann zählt auch ihr Wert, sonst gilt ihr Standard (an).
+	 * Andere JVMs (oder ein fehlendes jdk.management) zählen als nein.
+	 */
+	private static boolean hatIntrinsics(AesFormat format) {
+		try {
+			HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			if (hotspot == null || !"true".equals(hotspot.getVMOption("UseAES").getValue())) {
+				return false;
+			}
+			String zweite = format == AesFormat.CONTAINER ? "UseGHASHIntrinsics" : "UseAESCTRIntrinsics";
+			return istNichtAus(hotspot, "UseAESIntrinsics") && istNichtAus(hotspot, zweite);
+		} catch (RuntimeException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static boolean istNichtAus(HotSpotDiagnosticMXBean hotspot, String option) {
+		try {
+			return !"false".equals(hotspot.getVMOption(option).getValue());
+		} catch (IllegalArgumentException e) {
+			// Diagnose-Option ohne UnlockDiagnosticVMOptions
+			return true;
+		}
+	}
+
+	/**
+	 * @return Durchsatz in MB/s nach kurzem Aufwärmen, 0 wenn der Anbieter dabei scheitert
+	 */
+	private static double messe(AesFormat format, Cipheranbieter a) {
+		byte[] probe = new byte[PROBE_GROESSE];
+		try {
+			laufe(format, a, probe, MESSDAUER_MS);
+			long start = System.nanoTime();
+			long runden = laufe(format, a, probe, MESSDAUER_MS);
+			double sekunden = (System.nanoTime() - start) / 1e9;
+			return runden * (double) PROBE_GROESSE / (1024.0 * 1024.0) / sekunden;
+		} catch (GeneralSecurityException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Verschlüsselt die Probe so oft, bis die Zeit um ist.
+	 * @return die Anzahl der Durchläufe
+	 */
+	private static long laufe(AesFormat format, Cipheranbieter a, byte[] probe, long millis) throws GeneralSecurityException {
+		long ende = System.nanoTime() + millis * 1000000L;
+		long runden = 0;
+		do {
+			// das erste Byte ändern, damit der JIT nichts wegoptimiert
+			probe[0] ^= verschluesseleProbe(format, a, probe)[0];
+			runden++;
+		} while (System.nanoTime() < ende);
+		return runden;
+	}
+
+	private static Cipher cipher(AesFormat format, Cipheranbieter anbieter, int modus) throws GeneralSecurityException {
+		String transformation = format == AesFormat.CONTAINER ? AesContainerFormat.CIPHER_TRANSFORMATION : AesStreamFormat.CIPHER_TRANSFORMATION;
+		Cipher c = anbieter == null ? Cipher.getInstance(transformation) : anbieter.cipher(transformation);
+		SecretKeySpec schluessel = new SecretKeySpec(PROBE_SCHLUESSEL, 0, 32, "AES");
+		if (format == AesFormat.CONTAINER) {
+			c.init(modus, schluessel, new GCMParameterSpec(AesContainerFormat.TAG_LAENGE * 8, PROBE_IV, 0, 12));
+			c.updateAAD(PROBE_IV);
+		} else {
+			c.init(modus, schluessel, new IvParameterSpec(PROBE_IV));
+		}
+		return c;
+	}
+
+	private static Mac mac(Cipheranbieter anbieter) throws GeneralSecurityException {
+		Mac m = anbieter == null ? Mac.getInstance(AesStreamFormat.MAC_ALGORITHMUS) : anbieter.mac(AesStreamFormat.MAC_ALGORITHMUS);
+		m.init(new SecretKeySpec(PROBE_SCHLUESSEL, 32, 32, AesStreamFormat.MAC_ALGORITHMUS));
+		return m;
+	}
+
+	private static String normalisiere(String wert) {
+		String w = wert == null ? "auto" : wert.trim().toLowerCase(Locale.ROOT);
+		if (!VORGABEN.contains(w)) {
+			throw new IllegalArgumentException("Unbekannter Cipher-Anbieter " + wert + ", erlaubt: " + VORGABEN);
+		}
+		return w;
+	}
+}
@@ -0,0 +1,96 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * Ein {@link Cipheranbieter} über einen fest gewählten JCA-Provider. Der Provider wird beim ersten Zugriff geholt und
+ * dann direkt an <i>getInstance</i> übergeben, damit nicht jedes Mal die Provider-Liste durchsucht wird.
+ * <br/>SunJCE ist in jeder JVM eingetragen. BouncyCastle wird, wenn es nicht schon jemand eingetragen hat, aus dem
+ * Classpath instanziert (ohne es global einzutragen). Fehlt die Klasse, ist der Anbieter nicht verfügbar.
+ * @author JavaAlchemist
+ *
+ */
+public class JcaAnbieter implements Cipheranbieter {
+
+	private static final String BC_KLASSE = "org.bouncycastle.jce.provider.BouncyCastleProvider";
+
+	private final String name;
+	private final String providerName;
+	private volatile Provider provider;
+	private volatile boolean gesucht = false;
+
+	/**
+	 * @param name - Name für die Kommandozeile
+	 * @param providerName - Name des JCA-Providers, z.B. <code>SunJCE</code> oder <code>BC</code>
+	 */
+	public JcaAnbieter(String name, String providerName) {
+		this.name = name;
+		this.providerName = providerName;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean istVerfuegbar() {
+		return provider() != null;
+	}
+
+	@Override
+	public Cipher cipher(String transformation) throws GeneralSecurityException {
+		return Cipher.getInstance(transformation, vorhandenerProvider());
+	}
+
+	@Override
+	public Mac mac(String algorithmus) throws GeneralSecurityException {
+		return Mac.getInstance(algorithmus, vorhandenerProvider());
+	}
+
+	@Override
+	public String toString() {
+		Provider p = provider();
+		return p == null ? name + " (nicht verfügbar)" : name + " (" + p.getName() + " " + p.getVersionStr() + ")";
+	}
+
+	private Provider vorhandenerProvider() throws NoSuchProviderException {
+		Provider p = provider();
+		if (p == null) {
+			throw new NoSuchProviderException("Provider " + providerName + " ist nicht verfügbar");
+		}
+		return p;
+	}
+
+	private Provider provider() {
+		if (!gesucht) {
+			synchronized (this) {
+				if (!gesucht) {
+					provider = suche(providerName);
+					gesucht = true;
+				}
+			}
+		}
+		return provider;
+	}
+
+	private static Provider suche(String providerName) {
+		Provider p = Security.getProvider(providerName);
+		if (p != null || !"BC".equals(providerName)) {
+			return p;
+		}
+		try {
+			return (Provider) Class.forName(BC_KLASSE).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+}
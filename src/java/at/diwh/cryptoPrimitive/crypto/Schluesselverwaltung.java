@@ -0,0 +1,222 @@
+package at.diwh.cryptoPrimitive.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+
+/**
+ * Verwaltet die Schlüssel eines Programmlaufs. Die teure Passphrase-Ableitung (PBKDF2) läuft pro Master-Salt genau
+ * einmal, jede Datei bekommt ihren eigenen Schlüssel billig per HKDF aus dem Master-Schlüssel und einem Datei-Salt.
+ * <br/>Beim Verschlüsseln verwenden alle Dateien eines Laufs denselben Master-Salt, d.h. ein Batch mit tausenden Dateien
+ * kostet so viel KDF wie eine einzige Datei. Beim Entschlüsseln liegen die Master-Schlüssel in einem kleinen LRU-Cache
+ * (nach Master-Salt), verdrängte Schlüssel werden mit Nullen überschrieben, <i>close()</i> löscht alles.
+ * <br/>Die Methoden sind thread-safe, eine Instanz kann also von allen Workern gemeinsam benutzt werden.
+ * @author JavaAlchemist
+ *
+ */
+public class Schluesselverwaltung implements AutoCloseable {
+
+	public static final int CACHE_GROESSE = 8;
+	public static final int MASTER_LAENGE = 32;
+
+	private static final String KDF_ALGORITHMUS = "PBKDF2WithHmacSHA256";
+	private static final String HKDF_MAC = "HmacSHA256";
+
+	private final char[] passphrase;
+	private final int iterationen;
+	private final byte[] masterSalt;
+	private final Map<String, byte[]> masterCache = new LinkedHashMap<String, byte[]>(CACHE_GROESSE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			if (size() > CACHE_GROESSE) {
+				Arrays.fill(eldest.getValue(), (byte) 0);
+				return true;
+			}
+			return false;
+		}
+	};
+	private int anzahlAbleitungen = 0;
+	private boolean geschlossen = false;
+
+	/**
+	 * @param passphrase - die Passphrase des Laufs
+	 */
+	public Schluesselverwaltung(String passphrase) {
+		this(passphrase, AesStreamFormat.ITERATIONEN);
+	}
+
+	/**
+	 * @param passphrase - die Passphrase des Laufs
+	 * @param iterationen - PBKDF2-Iterationen für neue Dateien, {@link AesStreamFormat#MIN_ITERATIONEN} bis
+	 * {@link AesStreamFormat#MAX_ITERATIONEN} - mehr oder weniger würde beim Lesen abgelehnt
+	 */
+	public Schluesselverwaltung(String passphrase, int iterationen) {
+		if (iterationen < AesStreamFormat.MIN_ITERATIONEN || iterationen > AesStreamFormat.MAX_ITERATIONEN) {
+			throw new IllegalArgumentException("PBKDF2-Iterationen außerhalb des erlaubten Bereichs: " + iterationen);
+		}
+		this.passphrase = passphrase.toCharArray();
+		this.iterationen = iterationen;
+		this.masterSalt = AesStreamFormat.zufallsBytes(AesStreamFormat.SALT_LAENGE);
+	}
+
+	/**
+	 * Für die Stellen, die nur mit der Passphrase selbst umgehen können (CryptoHID).
+	 * @return die Passphrase
+	 */
+	public synchronized String getPassphrase() {
+		pruefeOffen();
+		return new String(passphrase);
+	}
+
+	/**
+	 * @return wie oft PBKDF2 tatsächlich gelaufen ist (für Statistik und Tests)
+	 */
+	public synchronized int getAnzahlAbleitungen() {
+		return anzahlAbleitungen;
+	}
+
+	int getIterationen() {
+		return iterationen;
+	}
+
+	/**
+	 * @return eine Kopie des Master-Salts, der in neue Dateien geschrieben wird
+	 */
+	byte[] getMasterSalt() {
+		return masterSalt.clone();
+	}
+
+	/**
+	 * Leitet einen Dateischlüssel ab: HKDF-SHA256 mit dem Master-Schlüssel als Eingabe, dem Datei-Salt als Salt
+	 * und dem Zweck als Info. Der Aufrufer soll das Ergebnis nach Gebrauch mit Nullen überschreiben.
+	 * @param masterSalt - Salt der Passphrase-Ableitung (aus dem Dateiheader)
+	 * @param iterationen - PBKDF2-Iterationen (aus dem Dateiheader)
+	 * @param dateiSalt - Salt der Datei
+	 * @param zweck - unterscheidet die Formate, damit ein Schlüssel nie für zwei Zwecke verwendet wird
+	 * @param laenge - gewünschte Schlüssellänge in Bytes
+	 * @return der Dateischlüssel
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] leiteDateiSchluesselAb(byte[] masterSalt, int iterationen, byte[] dateiSalt, String zweck, int laenge) 
+			throws GeneralSecurityException {
+		byte[] master = masterSchluessel(masterSalt, iterationen);
+		long t = Metriken.start();
+		try {
+			byte[] schluessel = hkdf(master, dateiSalt, zweck.getBytes(StandardCharsets.US_ASCII), laenge);
+			Metriken.erfasse(Messpunkt.DATEISCHLUESSEL, t, 0, 0);
+			return schluessel;
+		} finally {
+			Arrays.fill(master, (byte) 0);
+		}
+	}
+
+	/**
+	 * Direkte PBKDF2-Ableitung ohne Master-Schlüssel, so wie sie die Formate der Version 1 brauchen.
+	 * @param salt - Salt der Datei
+	 * @param iterationen - PBKDF2-Iterationen
+	 * @param laenge - gewünschte Länge in Bytes
+	 * @return das Schlüsselmaterial
+	 * @throws GeneralSecurityException
+	 */
+	byte[] leiteDirektAb(byte[] salt, int iterationen, int laenge) throws GeneralSecurityException {
+		char[] pw;
+		synchronized (this) {
+			pruefeOffen();
+			anzahlAbleitungen++;
+			pw = passphrase.clone();
+		}
+		try {
+			return pbkdf2(pw, salt, iterationen, laenge);
+		} finally {
+			Arrays.fill(pw, '\0');
+		}
+	}
+
+	/**
+	 * Holt den Master-Schlüssel aus dem Cache oder leitet ihn ab. Liefert immer eine Kopie.
+	 */
+	private synchronized byte[] masterSchluessel(byte[] salt, int iter) throws GeneralSecurityException {
+		pruefeOffen();
+		String schluessel = iter + ":" + Arrays.toString(salt);
+		byte[] master = masterCache.get(schluessel);
+		if (master == null) {
+			// bewusst im Lock: parallele Worker sollen nicht alle gleichzeitig denselben Schlüssel ableiten
+			anzahlAbleitungen++;
+			master = pbkdf2(passphrase, salt, iter, MASTER_LAENGE);
+			masterCache.put(schluessel, master);
+		}
+		return master.clone();
+	}
+
+	private static byte[] pbkdf2(char[] pw, byte[] salt, int iter, int laenge) throws GeneralSecurityException {
+		long t = Metriken.start();
+		PBEKeySpec spec = new PBEKeySpec(pw, salt, iter, laenge * 8);
+		try {
+			byte[] schluessel = SecretKeyFactory.getInstance(KDF_ALGORITHMUS).generateSecret(spec).getEncoded();
+			Metriken.erfasse(Messpunkt.KDF, t, 0, 0);
+			return schluessel;
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * HKDF nach RFC 5869 (Extract und Expand) mit HMAC-SHA256.
+	 */
+	static byte[] hkdf(byte[] eingabe, byte[] salt, byte[] info, int laenge) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(HKDF_MAC);
+		mac.init(new SecretKeySpec(salt, HKDF_MAC));
+		byte[] prk = mac.doFinal(eingabe);
+		try {
+			mac.init(new SecretKeySpec(prk, HKDF_MAC));
+			byte[] ergebnis = new byte[laenge];
+			byte[] t = new byte[0];
+			int pos = 0;
+			for (int i = 1; pos < laenge; i++) {
+				mac.update(t);
+				mac.update(info);
+				mac.update((byte) i);
+				t = mac.doFinal();
+				int stueck = Math.min(t.length, laenge - pos);
+				System.arraycopy(t, 0, ergebnis, pos, stueck);
+				pos += stueck;
+			}
+			Arrays.fill(t, (byte) 0);
+			return ergebnis;
+		} finally {
+			Arrays.fill(prk, (byte) 0);
+		}
+	}
+
+	private void pruefeOffen() {
+		if (geschlossen) {
+			throw new IllegalStateException("Schlüsselverwaltung ist bereits geschlossen");
+		}
+	}
+
+	/**
+	 * Überschreibt Passphrase und alle Master-Schlüssel mit Nullen. Danach ist die Instanz unbrauchbar.
+	 */
+	@Override
+	public synchronized void close() {
+		geschlossen = true;
+		Arrays.fill(passphrase, '\0');
+		for (Iterator<byte[]> it = masterCache.values().iterator(); it.hasNext();) {
+			Arrays.fill(it.next(), (byte) 0);
+			it.remove();
+		}
+	}
+}
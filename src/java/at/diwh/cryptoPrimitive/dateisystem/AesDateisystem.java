@@ -0,0 +1,286 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.util.StreamingTools;
+
+/**
+ * Ein verschlüsseltes Zip (<code>.zip.AES256</code>, Stream- oder Container-Format, auch in Volumes) als nur lesbares
+ * {@link FileSystem}. Angelegt wird es über den {@link AesDateisystemProvider}.
+ * <br/>Beim Einhängen wird das Archiv einmal ganz entschlüsselt, um das Verzeichnis zu lesen und im Stream-Format den HMAC
+ * zu prüfen - danach stehen Namen, Größen und Zeiten ohne weiteren Zugriff auf die Platte bereit. Der Inhalt eines
+ * Eintrags wird erst beim ersten Lesen entschlüsselt und landet dann im {@link Eintragscache}; wer ihn noch einmal liest,
+ * bekommt ihn aus dem Speicher.
+ * <br/>Im Stream-Format wird dafür jedes Mal bis zum HMAC am Ende gelesen (siehe
+ * {@link StreamingTools#ladeEintrag(File, Schluesselverwaltung, ZipEntry)}), ungeprüfter Klartext kommt nie heraus. Ein
+ * großer Cache lohnt sich dort also besonders. Zusätzlich wird vor jedem Entschlüsseln geprüft, ob das Archiv seit dem
+ * Einhängen gleich groß und gleich alt ist, damit Inhalt und Verzeichnis zusammenpassen.
+ * @author JavaAlchemist
+ *
+ */
+public class AesDateisystem extends FileSystem {
+
+	private final AesDateisystemProvider provider;
+	private final File archiv;
+	private final Schluesselverwaltung sv;
+	private final boolean eigeneSchluesselverwaltung;
+	private final Eintragscache cache;
+	private final long groesse;
+	private final long geaendert;
+	/**
+	 * Key: absoluter Pfad ohne abschließenden <code>/</code>
+	 */
+	private final Map<String, ZipEntry> eintraege = new HashMap<String, ZipEntry>();
+	/**
+	 * Key: absoluter Pfad eines Verzeichnisses, Value: Namen der direkten Kinder. Enthält auch Verzeichnisse, die es nur
+	 * implizit gibt (weil Einträge darin liegen).
+	 */
+	private final Map<String, Set<String>> verzeichnisse = new HashMap<String, Set<String>>();
+	private volatile boolean offen = true;
+
+	AesDateisystem(AesDateisystemProvider provider, File archiv, Schluesselverwaltung sv, boolean eigeneSchluesselverwaltung,
+			long cacheGroesse) throws IOException {
+		this.provider = provider;
+		this.archiv = archiv;
+		this.sv = sv;
+		this.eigeneSchluesselverwaltung = eigeneSchluesselverwaltung;
+		this.cache = new Eintragscache(cacheGroesse);
+		this.groesse = archiv.length();
+		this.geaendert = archiv.lastModified();
+		verzeichnisse.put("/", new TreeSet<String>());
+		for (ZipEntry ze : StreamingTools.verzeichnis(archiv, sv)) {
+			trageEin(ze);
+		}
+	}
+
+	private void trageEin(ZipEntry ze) {
+		String pfad = ((AesPfad) getPath("/" + ze.getName()).normalize()).toString();
+		if ("/".equals(pfad)) {
+			return;
+		}
+		if (ze.isDirectory()) {
+			verzeichnis(pfad);
+		} else {
+			eintraege.put(pfad, ze);
+		}
+		int trenner = pfad.lastIndexOf('/');
+		verzeichnis(trenner == 0 ? "/" : pfad.substring(0, trenner)).add(pfad.substring(trenner + 1));
+	}
+
+	private Set<String> verzeichnis(String pfad) {
+		Set<String> kinder = verzeichnisse.get(pfad);
+		if (kinder == null) {
+			kinder = new TreeSet<String>();
+			verzeichnisse.put(pfad, kinder);
+			int trenner = pfad.lastIndexOf('/');
+			verzeichnis(trenner == 0 ? "/" : pfad.substring(0, trenner)).add(pfad.substring(trenner + 1));
+		}
+		return kinder;
+	}
+
+	/**
+	 * @return das verschlüsselte Archiv (bei Volumes das erste)
+	 */
+	public File getArchiv() {
+		return archiv;
+	}
+
+	/**
+	 * @return der Cache mit seiner Statistik
+	 */
+	public Eintragscache getCache() {
+		return cache;
+	}
+
+	boolean existiert(Path p) {
+		String s = schluessel(p);
+		return eintraege.containsKey(s) || verzeichnisse.containsKey(s);
+	}
+
+	/**
+	 * @throws NoSuchFileException wenn es den Pfad nicht gibt
+	 */
+	Eintragsattribute attribute(Path p) throws NoSuchFileException {
+		pruefeOffen();
+		String s = schluessel(p);
+		ZipEntry ze = eintraege.get(s);
+		if (ze == null && !verzeichnisse.containsKey(s)) {
+			throw new NoSuchFileException(p.toString());
+		}
+		return new Eintragsattribute(s, ze, geaendert);
+	}
+
+	/**
+	 * @return die direkten Kinder eines Verzeichnisses, sortiert
+	 */
+	List<Path> kinder(Path verzeichnis) throws IOException {
+		pruefeOffen();
+		String s = schluessel(verzeichnis);
+		Set<String> namen = verzeichnisse.get(s);
+		if (namen == null) {
+			if (eintraege.containsKey(s)) {
+				throw new NotDirectoryException(verzeichnis.toString());
+			}
+			throw new NoSuchFileException(verzeichnis.toString());
+		}
+		List<Path> retList = new ArrayList<Path>();
+		for (String name : namen) {
+			retList.add(verzeichnis.resolve(name));
+		}
+		return retList;
+	}
+
+	/**
+	 * Liefert den Inhalt eines Eintrags, aus dem Cache oder frisch entschlüsselt.
+	 * @param p - Pfad einer Datei
+	 * @return die Daten, gehören dem Cache und dürfen nicht verändert werden
+	 * @throws IOException auch wenn sich das Archiv seit dem Einhängen verändert hat
+	 */
+	byte[] lese(Path p) throws IOException {
+		pruefeOffen();
+		String s = schluessel(p);
+		ZipEntry ze = eintraege.get(s);
+		if (ze == null) {
+			if (verzeichnisse.containsKey(s)) {
+				throw new IOException(p + " ist ein Verzeichnis");
+			}
+			throw new NoSuchFileException(p.toString());
+		}
+		byte[] daten = cache.hole(s);
+		if (daten == null) {
+			if (archiv.length() != groesse || archiv.lastModified() != geaendert) {
+				throw new IOException(archiv + " wurde seit dem Einhängen verändert");
+			}
+			daten = StreamingTools.ladeEintrag(archiv, sv, ze);
+			cache.lege(s, daten);
+		}
+		return daten;
+	}
+
+	private String schluessel(Path p) {
+		if (p.getFileSystem() != this) {
+			throw new ProviderMismatchException();
+		}
+		return ((AesPfad) p).toAbsolutePath().normalize().toString();
+	}
+
+	private void pruefeOffen() {
+		if (!offen) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	@Override
+	public AesDateisystemProvider provider() {
+		return provider;
+	}
+
+	/**
+	 * Leert den Cache und meldet das Dateisystem beim Provider ab. Eine Schlüsselverwaltung, die der Provider selbst aus
+	 * einer Passphrase angelegt hat, wird mit geschlossen.
+	 */
+	@Override
+	public void close() {
+		if (!offen) {
+			return;
+		}
+		offen = false;
+		cache.leere();
+		provider.entferne(this);
+		if (eigeneSchluesselverwaltung) {
+			sv.close();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return offen;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path>singletonList(new AesPfad(this, "/"));
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Collections.singleton("basic");
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		StringBuilder sb = new StringBuilder(first);
+		for (String s : more) {
+			if (!s.isEmpty()) {
+				sb.append('/').append(s);
+			}
+		}
+		return new AesPfad(this, sb.toString());
+	}
+
+	/**
+	 * Glob und Regex wie beim Standard-Dateisystem, der Trenner ist aber immer <code>/</code>.
+	 */
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+		return new PathMatcher() {
+			@Override
+			public boolean matches(Path path) {
+				return matcher.matches(Paths.get(path.toString()));
+			}
+		};
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException("Zip-Einträge haben keine Besitzer");
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException("Ein verschlüsseltes Archiv ändert sich nicht unter der Hand");
+	}
+
+	@Override
+	public String toString() {
+		return archiv.getPath();
+	}
+}
@@ -0,0 +1,340 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.util.Volumen;
+
+/**
+ * Hängt verschlüsselte Zips (<code>.zip.AES256</code>) als nur lesbares {@link AesDateisystem} ein, damit man einzelne
+ * Dokumente mit den normalen {@link java.nio.file.Files}-Methoden herausholen kann, ohne das ganze Archiv auf die Platte
+ * zu entschlüsseln.
+ * <br/>Schema ist <code>aes256</code>, URIs sehen aus wie bei <code>jar:</code>:
+ * <code>aes256:file:///pfad/archiv.zip.AES256!/ordner/dokument.pdf</code>. Pro Archiv gibt es höchstens ein offenes
+ * Dateisystem.
+ * <br/>Im <i>env</i> von <code>newFileSystem</code>:
+ * <br/>- {@link #SCHLUESSEL}: eine {@link Schluesselverwaltung}, die weiterverwendet wird (z.B. die des Laufs, dann
+ * ist der Masterschlüssel schon abgeleitet), <b>oder</b>
+ * <br/>- {@link #PASSPHRASE}: String oder char[], daraus wird eine eigene Schlüsselverwaltung angelegt und beim Schließen
+ * wieder geschlossen
+ * <br/>- {@link #CACHE}: Höchstgröße des {@link Eintragscache} in Bytes (Number oder String), Standard 64 MB
+ * <br/>Archive im Format LEGACY (CryptoHID) gehen nicht, dafür fehlt ein Stream zum Entschlüsseln.
+ * @author JavaAlchemist
+ *
+ */
+public class AesDateisystemProvider extends FileSystemProvider {
+
+	public static final String SCHEMA = "aes256";
+	public static final String SCHLUESSEL = "schluessel";
+	public static final String PASSPHRASE = "passphrase";
+	public static final String CACHE = "cache";
+	public static final long STANDARD_CACHE = 64L * 1024 * 1024;
+
+	/**
+	 * Key: das Archiv mit absolutem, normalisiertem Pfad
+	 */
+	private final Map<File, AesDateisystem> dateisysteme = new HashMap<File, AesDateisystem>();
+
+	@Override
+	public String getScheme() {
+		return SCHEMA;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		return newFileSystem(archiv(uri).toPath(), env);
+	}
+
+	@Override
+	public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+		File archiv = path.toAbsolutePath().normalize().toFile();
+		if (!archiv.isFile()) {
+			throw new NoSuchFileException(archiv.getPath());
+		}
+		// FileSystems.newFileSystem(Path, ...) fragt alle Provider durch, fremde Dateien (z.B. ein .zip) gehören jemand anderem
+		if (Volumen.formatVon(archiv) == AesFormat.LEGACY) {
+			throw new UnsupportedOperationException(archiv + " ist kein Archiv im Stream- oder Container-Format");
+		}
+		Object schluessel = env.get(SCHLUESSEL);
+		Object passphrase = env.get(PASSPHRASE);
+		Schluesselverwaltung sv;
+		if (schluessel instanceof Schluesselverwaltung) {
+			sv = (Schluesselverwaltung) schluessel;
+		} else if (passphrase instanceof String) {
+			sv = new Schluesselverwaltung((String) passphrase);
+		} else if (passphrase instanceof char[]) {
+			sv = new Schluesselverwaltung(new String((char[]) passphrase));
+		} else {
+			throw new IllegalArgumentException("Im env fehlt \"" + SCHLUESSEL + "\" (Schluesselverwaltung) oder \"" + PASSPHRASE + "\"");
+		}
+		boolean eigene = sv != schluessel;
+		synchronized (dateisysteme) {
+			if (dateisysteme.containsKey(archiv)) {
+				if (eigene) {
+					sv.close();
+				}
+				throw new FileSystemAlreadyExistsException(archiv.getPath());
+			}
+			AesDateisystem fs;
+			try {
+				fs = new AesDateisystem(this, archiv, sv, eigene, cacheGroesse(env.get(CACHE)));
+			} catch (IOException | RuntimeException e) {
+				if (eigene) {
+					sv.close();
+				}
+				throw e;
+			}
+			dateisysteme.put(archiv, fs);
+			return fs;
+		}
+	}
+
+	private static long cacheGroesse(Object wert) {
+		if (wert == null) {
+			return STANDARD_CACHE;
+		}
+		if (wert instanceof Number) {
+			return ((Number) wert).longValue();
+		}
+		try {
+			return Long.parseLong(wert.toString().trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("\"" + CACHE + "\" erwartet eine Anzahl Bytes, nicht " + wert);
+		}
+	}
+
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		File archiv = archiv(uri);
+		synchronized (dateisysteme) {
+			AesDateisystem fs = dateisysteme.get(archiv);
+			if (fs == null) {
+				throw new FileSystemNotFoundException(archiv.getPath());
+			}
+			return fs;
+		}
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		String ssp = uri.getSchemeSpecificPart();
+		int trenner = ssp.indexOf("!/");
+		return getFileSystem(uri).getPath(trenner < 0 ? "/" : ssp.substring(trenner + 1));
+	}
+
+	void entferne(AesDateisystem fs) {
+		synchronized (dateisysteme) {
+			dateisysteme.remove(fs.getArchiv());
+		}
+	}
+
+	/**
+	 * @return das Archiv aus <code>aes256:file:///...!/...</code>
+	 */
+	private File archiv(URI uri) {
+		if (!SCHEMA.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI " + uri + " hat nicht das Schema " + SCHEMA);
+		}
+		String ssp = uri.getRawSchemeSpecificPart();
+		int trenner = ssp.indexOf("!/");
+		return Paths.get(URI.create(trenner < 0 ? ssp : ssp.substring(0, trenner))).toAbsolutePath().normalize().toFile();
+	}
+
+	private static AesPfad pfad(Path p) {
+		if (!(p instanceof AesPfad)) {
+			throw new ProviderMismatchException();
+		}
+		return (AesPfad) p;
+	}
+
+	private static AesDateisystem dateisystem(Path p) {
+		return (AesDateisystem) pfad(p).getFileSystem();
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		for (OpenOption o : options) {
+			if (o != StandardOpenOption.READ && o != LinkOption.NOFOLLOW_LINKS) {
+				throw new ReadOnlyFileSystemException();
+			}
+		}
+		return new Eintragskanal(dateisystem(path).lese(path));
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, final Filter<? super Path> filter) throws IOException {
+		final List<Path> kinder = dateisystem(dir).kinder(dir);
+		return new DirectoryStream<Path>() {
+			private boolean geholt = false;
+
+			@Override
+			public Iterator<Path> iterator() {
+				if (geholt) {
+					throw new IllegalStateException("Der Iterator wurde schon geholt");
+				}
+				geholt = true;
+				List<Path> gefiltert = new ArrayList<Path>();
+				for (Path p : kinder) {
+					try {
+						if (filter == null || filter.accept(p)) {
+							gefiltert.add(p);
+						}
+					} catch (IOException e) {
+						throw new DirectoryIteratorException(e);
+					}
+				}
+				return gefiltert.iterator();
+			}
+
+			@Override
+			public void close() {
+				// hält nichts offen
+			}
+		};
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		if (!(path2 instanceof AesPfad) || path.getFileSystem() != path2.getFileSystem()) {
+			return false;
+		}
+		return path.toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		return false;
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) {
+		throw new UnsupportedOperationException("Ein verschlüsseltes Archiv hat keinen FileStore");
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		dateisystem(path).attribute(path);
+		for (AccessMode m : modes) {
+			if (m != AccessMode.READ) {
+				throw new AccessDeniedException(path.toString(), null, "nur lesbar");
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> V getFileAttributeView(final Path path, Class<V> type, LinkOption... options) {
+		if (type != BasicFileAttributeView.class) {
+			return null;
+		}
+		return (V) new BasicFileAttributeView() {
+			@Override
+			public String name() {
+				return "basic";
+			}
+
+			@Override
+			public BasicFileAttributes readAttributes() throws IOException {
+				return dateisystem(path).attribute(path);
+			}
+
+			@Override
+			public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+				throw new ReadOnlyFileSystemException();
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if (type != BasicFileAttributes.class) {
+			throw new UnsupportedOperationException("Nur BasicFileAttributes, nicht " + type.getName());
+		}
+		return (A) dateisystem(path).attribute(path);
+	}
+
+	/**
+	 * Versteht nur die Sicht "basic", also <code>*</code>, <code>size,lastModifiedTime</code> oder
+	 * <code>basic:isDirectory</code>.
+	 */
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		String namen = attributes;
+		int doppelpunkt = namen.indexOf(':');
+		if (doppelpunkt >= 0) {
+			if (!"basic".equals(namen.substring(0, doppelpunkt))) {
+				throw new UnsupportedOperationException("Nur die Sicht basic, nicht " + namen.substring(0, doppelpunkt));
+			}
+			namen = namen.substring(doppelpunkt + 1);
+		}
+		Eintragsattribute a = dateisystem(path).attribute(path);
+		List<String> gewuenscht = "*".equals(namen) ? Arrays.asList(Eintragsattribute.NAMEN) : Arrays.asList(namen.split(","));
+		Map<String, Object> retMap = new LinkedHashMap<String, Object>();
+		for (String name : gewuenscht) {
+			retMap.put(name, a.wert(name));
+		}
+		return retMap;
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+}
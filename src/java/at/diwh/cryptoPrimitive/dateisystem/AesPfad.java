@@ -0,0 +1,246 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchEvent.Modifier;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ein Pfad in einem {@link AesDateisystem}. Trenner ist immer <code>/</code>, die Wurzel ist <code>/</code> und
+ * entspricht der obersten Ebene des Zips. Symbolische Links gibt es keine.
+ * @author JavaAlchemist
+ *
+ */
+class AesPfad implements Path {
+
+	private final AesDateisystem dateisystem;
+	/**
+	 * Ohne doppelte und abschließende <code>/</code>; "/" für die Wurzel, "" für den leeren Pfad
+	 */
+	private final String pfad;
+
+	AesPfad(AesDateisystem dateisystem, String pfad) {
+		this.dateisystem = dateisystem;
+		this.pfad = bereinige(pfad);
+	}
+
+	private static String bereinige(String pfad) {
+		String p = pfad.replaceAll("/{2,}", "/");
+		if (p.length() > 1 && p.endsWith("/")) {
+			p = p.substring(0, p.length() - 1);
+		}
+		return p;
+	}
+
+	private String[] teile() {
+		String s = isAbsolute() ? pfad.substring(1) : pfad;
+		return s.isEmpty() ? new String[0] : s.split("/");
+	}
+
+	private AesPfad aus(List<String> teile, boolean absolut) {
+		return new AesPfad(dateisystem, (absolut ? "/" : "") + String.join("/", teile));
+	}
+
+	private AesPfad pruefe(Path other) {
+		if (!(other instanceof AesPfad)) {
+			throw new ProviderMismatchException();
+		}
+		return (AesPfad) other;
+	}
+
+	@Override
+	public FileSystem getFileSystem() {
+		return dateisystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return pfad.startsWith("/");
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? new AesPfad(dateisystem, "/") : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		String[] t = teile();
+		return t.length == 0 ? null : new AesPfad(dateisystem, t[t.length - 1]);
+	}
+
+	@Override
+	public Path getParent() {
+		String[] t = teile();
+		if (t.length == 0 || (t.length == 1 && !isAbsolute())) {
+			return null;
+		}
+		return aus(Arrays.asList(t).subList(0, t.length - 1), isAbsolute());
+	}
+
+	@Override
+	public int getNameCount() {
+		return teile().length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] t = teile();
+		if (beginIndex < 0 || endIndex > t.length || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Ungültiger Bereich " + beginIndex + ".." + endIndex + " für " + pfad);
+		}
+		return aus(Arrays.asList(t).subList(beginIndex, endIndex), false);
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		if (!(other instanceof AesPfad) || other.getFileSystem() != dateisystem) {
+			return false;
+		}
+		AesPfad o = (AesPfad) other;
+		String[] t = teile();
+		String[] ot = o.teile();
+		if (o.isAbsolute() != isAbsolute() || ot.length > t.length || (ot.length == 0 && !o.isAbsolute())) {
+			return false;
+		}
+		return Arrays.asList(t).subList(0, ot.length).equals(Arrays.asList(ot));
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		if (!(other instanceof AesPfad) || other.getFileSystem() != dateisystem) {
+			return false;
+		}
+		AesPfad o = (AesPfad) other;
+		if (o.isAbsolute()) {
+			return equals(o);
+		}
+		String[] t = teile();
+		String[] ot = o.teile();
+		if (ot.length > t.length || ot.length == 0) {
+			return false;
+		}
+		return Arrays.asList(t).subList(t.length - ot.length, t.length).equals(Arrays.asList(ot));
+	}
+
+	@Override
+	public Path normalize() {
+		List<String> ergebnis = new ArrayList<String>();
+		for (String t : teile()) {
+			if (".".equals(t)) {
+				continue;
+			}
+			if ("..".equals(t) && !ergebnis.isEmpty() && !"..".equals(ergebnis.get(ergebnis.size() - 1))) {
+				ergebnis.remove(ergebnis.size() - 1);
+			} else if (!"..".equals(t) || !isAbsolute()) {
+				// über die Wurzel hinaus geht es nicht
+				ergebnis.add(t);
+			}
+		}
+		return aus(ergebnis, isAbsolute());
+	}
+
+	@Override
+	public Path resolve(Path other) {
+		AesPfad o = pruefe(other);
+		if (o.isAbsolute()) {
+			return o;
+		}
+		if (o.pfad.isEmpty()) {
+			return this;
+		}
+		return new AesPfad(dateisystem, pfad.isEmpty() ? o.pfad : pfad + "/" + o.pfad);
+	}
+
+	@Override
+	public Path relativize(Path other) {
+		AesPfad o = pruefe(other);
+		if (o.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException(o + " und " + this + " müssen beide absolut oder beide relativ sein");
+		}
+		String[] t = teile();
+		String[] ot = o.teile();
+		int gleich = 0;
+		while (gleich < t.length && gleich < ot.length && t[gleich].equals(ot[gleich])) {
+			gleich++;
+		}
+		List<String> ergebnis = new ArrayList<String>();
+		for (int i = gleich; i < t.length; i++) {
+			ergebnis.add("..");
+		}
+		ergebnis.addAll(Arrays.asList(ot).subList(gleich, ot.length));
+		return aus(ergebnis, false);
+	}
+
+	/**
+	 * @return <code>aes256:file:///pfad/zum/archiv.zip.AES256!/eintrag</code>
+	 */
+	@Override
+	public URI toUri() {
+		try {
+			String eintrag = new URI(null, null, toAbsolutePath().toString(), null).getRawPath();
+			return new URI(AesDateisystemProvider.SCHEMA + ":" + dateisystem.getArchiv().toURI() + "!" + eintrag);
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public AesPfad toAbsolutePath() {
+		return isAbsolute() ? this : new AesPfad(dateisystem, "/" + pfad);
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws IOException {
+		AesPfad echt = (AesPfad) toAbsolutePath().normalize();
+		if (!dateisystem.existiert(echt)) {
+			throw new NoSuchFileException(echt.toString());
+		}
+		return echt;
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, Kind<?>[] events, Modifier... modifiers) {
+		throw new UnsupportedOperationException("Ein verschlüsseltes Archiv ändert sich nicht unter der Hand");
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return pfad.compareTo(pruefe(other).pfad);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof AesPfad)) {
+			return false;
+		}
+		AesPfad o = (AesPfad) obj;
+		return o.dateisystem == dateisystem && o.pfad.equals(pfad);
+	}
+
+	@Override
+	public int hashCode() {
+		return pfad.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return pfad;
+	}
+}
@@ -0,0 +1,115 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+
+/**
+ * Die {@link BasicFileAttributes} eines Eintrags bzw. eines Verzeichnisses in einem {@link AesDateisystem}. Zeiten
+ * kommen aus dem Zip-Eintrag, Verzeichnisse ohne eigenen Eintrag bekommen die Änderungszeit des Archivs.
+ * @author JavaAlchemist
+ *
+ */
+class Eintragsattribute implements BasicFileAttributes {
+
+	/**
+	 * Alles, was die Sicht "basic" kennt, in der Reihenfolge von {@link BasicFileAttributes}
+	 */
+	static final String[] NAMEN = { "size", "lastModifiedTime", "lastAccessTime", "creationTime", "isRegularFile", "isDirectory",
+			"isSymbolicLink", "isOther", "fileKey" };
+
+	private final String pfad;
+	private final ZipEntry eintrag;
+	private final FileTime geaendert;
+
+	/**
+	 * @param pfad - absoluter Pfad im Dateisystem, dient als fileKey
+	 * @param eintrag - der Zip-Eintrag, null für ein Verzeichnis ohne eigenen Eintrag
+	 * @param archivGeaendert - Änderungszeit des Archivs, wenn der Eintrag keine hat
+	 */
+	Eintragsattribute(String pfad, ZipEntry eintrag, long archivGeaendert) {
+		this.pfad = pfad;
+		this.eintrag = eintrag;
+		FileTime t = eintrag == null ? null : eintrag.getLastModifiedTime();
+		this.geaendert = t != null ? t : FileTime.fromMillis(archivGeaendert);
+	}
+
+	/**
+	 * @param name - ein Attribut aus {@link #NAMEN}
+	 * @return sein Wert, wie ihn {@link java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)} liefert
+	 */
+	Object wert(String name) {
+		switch (name) {
+		case "size":
+			return Long.valueOf(size());
+		case "lastModifiedTime":
+			return lastModifiedTime();
+		case "lastAccessTime":
+			return lastAccessTime();
+		case "creationTime":
+			return creationTime();
+		case "isRegularFile":
+			return Boolean.valueOf(isRegularFile());
+		case "isDirectory":
+			return Boolean.valueOf(isDirectory());
+		case "isSymbolicLink":
+			return Boolean.valueOf(isSymbolicLink());
+		case "isOther":
+			return Boolean.valueOf(isOther());
+		case "fileKey":
+			return fileKey();
+		default:
+			throw new IllegalArgumentException("Unbekanntes Attribut basic:" + name);
+		}
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return geaendert;
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		FileTime t = eintrag == null ? null : eintrag.getLastAccessTime();
+		return t != null ? t : geaendert;
+	}
+
+	@Override
+	public FileTime creationTime() {
+		FileTime t = eintrag == null ? null : eintrag.getCreationTime();
+		return t != null ? t : geaendert;
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return !isDirectory();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return eintrag == null || eintrag.isDirectory();
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	/**
+	 * @return die entpackte Größe, 0 für Verzeichnisse
+	 */
+	@Override
+	public long size() {
+		return isDirectory() ? 0 : Math.max(eintrag.getSize(), 0);
+	}
+
+	@Override
+	public Object fileKey() {
+		return pfad;
+	}
+}
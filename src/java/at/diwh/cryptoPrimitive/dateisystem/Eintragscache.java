@@ -0,0 +1,118 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-Cache für entschlüsselte Zip-Einträge, begrenzt nicht nach Anzahl, sondern nach Bytes. Wird er zu voll, fliegen
+ * die am längsten nicht gelesenen Einträge hinaus, bis der neue Platz hat. Ein Eintrag, der allein schon größer ist als
+ * der ganze Cache, wird gar nicht erst aufgenommen (er würde nur alle anderen verdrängen).
+ * <br/>Die Statistik (Treffer, Fehlgriffe, Verdrängungen) zählt ab dem Anlegen, {@link #leere()} setzt sie nicht
+ * zurück. Alle Methoden sind synchronized, der Cache wird von allen Lesern eines Dateisystems geteilt.
+ * @author JavaAlchemist
+ *
+ */
+public class Eintragscache {
+
+	private final long kapazitaet;
+	private final Map<String, byte[]> eintraege = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long belegt = 0;
+	private long treffer = 0;
+	private long fehlgriffe = 0;
+	private long verdraengt = 0;
+
+	/**
+	 * @param kapazitaet - Höchstgröße in Bytes, 0 schaltet den Cache ab
+	 */
+	public Eintragscache(long kapazitaet) {
+		if (kapazitaet < 0) {
+			throw new IllegalArgumentException("Die Cache-Größe darf nicht negativ sein: " + kapazitaet);
+		}
+		this.kapazitaet = kapazitaet;
+	}
+
+	/**
+	 * @param name - Pfad des Eintrags
+	 * @return die Daten oder null; zählt als Treffer bzw. Fehlgriff. Das Array gehört weiter dem Cache und darf nicht
+	 * verändert werden.
+	 */
+	public synchronized byte[] hole(String name) {
+		byte[] daten = eintraege.get(name);
+		if (daten == null) {
+			fehlgriffe++;
+		} else {
+			treffer++;
+		}
+		return daten;
+	}
+
+	/**
+	 * Nimmt einen Eintrag auf und verdrängt dafür so viele alte wie nötig.
+	 * @param name - Pfad des Eintrags
+	 * @param daten - die entschlüsselten Daten, werden nicht kopiert
+	 */
+	public synchronized void lege(String name, byte[] daten) {
+		if (daten.length > kapazitaet) {
+			return;
+		}
+		byte[] alt = eintraege.remove(name);
+		if (alt != null) {
+			belegt -= alt.length;
+		}
+		for (Iterator<byte[]> it = eintraege.values().iterator(); belegt + daten.length > kapazitaet && it.hasNext();) {
+			belegt -= it.next().length;
+			it.remove();
+			verdraengt++;
+		}
+		eintraege.put(name, daten);
+		belegt += daten.length;
+	}
+
+	/**
+	 * Wirft alle Einträge hinaus, die Statistik bleibt.
+	 */
+	public synchronized void leere() {
+		eintraege.clear();
+		belegt = 0;
+	}
+
+	public long getKapazitaet() {
+		return kapazitaet;
+	}
+
+	public synchronized long getBelegt() {
+		return belegt;
+	}
+
+	public synchronized int getAnzahl() {
+		return eintraege.size();
+	}
+
+	public synchronized long getTreffer() {
+		return treffer;
+	}
+
+	public synchronized long getFehlgriffe() {
+		return fehlgriffe;
+	}
+
+	public synchronized long getVerdraengt() {
+		return verdraengt;
+	}
+
+	/**
+	 * @return Anteil der Treffer an allen Zugriffen, 0 wenn es noch keine gab
+	 */
+	public synchronized double getTrefferquote() {
+		long zugriffe = treffer + fehlgriffe;
+		return zugriffe == 0 ? 0 : (double) treffer / zugriffe;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d Einträge, %d von %d Bytes, %d Treffer, %d Fehlgriffe (%.1f%%), %d verdrängt",
+				Integer.valueOf(eintraege.size()), Long.valueOf(belegt), Long.valueOf(kapazitaet), Long.valueOf(treffer),
+				Long.valueOf(fehlgriffe), Double.valueOf(getTrefferquote() * 100), Long.valueOf(verdraengt));
+	}
+}
@@ -0,0 +1,84 @@
+package at.diwh.cryptoPrimitive.dateisystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Nur lesender Kanal über die entschlüsselten Daten eines Eintrags. Das Array kann aus dem {@link Eintragscache} kommen
+ * und von mehreren Kanälen gleichzeitig gelesen werden, es wird nie beschrieben.
+ * @author JavaAlchemist
+ *
+ */
+class Eintragskanal implements SeekableByteChannel {
+
+	private final byte[] daten;
+	private long position = 0;
+	private boolean offen = true;
+
+	Eintragskanal(byte[] daten) {
+		this.daten = daten;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		pruefeOffen();
+		if (position >= daten.length) {
+			return -1;
+		}
+		int n = (int) Math.min(dst.remaining(), daten.length - position);
+		dst.put(daten, (int) position, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		pruefeOffen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long neuePosition) throws IOException {
+		pruefeOffen();
+		if (neuePosition < 0) {
+			throw new IllegalArgumentException("Negative Position " + neuePosition);
+		}
+		position = neuePosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		pruefeOffen();
+		return daten.length;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return offen;
+	}
+
+	@Override
+	public synchronized void close() {
+		offen = false;
+	}
+
+	private synchronized void pruefeOffen() throws ClosedChannelException {
+		if (!offen) {
+			throw new ClosedChannelException();
+		}
+	}
+}
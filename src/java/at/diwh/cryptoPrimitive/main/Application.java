@@ -1,18 +1,36 @@
 package at.diwh.cryptoPrimitive.main;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 
-import javax.swing.JOptionPane;
-import javax.swing.JPasswordField;
-
+import at.diwh.cryptoPrimitive.crypto.AesContainerFormat;
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.AesStreamFormat;
+import at.diwh.cryptoPrimitive.crypto.Cipherauswahl;
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+import at.diwh.cryptoPrimitive.util.Kompressionsstrategie;
+import at.diwh.cryptoPrimitive.util.StreamingTools;
+import at.diwh.cryptoPrimitive.util.Volumen;
+import at.diwh.cryptoPrimitive.util.ZipSchreiber;
 import at.diwh.cryptoPrimitive.util.ZippingTools;
+import at.diwh.cryptoPrimitive.verarbeitung.Dateisuche;
+import at.diwh.cryptoPrimitive.verarbeitung.Deduplizierung;
+import at.diwh.cryptoPrimitive.verarbeitung.Manifest;
+import at.diwh.cryptoPrimitive.verarbeitung.ParallelVerarbeiter;
+import at.diwh.cryptoPrimitive.verarbeitung.Stufenverarbeiter;
+import at.diwh.cryptoPrimitive.verarbeitung.Verarbeitungsergebnis;
+import at.diwh.cryptoPrimitive.verarbeitung.Verzeichniswaechter;
 import at.diwh.cryptoTools.exception.CryptoException;
 import at.diwh.cryptoTools.hid.CryptoHID;
 import at.diwh.utils.file.tools.FormatByteAngabe;
@@ -35,6 +53,62 @@ import at.diwh.utils.object.Nullchecker;
  * eingeben. Daraus folgt zwingend: Will man ver- und entschlüsseln in einem Rutsch, muss die Passphrase der Verschlüsselung
  * die gleiche sein wie die, mit der die .AES256-Dateien erzeugt wurde. Ebenfalls ergibt sich daraus, dass nur AES-Files 
  * zusammen entschlüsselt werden können, die unter sich ebenfalls die gleiche Passphrase haben.
+ * <br/><b>Streaming</b>: Mit der Option <code>--stream</code> wird jede Datei in einem Durchgang gezippt und verschlüsselt
+ * (bzw. entschlüsselt), ohne Zwischen-Zip im Quellverzeichnis und ohne die ganze Datei in den Speicher zu laden.
+ * Solche .AES256-Dateien haben ein eigenes Format (siehe {@link AesStreamFormat}), werden aber beim Entschlüsseln
+ * automatisch erkannt - egal in welchem Modus. Mit <code>--format=container</code> schreibt der Streaming-Modus 
+ * stattdessen das segmentierte Container-Format (parallel ver-/entschlüsselbar, wahlfreier Zugriff).
+ * <br/><b>Parallel</b>: Mit <code>--threads=n</code> (n &gt; 1) werden die Dateien auf n Worker verteilt. 
+ * <code>--inflight=512m</code> begrenzt, wie viele Bytes dabei gleichzeitig im Speicher sein dürfen. Fehler bei einer Datei
+ * werden am Ende gemeldet, brechen aber den Rest nicht ab.
+ * <br/><b>Stufen</b>: Mit <code>--pipeline</code> (ohne <code>--stream</code>) laufen Lesen, Zip/AES und Schreiben als
+ * eigene Stufen nebeneinander (siehe {@link Stufenverarbeiter}): gerechnet wird auf <code>--threads</code> Threads
+ * (Standard: alle Kerne), gelesen und geschrieben auf virtuellen Threads ab Java 21, sonst auf <code>--ioThreads=4</code>.
+ * <br/><b>Bündeln</b>: Mit <code>--batch</code> landen viele Plain Files gemeinsam in einem Zip (bzw. mehreren, jedes
+ * höchstens <code>--batchMax=64m</code> an Rohdaten), das dann nur einmal verschlüsselt wird. <code>--unpack</code> ist
+ * das Gegenstück: entschlüsselte Zips werden im Zielverzeichnis gleich entpackt, mit den ursprünglichen Dateinamen.
+ * Das geht in einem Durchgang, der Klartext fließt direkt in die Zieldateien (siehe
+ * {@link StreamingTools#entschluesseleUndEntpacke(File, File, Schluesselverwaltung)}), nur mit <code>--pipeline</code>
+ * wird erst das Zip geschrieben. <code>--verify</code> prüft alle .AES256-Dateien (Entschlüsselung, HMAC, CRC jedes
+ * Eintrags), ohne etwas zu schreiben.
+ * <br/><b>Manifest</b>: Mit <code>--manifest</code> wird im Zielverzeichnis ein Journal geführt (siehe {@link Manifest}).
+ * Ein neuer Lauf verarbeitet dann nur neue oder geänderte Dateien, ein abgebrochener Lauf macht bei der ersten
+ * nicht fertig gewordenen Datei weiter. <code>--manifest=datei</code> legt das Journal woanders hin.
+ * <br/><b>Baum</b>: Mit <code>--recursive</code> werden auch Unterverzeichnisse verarbeitet. Gesucht wird nebenher
+ * (siehe {@link Dateisuche}), die erste Datei wird also sofort verarbeitet. Im Zip steht der relative Pfad als Name,
+ * entschlüsselte Dateien landen im gleichen Unterverzeichnis des Ziels. <code>--include=*.pdf,*.txt</code> und
+ * <code>--exclude=tmp/**</code> filtern mit Glob-Mustern (auch ohne <code>--recursive</code>).
+ * <br/><b>Wächter</b>: Mit <code>--watch</code> läuft das Programm als Dienst weiter und verarbeitet jede Datei, sobald
+ * sie fertig im Quellverzeichnis liegt (Größe und Änderungszeit <code>--settle=500</code> ms unverändert, siehe 
+ * {@link Verzeichniswaechter}). Beendet wird mit Strg-C bzw. SIGTERM, laufende Dateien werden noch fertig. Zusammen mit
+ * <code>--manifest</code> werden nach einem Neustart nur neue oder geänderte Dateien verarbeitet.
+ * <br/><b>Metriken</b>: Zip, KDF, Ver- und Entschlüsseln, Lesen, Schreiben und jede ganze Datei werden mit Dauer und
+ * Bytes gemessen (siehe {@link Metriken}). Mit <code>--metrics</code> sind die Werte während des Laufs über JMX zu sehen
+ * und kommen am Ende als JSON auf die Konsole, <code>--metrics=datei.json</code> schreibt das JSON in eine Datei.
+ * <br/><b>Deduplizierung</b>: Mit <code>--dedup</code> werden Plain Files mit gleichem Inhalt nur einmal gezippt und
+ * verschlüsselt (siehe {@link Deduplizierung}). Das Archiv enthält den Inhalt unter dem Namen der ersten Datei und
+ * einen Verweis für jede Kopie, <code>--unpack</code> legt die Kopien wieder an. Geht nur, wenn die Dateiliste vorher
+ * feststeht, also nicht zusammen mit dem Baum-Modus, <code>--watch</code> oder <code>--pipeline</code>.
+ * <br/><b>Volumes</b>: Mit <code>--volume=20m</code> (nur mit <code>--stream</code> im Stream-Format) wird jede neue
+ * .AES256-Datei schon beim Schreiben in Volumes <code>.AES256.001</code>, <code>.002</code>, ... von höchstens dieser Größe
+ * aufgeteilt, z.B. für Mail-Anhänge (siehe {@link Volumen}). Beim Entschlüsseln genügt es, wenn alle Volumes im
+ * Quellverzeichnis liegen: verarbeitet wird das erste, die weiteren werden der Reihe nach dazugelesen.
+ * <br/><b>Kompression</b>: Beim Zippen wird pro Datei entschieden, ob gespeichert, schnell oder maximal komprimiert wird
+ * (siehe {@link Kompressionsstrategie}), pro Datei wird das erreichte Verhältnis ausgegeben. Die Regeln lassen sich mit
+ * <code>--compressRules=datei.properties</code> anpassen, <code>--compress=standard</code> schaltet zurück auf immer Deflate.
+ * <br/><b>Schlüssel</b>: Für die eigenen Formate (Stream/Container) wird die Passphrase pro Lauf nur einmal gestreckt
+ * (siehe {@link Schluesselverwaltung}). Die alten .AES256-Dateien laufen weiter über CryptoHID, das bekommt nur die
+ * Passphrase und leitet selbst ab - daran kann man von außen nichts ändern.
+ * <br/><b>Cipher</b>: Stream und Container rechnen über den JCA-Provider, den {@link Cipherauswahl} beim ersten Gebrauch
+ * wählt: SunJCE, wenn die JVM AES-Intrinsics hat, sonst den schnelleren nach einer kurzen Messung. <code>--cipher=sunjce</code>
+ * bzw. <code>--cipher=bc</code> erzwingen einen Anbieter, <code>--cipher=messen</code> misst immer.
+ * <br/><b>Ohne Bildschirm</b>: Statt des Swing-Dialogs kommt die Passphrase mit <code>--headless</code> verdeckt von der
+ * Konsole, mit <code>--passphraseEnv=NAME</code> aus einer Umgebungsvariable, mit <code>--passphraseFile=datei</code>
+ * aus einer Schlüsseldatei oder mit <code>--passphraseFd=n</code> von einem File-Descriptor (siehe {@link Passphrasenquelle}).
+ * Swing wird dann gar nicht erst geladen, das Programm läuft also auch auf Servern und aus Schedulern.
+ * <br/><b>Pipe</b>: Mit <code>--pipe=zip</code> wird stdin gezippt und verschlüsselt nach stdout geschrieben, mit
+ * <code>--pipe=unzip</code> umgekehrt - ohne Verzeichnisse und ohne temporäre Dateien, z.B. hinter <code>tar</code> oder
+ * <code>pg_dump</code> (siehe {@link Pipemodus}). Meldungen gehen dann nach stderr, ob die Daten stimmen, sagt der Exit-Code.
  * @author JavaAlchemist
  *
  */
@@ -44,8 +118,23 @@ public class Application {
 	// Im Code verwende ich immer den / weil Unix das sowieso macht und Java damit auch auf Win damit umgehen kann
 	public static String FILESEPARATOR = System.getProperty("file.separator");
 	public static String HOMEDIR = System.getProperty("user.home");
+	// Wie stark pro Datei komprimiert wird, gilt für den ganzen Lauf. null heißt wie früher immer Standard-Deflate.
+	private static Kompressionsstrategie kompression = null;
+	// Mit --dedup: Plain File -> seine Kopien, die nicht eigens gezippt werden. Leer ohne Deduplizierung.
+	private static Map<String, List<String>> kopien = Collections.emptyMap();
+	// Mit --unpack werden entschlüsselte Zips gleich beim Entschlüsseln entpackt, ohne Zwischen-Zip
+	private static boolean direktEntpacken = false;
+	// Mit --volume wird jede neue .AES256-Datei beim Schreiben in Volumes dieser Höchstgröße aufgeteilt, 0 heißt eine Datei
+	private static long volumenGroesse = 0;
+	// Das alte CryptoHID-Format arbeitet auf ganzen byte-Arrays, größere Dateien gehen ins Stream-Format (mit etwas Luft für Header und Zip)
+	private static final long GANZ_IM_SPEICHER_MAX = Integer.MAX_VALUE - 64L * 1024;
 	
-	public static void main(String[] args) throws CryptoException, IOException {
+	public static void main(String[] args) throws CryptoException, IOException, InterruptedException {
+		Aufrufparameter param = new Aufrufparameter(args);
+		// Im Pipe-Modus gehört stdout den Daten, da darf nicht einmal die Begrüßung hin
+		if (param.istGesetzt("pipe")) {
+			System.exit(Pipemodus.laufe(param));
+		}
 		System.out.println("Willkommen zum einfachsten Verschlüsseln der Welt.");
 		// Preparation Block && Basic Check
 		String inputDirName = "/Users/devdiwh/Downloads/cryptoInDir";
@@ -54,29 +143,114 @@ public class Application {
 			inputDirName = HOMEDIR + "/Downloads/in";
 			outputDirName = HOMEDIR + "/Downloads/out";
 		}
-		if (Nullchecker.istNOL(args) || args.length !=2) {
-			System.out.println("Das Programm benötigt genau zwei Parameter: Input-Directory Output-Directory");
+		List<String> positionen = param.getPositionen();
+		if (Nullchecker.istNOL(positionen) || positionen.size() !=2) {
+			System.out.println("Das Programm benötigt genau zwei Parameter: Input-Directory Output-Directory [--stream [--format=stream|container]] [--threads=n] [--inflight=512m] [--batch [--batchMax=64m]] [--unpack] [--verify] [--manifest[=datei]] [--recursive] [--include=muster,...] [--exclude=muster,...] [--compress=adaptiv|standard] [--compressRules=datei] [--watch [--settle=ms]] [--pipeline [--ioThreads=n]] [--metrics[=datei.json]] [--dedup] [--volume=20m] [--cipher=auto|messen|sunjce|bc] [--headless | --passphraseEnv=NAME | --passphraseFile=datei | --passphraseFd=n]");
+			System.out.println("Oder ohne Verzeichnisse von stdin nach stdout: --pipe=zip|unzip [--entry=name] [--format=stream|container] [--passphraseEnv=NAME | --passphraseFile=datei | --passphraseFd=n]");
 			System.out.println("Defaults wurden gesetzt.");
 			
 		} else {
-			inputDirName = args[0];
+			inputDirName = positionen.get(0);
 			if (!new File(inputDirName).isDirectory()) {
 				System.out.println("Fehler: " + inputDirName + " ist kein Verzeichnis");
 				System.exit(9);
 			}
-			outputDirName = args[1];
+			outputDirName = positionen.get(1);
 			if (!new File(outputDirName).isDirectory()) {
 				System.out.println("Fehler: " + outputDirName + " ist kein Verzeichnis");
 				System.exit(10);
 			}
 		}
 
+		// Im Baum-Modus wird gesucht, während schon verarbeitet wird. Bündel brauchen aber vorher die ganze Liste.
+		// Der Wächter ist ein Baum-Modus, der nicht aufhört.
+		boolean waechterModus = param.istGesetzt("watch");
+		boolean baum = waechterModus || param.istGesetzt("recursive") || param.istGesetzt("include") || param.istGesetzt("exclude");
+		if (baum && param.istGesetzt("batch")) {
+			System.out.println("Fehler: --batch geht nicht zusammen mit --watch, --recursive, --include oder --exclude");
+			System.exit(11);
+		}
+		if (waechterModus && (new File(outputDirName).getCanonicalPath() + "/").startsWith(new File(inputDirName).getCanonicalPath() + "/")) {
+			System.out.println("Fehler: mit --watch darf das Ziel nicht im Quellverzeichnis liegen, sonst wird die eigene Ausgabe wieder verarbeitet");
+			System.exit(12);
+		}
+		if (param.istGesetzt("dedup") && (baum || param.istGesetzt("pipeline"))) {
+			System.out.println("Fehler: --dedup geht nicht zusammen mit --watch, --recursive, --include, --exclude oder --pipeline");
+			System.exit(13);
+		}
+		if (param.istGesetzt("format")) {
+			String name = param.getWert("format", "stream");
+			if (!param.istGesetzt("stream")) {
+				System.out.println("Fehler: --format gibt es nur zusammen mit --stream, ohne wird immer im alten Format verschlüsselt");
+				System.exit(19);
+			}
+			if (!"stream".equalsIgnoreCase(name) && !"container".equalsIgnoreCase(name)) {
+				System.out.println("Fehler: --format erwartet stream oder container, nicht " + name);
+				System.exit(19);
+			}
+		}
+		// Zahlen und Größen werden hier geprüft, nicht erst mitten in der Verarbeitung
+		int threads = 1;
+		int ioThreads = 4;
+		long inflight = 512L * 1024 * 1024;
+		long batchMax = 64L * 1024 * 1024;
+		int settle = 500;
+		try {
+			threads = param.getZahl("threads", threads);
+			ioThreads = param.getZahl("ioThreads", ioThreads);
+			inflight = param.getByteAngabe("inflight", inflight);
+			batchMax = param.getByteAngabe("batchMax", batchMax);
+			settle = param.getZahl("settle", settle);
+			if (threads < 1 || ioThreads < 1 || inflight < 1 || batchMax < 1) {
+				throw new IllegalArgumentException("--threads, --ioThreads, --inflight und --batchMax müssen größer als 0 sein");
+			}
+			if (settle < 0) {
+				throw new IllegalArgumentException("--settle darf nicht negativ sein");
+			}
+			if (param.getZahl("passphraseFd", 0) < 0) {
+				throw new IllegalArgumentException("--passphraseFd darf nicht negativ sein");
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Fehler: " + e.getMessage());
+			System.exit(20);
+		}
+		if (param.istGesetzt("volume")) {
+			try {
+				volumenGroesse = param.getByteAngabe("volume", 0);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Fehler: " + e.getMessage());
+				System.exit(16);
+			}
+			if (!param.istGesetzt("stream") || !"stream".equalsIgnoreCase(param.getWert("format", "stream")) || volumenGroesse < Volumen.MINDESTGROESSE) {
+				System.out.println("Fehler: --volume geht nur mit --stream im Stream-Format und ab " + Volumen.MINDESTGROESSE / 1024 + "k pro Volume");
+				System.exit(16);
+			}
+		}
+
+		// Gemessen wird immer, mit --metrics sieht man es auch: live über JMX und am Ende als JSON
+		if (param.istGesetzt("metrics")) {
+			Metriken.registriereJmx();
+		}
+
 		// Prep&Check Block ging gut, also verarbeiten wir.
 		
 		System.out.println("Werde von \n\t" + inputDirName +"\nlesen und auf \n\t" + outputDirName +"\nschreiben");
 		// printKonstanten(); // Ausgabe aller Konstanten, debug
-		// hole alle Files vom Quellverzeichnis (keine Sub-Dirs)
-		List<String> inputFileNamen = alleFilesAusVerzeichnis(inputDirName);
+		// hole alle Files vom Quellverzeichnis (keine Sub-Dirs), im Baum-Modus erst später während der Verarbeitung
+		List<String> inputFileNamen = baum ? new ArrayList<String>() : alleFilesAusVerzeichnis(inputDirName);
+		// Mit Manifest fallen alle Dateien weg, die ein früherer Lauf schon erledigt hat (im Baum-Modus prüft das der Worker)
+		Manifest manifest = null;
+		if (param.istGesetzt("manifest")) {
+			String journal = param.getWert("manifest", "true");
+			manifest = new Manifest("true".equals(journal) ? new File(outputDirName + "/" + Manifest.STANDARD_NAME) : new File(journal));
+			int vorher = inputFileNamen.size();
+			inputFileNamen = manifest.nochZuVerarbeiten(inputDirName, inputFileNamen);
+			System.out.println((vorher - inputFileNamen.size()) + " Dateien laut Manifest unverändert, " + inputFileNamen.size() + " zu verarbeiten.");
+		}
+		// Gleiche Inhalte nur einmal: die Kopien fallen aus der Liste und reisen als Verweis im Archiv des Originals mit
+		if (param.istGesetzt("dedup")) {
+			inputFileNamen = ohneKopien(inputFileNamen, inputDirName);
+		}
 		
 		// DEBUG
 //		for (String element : inputFileNamen) {
@@ -89,30 +263,148 @@ public class Application {
 //		if (1==1) return;
 		
 		// Bereite die Liste auf; verwandle Datenfiles in ZIP-Archive, nimm .AES256-Dateien mit und bereits vorhandene .zip Files
-		List<String> vorbereiteteNamen = zippeAllePlainFiles(inputFileNamen, inputDirName);
+		// Beim Streaming wird erst in der Verarbeitung gezippt, da bleibt die Liste wie sie ist.
+		// Parallel wird pro Datei gezippt, damit auch das Zippen auf die Worker verteilt wird.
+		boolean streaming = param.istGesetzt("stream");
+		if (!"standard".equalsIgnoreCase(param.getWert("compress", "adaptiv"))) {
+			kompression = param.istGesetzt("compressRules") ? Kompressionsstrategie.lade(new File(param.getWert("compressRules", null))) 
+					: new Kompressionsstrategie();
+			kompression.setAusgabe(System.out);
+		}
+		AesFormat format = AesFormat.fuerName(param.getWert("format", "stream"));
+		// Welcher JCA-Provider AES rechnet, wird pro Format einmal entschieden (siehe Cipherauswahl)
+		try {
+			if (param.istGesetzt("cipher")) {
+				Cipherauswahl.setVorgabe(param.getWert("cipher", "auto"));
+			}
+			if (streaming && format != AesFormat.LEGACY) {
+				System.out.println("Cipher-Anbieter " + Cipherauswahl.beschreibung(format));
+			}
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			System.out.println("Fehler: " + e.getMessage());
+			System.exit(15);
+		}
+		// Die Stufen gibt es nur ohne Streaming, dort überlappen sich Lesen, Rechnen und Schreiben ohnehin im Puffer
+		boolean stufen = param.istGesetzt("pipeline") && !streaming;
+		// Beim Bündeln werden die Plain Files vorab auf Archive verteilt. Ohne Streaming werden die Archive
+		// gleich ins Quellverzeichnis gezippt und dann wie vorhandene Zips behandelt.
+		Map<String, List<String>> buendel = new LinkedHashMap<String, List<String>>();
+		List<String> vorbereiteteNamen = null;
+		if (param.istGesetzt("batch")) {
+			buendel = bildeBuendel(inputFileNamen, inputDirName, batchMax);
+			vorbereiteteNamen = new ArrayList<String>();
+			for (String element : inputFileNamen) {
+				if (!istPlainFile(element)) {
+					vorbereiteteNamen.add(element);
+				}
+			}
+			if (!streaming) {
+				vorbereiteteNamen.addAll(zippeBuendel(buendel, inputDirName, manifest));
+				buendel.clear();
+			}
+		} else {
+			vorbereiteteNamen = (streaming || threads > 1 || stufen) ? inputFileNamen : zippeAllePlainFiles(inputFileNamen, inputDirName, manifest);
+		}
 
 		System.out.println("Folgende Dateinamen werden verarbeitet");
 		for (String element : vorbereiteteNamen) {
 			System.out.println("   " + element);
 		}
+		for (String archiv : buendel.keySet()) {
+			System.out.println("   " + archiv + " mit " + buendel.get(archiv).size() + " Dateien");
+		}
 
 		// DEBUG BREAKER
 //		if (1==1) return;
 
-		// da wir altes Java haben, haben wir kein System.Cosole.readPassword, deswegen der Kunstgriff über SWING...
-		System.out.println("Geben Sie nun die Passphrase ein: ");
+		// Ohne Option wie bisher über den Swing-Dialog, für Server und Scheduler auch ohne Bildschirm (siehe Passphrasenquelle)
+		if (!Passphrasenquelle.istNichtInteraktiv(param)) {
+			System.out.println("Geben Sie nun die Passphrase ein: ");
+		}
 		String passphrase = null;
-		passphrase = passphraseEingabe("Passphrase eingeben");
-		// passphrase = benutzerEingabe(); // das war zum Testen, da wird aber die Passphrase am Schirm angezeigt... noGo!
-		
-		String kontrolle = passphraseEingabe("Passphrase wiederholen!");
-		if (!kontrolle.equals(passphrase)) {
-			System.out.println("Fehler. Eingaben unterscheiden sich! Abbruch.");
+		try {
+			passphrase = Passphrasenquelle.hole(param);
+		} catch (IOException e) {
+			System.out.println("Fehler. " + e.getMessage() + " Abbruch.");
 			System.exit(1);
 		}
 		
 		// echte Verarbeitung
-		verarbeiteFiles(vorbereiteteNamen, inputDirName, outputDirName, passphrase);
+		// Die Passphrase wird pro Lauf genau einmal gestreckt, jede Datei bekommt ihren Schlüssel daraus per HKDF
+		Schluesselverwaltung schluessel = new Schluesselverwaltung(passphrase);
+		if (param.istGesetzt("verify")) {
+			int fehler = pruefeAlle(vorbereiteteNamen, inputDirName, schluessel);
+			schluessel.close();
+			if (manifest != null) {
+				manifest.close();
+			}
+			System.exit(fehler == 0 ? 0 : 14);
+		}
+		// Schlüssel und Manifest werden auch nach einem Fehler geschlossen: Schlüsselmaterial genullt, Sperre freigegeben
+		try {
+			direktEntpacken = param.istGesetzt("unpack") && !stufen;
+			List<File> geschrieben = null;
+			ParallelVerarbeiter verarbeiter = null;
+			if (waechterModus) {
+				Dateisuche filter = new Dateisuche(new File(inputDirName), param.istGesetzt("recursive"),
+						Dateisuche.muster(param.getWert("include", null)), Dateisuche.muster(param.getWert("exclude", null)));
+				final Verzeichniswaechter waechter = new Verzeichniswaechter(filter, settle).starte();
+				// Strg-C bzw. SIGTERM: keine neuen Dateien mehr, laufende fertig machen, dann Manifest und Schlüssel schließen
+				final Thread haupt = Thread.currentThread();
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					waechter.close();
+					try {
+						haupt.join(60000);
+					} catch (InterruptedException e) {
+						// dann eben ohne Aufräumen
+					}
+				}, "waechter-ende"));
+				verarbeiter = new ParallelVerarbeiter(threads, inflight);
+				verarbeiteLaufend(waechter, inputDirName, outputDirName, schluessel, streaming, format, verarbeiter, manifest, param.istGesetzt("unpack"));
+				geschrieben = new ArrayList<File>();
+			} else if (baum) {
+				Dateisuche suche = new Dateisuche(new File(inputDirName), param.istGesetzt("recursive"),
+						Dateisuche.muster(param.getWert("include", null)), Dateisuche.muster(param.getWert("exclude", null)));
+				verarbeiter = new ParallelVerarbeiter(threads, inflight);
+				verarbeiteBaum(suche.starte(), inputDirName, outputDirName, schluessel, streaming, format, verarbeiter, manifest, param.istGesetzt("unpack"));
+				geschrieben = new ArrayList<File>(); // ist schon alles fertig, auch das Entpacken
+			} else if (stufen) {
+				Stufenverarbeiter sv = new Stufenverarbeiter(param.istGesetzt("threads") ? threads : Runtime.getRuntime().availableProcessors(),
+						ioThreads, inflight);
+				geschrieben = verarbeiteFilesInStufen(vorbereiteteNamen, inputDirName, outputDirName, schluessel, sv, manifest);
+				System.out.println(sv.zusammenfassung());
+			} else if (threads > 1) {
+				verarbeiter = new ParallelVerarbeiter(threads, inflight);
+				geschrieben = verarbeiteFilesParallel(vorbereiteteNamen, inputDirName, outputDirName, schluessel, streaming, format, verarbeiter, manifest);
+			} else if (streaming) {
+				geschrieben = verarbeiteFilesStreaming(vorbereiteteNamen, inputDirName, outputDirName, schluessel, format, manifest);
+			} else {
+				geschrieben = verarbeiteFiles(vorbereiteteNamen, inputDirName, outputDirName, schluessel, manifest);
+			}
+			if (!buendel.isEmpty()) {
+				geschrieben.addAll(verarbeiteBuendelStreaming(buendel, inputDirName, outputDirName, schluessel, format, verarbeiter, manifest));
+			}
+			if (param.istGesetzt("unpack")) {
+				entpackeZips(geschrieben);
+			}
+		} finally {
+			schluessel.close();
+			if (manifest != null) {
+				manifest.close();
+			}
+		}
+		if (kompression != null) {
+			System.out.println(kompression.zusammenfassung());
+		}
+		if (param.istGesetzt("metrics")) {
+			String bericht = param.getWert("metrics", "true");
+			if ("true".equals(bericht)) {
+				System.out.println(Metriken.alsJson());
+			} else {
+				Metriken.schreibeJson(new File(bericht));
+				System.out.println("Metriken geschrieben nach " + bericht);
+			}
+		}
 		
 	}
 	
@@ -143,39 +435,19 @@ public class Application {
 		return eingabe;
 	}
 	
-	/**
-	 * Umweg über Swing, weil das ein unsichtbares Passworteingabefeld kennt.
-	 * @param meldung
-	 * @return
-	 */
-	private static String passphraseEingabe(String meldung) {
-		final JPasswordField pf = new JPasswordField(); 
-		String result = JOptionPane.showConfirmDialog(null, pf, meldung,
-				JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE ) == JOptionPane.OK_OPTION ? new String( pf.getPassword() ) : "";
-		return result;
-	}
-
 	/**
 	 * Hier wird das Quellverzeichnis gescannt. 
 	 * @param filenamen - Liste der Dateinamen
 	 * @param inputDirName - Quelle
+	 * @param manifest - bekommt mit, welches Zip aus welcher Datei entstanden ist, null ohne Manifest
 	 * @return Liste der zu verarbeitenden Dateinamen
-	 * @throws CryptoException
 	 * @throws IOException
 	 */
-	private static List<String> zippeAllePlainFiles(List<String> filenamen, String inputDirName) throws CryptoException, IOException {
+	private static List<String> zippeAllePlainFiles(List<String> filenamen, String inputDirName, Manifest manifest) throws IOException {
 		List<String> ergebnis = new ArrayList<String>();
-		CryptoHID tmpHID = new CryptoHID();
 		for (String element : filenamen) {
-			if (!element.endsWith(".AES256") && !(element.endsWith(".zip") || element.endsWith(".ZIP"))) {
-				File inputFile = new File(inputDirName + "/" + element);
-				String newElementName = randomAbisZString(12);
-				File zipOutputFile = new File(inputDirName + "/" + newElementName + ".zip");
-				ZipEntry elementZipEntry = new ZipEntry(element);
-				byte[] elementData = tmpHID.binaryReadWholeFile(inputFile);
-				System.out.println("Zipping... Schreibe " + zipOutputFile.getCanonicalPath());
-				ZippingTools.writeZipEntryToNewZipFile(zipOutputFile, elementZipEntry, elementData);
-				ergebnis.add(newElementName + ".zip");
+			if (istPlainFile(element)) {
+				ergebnis.add(zippePlainFile(element, inputDirName, manifest));
 			} else {
 				ergebnis.add(element);
 			}
@@ -183,6 +455,200 @@ public class Application {
 		return ergebnis;
 	}
 	
+	/**
+	 * Sucht unter den Plain Files die mit gleichem Inhalt, merkt sie sich in {@link #kopien} und nimmt die Kopien
+	 * aus der Liste.
+	 * @param filenamen - alle Dateinamen
+	 * @param inputDirName - Quelle
+	 * @return die Dateinamen ohne Kopien
+	 * @throws IOException
+	 */
+	private static List<String> ohneKopien(List<String> filenamen, String inputDirName) throws IOException {
+		List<String> plain = new ArrayList<String>();
+		for (String element : filenamen) {
+			if (istPlainFile(element)) {
+				plain.add(element);
+			}
+		}
+		kopien = Deduplizierung.findeKopien(plain, inputDirName, Long.MAX_VALUE);
+		List<String> ergebnis = new ArrayList<String>(filenamen);
+		long gespart = 0;
+		int anzahl = 0;
+		for (String original : kopien.keySet()) {
+			for (String kopie : kopien.get(original)) {
+				System.out.println("   " + kopie + " ist gleich wie " + original + ", wird nur verwiesen");
+				ergebnis.remove(kopie);
+				gespart += new File(inputDirName + "/" + kopie).length();
+				anzahl++;
+			}
+		}
+		if (anzahl > 0) {
+			System.out.println(anzahl + " Kopien, " + gespart + " Bytes werden nicht noch einmal verarbeitet");
+		}
+		return ergebnis;
+	}
+	
+	/**
+	 * @param elemente - die Plain Files eines Archivs
+	 * @return Name und Inhalt des Verweis-Eintrags, leer wenn keine der Dateien Kopien hat
+	 */
+	private static Map<String, byte[]> verweisEintrag(List<String> elemente) {
+		byte[] verweise = Deduplizierung.verweise(kopien, elemente);
+		return verweise == null ? Collections.<String, byte[]>emptyMap() : Collections.singletonMap(Deduplizierung.VERWEISE, verweise);
+	}
+	
+	/**
+	 * @param elemente - Dateinamen
+	 * @param inputDirName - Quelle
+	 * @return die Dateien samt ihrer Kopien, für das Manifest
+	 */
+	private static List<File> mitKopien(List<String> elemente, String inputDirName) {
+		List<File> ergebnis = new ArrayList<File>();
+		for (String element : elemente) {
+			ergebnis.add(new File(inputDirName + "/" + element));
+			if (kopien.containsKey(element)) {
+				for (String kopie : kopien.get(element)) {
+					ergebnis.add(new File(inputDirName + "/" + kopie));
+				}
+			}
+		}
+		return ergebnis;
+	}
+	
+	/**
+	 * @param element - Dateiname
+	 * @return true, wenn die Datei weder .AES256 (bzw. ein Volume davon) noch .zip ist, also erst gezippt werden muss
+	 */
+	private static boolean istPlainFile(String element) {
+		return !istAesName(element) && !Volumen.istFolgevolumen(element) && !(element.endsWith(".zip") || element.endsWith(".ZIP"));
+	}
+	
+	/**
+	 * @param element - Dateiname
+	 * @return true für .AES256-Dateien und das erste Volume einer aufgeteilten (.AES256.001), das für alle steht
+	 */
+	private static boolean istAesName(String element) {
+		return element.endsWith(".AES256") || Volumen.istErstesVolumen(element);
+	}
+	
+	/**
+	 * @param element - Name einer .AES256-Datei oder ihres ersten Volumes
+	 * @return der Name ohne .AES256 (und ohne Volume-Nummer)
+	 */
+	private static String klartextName(String element) {
+		String name = Volumen.basisName(element);
+		return name.substring(0, name.lastIndexOf("."));
+	}
+	
+	/**
+	 * @param outFile - die .AES256-Datei, die geschrieben werden sollte
+	 * @return mit <code>--volume</code> das erste Volume, sonst <i>outFile</i>
+	 */
+	private static File ausgabeDatei(File outFile) {
+		return volumenGroesse > 0 ? Volumen.datei(outFile, 1) : outFile;
+	}
+	
+	/**
+	 * Zippt eine einzelne Datei unter zufälligem Namen ins Quellverzeichnis. Die Datei wird dabei nicht als Ganzes
+	 * gelesen, sie darf also auch größer als 2 GB sein.
+	 * @param element - Dateiname
+	 * @param inputDirName - Quelle
+	 * @param manifest - bekommt mit, aus welcher Datei das Zip entstanden ist, null ohne Manifest
+	 * @return der Name des neuen Zip-Files
+	 * @throws IOException
+	 */
+	private static String zippePlainFile(String element, String inputDirName, Manifest manifest) throws IOException {
+		File inputFile = new File(inputDirName + "/" + element);
+		String newElementName = randomAbisZString(12);
+		File zipOutputFile = new File(inputDirName + "/" + newElementName + ".zip");
+		ZipEntry elementZipEntry = new ZipEntry(element);
+		System.out.println("Zipping... Schreibe " + zipOutputFile.getCanonicalPath());
+		Map<String, byte[]> verweis = verweisEintrag(Collections.singletonList(element));
+		if (verweis.isEmpty()) {
+			ZippingTools.writeZipEntryToNewZipFile(zipOutputFile, elementZipEntry, inputFile, kompression);
+		} else {
+			ZipSchreiber zip = ZipSchreiber.nach(zipOutputFile).mitKompression(kompression);
+			try {
+				zip.eintrag(elementZipEntry, inputFile.toPath());
+				for (String name : verweis.keySet()) {
+					zip.eintrag(new ZipEntry(name), verweis.get(name));
+				}
+			} finally {
+				zip.close();
+			}
+		}
+		if (manifest != null) {
+			manifest.ordneZu(zipOutputFile, mitKopien(Collections.singletonList(element), inputDirName));
+		}
+		return newElementName + ".zip";
+	}
+	
+	/**
+	 * Verteilt die Plain Files auf Archive. Ein Archiv wird geschlossen, sobald die nächste Datei die Obergrenze
+	 * überschreiten würde; eine Datei, die allein schon größer ist, bekommt ein eigenes Archiv.
+	 * @param filenamen - alle Dateinamen, nur die Plain Files werden verteilt
+	 * @param inputDirName - Quelle
+	 * @param maxBytes - Obergrenze der Rohdaten pro Archiv
+	 * @return Key: zufälliger Archivname (.zip), Value: die Dateinamen darin, in Eingabe-Reihenfolge
+	 */
+	private static Map<String, List<String>> bildeBuendel(List<String> filenamen, String inputDirName, long maxBytes) {
+		Map<String, List<String>> ergebnis = new LinkedHashMap<String, List<String>>();
+		List<String> aktuell = new ArrayList<String>();
+		long summe = 0;
+		for (String element : filenamen) {
+			if (!istPlainFile(element)) {
+				continue;
+			}
+			long laenge = new File(inputDirName + "/" + element).length();
+			if (!aktuell.isEmpty() && summe + laenge > maxBytes) {
+				ergebnis.put(randomAbisZString(12) + ".zip", aktuell);
+				aktuell = new ArrayList<String>();
+				summe = 0;
+			}
+			aktuell.add(element);
+			summe += laenge;
+		}
+		if (!aktuell.isEmpty()) {
+			ergebnis.put(randomAbisZString(12) + ".zip", aktuell);
+		}
+		return ergebnis;
+	}
+	
+	/**
+	 * Schreibt jedes Bündel als ein Zip mit mehreren Einträgen ins Quellverzeichnis. Die Dateien werden eine nach der
+	 * anderen durchgestreamt (siehe {@link ZipSchreiber}), im Speicher ist also nur ein Puffer, egal wie groß das Bündel ist.
+	 * @param buendel - Archivname und seine Dateien
+	 * @param inputDirName - Quelle
+	 * @param manifest - bekommt mit, welches Zip aus welchen Dateien entstanden ist, null ohne Manifest
+	 * @return die Namen der geschriebenen Zip-Files
+	 * @throws IOException
+	 */
+	private static List<String> zippeBuendel(Map<String, List<String>> buendel, String inputDirName, Manifest manifest) throws IOException {
+		List<String> ergebnis = new ArrayList<String>();
+		for (String archiv : buendel.keySet()) {
+			File zipOutputFile = new File(inputDirName + "/" + archiv);
+			System.out.println("Zipping " + buendel.get(archiv).size() + " Dateien... Schreibe " + zipOutputFile.getCanonicalPath());
+			ZipSchreiber zip = ZipSchreiber.nach(zipOutputFile).mitKompression(kompression);
+			try {
+				for (String element : buendel.get(archiv)) { // Reihenfolge wie im Verzeichnis
+					zip.eintrag(new ZipEntry(element), new File(inputDirName + "/" + element).toPath());
+				}
+				Map<String, byte[]> verweis = verweisEintrag(buendel.get(archiv));
+				for (String name : verweis.keySet()) {
+					zip.eintrag(new ZipEntry(name), verweis.get(name));
+				}
+			} finally {
+				zip.close();
+			}
+			List<File> quellen = mitKopien(buendel.get(archiv), inputDirName);
+			if (manifest != null) {
+				manifest.ordneZu(zipOutputFile, quellen);
+			}
+			ergebnis.add(archiv);
+		}
+		return ergebnis;
+	}
+	
 	/**
 	 * Wie der Name suggeriert liefert es n Stellen lange, zufällige Strings mit Großbuchstaben.
 	 * Das ist nützlich, wenn man garantiert gültige Dateinamen erzeugen will.
@@ -210,38 +676,707 @@ public class Application {
 	 * @param filenamen - Liste der Filenamen
 	 * @param inputDir - Quelle
 	 * @param outputDir - Ziel
-	 * @param passphrase - für AES
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param manifest - jede fertige Datei wird sofort vermerkt, null ohne Manifest
+	 * @return die geschriebenen Dateien
 	 * @throws IOException
 	 * @throws CryptoException
 	 */
-	private static void verarbeiteFiles(List<String> filenamen, String inputDir, String outputDir, String passphrase) throws IOException, CryptoException {
+	private static List<File> verarbeiteFiles(List<String> filenamen, String inputDir, String outputDir, Schluesselverwaltung schluessel, Manifest manifest) throws IOException, CryptoException {
+		List<File> geschrieben = new ArrayList<File>();
 		CryptoHID hid = new CryptoHID();
 		for (String element : filenamen) {
-			System.out.println("Verarbeite " + element);
-			File inFile = new File(inputDir + "/" + element);
-			byte[] inData = hid.binaryReadWholeFile(inFile);
-			byte[] outData = null;
-			File outFile = null;
-			if (element.endsWith(".AES256")) {
-				System.out.println("  Das ist ein AES File -> entschlüssele...");
-				String tmpName = outputDir + "/" + element.substring(0, element.lastIndexOf("."));
-				outFile = new File(tmpName);
-				System.out.println("   ... nach " + outFile.getCanonicalPath());
-				outData = hid.aes256_decrypt(passphrase, inData);
+			long t = Metriken.start();
+			File outFile = verarbeiteFile(hid, element, inputDir, outputDir, schluessel);
+			if (outFile != null) {
+				Metriken.erfasse(Messpunkt.DATEI, t, new File(inputDir + "/" + element).length(), outFile.length());
+				geschrieben.add(outFile);
+				vermerke(manifest, inputDir, element, outFile);
+			}
+			System.out.println();
+		}
+		return geschrieben;
+	}
+	
+	/**
+	 * Ver- oder entschlüsselt eine einzelne Datei, je nach Endung.
+	 * @param hid - CryptoHID für Lesen, Schreiben und AES
+	 * @param element - Dateiname
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @return die geschriebene Datei, null wenn übersprungen
+	 * @throws IOException
+	 * @throws CryptoException
+	 */
+	private static File verarbeiteFile(CryptoHID hid, String element, String inputDir, String outputDir, Schluesselverwaltung schluessel) throws IOException, CryptoException {
+		System.out.println("Verarbeite " + element);
+		File inFile = new File(inputDir + "/" + element);
+		byte[] outData = null;
+		File outFile = null;
+		if (istAesName(element)) {
+			System.out.println("  Das ist ein AES File -> entschlüssele...");
+			String tmpName = outputDir + "/" + klartextName(element);
+			outFile = zielDatei(tmpName);
+			if (direktEntpacken && istZipName(tmpName)) {
+				return entschluesseleUndEntpacke(hid, inFile, outFile.getParentFile(), schluessel);
+			}
+			System.out.println("   ... nach " + outFile.getCanonicalPath());
+			if (Volumen.formatVon(inFile) != AesFormat.LEGACY) {
+				System.out.println("  (Stream- oder Container-Format, entschlüssele ohne Zwischenspeicher)");
+				StreamingTools.entschluessele(inFile, outFile, schluessel);
+				return outFile;
+			}
+			byte[] inData = lese(hid, inFile);
+			outData = entschluessele(hid, schluessel, inData);
 
-			} else if (element.endsWith(".zip") || element.endsWith(".ZIP")){
-				System.out.println("  Das ist ein ZIP File -> verschlüssele...");
-				outFile = new File(outputDir + "/" + element + ".AES256");
-				System.out.println("   ... nach " + outFile.getCanonicalPath());
-				outData = hid.aes256_encrypt(passphrase, inData);
+		} else if (element.endsWith(".zip") || element.endsWith(".ZIP")){
+			System.out.println("  Das ist ein ZIP File -> verschlüssele...");
+			outFile = zielDatei(outputDir + "/" + element + ".AES256");
+			System.out.println("   ... nach " + outFile.getCanonicalPath());
+			if (inFile.length() > GANZ_IM_SPEICHER_MAX) {
+				System.out.println("  (zu groß für das alte Format, verschlüssele im Stream-Format über FileChannel)");
+				StreamingTools.verschluessele(inFile, outFile, schluessel, AesFormat.STREAM);
+				return outFile;
+			}
+			byte[] inData = lese(hid, inFile);
+			outData = verschluessele(hid, schluessel, inData);
 
+		} else {
+			System.out.println("Weder ZIP noch AES File. Skipping " + element);
+			return null;
+		}
+		System.out.println("-> schreibe " + outFile.getCanonicalPath());
+		schreibe(hid, outFile, outData);
+		return outFile;
+	}
+	
+	/**
+	 * Wie {@link #verarbeiteFiles(List, String, String, Schluesselverwaltung, Manifest)}, aber jede Datei geht in einem Durchgang durch
+	 * Zip und AES. Plain Files werden dabei direkt ins Ziel gezippt und verschlüsselt (zufälliger Name wie gehabt),
+	 * im Quellverzeichnis entsteht nichts. Alte .AES256-Dateien (CryptoHID) werden wie bisher ganz gelesen.
+	 * @param filenamen - Liste der Filenamen, <b>nicht</b> vorher gezippt
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param format - Format der neuen .AES256-Dateien (STREAM oder CONTAINER)
+	 * @param manifest - jede fertige Datei wird sofort vermerkt, null ohne Manifest
+	 * @return die geschriebenen Dateien
+	 * @throws IOException
+	 * @throws CryptoException
+	 */
+	private static List<File> verarbeiteFilesStreaming(List<String> filenamen, String inputDir, String outputDir, Schluesselverwaltung schluessel, AesFormat format, Manifest manifest) throws IOException, CryptoException {
+		List<File> geschrieben = new ArrayList<File>();
+		CryptoHID hid = new CryptoHID();
+		for (String element : filenamen) {
+			long t = Metriken.start();
+			File outFile = verarbeiteFileStreaming(hid, element, inputDir, outputDir, schluessel, format);
+			Metriken.erfasse(Messpunkt.DATEI, t, new File(inputDir + "/" + element).length(), outFile.length());
+			geschrieben.add(outFile);
+			vermerke(manifest, inputDir, element, outFile);
+			System.out.println();
+		}
+		return geschrieben;
+	}
+	
+	/**
+	 * Streaming-Variante von {@link #verarbeiteFile(CryptoHID, String, String, String, Schluesselverwaltung)} für eine einzelne Datei.
+	 * @param hid - nur für alte .AES256-Dateien
+	 * @param element - Dateiname, <b>nicht</b> vorher gezippt
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param format - Format der neuen .AES256-Dateien (STREAM oder CONTAINER)
+	 * @return die geschriebene Datei
+	 * @throws IOException
+	 * @throws CryptoException
+	 */
+	private static File verarbeiteFileStreaming(CryptoHID hid, String element, String inputDir, String outputDir, Schluesselverwaltung schluessel, AesFormat format) throws IOException, CryptoException {
+		System.out.println("Verarbeite " + element);
+		File inFile = new File(inputDir + "/" + element);
+		File outFile = null;
+		if (istAesName(element)) {
+			outFile = zielDatei(outputDir + "/" + klartextName(element));
+			if (direktEntpacken && istZipName(outFile.getName())) {
+				return entschluesseleUndEntpacke(hid, inFile, outFile.getParentFile(), schluessel);
+			}
+			System.out.println("  Das ist ein AES File -> entschlüssele nach " + outFile.getCanonicalPath());
+			if (Volumen.formatVon(inFile) != AesFormat.LEGACY) {
+				StreamingTools.entschluessele(inFile, outFile, schluessel);
 			} else {
-				System.out.println("Weder ZIP noch AES File. Skipping " + element);
+				schreibe(hid, outFile, entschluessele(hid, schluessel, lese(hid, inFile)));
+			}
+		} else if (element.endsWith(".zip") || element.endsWith(".ZIP")) {
+			outFile = zielDatei(outputDir + "/" + element + ".AES256");
+			System.out.println("  Das ist ein ZIP File -> verschlüssele nach " + outFile.getCanonicalPath());
+			StreamingTools.verschluessele(inFile, outFile, schluessel, format, volumenGroesse);
+			outFile = ausgabeDatei(outFile);
+		} else {
+			outFile = new File(outputDir + "/" + randomAbisZString(12) + ".zip.AES256");
+			System.out.println("  Zippe und verschlüssele nach " + outFile.getCanonicalPath());
+			StreamingTools.zippeUndVerschluessele(Collections.singletonList(inFile), Collections.singletonList(element), 
+					verweisEintrag(Collections.singletonList(element)), outFile, schluessel, format, kompression, volumenGroesse);
+			outFile = ausgabeDatei(outFile);
+		}
+		return outFile;
+	}
+	
+	/**
+	 * Im Baum-Modus kann ein Dateiname Unterverzeichnisse enthalten, die es im Ziel noch nicht gibt.
+	 * @param pfad - voller Pfad der Zieldatei
+	 * @return die Zieldatei, ihr Verzeichnis existiert
+	 */
+	private static File zielDatei(String pfad) {
+		File f = new File(pfad);
+		f.getParentFile().mkdirs();
+		return f;
+	}
+	
+	/**
+	 * Verteilt die Dateien auf die Worker des {@link ParallelVerarbeiter}. Plain Files werden dabei vom jeweiligen
+	 * Worker selbst gezippt. Am Ende gibt es eine Zusammenfassung mit allen Fehlern.
+	 * @param filenamen - Liste der Filenamen, <b>nicht</b> vorher gezippt
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param streaming - true für den Streaming-Modus
+	 * @param format - Format der neuen .AES256-Dateien im Streaming-Modus
+	 * @param verarbeiter - der Worker-Pool
+	 * @param manifest - jede fertige Datei wird sofort vermerkt, null ohne Manifest
+	 * @return die erfolgreich geschriebenen Dateien
+	 * @throws InterruptedException
+	 */
+	private static List<File> verarbeiteFilesParallel(List<String> filenamen, final String inputDir, final String outputDir, 
+			final Schluesselverwaltung schluessel, final boolean streaming, final AesFormat format, ParallelVerarbeiter verarbeiter,
+			final Manifest manifest) throws InterruptedException {
+		List<Verarbeitungsergebnis> ergebnisse = verarbeiter.verarbeite(filenamen, 
+				element -> schaetzeKosten(element, inputDir, streaming, format),
+				element -> {
+					CryptoHID hid = new CryptoHID(); // eine pro Worker-Aufgabe, CryptoHID ist nicht als thread-safe dokumentiert
+					File outFile = null;
+					String zipName = element;
+					if (streaming) {
+						outFile = verarbeiteFileStreaming(hid, element, inputDir, outputDir, schluessel, format);
+					} else {
+						zipName = istPlainFile(element) ? zippePlainFile(element, inputDir, manifest) : element;
+						outFile = verarbeiteFile(hid, zipName, inputDir, outputDir, schluessel);
+					}
+					vermerke(manifest, inputDir, zipName, outFile);
+					return outFile;
+				});
+		return meldeErgebnisse(ergebnisse);
+	}
+	
+	/**
+	 * Wie {@link #verarbeiteFiles(List, String, String, Schluesselverwaltung, Manifest)}, aber Lesen, Zip/AES und
+	 * Schreiben laufen als getrennte Stufen im {@link Stufenverarbeiter}: während eine Datei verschlüsselt wird, wird die
+	 * nächste schon gelesen. Plain Files werden dabei im Speicher gezippt, im Quellverzeichnis entsteht nichts.
+	 * <br/>Was nicht ganz in den Speicher soll (Stream- und Container-Dateien, Dateien über 2 GB), läuft komplett in der
+	 * Stufe Rechnen, so wie bei {@link #verarbeiteFileImSpeicher(CryptoHID, String, String, String, Schluesselverwaltung)}.
+	 * @param filenamen - Liste der Filenamen, <b>nicht</b> vorher gezippt
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param stufen - der Stufenverarbeiter
+	 * @param manifest - jede fertig geschriebene Datei wird sofort vermerkt, null ohne Manifest
+	 * @return die erfolgreich geschriebenen Dateien
+	 * @throws InterruptedException
+	 */
+	private static List<File> verarbeiteFilesInStufen(List<String> filenamen, final String inputDir, final String outputDir, 
+			final Schluesselverwaltung schluessel, Stufenverarbeiter stufen, final Manifest manifest) throws InterruptedException {
+		List<Verarbeitungsergebnis> ergebnisse = stufen.verarbeite(filenamen, 
+				element -> schaetzeKosten(element, inputDir, false, null),
+				auftrag -> { // Lesen
+					File inFile = new File(inputDir + "/" + auftrag.getElement());
+					boolean direkt = istAesName(auftrag.getElement()) ? Volumen.formatVon(inFile) != AesFormat.LEGACY 
+							: inFile.length() > GANZ_IM_SPEICHER_MAX;
+					if (!direkt) {
+						auftrag.setDaten(lese(new CryptoHID(), inFile));
+					}
+				},
+				auftrag -> { // Rechnen
+					String element = auftrag.getElement();
+					CryptoHID hid = new CryptoHID();
+					if (auftrag.getDaten() == null) {
+						auftrag.setZiel(verarbeiteFileImSpeicher(hid, element, inputDir, outputDir, schluessel));
+						return;
+					}
+					System.out.println("Verarbeite " + element);
+					if (istAesName(element)) {
+						auftrag.setZiel(zielDatei(outputDir + "/" + klartextName(element)));
+						auftrag.setDaten(entschluessele(hid, schluessel, auftrag.getDaten()));
+					} else if (!istPlainFile(element)) {
+						auftrag.setZiel(zielDatei(outputDir + "/" + element + ".AES256"));
+						auftrag.setDaten(verschluessele(hid, schluessel, auftrag.getDaten()));
+					} else {
+						auftrag.setZiel(new File(outputDir + "/" + randomAbisZString(12) + ".zip.AES256"));
+						ZipEntry ze = new ZipEntry(element);
+						ze.setTime(new File(inputDir + "/" + element).lastModified());
+						byte[] zip = ZippingTools.writeZipEntryToNewZipFile(ze, auftrag.getDaten(), kompression);
+						auftrag.setDaten(null); // Original schon freigeben, bevor AES die Kopie macht
+						auftrag.setDaten(verschluessele(hid, schluessel, zip));
+					}
+				},
+				auftrag -> { // Schreiben
+					if (auftrag.getDaten() != null) {
+						schreibe(new CryptoHID(), auftrag.getZiel(), auftrag.getDaten());
+					}
+					vermerke(manifest, inputDir, auftrag.getElement(), auftrag.getZiel());
+				});
+		return meldeErgebnisse(ergebnisse);
+	}
+	
+	/**
+	 * Verarbeitet alle Dateien, die eine {@link Dateisuche} findet, schon während die Suche noch läuft. Die Ergebnisse
+	 * werden sofort ausgegeben und nicht gesammelt, der Speicher hängt also nicht von der Anzahl der Dateien ab.
+	 * <br/>Ohne <code>--stream</code> wird das Zip im Speicher gebaut statt im Quellverzeichnis, sonst würde die
+	 * laufende Suche die eigenen Zwischen-Zips finden.
+	 * @param suche - die gestartete Suche, liefert Pfade relativ zu inputDir
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel, Unterverzeichnisse werden nachgebaut
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param streaming - true für den Streaming-Modus
+	 * @param format - Format der neuen .AES256-Dateien im Streaming-Modus
+	 * @param verarbeiter - der Worker-Pool (auch mit einem Thread, dann läuft wenigstens die Suche nebenher)
+	 * @param manifest - null ohne Manifest, sonst werden unveränderte Dateien übersprungen
+	 * @param entpacken - entschlüsselte Zips gleich entpacken
+	 * @throws IOException wenn das Quellverzeichnis nicht durchsucht werden kann
+	 * @throws InterruptedException
+	 */
+	private static void verarbeiteBaum(Dateisuche suche, final String inputDir, final String outputDir, final Schluesselverwaltung schluessel, 
+			final boolean streaming, final AesFormat format, ParallelVerarbeiter verarbeiter, final Manifest manifest, final boolean entpacken)
+			throws IOException, InterruptedException {
+		final long[] zaehler = new long[3]; // verarbeitet, übersprungen, Fehler
+		try {
+			verarbeiter.verarbeite(suche, 
+					element -> schaetzeKosten(element, inputDir, streaming, format),
+					baumAufgabe(inputDir, outputDir, schluessel, streaming, format, manifest),
+					ergebnis -> {
+						if (!ergebnis.istErfolgreich()) {
+							zaehler[2]++;
+							System.out.println("   " + ergebnis);
+						} else if (ergebnis.getZielDatei() == null) {
+							zaehler[1]++;
+						} else {
+							zaehler[0]++;
+							System.out.println("   " + ergebnis);
+							if (entpacken) {
+								try {
+									entpackeZips(Collections.singletonList(ergebnis.getZielDatei()));
+								} catch (IOException e) {
+									zaehler[2]++;
+									System.out.println("   Entpacken fehlgeschlagen: " + ergebnis.getZielDatei() + " (" + e.getMessage() + ")");
+								}
+							}
+						}
+					});
+		} finally {
+			suche.close();
+		}
+		if (suche.getFehler() != null) {
+			throw suche.getFehler();
+		}
+		System.out.println(suche.getAnzahlGefunden() + " Dateien gefunden, " + zaehler[0] + " verarbeitet, " 
+				+ zaehler[1] + " unverändert übersprungen, " + zaehler[2] + " Fehler.");
+	}
+	
+	/**
+	 * Die Arbeit für eine Datei im Baum- und im Wächter-Modus: unveränderte Dateien überspringen (mit Manifest), sonst
+	 * ver- oder entschlüsseln, ohne etwas ins Quellverzeichnis zu schreiben.
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel, Unterverzeichnisse werden nachgebaut
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param streaming - true für den Streaming-Modus
+	 * @param format - Format der neuen .AES256-Dateien im Streaming-Modus
+	 * @param manifest - null ohne Manifest
+	 * @return die Aufgabe für den {@link ParallelVerarbeiter}
+	 */
+	private static ParallelVerarbeiter.Aufgabe baumAufgabe(final String inputDir, final String outputDir, final Schluesselverwaltung schluessel, 
+			final boolean streaming, final AesFormat format, final Manifest manifest) {
+		return element -> {
+			File inFile = new File(inputDir + "/" + element);
+			if (Volumen.istFolgevolumen(element) || (manifest != null && manifest.istUnveraendert(inFile))) {
+				return null;
+			}
+			CryptoHID hid = new CryptoHID();
+			File outFile = streaming ? verarbeiteFileStreaming(hid, element, inputDir, outputDir, schluessel, format)
+					: verarbeiteFileImSpeicher(hid, element, inputDir, outputDir, schluessel);
+			vermerke(manifest, inputDir, element, outFile);
+			return outFile;
+		};
+	}
+	
+	/**
+	 * Der Wächter-Modus: bleibt stehen und verarbeitet jede Datei, sobald sie fertig im Quellverzeichnis liegt, bis
+	 * der {@link Verzeichniswaechter} geschlossen wird (Strg-C bzw. SIGTERM, siehe main). Passphrase, Schlüssel und 
+	 * Provider werden also nur einmal aufgebaut.
+	 * <br/>Weil hier keine nächste Datei kommen muss, meldet (und entpackt) jeder Worker sein Ergebnis selbst, sobald
+	 * er fertig ist - der {@link ParallelVerarbeiter} würde das erst beim nächsten Element tun.
+	 * @param waechter - der gestartete Wächter, liefert Pfade relativ zu inputDir
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel, Unterverzeichnisse werden nachgebaut
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param streaming - true für den Streaming-Modus
+	 * @param format - Format der neuen .AES256-Dateien im Streaming-Modus
+	 * @param verarbeiter - der Worker-Pool
+	 * @param manifest - null ohne Manifest, sonst werden unveränderte Dateien übersprungen (auch nach einem Neustart)
+	 * @param entpacken - entschlüsselte Zips gleich entpacken
+	 * @throws IOException wenn die Beobachtung abgebrochen ist
+	 * @throws InterruptedException
+	 */
+	private static void verarbeiteLaufend(Verzeichniswaechter waechter, final String inputDir, final String outputDir, final Schluesselverwaltung schluessel, 
+			final boolean streaming, final AesFormat format, ParallelVerarbeiter verarbeiter, final Manifest manifest, final boolean entpacken)
+			throws IOException, InterruptedException {
+		final ParallelVerarbeiter.Aufgabe aufgabe = baumAufgabe(inputDir, outputDir, schluessel, streaming, format, manifest);
+		final long[] zaehler = new long[3]; // verarbeitet, übersprungen, Fehler
+		System.out.println("Warte auf Dateien in " + inputDir + " (beenden mit Strg-C)");
+		try {
+			verarbeiter.verarbeite(waechter, 
+					element -> schaetzeKosten(element, inputDir, streaming, format),
+					element -> {
+						long start = System.currentTimeMillis();
+						try {
+							File outFile = aufgabe.verarbeite(element);
+							if (outFile != null) {
+								System.out.println("   " + element + " -> " + outFile.getName() + " (" + (System.currentTimeMillis() - start) + " ms)");
+								if (entpacken) {
+									entpackeZips(Collections.singletonList(outFile));
+								}
+							}
+							return outFile;
+						} catch (Exception e) {
+							System.out.println("   " + element + " FEHLER: " + e);
+							throw e;
+						}
+					},
+					ergebnis -> zaehler[!ergebnis.istErfolgreich() ? 2 : ergebnis.getZielDatei() == null ? 1 : 0]++);
+		} finally {
+			waechter.close();
+		}
+		if (waechter.getFehler() != null) {
+			throw waechter.getFehler();
+		}
+		System.out.println("Wächter beendet: " + waechter.getAnzahlGefunden() + " Dateien gesehen, " + zaehler[0] + " verarbeitet, " 
+				+ zaehler[1] + " unverändert übersprungen, " + zaehler[2] + " Fehler.");
+	}
+	
+	/**
+	 * Wie {@link #verarbeiteFile(CryptoHID, String, String, String, Schluesselverwaltung)}, aber ein Plain File wird im
+	 * Speicher gezippt und landet nicht erst im Quellverzeichnis. Das Ergebnis ist das alte CryptoHID-Format.
+	 * @param hid - CryptoHID für Lesen, Schreiben und AES
+	 * @param element - Dateiname relativ zur Quelle, wird so als Name im Zip verwendet
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @return die geschriebene Datei
+	 * @throws IOException
+	 * @throws CryptoException
+	 */
+	private static File verarbeiteFileImSpeicher(CryptoHID hid, String element, String inputDir, String outputDir, Schluesselverwaltung schluessel) throws IOException, CryptoException {
+		if (!istPlainFile(element)) {
+			return verarbeiteFile(hid, element, inputDir, outputDir, schluessel);
+		}
+		File inFile = new File(inputDir + "/" + element);
+		if (inFile.length() > GANZ_IM_SPEICHER_MAX) {
+			System.out.println("  " + element + " ist zu groß für das alte Format, nehme das Stream-Format");
+			return verarbeiteFileStreaming(hid, element, inputDir, outputDir, schluessel, AesFormat.STREAM);
+		}
+		File outFile = new File(outputDir + "/" + randomAbisZString(12) + ".zip.AES256");
+		System.out.println("Zippe und verschlüssele " + element + " nach " + outFile.getCanonicalPath());
+		ZipEntry ze = new ZipEntry(element);
+		ze.setTime(inFile.lastModified());
+		byte[] zip = ZippingTools.writeZipEntryToNewZipFile(ze, lese(hid, inFile), kompression);
+		schreibe(hid, outFile, verschluessele(hid, schluessel, zip));
+		return outFile;
+	}
+	
+	/**
+	 * Wie viele Bytes eine Datei bei der Verarbeitung höchstens gleichzeitig im Speicher hält.
+	 * @param element - Dateiname
+	 * @param inputDir - Quelle
+	 * @param streaming - beim Streaming nur die Puffer, sonst die ganze Datei dreimal (Lesen, Zip, AES)
+	 * @param format - Format der neuen .AES256-Dateien, nur beim Streaming gebraucht
+	 * @return Kosten für das Budget des {@link ParallelVerarbeiter}
+	 */
+	private static long schaetzeKosten(String element, String inputDir, boolean streaming, AesFormat format) {
+		File inFile = new File(inputDir + "/" + element);
+		if (!streaming) {
+			return 3L * inFile.length();
+		}
+		if (!istAesName(element)) {
+			return streamingKosten(format == AesFormat.CONTAINER);
+		}
+		try {
+			return streamingKosten(Volumen.formatVon(inFile) == AesFormat.CONTAINER);
+		} catch (IOException e) {
+			return streamingKosten(true); // die Verarbeitung meldet den Fehler, bis dahin lieber zu viel
+		}
+	}
+	
+	/**
+	 * @param container - im Container-Format sind zusätzlich bis zu {@link StreamingTools#PARALLELITAET} + 1 Segmente
+	 * unterwegs, beim Schreiben wie beim Lesen
+	 * @return Kosten einer Datei beim Streaming für das Budget des {@link ParallelVerarbeiter}
+	 */
+	private static long streamingKosten(boolean container) {
+		long kosten = 4L * StreamingTools.STANDARD_PUFFER;
+		if (container) {
+			kosten += (StreamingTools.PARALLELITAET + 1L) * AesContainerFormat.STANDARD_SEGMENTGROESSE;
+		}
+		return kosten;
+	}
+	
+	/**
+	 * Gibt die Zusammenfassung einer parallelen Verarbeitung aus.
+	 * @param ergebnisse - ein Ergebnis pro Datei
+	 * @return die erfolgreich geschriebenen Dateien
+	 */
+	private static List<File> meldeErgebnisse(List<Verarbeitungsergebnis> ergebnisse) {
+		List<File> geschrieben = new ArrayList<File>();
+		int fehler = 0;
+		System.out.println("Ergebnis:");
+		for (Verarbeitungsergebnis e : ergebnisse) {
+			System.out.println("   " + e);
+			if (!e.istErfolgreich()) {
+				fehler++;
+			} else if (e.getZielDatei() != null) {
+				geschrieben.add(e.getZielDatei());
+			}
+		}
+		System.out.println(ergebnisse.size() + " Dateien verarbeitet, davon " + fehler + " mit Fehler.");
+		return geschrieben;
+	}
+	
+	/**
+	 * Trägt eine fertig verarbeitete Datei ins Manifest ein (falls es eins gibt), samt ihrer Kopien.
+	 * @param manifest - null ohne Manifest
+	 * @param inputDir - Quelle
+	 * @param element - Dateiname, wie er verarbeitet wurde (bei Zwischen-Zips das Zip)
+	 * @param outFile - die geschriebene Datei, null wenn übersprungen
+	 * @throws IOException
+	 */
+	private static void vermerke(Manifest manifest, String inputDir, String element, File outFile) throws IOException {
+		if (manifest != null && outFile != null) {
+			for (File f : mitKopien(Collections.singletonList(element), inputDir)) {
+				manifest.vermerke(f, outFile);
+			}
+		}
+	}
+	
+	/**
+	 * Zippt und verschlüsselt jedes Bündel in einem Durchgang in eine einzige .AES256-Datei. Mit Worker-Pool laufen
+	 * mehrere Bündel gleichzeitig.
+	 * @param buendel - Archivname und seine Dateien
+	 * @param inputDir - Quelle
+	 * @param outputDir - Ziel
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @param verarbeiter - Worker-Pool, null für sequentiell
+	 * @param manifest - alle Dateien eines fertigen Bündels werden vermerkt, null ohne Manifest
+	 * @return die geschriebenen Dateien
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static List<File> verarbeiteBuendelStreaming(final Map<String, List<String>> buendel, final String inputDir, final String outputDir, 
+			final Schluesselverwaltung schluessel, final AesFormat format, ParallelVerarbeiter verarbeiter, final Manifest manifest) throws IOException, InterruptedException {
+		ParallelVerarbeiter.Aufgabe aufgabe = archiv -> {
+			List<File> quellen = new ArrayList<File>();
+			for (String element : buendel.get(archiv)) {
+				quellen.add(new File(inputDir + "/" + element));
+			}
+			File outFile = new File(outputDir + "/" + archiv + ".AES256");
+			System.out.println("Zippe und verschlüssele " + quellen.size() + " Dateien nach " + outFile.getCanonicalPath());
+			StreamingTools.zippeUndVerschluessele(quellen, buendel.get(archiv), verweisEintrag(buendel.get(archiv)), outFile, 
+					schluessel, format, kompression, volumenGroesse);
+			outFile = ausgabeDatei(outFile);
+			for (String element : buendel.get(archiv)) {
+				vermerke(manifest, inputDir, element, outFile);
+			}
+			return outFile;
+		};
+		if (verarbeiter != null) {
+			return meldeErgebnisse(verarbeiter.verarbeite(new ArrayList<String>(buendel.keySet()), 
+					archiv -> streamingKosten(format == AesFormat.CONTAINER), aufgabe));
+		}
+		List<File> geschrieben = new ArrayList<File>();
+		for (String archiv : buendel.keySet()) {
+			try {
+				geschrieben.add(aufgabe.verarbeite(archiv));
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("Bündel " + archiv + " konnte nicht verarbeitet werden", e);
+			}
+		}
+		return geschrieben;
+	}
+	
+	/**
+	 * Entpackt alle entschlüsselten Zips dort, wo sie liegen, und löscht danach das Zip. 
+	 * Die Dateien bekommen wieder ihre ursprünglichen Namen.
+	 * @param geschrieben - alle geschriebenen Dateien, nur die .zip-Files werden angefasst
+	 * @throws IOException
+	 */
+	private static void entpackeZips(List<File> geschrieben) throws IOException {
+		for (File f : geschrieben) {
+			String name = f.getName();
+			if (!(name.endsWith(".zip") || name.endsWith(".ZIP"))) {
 				continue;
 			}
-			System.out.println("-> schreibe " + outFile.getCanonicalPath());
-			hid.binaryWriteWholeFile(outFile, outData);
-			System.out.println();
+			System.out.println("Entpacke " + f.getCanonicalPath());
+			meldeEntpackt(ZippingTools.entpackeNach(f, f.getParentFile()), f.getParentFile());
+			f.delete();
+		}
+	}
+	
+	/**
+	 * Gibt die entpackten Dateien aus und legt die Kopien aus einer Deduplizierung wieder an.
+	 * @param entpackt - was entpackt wurde
+	 * @param verzeichnis - wohin
+	 * @throws IOException
+	 */
+	private static void meldeEntpackt(List<File> entpackt, File verzeichnis) throws IOException {
+		for (File datei : entpackt) {
+			if (datei.equals(new File(verzeichnis, Deduplizierung.VERWEISE))) {
+				for (File kopie : Deduplizierung.stelleWiederHer(datei, verzeichnis)) {
+					System.out.println("   -> " + kopie.getName() + " (Kopie)");
+				}
+			} else {
+				System.out.println("   -> " + datei.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Entschlüsselt ein .AES256-Zip und entpackt es in einem Durchgang, ohne Zwischen-Zip. Das alte Format kann
+	 * CryptoHID nur als Ganzes, da wird wenigstens das Zip nicht auf die Platte geschrieben.
+	 * @param hid - nur für das alte Format
+	 * @param inFile - die .AES256-Datei
+	 * @param zielVerzeichnis - wohin entpackt wird
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @return das Zielverzeichnis (für Manifest und Ergebnis)
+	 * @throws IOException
+	 * @throws CryptoException
+	 */
+	private static File entschluesseleUndEntpacke(CryptoHID hid, File inFile, File zielVerzeichnis, Schluesselverwaltung schluessel) throws IOException, CryptoException {
+		System.out.println("  Das ist ein AES-Zip -> entschlüssele und entpacke nach " + zielVerzeichnis.getCanonicalPath());
+		List<File> entpackt;
+		if (Volumen.formatVon(inFile) != AesFormat.LEGACY) {
+			entpackt = StreamingTools.entschluesseleUndEntpacke(inFile, zielVerzeichnis, schluessel);
+		} else {
+			entpackt = ZippingTools.entpackeNach(new ByteArrayInputStream(entschluessele(hid, schluessel, lese(hid, inFile))), zielVerzeichnis);
+		}
+		meldeEntpackt(entpackt, zielVerzeichnis);
+		return zielVerzeichnis;
+	}
+	
+	/**
+	 * Prüft alle .AES256-Dateien, ohne etwas zu schreiben, und gibt pro Datei das Ergebnis aus.
+	 * @param filenamen - alle Dateinamen, nur .AES256 wird geprüft
+	 * @param inputDir - Quelle
+	 * @param schluessel - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der fehlerhaften Dateien
+	 * @throws CryptoException
+	 */
+	private static int pruefeAlle(List<String> filenamen, String inputDir, Schluesselverwaltung schluessel) throws CryptoException {
+		CryptoHID hid = new CryptoHID();
+		int fehler = 0;
+		int geprueft = 0;
+		for (String element : filenamen) {
+			if (!istAesName(element)) {
+				continue;
+			}
+			File inFile = new File(inputDir + "/" + element);
+			geprueft++;
+			try {
+				boolean zip = istZipName(klartextName(element));
+				if (Volumen.formatVon(inFile) == AesFormat.LEGACY) {
+					byte[] klartext = entschluessele(hid, schluessel, lese(hid, inFile));
+					System.out.println("   OK " + element + (zip ? " (" + ZippingTools.pruefe(new ByteArrayInputStream(klartext)) + " Einträge)" : ""));
+				} else {
+					int eintraege = StreamingTools.pruefe(inFile, schluessel);
+					System.out.println("   OK " + element + (zip ? " (" + eintraege + " Einträge)" : ""));
+				}
+			} catch (IOException | CryptoException | RuntimeException e) {
+				System.out.println("   FEHLER " + element + ": " + e.getMessage());
+				fehler++;
+			}
+		}
+		System.out.println(geprueft + " Dateien geprüft, davon " + fehler + " mit Fehler.");
+		return fehler;
+	}
+	
+	/**
+	 * @param name - Dateiname
+	 * @return true für .zip bzw. .ZIP
+	 */
+	private static boolean istZipName(String name) {
+		return name.endsWith(".zip") || name.endsWith(".ZIP");
+	}
+	
+	/**
+	 * Liest eine ganze Datei über CryptoHID und misst dabei mit (siehe {@link Metriken}).
+	 * @param hid - CryptoHID
+	 * @param f - die Datei
+	 * @return der Inhalt
+	 * @throws CryptoException
+	 * @throws IOException
+	 */
+	private static byte[] lese(CryptoHID hid, File f) throws CryptoException, IOException {
+		long t = Metriken.start();
+		byte[] daten = hid.binaryReadWholeFile(f);
+		Metriken.erfasse(Messpunkt.LESEN, t, daten.length, daten.length);
+		return daten;
+	}
+	
+	/**
+	 * Schreibt eine ganze Datei über CryptoHID und misst dabei mit.
+	 * @param hid - CryptoHID
+	 * @param f - die Datei
+	 * @param daten - der Inhalt
+	 * @throws CryptoException
+	 * @throws IOException
+	 */
+	private static void schreibe(CryptoHID hid, File f, byte[] daten) throws CryptoException, IOException {
+		long t = Metriken.start();
+		hid.binaryWriteWholeFile(f, daten);
+		Metriken.erfasse(Messpunkt.SCHREIBEN, t, daten.length, daten.length);
+	}
+	
+	/**
+	 * Verschlüsselt im alten CryptoHID-Format und misst dabei mit (inklusive der KDF, die CryptoHID selbst macht).
+	 * @param hid - CryptoHID
+	 * @param schluessel - liefert die Passphrase
+	 * @param daten - Klartext
+	 * @return das Chiffrat
+	 * @throws CryptoException
+	 * @throws IOException
+	 */
+	private static byte[] verschluessele(CryptoHID hid, Schluesselverwaltung schluessel, byte[] daten) throws CryptoException, IOException {
+		long t = Metriken.start();
+		byte[] ergebnis = hid.aes256_encrypt(schluessel.getPassphrase(), daten);
+		Metriken.erfasse(Messpunkt.VERSCHLUESSELN, t, daten.length, ergebnis.length);
+		return ergebnis;
+	}
+	
+	/**
+	 * Entschlüsselt im alten CryptoHID-Format und misst dabei mit.
+	 * @param hid - CryptoHID
+	 * @param schluessel - liefert die Passphrase
+	 * @param daten - Chiffrat
+	 * @return der Klartext
+	 * @throws CryptoException
+	 * @throws IOException
+	 */
+	private static byte[] entschluessele(CryptoHID hid, Schluesselverwaltung schluessel, byte[] daten) throws CryptoException, IOException {
+		long t = Metriken.start();
+		try {
+			byte[] ergebnis = hid.aes256_decrypt(schluessel.getPassphrase(), daten);
+			Metriken.erfasse(Messpunkt.ENTSCHLUESSELN, t, daten.length, ergebnis.length);
+			return ergebnis;
+		} catch (CryptoException | IOException e) {
+			Metriken.erfasseFehler(Messpunkt.ENTSCHLUESSELN);
+			throw e;
 		}
 	}
 	
@@ -295,7 +1430,7 @@ public class Application {
 		File[] files = new File(verzeichnis).listFiles(); // wäre null wenn kein Verzeichnis, kann aber nicht passieren
 		System.out.println("Scanne ...");
 		for (File file : files) {
-		    if (file.isFile()) {
+		    if (file.isFile() && !Volumen.istFolgevolumen(file.getName())) { // die weiteren Volumes liest das erste mit
 		    	System.out.println("  " + file.getName());
 		        results.add(file.getName());
 		    }
@@ -0,0 +1,111 @@
+package at.diwh.cryptoPrimitive.main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zerlegt die Kommandozeile in Positionsparameter (Input-Directory, Output-Directory) und Optionen.
+ * <br/>Optionen beginnen mit <code>--</code> und haben entweder einen Wert (<code>--name=wert</code>) oder sind
+ * reine Schalter (<code>--name</code>). Die Reihenfolge ist egal.
+ * @author JavaAlchemist
+ *
+ */
+public class Aufrufparameter {
+
+	private final List<String> positionen = new ArrayList<String>();
+	private final Map<String, String> optionen = new HashMap<String, String>();
+
+	public Aufrufparameter(String[] args) {
+		if (args == null) {
+			return;
+		}
+		for (String element : args) {
+			if (element.startsWith("--") && element.length() > 2) {
+				int gleich = element.indexOf('=');
+				if (gleich < 0) {
+					optionen.put(element.substring(2), "true");
+				} else {
+					optionen.put(element.substring(2, gleich), element.substring(gleich + 1));
+				}
+			} else {
+				positionen.add(element);
+			}
+		}
+	}
+
+	/**
+	 * @return alle Parameter, die keine Optionen sind, in der Reihenfolge der Kommandozeile
+	 */
+	public List<String> getPositionen() {
+		return positionen;
+	}
+
+	/**
+	 * @param name - Name der Option ohne <code>--</code>
+	 * @return true, wenn die Option angegeben wurde (mit oder ohne Wert)
+	 */
+	public boolean istGesetzt(String name) {
+		return optionen.containsKey(name);
+	}
+
+	/**
+	 * @param name - Name der Option ohne <code>--</code>
+	 * @param standard - Wert, falls die Option fehlt
+	 * @return den Wert der Option oder den Standard
+	 */
+	public String getWert(String name, String standard) {
+		String wert = optionen.get(name);
+		return wert == null ? standard : wert;
+	}
+
+	/**
+	 * @param name - Name der Option ohne <code>--</code>
+	 * @param standard - Wert, falls die Option fehlt
+	 * @return den Wert der Option als Zahl
+	 * @throws IllegalArgumentException wenn der Wert keine Zahl ist
+	 */
+	public int getZahl(String name, int standard) {
+		String wert = optionen.get(name);
+		if (wert == null) {
+			return standard;
+		}
+		try {
+			return Integer.parseInt(wert.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option --" + name + " erwartet eine Zahl, nicht " + wert);
+		}
+	}
+
+	/**
+	 * Liest eine Größenangabe wie <code>512k</code>, <code>20m</code> oder <code>2g</code>. Ohne Einheit sind es Bytes.
+	 * @param name - Name der Option ohne <code>--</code>
+	 * @param standard - Wert in Bytes, falls die Option fehlt
+	 * @return die Größe in Bytes
+	 * @throws IllegalArgumentException wenn der Wert keine Größenangabe ist
+	 */
+	public long getByteAngabe(String name, long standard) {
+		String wert = optionen.get(name);
+		if (wert == null) {
+			return standard;
+		}
+		String w = wert.trim().toLowerCase();
+		long faktor = 1;
+		if (w.endsWith("k")) {
+			faktor = 1024L;
+		} else if (w.endsWith("m")) {
+			faktor = 1024L * 1024;
+		} else if (w.endsWith("g")) {
+			faktor = 1024L * 1024 * 1024;
+		}
+		if (faktor > 1) {
+			w = w.substring(0, w.length() - 1);
+		}
+		try {
+			return Long.parseLong(w) * faktor;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option --" + name + " erwartet eine Größe wie 64k oder 20m, nicht " + wert);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package at.diwh.cryptoPrimitive.main;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Holt die Passphrase für einen Lauf. Ohne Option kommt wie bisher der Swing-Dialog (zweimal, zur Kontrolle).
+ * Für Server und Scheduler gibt es Quellen, die ohne Bildschirm auskommen:
+ * <br/>___ <code>--passphraseEnv=NAME</code>: aus der Umgebungsvariable NAME,
+ * <br/>___ <code>--passphraseFile=datei</code>: erste Zeile einer Schlüsseldatei (sollte nur für den Besitzer lesbar sein),
+ * <br/>___ <code>--passphraseFd=n</code>: erste Zeile von File-Descriptor n (0 ist stdin), z.B. <code>3&lt;geheim</code>,
+ * <br/>___ <code>--headless</code> (oder <code>-Djava.awt.headless=true</code>): verdeckt über die Konsole (zweimal, zur Kontrolle).
+ * <br/>Die Swing-Klassen liegen in {@link SwingEingabe} und werden nur geladen, wenn wirklich der Dialog gebraucht
+ * wird. Alle anderen Wege starten also ohne AWT/Swing und funktionieren auch mit <code>java.awt.headless=true</code>.
+ * @author JavaAlchemist
+ *
+ */
+public class Passphrasenquelle {
+
+	private Passphrasenquelle() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * @param param - die Kommandozeile
+	 * @return true, wenn die Passphrase ohne Dialog und ohne Rückfrage kommt (Umgebung, Datei, File-Descriptor)
+	 */
+	public static boolean istNichtInteraktiv(Aufrufparameter param) {
+		return param.istGesetzt("passphraseEnv") || param.istGesetzt("passphraseFile") || param.istGesetzt("passphraseFd");
+	}
+
+	/**
+	 * Holt die Passphrase aus der Quelle, die auf der Kommandozeile gewählt wurde.
+	 * @param param - die Kommandozeile
+	 * @return die Passphrase
+	 * @throws IOException wenn die Quelle nicht gelesen werden kann, leer ist oder die beiden Eingaben sich unterscheiden
+	 */
+	public static String hole(Aufrufparameter param) throws IOException {
+		if (param.istGesetzt("passphraseEnv")) {
+			String name = param.getWert("passphraseEnv", null);
+			return nichtLeer(System.getenv(name), "Umgebungsvariable " + name);
+		}
+		if (param.istGesetzt("passphraseFile")) {
+			File f = new File(param.getWert("passphraseFile", null));
+			warneWennLesbar(f);
+			return nichtLeer(ersteZeile(new FileInputStream(f)), "Schlüsseldatei " + f);
+		}
+		if (param.istGesetzt("passphraseFd")) {
+			int fd = param.getZahl("passphraseFd", 0);
+			// stdin nicht schließen, die anderen gehören nur uns
+			InputStream in = fd == 0 ? System.in : new FileInputStream("/dev/fd/" + fd);
+			return nichtLeer(ersteZeile(in), "File-Descriptor " + fd);
+		}
+		// die Property fragen, nicht GraphicsEnvironment - das würde AWT laden
+		if (param.istGesetzt("headless") || Boolean.getBoolean("java.awt.headless")) {
+			return vonKonsole();
+		}
+		String passphrase = SwingEingabe.frage("Passphrase eingeben");
+		if (!SwingEingabe.frage("Passphrase wiederholen!").equals(passphrase)) {
+			throw new IOException("Eingaben unterscheiden sich!");
+		}
+		return passphrase;
+	}
+
+	private static String vonKonsole() throws IOException {
+		Console konsole = System.console();
+		if (konsole == null) {
+			throw new IOException("Keine Konsole vorhanden, bitte --passphraseEnv, --passphraseFile oder --passphraseFd verwenden");
+		}
+		char[] erste = konsole.readPassword("Passphrase eingeben: ");
+		char[] zweite = konsole.readPassword("Passphrase wiederholen: ");
+		try {
+			if (erste == null || zweite == null) {
+				throw new IOException("Eingabe abgebrochen");
+			}
+			if (!Arrays.equals(erste, zweite)) {
+				throw new IOException("Eingaben unterscheiden sich!");
+			}
+			return nichtLeer(new String(erste), "Konsole");
+		} finally {
+			if (erste != null) {
+				Arrays.fill(erste, ' ');
+			}
+			if (zweite != null) {
+				Arrays.fill(zweite, ' ');
+			}
+		}
+	}
+
+	/**
+	 * Liest die erste Zeile (ohne Zeilenende). Außer bei <code>System.in</code> wird der Stream danach geschlossen.
+	 */
+	private static String ersteZeile(InputStream in) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		try {
+			return r.readLine();
+		} finally {
+			if (in != System.in) {
+				r.close();
+			}
+		}
+	}
+
+	private static String nichtLeer(String passphrase, String quelle) throws IOException {
+		if (passphrase == null || passphrase.isEmpty()) {
+			throw new IOException("Keine Passphrase aus " + quelle);
+		}
+		return passphrase;
+	}
+
+	private static void warneWennLesbar(File f) {
+		try {
+			Set<PosixFilePermission> rechte = Files.getPosixFilePermissions(f.toPath());
+			if (rechte.contains(PosixFilePermission.GROUP_READ) || rechte.contains(PosixFilePermission.OTHERS_READ)) {
+				System.out.println("Warnung: " + f + " ist auch für andere lesbar (chmod 600 empfohlen)");
+			}
+		} catch (UnsupportedOperationException | IOException e) {
+			// kein POSIX (Windows) oder nicht lesbar - dann meldet sich gleich das Lesen selbst
+		}
+	}
+}
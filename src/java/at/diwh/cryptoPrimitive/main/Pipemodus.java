@@ -0,0 +1,144 @@
+package at.diwh.cryptoPrimitive.main;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.Cipherauswahl;
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+import at.diwh.cryptoPrimitive.util.Kompressionsstrategie;
+import at.diwh.cryptoPrimitive.util.StreamingTools;
+
+/**
+ * Der Pipe-Modus (<code>--pipe=zip</code> bzw. <code>--pipe=unzip</code>): statt Verzeichnissen werden stdin und stdout
+ * verarbeitet, damit das Programm mitten in einer Unix-Pipeline stehen kann, z.B.
+ * <br/><code>pg_dump db | java ... --pipe=zip --entry=db.sql --passphraseEnv=PW | ssh host 'cat &gt; db.zip.AES256'</code>
+ * <br/><code>cat db.zip.AES256 | java ... --pipe=unzip --passphraseEnv=PW | psql db</code>
+ * <br/>___ <code>zip</code>: stdin wird als ein Eintrag (<code>--entry=name</code>, Standard "stdin") gezippt und
+ * verschlüsselt, im Stream-Format oder mit <code>--format=container</code> im Container-Format,
+ * <br/>___ <code>unzip</code>: ein .AES256-Zip im Stream-Format von stdin wird entschlüsselt und entpackt, alle Einträge
+ * hintereinander oder mit <code>--entry=name</code> nur einer.
+ * <br/>Es gibt keine temporären Dateien, im Speicher sind nur Puffer fester Größe. Alle Meldungen gehen nach stderr,
+ * stdout gehört den Daten. Die Passphrase darf deshalb nicht von stdin kommen (<code>--passphraseFd=0</code>).
+ * <br/><b>Achtung</b> beim Entschlüsseln: der HMAC steht am Ende des Streams, der Klartext ist da schon weitergereicht.
+ * Ob er stimmt, sagt erst der Exit-Code (0 gut, 18 Fehler) - wie bei gpg.
+ * @author JavaAlchemist
+ *
+ */
+public class Pipemodus {
+
+	private Pipemodus() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Führt den Pipe-Modus aus. Muss laufen, bevor irgendetwas auf System.out geschrieben wird, danach geht System.out
+	 * nach stderr.
+	 * @param param - die Kommandozeile
+	 * @return der Exit-Code: 0 gut, 1 keine Passphrase, 15 Cipher-Anbieter fehlt, 17 falsche Optionen, 18 Fehler beim
+	 * Verarbeiten
+	 */
+	public static int laufe(Aufrufparameter param) {
+		// System.out ist ein PrintStream und verschluckt Fehler (z.B. wenn der Leser der Pipe weg ist), deshalb direkt auf den Descriptor
+		OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), StreamingTools.STANDARD_PUFFER);
+		InputStream stdin = new FileInputStream(FileDescriptor.in);
+		System.setOut(System.err);
+
+		String modus = param.getWert("pipe", "");
+		boolean zippen = "zip".equalsIgnoreCase(modus);
+		if (!zippen && !"unzip".equalsIgnoreCase(modus)) {
+			System.out.println("Fehler: --pipe erwartet zip oder unzip, nicht " + modus);
+			return 17;
+		}
+		if (param.istGesetzt("passphraseFd")) {
+			int fd;
+			try {
+				fd = param.getZahl("passphraseFd", 0);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Fehler: " + e.getMessage());
+				return 17;
+			}
+			if (fd <= 0) {
+				System.out.println("Fehler: im Pipe-Modus trägt stdin die Daten, die Passphrase muss woanders herkommen (--passphraseFd=3 oder höher)");
+				return 17;
+			}
+		}
+		if (param.istGesetzt("volume")) {
+			System.out.println("Fehler: --volume geht nicht im Pipe-Modus, Volumes brauchen Dateien");
+			return 17;
+		}
+		AesFormat format = AesFormat.STREAM;
+		Kompressionsstrategie kompression = null;
+		try {
+			if (zippen) {
+				format = AesFormat.fuerName(param.getWert("format", "stream"));
+				if (format == AesFormat.LEGACY) {
+					throw new IllegalArgumentException("Das alte Format braucht die ganze Datei im Speicher");
+				}
+				if (!"standard".equalsIgnoreCase(param.getWert("compress", "adaptiv"))) {
+					kompression = param.istGesetzt("compressRules") ? Kompressionsstrategie.lade(new File(param.getWert("compressRules", null)))
+							: new Kompressionsstrategie();
+					kompression.setAusgabe(System.out);
+				}
+			}
+			if (param.istGesetzt("cipher")) {
+				Cipherauswahl.setVorgabe(param.getWert("cipher", "auto"));
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			System.out.println("Fehler: " + e.getMessage());
+			return 17;
+		}
+		try {
+			System.out.println("Cipher-Anbieter " + Cipherauswahl.beschreibung(format));
+		} catch (IllegalStateException e) {
+			System.out.println("Fehler: " + e.getMessage());
+			return 15;
+		}
+
+		String passphrase;
+		try {
+			passphrase = Passphrasenquelle.hole(param);
+		} catch (IOException e) {
+			System.out.println("Fehler. " + e.getMessage() + " Abbruch.");
+			return 1;
+		}
+		Schluesselverwaltung schluessel = new Schluesselverwaltung(passphrase);
+		String eintrag = param.getWert("entry", zippen ? "stdin" : null);
+		try {
+			if (zippen) {
+				long n = StreamingTools.zippeUndVerschluessele(stdin, eintrag, stdout, schluessel, format, kompression);
+				System.out.println("stdin: " + n + " Bytes gezippt und verschlüsselt");
+			} else {
+				long n = StreamingTools.entschluesseleUndEntpacke(stdin, eintrag, stdout, schluessel);
+				System.out.println("stdin: " + n + " Bytes entschlüsselt und entpackt, HMAC in Ordnung");
+			}
+			stdout.flush();
+		} catch (IOException e) {
+			System.out.println("Fehler: " + e.getMessage() + (zippen ? "" : " - die Ausgabe ist nicht vertrauenswürdig"));
+			return 18;
+		} finally {
+			schluessel.close();
+		}
+		if (param.istGesetzt("metrics")) {
+			String bericht = param.getWert("metrics", "true");
+			if ("true".equals(bericht)) {
+				System.out.println(Metriken.alsJson());
+			} else {
+				try {
+					Metriken.schreibeJson(new File(bericht));
+					System.out.println("Metriken geschrieben nach " + bericht);
+				} catch (IOException e) {
+					System.out.println("Fehler beim Schreiben der Metriken: " + e.getMessage());
+				}
+			}
+		}
+		return 0;
+	}
+}
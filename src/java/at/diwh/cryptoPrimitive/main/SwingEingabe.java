@@ -0,0 +1,29 @@
+package at.diwh.cryptoPrimitive.main;
+
+import javax.swing.JOptionPane;
+import javax.swing.JPasswordField;
+
+/**
+ * Der Passphrase-Dialog über Swing. Eigene Klasse, damit AWT/Swing erst geladen wird, wenn der Dialog wirklich
+ * aufgeht - siehe {@link Passphrasenquelle}.
+ * @author JavaAlchemist
+ *
+ */
+class SwingEingabe {
+
+	private SwingEingabe() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Umweg über Swing, weil das ein unsichtbares Passworteingabefeld kennt.
+	 * @param meldung - Titel des Dialogs
+	 * @return die Eingabe, leer bei Abbruch
+	 */
+	static String frage(String meldung) {
+		final JPasswordField pf = new JPasswordField();
+		String result = JOptionPane.showConfirmDialog(null, pf, meldung,
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE ) == JOptionPane.OK_OPTION ? new String( pf.getPassword() ) : "";
+		return result;
+	}
+}
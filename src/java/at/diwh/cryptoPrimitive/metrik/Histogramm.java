@@ -0,0 +1,111 @@
+package at.diwh.cryptoPrimitive.metrik;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latenz-Histogramm nach dem Prinzip von HdrHistogram, nur ohne die Abhängigkeit: Werte bis 15 werden exakt gezählt,
+ * darüber hat jede Zweierpotenz 16 Fächer. Jeder Wert landet also in einem Fach, das höchstens gut 6% breit ist,
+ * egal ob es Nanosekunden oder Minuten sind. Dafür reichen knapp 1000 Zähler, fest und ohne Umsortieren.
+ * <br/>Erfassen ist ein paar Bit-Operationen und atomare Inkremente, ohne Lock - das darf also auf jedem heißen Pfad
+ * und aus beliebig vielen Threads passieren.
+ * @author JavaAlchemist
+ *
+ */
+public class Histogramm {
+
+	private static final int UNTER_BITS = 4;
+	private static final int UNTER = 1 << UNTER_BITS;
+	private static final int FAECHER = (64 - UNTER_BITS + 1) * UNTER;
+
+	private final AtomicLongArray zaehler = new AtomicLongArray(FAECHER);
+	private final LongAdder anzahl = new LongAdder();
+	private final LongAdder summe = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param wert - der gemessene Wert (z.B. Nanosekunden), negative zählen als 0
+	 */
+	public void erfasse(long wert) {
+		long w = Math.max(0, wert);
+		zaehler.incrementAndGet(fach(w));
+		anzahl.increment();
+		summe.add(w);
+		long alt = max.get();
+		while (w > alt && !max.compareAndSet(alt, w)) {
+			alt = max.get();
+		}
+	}
+
+	public long getAnzahl() {
+		return anzahl.sum();
+	}
+
+	public long getSumme() {
+		return summe.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return Mittelwert, 0 ohne Werte
+	 */
+	public double getMittelwert() {
+		long n = getAnzahl();
+		return n == 0 ? 0 : (double) getSumme() / n;
+	}
+
+	/**
+	 * @param quantil - zwischen 0 und 1, z.B. 0.99
+	 * @return der Wert, unter dem dieser Anteil der Messungen liegt (Mitte des Fachs, höchstens das Maximum); 0 ohne Werte
+	 */
+	public long getQuantil(double quantil) {
+		long n = getAnzahl();
+		if (n == 0) {
+			return 0;
+		}
+		long rang = Math.max(1, (long) Math.ceil(quantil * n));
+		long gezaehlt = 0;
+		for (int i = 0; i < FAECHER; i++) {
+			gezaehlt += zaehler.get(i);
+			if (gezaehlt >= rang) {
+				return Math.min(mitte(i), getMax());
+			}
+		}
+		return getMax(); // Werte kamen während des Zählens dazu
+	}
+
+	/**
+	 * Setzt alles auf 0. Nicht atomar gegenüber gleichzeitigem Erfassen - gedacht für Tests und Benchmarks.
+	 */
+	public void zuruecksetzen() {
+		for (int i = 0; i < FAECHER; i++) {
+			zaehler.set(i, 0);
+		}
+		anzahl.reset();
+		summe.reset();
+		max.set(0);
+	}
+
+	static int fach(long w) {
+		if (w < UNTER) {
+			return (int) w;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(w);
+		int unter = (int) (w >>> (exponent - UNTER_BITS)) & (UNTER - 1);
+		return (exponent - UNTER_BITS + 1) * UNTER + unter;
+	}
+
+	static long mitte(int fach) {
+		if (fach < UNTER) {
+			return fach;
+		}
+		int exponent = fach / UNTER + UNTER_BITS - 1;
+		long breite = 1L << (exponent - UNTER_BITS);
+		long untergrenze = (UNTER + fach % UNTER) * breite;
+		return untergrenze + breite / 2;
+	}
+}
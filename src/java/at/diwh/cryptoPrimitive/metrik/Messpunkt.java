@@ -0,0 +1,28 @@
+package at.diwh.cryptoPrimitive.metrik;
+
+/**
+ * Die Stellen, an denen gemessen wird. Bytes "ein" sind immer das, was in die Stufe hineingeht, "aus" das, was
+ * herauskommt - beim Zippen also roh und komprimiert, beim Entpacken umgekehrt.
+ * @author JavaAlchemist
+ *
+ */
+public enum Messpunkt {
+	/** Zip schreiben (ZippingTools), ein: Rohdaten, aus: Zip */
+	ZIP,
+	/** Zip lesen bzw. entpacken (ZippingTools), ein: Zip bzw. Eintrag komprimiert, aus: Rohdaten */
+	ENTPACKEN,
+	/** Passphrase strecken (PBKDF2), ohne Bytes */
+	KDF,
+	/** Dateischlüssel aus dem Master-Schlüssel (HKDF), ohne Bytes */
+	DATEISCHLUESSEL,
+	/** AES, ein: Klartext (beim Streaming roh, also inklusive Zip), aus: .AES256 */
+	VERSCHLUESSELN,
+	/** AES, ein: .AES256, aus: Klartext */
+	ENTSCHLUESSELN,
+	/** ganze Datei von der Platte lesen (altes Format) */
+	LESEN,
+	/** ganze Datei auf die Platte schreiben (altes Format) */
+	SCHREIBEN,
+	/** eine Datei komplett, vom Lesen bis zum fertigen Ziel; aus: Zieldatei */
+	DATEI
+}
@@ -0,0 +1,150 @@
+package at.diwh.cryptoPrimitive.metrik;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Die Messwerte eines Programmlaufs, pro {@link Messpunkt} eine {@link StufenMetrik}. Gemessen wird immer (ein
+ * <i>nanoTime</i> und ein paar atomare Additionen pro Aufruf, das fällt neben Zip oder AES nicht auf), angeschaut
+ * wird über JMX ({@link #registriereJmx()}) oder am Ende als JSON ({@link #alsJson()}).
+ * <br/>Gemessen wird so:
+ * <pre>
+ * long t = Metriken.start();
+ * ... die eigentliche Arbeit ...
+ * Metriken.erfasse(Messpunkt.ZIP, t, roh, komprimiert);
+ * </pre>
+ * Wirft die Arbeit eine Exception, wird nichts erfasst (bzw. {@link #erfasseFehler(Messpunkt)}, wo das interessiert).
+ * @author JavaAlchemist
+ *
+ */
+public class Metriken {
+
+	/**
+	 * Domain der MBeans, pro Messpunkt gibt es <code>at.diwh.cryptoPrimitive:type=Metrik,name=ZIP</code> usw.
+	 */
+	public static final String JMX_DOMAIN = "at.diwh.cryptoPrimitive";
+
+	private static final Map<Messpunkt, StufenMetrik> STUFEN = new EnumMap<Messpunkt, StufenMetrik>(Messpunkt.class);
+	private static final long START_NANOS = System.nanoTime();
+	private static final Instant START = Instant.now();
+	private static boolean registriert = false;
+
+	static {
+		for (Messpunkt p : Messpunkt.values()) {
+			STUFEN.put(p, new StufenMetrik(p));
+		}
+	}
+
+	private Metriken() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * @return Startzeitpunkt für {@link #erfasse(Messpunkt, long, long, long)}
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param punkt - was gemessen wurde
+	 * @param start - von {@link #start()}
+	 * @param ein - Bytes hinein, 0 wenn unbekannt
+	 * @param aus - Bytes heraus, 0 wenn unbekannt
+	 */
+	public static void erfasse(Messpunkt punkt, long start, long ein, long aus) {
+		STUFEN.get(punkt).erfasse(System.nanoTime() - start, ein, aus);
+	}
+
+	/**
+	 * @param punkt - wo es schiefgegangen ist
+	 */
+	public static void erfasseFehler(Messpunkt punkt) {
+		STUFEN.get(punkt).erfasseFehler();
+	}
+
+	/**
+	 * @param punkt - der Messpunkt
+	 * @return seine Werte
+	 */
+	public static StufenMetrik get(Messpunkt punkt) {
+		return STUFEN.get(punkt);
+	}
+
+	/**
+	 * Setzt alle Werte zurück (Tests, Benchmarks, oder ein Dienst, der pro Zeitraum berichtet).
+	 */
+	public static void zuruecksetzen() {
+		for (StufenMetrik s : STUFEN.values()) {
+			s.zuruecksetzen();
+		}
+	}
+
+	/**
+	 * Meldet pro Messpunkt ein MBean beim Plattform-MBeanServer an. Mehrfacher Aufruf schadet nicht. Schlägt das fehl
+	 * (z.B. Security Manager), wird nur gewarnt - die Messung selbst läuft weiter.
+	 */
+	public static synchronized void registriereJmx() {
+		if (registriert) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (StufenMetrik s : STUFEN.values()) {
+				ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Metrik,name=" + s.getPunkt().name());
+				if (!server.isRegistered(name)) {
+					server.registerMBean(s, name);
+				}
+			}
+			registriert = true;
+		} catch (JMException | SecurityException e) {
+			System.out.println("Warnung: Metriken können nicht über JMX angemeldet werden (" + e.getMessage() + ")");
+		}
+	}
+
+	/**
+	 * @return alle Messpunkte mit Werten, dazu Start und Laufzeit, als ein JSON-Objekt
+	 */
+	public static String alsJson() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("{\n  \"start\": \"" + START + "\",\n");
+		sb.append("  \"laufzeitMillis\": " + (System.nanoTime() - START_NANOS) / 1000000 + ",\n");
+		sb.append("  \"stufen\": {");
+		boolean erste = true;
+		for (StufenMetrik s : STUFEN.values()) {
+			if (s.getAnzahl() == 0 && s.getFehler() == 0) {
+				continue;
+			}
+			sb.append(erste ? "\n" : ",\n");
+			sb.append("    \"" + s.getPunkt().name() + "\": " + s.alsJson());
+			erste = false;
+		}
+		sb.append(erste ? "}\n}\n" : "\n  }\n}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Schreibt {@link #alsJson()} in eine Datei (UTF-8, wird überschrieben).
+	 * @param f - die Datei
+	 * @throws IOException
+	 */
+	public static void schreibeJson(File f) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(alsJson().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+	}
+}
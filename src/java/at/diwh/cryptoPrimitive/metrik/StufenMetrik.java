@@ -0,0 +1,123 @@
+package at.diwh.cryptoPrimitive.metrik;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zähler und Latenzen eines {@link Messpunkt}s. Alles lock-frei, siehe {@link Histogramm}.
+ * @author JavaAlchemist
+ *
+ */
+public class StufenMetrik implements StufenMetrikMBean {
+
+	private static final double NANOS_PRO_MILLI = 1000000.0;
+
+	private final Messpunkt punkt;
+	private final Histogramm latenz = new Histogramm();
+	private final LongAdder fehler = new LongAdder();
+	private final LongAdder bytesEin = new LongAdder();
+	private final LongAdder bytesAus = new LongAdder();
+
+	StufenMetrik(Messpunkt punkt) {
+		this.punkt = punkt;
+	}
+
+	/**
+	 * @param nanos - Dauer
+	 * @param ein - Bytes hinein, 0 wenn unbekannt
+	 * @param aus - Bytes heraus, 0 wenn unbekannt
+	 */
+	public void erfasse(long nanos, long ein, long aus) {
+		latenz.erfasse(nanos);
+		bytesEin.add(Math.max(0, ein));
+		bytesAus.add(Math.max(0, aus));
+	}
+
+	public void erfasseFehler() {
+		fehler.increment();
+	}
+
+	public Messpunkt getPunkt() {
+		return punkt;
+	}
+
+	public Histogramm getLatenz() {
+		return latenz;
+	}
+
+	@Override
+	public long getAnzahl() {
+		return latenz.getAnzahl();
+	}
+
+	@Override
+	public long getFehler() {
+		return fehler.sum();
+	}
+
+	@Override
+	public long getBytesEin() {
+		return bytesEin.sum();
+	}
+
+	@Override
+	public long getBytesAus() {
+		return bytesAus.sum();
+	}
+
+	@Override
+	public double getVerhaeltnis() {
+		long ein = getBytesEin();
+		return ein == 0 ? 0 : (double) getBytesAus() / ein;
+	}
+
+	@Override
+	public double getMbProSekunde() {
+		long nanos = latenz.getSumme();
+		return nanos == 0 ? 0 : getBytesEin() / (1024.0 * 1024) / (nanos / 1e9);
+	}
+
+	@Override
+	public double getMittelMillis() {
+		return latenz.getMittelwert() / NANOS_PRO_MILLI;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return latenz.getQuantil(0.5) / NANOS_PRO_MILLI;
+	}
+
+	@Override
+	public double getP90Millis() {
+		return latenz.getQuantil(0.9) / NANOS_PRO_MILLI;
+	}
+
+	@Override
+	public double getP99Millis() {
+		return latenz.getQuantil(0.99) / NANOS_PRO_MILLI;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return latenz.getMax() / NANOS_PRO_MILLI;
+	}
+
+	@Override
+	public void zuruecksetzen() {
+		latenz.zuruecksetzen();
+		fehler.reset();
+		bytesEin.reset();
+		bytesAus.reset();
+	}
+
+	/**
+	 * @return die Werte als JSON-Objekt
+	 */
+	String alsJson() {
+		return String.format(Locale.ROOT, "{\"anzahl\": %d, \"fehler\": %d, \"bytesEin\": %d, \"bytesAus\": %d, "
+				+ "\"verhaeltnis\": %.4f, \"mbProSekunde\": %.2f, \"latenzMillis\": {\"mittel\": %.3f, \"p50\": %.3f, "
+				+ "\"p90\": %.3f, \"p99\": %.3f, \"max\": %.3f}}",
+				getAnzahl(), getFehler(), getBytesEin(), getBytesAus(), getVerhaeltnis(), getMbProSekunde(), 
+				getMittelMillis(), getP50Millis(), getP90Millis(), getP99Millis(), getMaxMillis());
+	}
+}
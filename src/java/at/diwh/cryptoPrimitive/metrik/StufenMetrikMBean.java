@@ -0,0 +1,40 @@
+package at.diwh.cryptoPrimitive.metrik;
+
+/**
+ * Was über JMX von einem {@link Messpunkt} zu sehen ist (z.B. in JConsole oder VisualVM unter
+ * <code>at.diwh.cryptoPrimitive</code>). Zeiten in Millisekunden.
+ * @author JavaAlchemist
+ *
+ */
+public interface StufenMetrikMBean {
+
+	long getAnzahl();
+
+	long getFehler();
+
+	long getBytesEin();
+
+	long getBytesAus();
+
+	/**
+	 * @return Bytes aus durch Bytes ein, 0 wenn noch nichts hineinging
+	 */
+	double getVerhaeltnis();
+
+	/**
+	 * @return Bytes ein pro Sekunde Arbeitszeit in MB (nicht pro Sekunde Laufzeit, parallele Arbeit zählt mehrfach)
+	 */
+	double getMbProSekunde();
+
+	double getMittelMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+
+	void zuruecksetzen();
+}
@@ -0,0 +1,39 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream, der direkt in einen vorgegebenen ByteBuffer schreibt. Damit können die Entpack-Methoden, die auf
+ * OutputStreams arbeiten, ohne Zwischenkopie in einen Puffer des Aufrufers entpacken.
+ * <br/>Ist der Buffer voll, gibt es eine IOException statt eines stillen Abschneidens.
+ * @author JavaAlchemist
+ *
+ */
+class ByteBufferAusgabe extends OutputStream {
+
+	private final ByteBuffer ziel;
+
+	ByteBufferAusgabe(ByteBuffer ziel) {
+		this.ziel = ziel;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		pruefePlatz(1);
+		ziel.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		pruefePlatz(len);
+		ziel.put(b, off, len);
+	}
+
+	private void pruefePlatz(int len) throws IOException {
+		if (ziel.remaining() < len) {
+			throw new IOException("Zielpuffer ist zu klein: " + len + " Bytes zu schreiben, nur noch " + ziel.remaining() + " frei");
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import at.diwh.utils.enums.ContentTypes;
+import at.diwh.utils.file.tools.FormatByteAngabe;
+
+/**
+ * Entscheidet pro Zip-Eintrag, wie stark komprimiert wird. Bilder, Videos, PDFs oder Archive werden durch Deflate
+ * nicht kleiner, kosten aber trotzdem CPU - die sollen einfach gespeichert werden.
+ * <br/>Reihenfolge der Entscheidung:
+ * <br/>___ eine Regel für die Dateiendung (z.B. <code>jpg</code>),
+ * <br/>___ sonst eine Regel für den ContentType aus {@link ZippingTools#fetchMimeType(ZipEntry)} (Name der Enum-Konstante),
+ * <br/>___ sonst die Entropie der ersten paar KB: fast zufällige Bytes werden gespeichert, sehr gleichförmige maximal
+ * komprimiert, alles dazwischen bekommt die mittlere Stufe.
+ * <br/>Die Regeln kommen aus einer Properties-Datei (siehe {@link #lade(File)}), ohne Datei gelten die Standards.
+ * <br/>Zu jedem geschriebenen Eintrag wird das erreichte Verhältnis mitgezählt (und, wenn gewünscht, ausgegeben),
+ * damit man die Grenzen nachjustieren kann.
+ * @author JavaAlchemist
+ *
+ */
+public class Kompressionsstrategie {
+
+	/**
+	 * Die möglichen Stufen. STORED heißt im Zip wirklich "gespeichert", wenn die Daten vorher bekannt sind. Beim
+	 * Streaming kennt man CRC und Größe vorher nicht, da wird Deflate mit Stufe 0 geschrieben (kostet fast nichts).
+	 */
+	public enum Stufe {
+		STORED(Deflater.NO_COMPRESSION), SCHNELL(Deflater.BEST_SPEED), STANDARD(Deflater.DEFAULT_COMPRESSION), MAXIMAL(Deflater.BEST_COMPRESSION);
+
+		private final int deflateLevel;
+
+		Stufe(int deflateLevel) {
+			this.deflateLevel = deflateLevel;
+		}
+
+		public int getDeflateLevel() {
+			return deflateLevel;
+		}
+	}
+
+	private static final String[] STANDARD_STORED = { "jpg", "jpeg", "png", "gif", "webp", "heic", "mp3", "m4a", "aac", "ogg",
+			"flac", "mp4", "m4v", "mov", "avi", "mkv", "webm", "pdf", "zip", "7z", "gz", "tgz", "bz2", "xz", "rar", "jar",
+			"docx", "xlsx", "pptx", "odt", "ods", "aes256" };
+
+	private final Map<String, Stufe> regeln = new HashMap<String, Stufe>();
+	private double grenzeStored = 7.5;
+	private double grenzeMaximal = 3.0;
+	private Stufe mittel = Stufe.STANDARD;
+	private int probe = 8 * 1024;
+	private PrintStream ausgabe;
+	// pro Stufe: Anzahl, Bytes roh, Bytes komprimiert
+	private final AtomicLongArray statistik = new AtomicLongArray(Stufe.values().length * 3);
+
+	/**
+	 * Die Standard-Regeln: bekannte Medien- und Archivformate werden gespeichert, der Rest nach Entropie.
+	 */
+	public Kompressionsstrategie() {
+		for (String endung : STANDARD_STORED) {
+			regeln.put(endung, Stufe.STORED);
+		}
+	}
+
+	/**
+	 * Lädt Regeln aus einer Properties-Datei, zusätzlich zu den Standards (gleiche Schlüssel überschreiben). Beispiel:
+	 * <pre>
+	 * stufe.txt=MAXIMAL
+	 * stufe.log=SCHNELL
+	 * stufe.pdf=STANDARD
+	 * stufe.CONTENT_ALLG=SCHNELL
+	 * entropie.stored=7.2
+	 * entropie.maximal=3.5
+	 * mittel=SCHNELL
+	 * probe=16384
+	 * </pre>
+	 * @param f - die Properties-Datei
+	 * @return die Strategie
+	 * @throws IOException
+	 * @throws IllegalArgumentException bei unbekannten Stufen oder kaputten Zahlen
+	 */
+	public static Kompressionsstrategie lade(File f) throws IOException {
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(f);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		Kompressionsstrategie k = new Kompressionsstrategie();
+		for (String key : p.stringPropertyNames()) {
+			String wert = p.getProperty(key).trim();
+			try {
+				if (key.startsWith("stufe.")) {
+					k.setRegel(key.substring("stufe.".length()), Stufe.valueOf(wert.toUpperCase(Locale.ROOT)));
+				} else if (key.equals("entropie.stored")) {
+					k.grenzeStored = Double.parseDouble(wert);
+				} else if (key.equals("entropie.maximal")) {
+					k.grenzeMaximal = Double.parseDouble(wert);
+				} else if (key.equals("mittel")) {
+					k.mittel = Stufe.valueOf(wert.toUpperCase(Locale.ROOT));
+				} else if (key.equals("probe")) {
+					k.probe = Integer.parseInt(wert);
+				} else {
+					throw new IllegalArgumentException("unbekannter Schlüssel");
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Kompressionsregel " + key + "=" + wert + " in " + f + " ist ungültig", e);
+			}
+		}
+		return k;
+	}
+
+	/**
+	 * @param endungOderContentType - Dateiendung ohne Punkt (Groß/Klein egal) oder Name einer ContentTypes-Konstante
+	 * @param stufe - die Stufe dafür
+	 */
+	public void setRegel(String endungOderContentType, Stufe stufe) {
+		regeln.put(endungOderContentType, stufe); // ContentType-Namen so wie sie sind
+		regeln.put(endungOderContentType.toLowerCase(Locale.ROOT), stufe); // Endungen immer klein
+	}
+
+	/**
+	 * Jeder vermerkte Eintrag wird auch hierhin ausgegeben, null für keine Ausgabe.
+	 * @param ausgabe - z.B. System.out
+	 */
+	public void setAusgabe(PrintStream ausgabe) {
+		this.ausgabe = ausgabe;
+	}
+
+	/**
+	 * @return wie viele Bytes vom Anfang der Daten für die Entropie-Probe gebraucht werden
+	 */
+	public int getProbe() {
+		return probe;
+	}
+
+	/**
+	 * Wählt die Stufe für einen Eintrag.
+	 * @param ze - der Eintrag (für Endung und ContentType)
+	 * @param daten - der Anfang der Daten, es wird höchstens {@link #getProbe()} Bytes angeschaut
+	 * @param laenge - wie viele Bytes in <i>daten</i> gültig sind
+	 * @return die Stufe
+	 */
+	public Stufe waehle(ZipEntry ze, byte[] daten, int laenge) {
+		String name = ze.getName();
+		int punkt = name.lastIndexOf('.');
+		if (punkt >= 0 && punkt > name.lastIndexOf('/')) {
+			Stufe s = regeln.get(name.substring(punkt + 1).toLowerCase(Locale.ROOT));
+			if (s != null) {
+				return s;
+			}
+		}
+		ContentTypes ct = ZippingTools.fetchMimeType(ze);
+		if (ct != null && regeln.containsKey(ct.name())) {
+			return regeln.get(ct.name());
+		}
+		int n = Math.min(laenge, probe);
+		if (n < 64) {
+			return mittel; // zu wenig für eine Aussage, und bei so kleinen Dateien ist es egal
+		}
+		double h = entropie(daten, 0, n);
+		if (h >= grenzeStored) {
+			return Stufe.STORED;
+		}
+		if (h <= grenzeMaximal) {
+			return Stufe.MAXIMAL;
+		}
+		return mittel;
+	}
+
+	/**
+	 * Shannon-Entropie der Bytes in Bit pro Byte: 0 heißt lauter gleiche Bytes, 8 heißt (für den Zip-Algorithmus)
+	 * reiner Zufall.
+	 * @param b - Daten
+	 * @param off - ab hier
+	 * @param len - so viele Bytes
+	 * @return Entropie zwischen 0 und 8
+	 */
+	public static double entropie(byte[] b, int off, int len) {
+		if (len <= 0) {
+			return 0;
+		}
+		int[] haeufigkeit = new int[256];
+		for (int i = off; i < off + len; i++) {
+			haeufigkeit[b[i] & 0xFF]++;
+		}
+		double h = 0;
+		for (int anzahl : haeufigkeit) {
+			if (anzahl > 0) {
+				double p = (double) anzahl / len;
+				h -= p * Math.log(p);
+			}
+		}
+		return h / Math.log(2);
+	}
+
+	/**
+	 * Zählt einen fertig geschriebenen Eintrag mit (Größen müssen gesetzt sein, also nach <i>closeEntry</i>).
+	 * @param ze - der Eintrag
+	 * @param stufe - die gewählte Stufe
+	 */
+	public void vermerke(ZipEntry ze, Stufe stufe) {
+		long roh = Math.max(0, ze.getSize());
+		long komprimiert = Math.max(0, ze.getCompressedSize());
+		int i = stufe.ordinal() * 3;
+		statistik.incrementAndGet(i);
+		statistik.addAndGet(i + 1, roh);
+		statistik.addAndGet(i + 2, komprimiert);
+		PrintStream p = ausgabe;
+		if (p != null) {
+			p.println("   Kompression " + stufe + ": " + ze.getName() + " " + groesse(roh) + " -> " + groesse(komprimiert)
+					+ " (" + prozent(komprimiert, roh) + ")");
+		}
+	}
+
+	/**
+	 * @return eine Zeile pro Stufe mit Anzahl, Größen und Verhältnis aller bisher vermerkten Einträge
+	 */
+	public String zusammenfassung() {
+		StringBuffer sb = new StringBuffer("Kompression gesamt:");
+		for (Stufe s : Stufe.values()) {
+			int i = s.ordinal() * 3;
+			if (statistik.get(i) > 0) {
+				sb.append("\n   " + s + ": " + statistik.get(i) + " Einträge, " + groesse(statistik.get(i + 1)) + " -> "
+						+ groesse(statistik.get(i + 2)) + " (" + prozent(statistik.get(i + 2), statistik.get(i + 1)) + ")");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String groesse(long bytes) {
+		// FormatByteAngabe kann nur int, darüber wird in MB gerechnet
+		return bytes <= Integer.MAX_VALUE ? FormatByteAngabe.lesbareDateigroesse((int) bytes) : (bytes / (1024 * 1024)) + " MB";
+	}
+
+	private static String prozent(long teil, long ganzes) {
+		return ganzes == 0 ? "-" : String.format(Locale.ROOT, "%.1f%%", 100.0 * teil / ganzes);
+	}
+}
@@ -0,0 +1,569 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Schreibt ein Zip, bei dem ein einzelner Eintrag auf mehreren Kernen komprimiert wird (wie <i>pigz</i>).
+ * <br/>Die Daten werden in Blöcke fester Größe geteilt. Jeder Block wird für sich mit Deflate komprimiert, als
+ * Dictionary bekommt er die letzten 32 KB des vorigen Blocks - so geht kaum Kompression verloren. Alle Blöcke bis auf
+ * den letzten enden mit einem Sync-Flush, d.h. auf einer Byte-Grenze, und können einfach hintereinander geschrieben
+ * werden: heraus kommt <b>ein</b> gültiger Deflate-Stream. Die CRC32 wird ebenfalls pro Block gerechnet und dann
+ * kombiniert (crc32_combine aus der zlib).
+ * <br/>Das Zip selbst schreibt diese Klasse von Hand, weil der ZipOutputStream keine fertig komprimierten Daten annimmt.
+ * Größen und CRC stehen erst am Ende eines Eintrags fest, deshalb folgen sie in einem Data Descriptor. Bei mehr als
+ * 4 GB bzw. 65535 Einträgen wird ZIP64 geschrieben. Dateinamen sind UTF-8 (Bit 11).
+ * <br/>Gleichzeitig in Arbeit sind höchstens 2 x <i>parallelitaet</i> Blöcke, der Speicher hängt also nicht von der
+ * Dateigröße ab.
+ * @author JavaAlchemist
+ *
+ */
+public class ParallelZipSchreiber implements Closeable {
+
+	public static final int STANDARD_BLOCKGROESSE = 256 * 1024;
+	private static final int DICTIONARY = 32 * 1024;
+	private static final long MAP_FENSTER = 64L * 1024 * 1024;
+	private static final long MAX32 = 0xFFFFFFFFL;
+	private static final int MAX16 = 0xFFFF;
+	private static final int FLAG_DESCRIPTOR = 1 << 3;
+	private static final int FLAG_UTF8 = 1 << 11;
+
+	/**
+	 * Ein Deflater pro Worker-Thread und Stufe, weil das Anlegen (nativer Speicher) pro Block zu teuer wäre. Die Stufe
+	 * wird nie nachträglich mit <i>setLevel</i> geändert: zusammen mit <i>setDictionary</i> nach einem <i>reset</i>
+	 * kommen dabei ungültige Rückverweise heraus.
+	 */
+	private static final ThreadLocal<Deflater[]> DEFLATER = ThreadLocal.withInitial(() -> new Deflater[11]);
+
+	private final ZaehlenderStream out;
+	private final FileChannel kanal; // nur wenn direkt in eine Datei geschrieben wird, für transferTo
+	private final ExecutorService pool;
+	private final int parallelitaet;
+	private final int blockGroesse;
+	private final List<Eintrag> eintraege = new ArrayList<Eintrag>();
+	private boolean geschlossen = false;
+
+	/**
+	 * Was für das Central Directory von jedem Eintrag gebraucht wird.
+	 */
+	private static class Eintrag {
+		byte[] name;
+		byte[] kommentar;
+		int flags;
+		int methode;
+		long dosZeit;
+		long crc;
+		long komprimiert;
+		long groesse;
+		long offset;
+	}
+
+	/**
+	 * Ergebnis eines Blocks.
+	 */
+	private static class Block {
+		final byte[] daten;
+		final int laenge;
+		final long crc;
+		final int rohLaenge;
+
+		Block(byte[] daten, int laenge, long crc, int rohLaenge) {
+			this.daten = daten;
+			this.laenge = laenge;
+			this.crc = crc;
+			this.rohLaenge = rohLaenge;
+		}
+	}
+
+	/**
+	 * @param out - wohin das Zip geschrieben wird, wird bei {@link #close()} mit geschlossen
+	 * @param pool - hier laufen die Blöcke
+	 * @param parallelitaet - wie viele Blöcke gleichzeitig komprimiert werden sollen
+	 * @param blockGroesse - Größe eines Blocks, mindestens 64 KB
+	 */
+	public ParallelZipSchreiber(OutputStream out, ExecutorService pool, int parallelitaet, int blockGroesse) {
+		this(out, null, pool, parallelitaet, blockGroesse);
+	}
+
+	/**
+	 * Schreibt direkt in eine Datei. Dann können gespeicherte Einträge aus einem FileChannel per <i>transferTo</i>
+	 * übernommen werden (siehe {@link #schreibeGespeichert(ZipEntry, FileChannel)}).
+	 * @param ziel - die Zip-Datei, zum Schreiben geöffnet; wird bei {@link #close()} mit geschlossen
+	 * @param pool - hier laufen die Blöcke
+	 * @param parallelitaet - wie viele Blöcke gleichzeitig komprimiert werden sollen
+	 * @param blockGroesse - Größe eines Blocks, mindestens 64 KB
+	 */
+	public ParallelZipSchreiber(FileChannel ziel, ExecutorService pool, int parallelitaet, int blockGroesse) {
+		this(new BufferedOutputStream(Channels.newOutputStream(ziel), DICTIONARY * 2), ziel, pool, parallelitaet, blockGroesse);
+	}
+
+	private ParallelZipSchreiber(OutputStream out, FileChannel kanal, ExecutorService pool, int parallelitaet, int blockGroesse) {
+		if (parallelitaet < 1 || blockGroesse < 2 * DICTIONARY) {
+			throw new IllegalArgumentException("parallelitaet muss positiv sein, blockGroesse mindestens " + 2 * DICTIONARY);
+		}
+		this.out = new ZaehlenderStream(out);
+		this.kanal = kanal;
+		this.pool = pool;
+		this.parallelitaet = parallelitaet;
+		this.blockGroesse = blockGroesse;
+	}
+
+	/**
+	 * Schreibt einen Eintrag, dessen Daten aus einem Stream kommen, parallel komprimiert.
+	 * @param ze - Name, Zeitstempel und Kommentar werden übernommen
+	 * @param in - die Daten, wird bis zum Ende gelesen aber nicht geschlossen
+	 * @param level - Deflate-Stufe 0..9 oder {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return Anzahl der gelesenen Bytes
+	 * @throws IOException
+	 */
+	public long schreibeEintrag(ZipEntry ze, InputStream in, final int level) throws IOException {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Ungültige Deflate-Stufe " + level);
+		}
+		if (ze.isDirectory()) {
+			schreibeGespeichert(ze, new byte[0]);
+			return 0;
+		}
+		Eintrag e = beginne(ze, ZipEntry.DEFLATED, FLAG_DESCRIPTOR | FLAG_UTF8, 0, 0, 0);
+		Deque<Future<Block>> laufend = new ArrayDeque<Future<Block>>();
+		long crc = 0;
+		byte[] vorher = null;
+		try {
+			boolean letzter = false;
+			while (!letzter) {
+				final byte[] block = new byte[blockGroesse]; // gehört danach dem Worker und dem nächsten Block als Dictionary
+				final int n = leseVoll(in, block);
+				letzter = n < blockGroesse;
+				final byte[] dictionary = vorher;
+				final boolean ende = letzter;
+				laufend.add(pool.submit(() -> komprimiere(block, n, dictionary, level, ende)));
+				vorher = block;
+				while (laufend.size() >= 2 * parallelitaet) {
+					crc = schreibeBlock(laufend.poll(), e, crc);
+				}
+			}
+			while (!laufend.isEmpty()) {
+				crc = schreibeBlock(laufend.poll(), e, crc);
+			}
+		} finally {
+			for (Future<Block> f : laufend) {
+				f.cancel(true);
+			}
+		}
+		e.crc = crc;
+		schreibeDescriptor(e);
+		uebernehme(e, ze);
+		return e.groesse;
+	}
+
+	/**
+	 * Schreibt einen Eintrag unkomprimiert (STORED). Die Daten sind komplett da, also stehen Größe und CRC
+	 * gleich im Local Header.
+	 * @param ze - Name und Zeitstempel werden übernommen
+	 * @param daten - die Daten
+	 * @throws IOException
+	 */
+	public void schreibeGespeichert(ZipEntry ze, byte[] daten) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(daten);
+		Eintrag e = beginne(ze, ZipEntry.STORED, FLAG_UTF8, crc.getValue(), daten.length, daten.length);
+		out.write(daten);
+		uebernehme(e, ze);
+	}
+
+	/**
+	 * Schreibt den ganzen Inhalt eines FileChannels als gespeicherten Eintrag (STORED), gedacht für Daten, die schon
+	 * komprimiert sind. Die CRC wird über die gemappte Datei gerechnet, die Daten selbst gehen per <i>transferTo</i>
+	 * ins Ziel, wenn der Schreiber auf einem FileChannel sitzt - dann berühren sie den Heap gar nicht.
+	 * @param ze - Name und Zeitstempel werden übernommen, Größen und CRC stehen danach drin
+	 * @param quelle - die Daten ab Position 0, wird nicht geschlossen
+	 * @throws IOException
+	 */
+	public void schreibeGespeichert(ZipEntry ze, FileChannel quelle) throws IOException {
+		long laenge = quelle.size();
+		CRC32 crc = new CRC32();
+		for (long pos = 0; pos < laenge; pos += MAP_FENSTER) {
+			crc.update(quelle.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_FENSTER, laenge - pos)));
+		}
+		Eintrag e = beginne(ze, ZipEntry.STORED, FLAG_UTF8, crc.getValue(), laenge, laenge);
+		out.flush();
+		WritableByteChannel ziel = kanal != null ? kanal : Channels.newChannel(out);
+		long kopiert = 0;
+		while (kopiert < laenge) {
+			long n = quelle.transferTo(kopiert, laenge - kopiert, ziel);
+			if (n <= 0) {
+				throw new IOException("Quelle ist während des Schreibens kürzer geworden: " + ze.getName());
+			}
+			kopiert += n;
+		}
+		if (kanal != null) {
+			out.anzahl += laenge; // ist am Zähler vorbei geschrieben worden
+		}
+		uebernehme(e, ze);
+	}
+
+	/**
+	 * Schreibt das Central Directory (und ggf. die ZIP64-Ende-Sätze) und schließt den darunterliegenden Stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (geschlossen) {
+			return;
+		}
+		geschlossen = true;
+		try {
+			long cdStart = out.anzahl;
+			for (Eintrag e : eintraege) {
+				schreibeCentralHeader(e);
+			}
+			long cdLaenge = out.anzahl - cdStart;
+			boolean zip64 = eintraege.size() >= MAX16 || cdStart >= MAX32 || cdLaenge >= MAX32;
+			if (zip64) {
+				long zip64Ende = out.anzahl;
+				schreibeInt(0x06064b50);
+				schreibeLong(44); // Größe des restlichen Satzes
+				schreibeShort(45);
+				schreibeShort(45);
+				schreibeInt(0);
+				schreibeInt(0);
+				schreibeLong(eintraege.size());
+				schreibeLong(eintraege.size());
+				schreibeLong(cdLaenge);
+				schreibeLong(cdStart);
+				schreibeInt(0x07064b50);
+				schreibeInt(0);
+				schreibeLong(zip64Ende);
+				schreibeInt(1);
+			}
+			schreibeInt(0x06054b50);
+			schreibeShort(0);
+			schreibeShort(0);
+			schreibeShort(Math.min(eintraege.size(), MAX16));
+			schreibeShort(Math.min(eintraege.size(), MAX16));
+			schreibeInt(Math.min(cdLaenge, MAX32));
+			schreibeInt(Math.min(cdStart, MAX32));
+			schreibeShort(0);
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Kombiniert zwei CRC32-Werte, als wären die Daten hintereinander gerechnet worden (crc32_combine aus der zlib).
+	 * @param crc1 - CRC der ersten Daten
+	 * @param crc2 - CRC der zweiten Daten
+	 * @param laenge2 - Länge der zweiten Daten
+	 * @return CRC32 über beide
+	 */
+	public static long crc32Kombiniert(long crc1, long crc2, long laenge2) {
+		if (laenge2 <= 0) {
+			return crc1;
+		}
+		long[] gerade = new long[32];
+		long[] ungerade = new long[32];
+		ungerade[0] = 0xEDB88320L; // CRC-32 Polynom
+		long zeile = 1;
+		for (int n = 1; n < 32; n++) {
+			ungerade[n] = zeile;
+			zeile <<= 1;
+		}
+		gf2Quadrat(gerade, ungerade); // Operator für 2 Null-Bits
+		gf2Quadrat(ungerade, gerade); // Operator für 4 Null-Bits
+		do {
+			gf2Quadrat(gerade, ungerade);
+			if ((laenge2 & 1) != 0) {
+				crc1 = gf2Mal(gerade, crc1);
+			}
+			laenge2 >>= 1;
+			if (laenge2 == 0) {
+				break;
+			}
+			gf2Quadrat(ungerade, gerade);
+			if ((laenge2 & 1) != 0) {
+				crc1 = gf2Mal(ungerade, crc1);
+			}
+			laenge2 >>= 1;
+		} while (laenge2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2Mal(long[] matrix, long vektor) {
+		long summe = 0;
+		int i = 0;
+		while (vektor != 0) {
+			if ((vektor & 1) != 0) {
+				summe ^= matrix[i];
+			}
+			vektor >>>= 1;
+			i++;
+		}
+		return summe;
+	}
+
+	private static void gf2Quadrat(long[] quadrat, long[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			quadrat[n] = gf2Mal(matrix, matrix[n]);
+		}
+	}
+
+	/**
+	 * Läuft im Worker: ein Block wird zu einem Stück Deflate-Stream.
+	 */
+	private static Block komprimiere(byte[] block, int n, byte[] vorher, int level, boolean letzter) {
+		CRC32 crc = new CRC32();
+		crc.update(block, 0, n);
+		Deflater d = deflater(level);
+		if (vorher != null) {
+			d.setDictionary(vorher, vorher.length - DICTIONARY, DICTIONARY);
+		}
+		d.setInput(block, 0, n);
+		byte[] ergebnis = new byte[n + (n >> 10) + 64]; // reicht praktisch immer, sonst wird vergrößert
+		int pos = 0;
+		if (letzter) {
+			d.finish();
+			while (!d.finished()) {
+				if (pos == ergebnis.length) {
+					ergebnis = Arrays.copyOf(ergebnis, ergebnis.length * 2);
+				}
+				pos += d.deflate(ergebnis, pos, ergebnis.length - pos);
+			}
+		} else {
+			while (true) {
+				pos += d.deflate(ergebnis, pos, ergebnis.length - pos, Deflater.SYNC_FLUSH);
+				if (pos < ergebnis.length) {
+					break; // Flush ist durch, der Block endet auf einer Byte-Grenze
+				}
+				ergebnis = Arrays.copyOf(ergebnis, ergebnis.length * 2);
+			}
+		}
+		return new Block(ergebnis, pos, crc.getValue(), n);
+	}
+
+	private static Deflater deflater(int level) {
+		Deflater[] vorhanden = DEFLATER.get();
+		Deflater d = vorhanden[level + 1]; // DEFAULT_COMPRESSION ist -1
+		if (d == null) {
+			d = new Deflater(level, true);
+			vorhanden[level + 1] = d;
+		} else {
+			d.reset();
+		}
+		return d;
+	}
+
+	private long schreibeBlock(Future<Block> f, Eintrag e, long crc) throws IOException {
+		Block b;
+		try {
+			b = f.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Warten auf Deflate-Block unterbrochen");
+		} catch (ExecutionException ex) {
+			throw new IOException("Deflate-Block fehlgeschlagen", ex.getCause());
+		}
+		out.write(b.daten, 0, b.laenge);
+		e.komprimiert += b.laenge;
+		e.groesse += b.rohLaenge;
+		return crc32Kombiniert(crc, b.crc, b.rohLaenge);
+	}
+
+	/**
+	 * Wie beim ZipOutputStream stehen nach dem Schreiben Größen und CRC im übergebenen Eintrag.
+	 */
+	private static void uebernehme(Eintrag e, ZipEntry ze) {
+		ze.setMethod(e.methode);
+		ze.setSize(e.groesse);
+		ze.setCompressedSize(e.komprimiert);
+		ze.setCrc(e.crc);
+	}
+
+	private Eintrag beginne(ZipEntry ze, int methode, int flags, long crc, long groesse, long komprimiert) throws IOException {
+		if (geschlossen) {
+			throw new ZipException("Zip ist schon geschlossen");
+		}
+		Eintrag e = new Eintrag();
+		e.name = ze.getName().getBytes(StandardCharsets.UTF_8);
+		e.flags = flags;
+		e.methode = methode;
+		e.dosZeit = dosZeit(ze.getTime() == -1 ? System.currentTimeMillis() : ze.getTime());
+		e.crc = crc;
+		e.groesse = groesse;
+		e.komprimiert = komprimiert;
+		e.offset = out.anzahl;
+		e.kommentar = ze.getComment() == null ? new byte[0] : ze.getComment().getBytes(StandardCharsets.UTF_8);
+		if (e.name.length > MAX16 || e.kommentar.length > MAX16) {
+			throw new ZipException("Name oder Kommentar zu lang: " + ze.getName());
+		}
+		boolean zip64 = groesse >= MAX32 || komprimiert >= MAX32; // geht nur, wenn die Größen vorher bekannt sind
+		schreibeInt(0x04034b50);
+		schreibeShort(zip64 ? 45 : 20);
+		schreibeShort(flags);
+		schreibeShort(methode);
+		schreibeInt(e.dosZeit);
+		schreibeInt(crc);
+		schreibeInt(zip64 ? MAX32 : komprimiert);
+		schreibeInt(zip64 ? MAX32 : groesse);
+		schreibeShort(e.name.length);
+		schreibeShort(zip64 ? 20 : 0);
+		out.write(e.name);
+		if (zip64) {
+			schreibeShort(0x0001);
+			schreibeShort(16);
+			schreibeLong(groesse);
+			schreibeLong(komprimiert);
+		}
+		eintraege.add(e);
+		return e;
+	}
+
+	/**
+	 * Data Descriptor nach den Daten. Mit 8-Byte-Größen genau dann, wenn eine Größe nicht in 32 Bit passt - so
+	 * erwartet es auch der ZipInputStream.
+	 */
+	private void schreibeDescriptor(Eintrag e) throws IOException {
+		schreibeInt(0x08074b50);
+		schreibeInt(e.crc);
+		if (e.groesse >= MAX32 || e.komprimiert >= MAX32) {
+			schreibeLong(e.komprimiert);
+			schreibeLong(e.groesse);
+		} else {
+			schreibeInt(e.komprimiert);
+			schreibeInt(e.groesse);
+		}
+	}
+
+	private void schreibeCentralHeader(Eintrag e) throws IOException {
+		ByteArrayOutputStream extra = new ByteArrayOutputStream();
+		if (e.groesse >= MAX32) {
+			schreibeLong(extra, e.groesse);
+		}
+		if (e.komprimiert >= MAX32) {
+			schreibeLong(extra, e.komprimiert);
+		}
+		if (e.offset >= MAX32) {
+			schreibeLong(extra, e.offset);
+		}
+		boolean zip64 = extra.size() > 0;
+		schreibeInt(0x02014b50);
+		schreibeShort(zip64 ? 45 : 20); // erstellt mit
+		schreibeShort(zip64 ? 45 : 20); // benötigt
+		schreibeShort(e.flags);
+		schreibeShort(e.methode);
+		schreibeInt(e.dosZeit);
+		schreibeInt(e.crc);
+		schreibeInt(Math.min(e.komprimiert, MAX32));
+		schreibeInt(Math.min(e.groesse, MAX32));
+		schreibeShort(e.name.length);
+		schreibeShort(zip64 ? extra.size() + 4 : 0);
+		schreibeShort(e.kommentar.length);
+		schreibeShort(0); // Disk
+		schreibeShort(0); // interne Attribute
+		schreibeInt(0); // externe Attribute
+		schreibeInt(Math.min(e.offset, MAX32));
+		out.write(e.name);
+		if (zip64) {
+			schreibeShort(0x0001);
+			schreibeShort(extra.size());
+			extra.writeTo(out);
+		}
+		out.write(e.kommentar);
+	}
+
+	private static long dosZeit(long millis) {
+		LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		if (t.getYear() < 1980) {
+			return (1 << 21) | (1 << 16); // 1.1.1980, früher kann DOS nicht
+		}
+		return ((long) (t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16)
+				| (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+	}
+
+	private static int leseVoll(InputStream in, byte[] puffer) throws IOException {
+		int n = 0;
+		int len;
+		while (n < puffer.length && (len = in.read(puffer, n, puffer.length - n)) >= 0) {
+			n += len;
+		}
+		return n;
+	}
+
+	private void schreibeShort(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+	}
+
+	private void schreibeInt(long v) throws IOException {
+		schreibeShort((int) (v & 0xFFFF));
+		schreibeShort((int) ((v >>> 16) & 0xFFFF));
+	}
+
+	private void schreibeLong(long v) throws IOException {
+		schreibeInt(v & MAX32);
+		schreibeInt(v >>> 32);
+	}
+
+	private static void schreibeLong(OutputStream o, long v) throws IOException {
+		for (int i = 0; i < 8; i++) {
+			o.write((int) (v >>> (8 * i)) & 0xFF);
+		}
+	}
+
+	/**
+	 * Zählt mit, wie viele Bytes schon geschrieben sind (für die Offsets im Central Directory).
+	 */
+	private static class ZaehlenderStream extends OutputStream {
+		private final OutputStream ziel;
+		long anzahl = 0;
+
+		ZaehlenderStream(OutputStream ziel) {
+			this.ziel = ziel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ziel.write(b);
+			anzahl++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ziel.write(b, off, len);
+			anzahl += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ziel.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			ziel.close();
+		}
+	}
+}
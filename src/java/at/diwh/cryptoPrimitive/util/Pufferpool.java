@@ -0,0 +1,118 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ein Pool wiederverwendbarer Puffer fester Größe, damit die Lese- und Schreibpfade nicht bei jedem Aufruf neue
+ * Arrays anlegen müssen, die der GC dann gleich wieder wegräumt.
+ * <br/>Es gibt zwei Sorten: <i>byte[]</i> für die Stream-APIs und <i>ByteBuffer</i> (wahlweise direct) für Channels.
+ * Beide werden mit {@link #holeArray()} bzw. {@link #holeBuffer()} geholt und <b>müssen</b> danach mit
+ * <i>gibZurueck</i> wieder abgegeben werden, am besten im finally. Wird ein Puffer nicht zurückgegeben, ist das
+ * kein Fehler, er wird dann eben vom GC geholt.
+ * <br/>Es werden höchstens <i>maxAnzahl</i> Puffer pro Sorte aufgehoben, was darüber hinaus zurückkommt, wird verworfen.
+ * Der Pool ist threadsicher und kommt ohne Locks aus.
+ * @author JavaAlchemist
+ *
+ */
+public class Pufferpool {
+
+	/**
+	 * Der Pool, den die Tools selbst verwenden: Heap-Puffer mit {@link StreamingTools#STANDARD_PUFFER} Bytes.
+	 * Die Größe lässt sich mit der System-Property <code>cryptoPrimitive.puffer</code> (in Bytes) ändern.
+	 */
+	public static final Pufferpool STANDARD = new Pufferpool(Integer.getInteger("cryptoPrimitive.puffer", StreamingTools.STANDARD_PUFFER),
+			false, 4 * StreamingTools.PARALLELITAET);
+
+	/**
+	 * Direct ByteBuffers für die Channel-Pfade (gemappte Dateien, transferTo), 1 MB groß, damit pro Systemaufruf
+	 * genug passiert. Von direct Buffers gibt es nur wenige, sie liegen außerhalb des Heaps.
+	 */
+	public static final Pufferpool KANAL = new Pufferpool(1024 * 1024, true, 2 * StreamingTools.PARALLELITAET);
+
+	private final int groesse;
+	private final boolean direkt;
+	private final int maxAnzahl;
+	private final ConcurrentLinkedDeque<byte[]> freieArrays = new ConcurrentLinkedDeque<byte[]>();
+	private final ConcurrentLinkedDeque<ByteBuffer> freieBuffer = new ConcurrentLinkedDeque<ByteBuffer>();
+	private final AtomicInteger anzahlArrays = new AtomicInteger();
+	private final AtomicInteger anzahlBuffer = new AtomicInteger();
+
+	/**
+	 * @param groesse - Größe jedes Puffers in Bytes
+	 * @param direkt - true, wenn {@link #holeBuffer()} direct ByteBuffers liefern soll (für Channel-I/O)
+	 * @param maxAnzahl - wie viele freie Puffer pro Sorte höchstens aufgehoben werden
+	 */
+	public Pufferpool(int groesse, boolean direkt, int maxAnzahl) {
+		if (groesse < 1 || maxAnzahl < 0) {
+			throw new IllegalArgumentException("Puffergröße muss positiv sein, maxAnzahl darf nicht negativ sein");
+		}
+		this.groesse = groesse;
+		this.direkt = direkt;
+		this.maxAnzahl = maxAnzahl;
+	}
+
+	/**
+	 * @return ein byte-Array mit {@link #getGroesse()} Bytes, Inhalt undefiniert
+	 */
+	public byte[] holeArray() {
+		byte[] b = freieArrays.pollFirst();
+		if (b == null) {
+			return new byte[groesse];
+		}
+		anzahlArrays.decrementAndGet();
+		return b;
+	}
+
+	/**
+	 * Gibt ein Array an den Pool zurück. Arrays anderer Größe werden ignoriert.
+	 * @param b - das Array, danach darf der Aufrufer es nicht mehr verwenden
+	 */
+	public void gibZurueck(byte[] b) {
+		if (b == null || b.length != groesse) {
+			return;
+		}
+		if (anzahlArrays.incrementAndGet() > maxAnzahl) {
+			anzahlArrays.decrementAndGet();
+			return;
+		}
+		freieArrays.offerFirst(b);
+	}
+
+	/**
+	 * @return ein geleerter ByteBuffer (position 0, limit = capacity), direct wenn der Pool so angelegt wurde
+	 */
+	public ByteBuffer holeBuffer() {
+		ByteBuffer bb = freieBuffer.pollFirst();
+		if (bb == null) {
+			return direkt ? ByteBuffer.allocateDirect(groesse) : ByteBuffer.allocate(groesse);
+		}
+		anzahlBuffer.decrementAndGet();
+		bb.clear();
+		return bb;
+	}
+
+	/**
+	 * Gibt einen ByteBuffer an den Pool zurück. Buffer anderer Größe oder Art werden ignoriert.
+	 * @param bb - der Buffer, danach darf der Aufrufer ihn nicht mehr verwenden
+	 */
+	public void gibZurueck(ByteBuffer bb) {
+		if (bb == null || bb.capacity() != groesse || bb.isDirect() != direkt || bb.isReadOnly()) {
+			return;
+		}
+		if (anzahlBuffer.incrementAndGet() > maxAnzahl) {
+			anzahlBuffer.decrementAndGet();
+			return;
+		}
+		freieBuffer.offerFirst(bb);
+	}
+
+	public int getGroesse() {
+		return groesse;
+	}
+
+	public boolean istDirekt() {
+		return direkt;
+	}
+}
@@ -0,0 +1,832 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import at.diwh.cryptoPrimitive.crypto.AesContainerFormat;
+import at.diwh.cryptoPrimitive.crypto.AesContainerLeser;
+import at.diwh.cryptoPrimitive.crypto.AesContainerSchreiber;
+import at.diwh.cryptoPrimitive.crypto.AesEntschluesselungsStream;
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+import at.diwh.cryptoPrimitive.crypto.AesStreamKanal;
+import at.diwh.cryptoPrimitive.crypto.AesVerschluesselungsStream;
+import at.diwh.cryptoPrimitive.crypto.Schluesselverwaltung;
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+
+/**
+ * Zippen und Verschlüsseln in einem Durchgang: Datei lesen -> ZipOutputStream -> AES -> Datei schreiben.
+ * <br/>Alles läuft über Puffer fester Größe, d.h. der Heap-Verbrauch hängt nicht von der Dateigröße ab und es wird
+ * kein Zwischen-Zip im Quellverzeichnis angelegt.
+ * <br/>Geschrieben wird wahlweise im {@link AesFormat#STREAM} oder im {@link AesFormat#CONTAINER} Format, beim Container
+ * werden die Segmente auf dem gemeinsamen ForkJoinPool parallel ver- und entschlüsselt.
+ * @author JavaAlchemist
+ *
+ */
+public class StreamingTools {
+
+	public static final int STANDARD_PUFFER = 64 * 1024;
+	public static final int PARALLELITAET = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Ab dieser Größe laufen Dateien im Stream-Format über gemappte FileChannels ({@link AesStreamKanal}) statt über
+	 * Streams. Darunter kostet das Mappen mehr, als es spart.
+	 */
+	public static final long KANAL_AB = 4L * 1024 * 1024;
+
+	/**
+	 * Zippt eine einzelne Datei und verschlüsselt das Zip gleich mit, ohne dass das Zip je auf der Platte landet.
+	 * @param quelle - die Klartext-Datei
+	 * @param entryName - Name des Eintrags im Zip (normalerweise der ursprüngliche Dateiname)
+	 * @param ziel - die .AES256-Datei, die geschrieben wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(File quelle, String entryName, File ziel, Schluesselverwaltung sv) throws IOException {
+		return zippeUndVerschluessele(quelle, entryName, ziel, sv, AesFormat.STREAM);
+	}
+
+	/**
+	 * Wie {@link #zippeUndVerschluessele(File, String, File, Schluesselverwaltung)}, aber im angegebenen Format.
+	 * @param quelle - die Klartext-Datei
+	 * @param entryName - Name des Eintrags im Zip
+	 * @param ziel - die .AES256-Datei, die geschrieben wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(File quelle, String entryName, File ziel, Schluesselverwaltung sv, AesFormat format) throws IOException {
+		return zippeUndVerschluessele(Collections.singletonList(quelle), Collections.singletonList(entryName), ziel, sv, format);
+	}
+
+	/**
+	 * Zippt mehrere Dateien in <b>ein</b> Archiv und verschlüsselt es gleich mit. Die Schlüsselableitung läuft dabei nur
+	 * einmal für das ganze Archiv. Die Dateien werden eine nach der anderen durchgestreamt, im Speicher ist nur der Puffer.
+	 * @param quellen - die Klartext-Dateien
+	 * @param entryNamen - Name des Eintrags im Zip pro Datei, gleiche Reihenfolge wie <i>quellen</i>
+	 * @param ziel - die .AES256-Datei, die geschrieben wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(List<File> quellen, List<String> entryNamen, File ziel, Schluesselverwaltung sv, AesFormat format) throws IOException {
+		return zippeUndVerschluessele(quellen, entryNamen, ziel, sv, format, null);
+	}
+
+	/**
+	 * Wie {@link #zippeUndVerschluessele(List, List, File, Schluesselverwaltung, AesFormat)}, aber die Kompression wird
+	 * pro Eintrag anhand von Name und Dateianfang gewählt. "STORED" wird hier als Deflate-Stufe 0 geschrieben, weil
+	 * CRC und Größe beim Streaming erst am Ende feststehen.
+	 * @param quellen - die Klartext-Dateien
+	 * @param entryNamen - Name des Eintrags im Zip pro Datei, gleiche Reihenfolge wie <i>quellen</i>
+	 * @param ziel - die .AES256-Datei, die geschrieben wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @param kompression - die Strategie, null für immer Standard-Deflate
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(List<File> quellen, List<String> entryNamen, File ziel, Schluesselverwaltung sv, AesFormat format, 
+			Kompressionsstrategie kompression) throws IOException {
+		return zippeUndVerschluessele(quellen, entryNamen, Collections.<String, byte[]>emptyMap(), ziel, sv, format, kompression);
+	}
+
+	/**
+	 * Wie {@link #zippeUndVerschluessele(List, List, File, Schluesselverwaltung, AesFormat, Kompressionsstrategie)}, nach
+	 * den Dateien kommen aber noch kleine Einträge aus dem Speicher dazu (z.B. die Verweise der Deduplizierung).
+	 * @param quellen - die Klartext-Dateien
+	 * @param entryNamen - Name des Eintrags im Zip pro Datei, gleiche Reihenfolge wie <i>quellen</i>
+	 * @param zusatz - Key: Name des Eintrags, Value: sein Inhalt; wird mit Standard-Deflate geschrieben
+	 * @param ziel - die .AES256-Datei, die geschrieben wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @param kompression - die Strategie, null für immer Standard-Deflate
+	 * @return Anzahl der gelesenen Klartext-Bytes (ohne die Zusatz-Einträge)
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(List<File> quellen, List<String> entryNamen, Map<String, byte[]> zusatz, File ziel, 
+			Schluesselverwaltung sv, AesFormat format, Kompressionsstrategie kompression) throws IOException {
+		return zippeUndVerschluessele(quellen, entryNamen, zusatz, ziel, sv, format, kompression, 0);
+	}
+
+	/**
+	 * Wie {@link #zippeUndVerschluessele(List, List, Map, File, Schluesselverwaltung, AesFormat, Kompressionsstrategie)},
+	 * das Ergebnis wird aber gleich beim Schreiben in Volumes aufgeteilt (siehe {@link Volumen}). Nur im Stream-Format,
+	 * der Container braucht zum Lesen wahlfreien Zugriff auf eine einzige Datei.
+	 * @param quellen - die Klartext-Dateien
+	 * @param entryNamen - Name des Eintrags im Zip pro Datei, gleiche Reihenfolge wie <i>quellen</i>
+	 * @param zusatz - Key: Name des Eintrags, Value: sein Inhalt; wird mit Standard-Deflate geschrieben
+	 * @param ziel - die .AES256-Datei; mit Volumes entstehen stattdessen <i>ziel</i>.001, .002 usw.
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @param kompression - die Strategie, null für immer Standard-Deflate
+	 * @param volumenGroesse - Höchstgröße eines Volumes, 0 für eine einzige Datei
+	 * @return Anzahl der gelesenen Klartext-Bytes (ohne die Zusatz-Einträge)
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(List<File> quellen, List<String> entryNamen, Map<String, byte[]> zusatz, File ziel, 
+			Schluesselverwaltung sv, AesFormat format, Kompressionsstrategie kompression, long volumenGroesse) throws IOException {
+		if (quellen.size() != entryNamen.size()) {
+			throw new IllegalArgumentException("Zu jeder Datei gehört genau ein Eintragsname");
+		}
+		pruefeVolumen(format, volumenGroesse);
+		long t = Metriken.start();
+		try {
+			long anzahl = zippeUndVerschluesseleDateien(quellen, entryNamen, zusatz, ziel, sv, format, kompression, volumenGroesse);
+			Metriken.erfasse(Messpunkt.VERSCHLUESSELN, t, anzahl, ausgabeGroesse(ziel, volumenGroesse));
+			return anzahl;
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.VERSCHLUESSELN);
+			throw e;
+		}
+	}
+
+	private static long zippeUndVerschluesseleDateien(List<File> quellen, List<String> entryNamen, Map<String, byte[]> zusatz, File ziel, 
+			Schluesselverwaltung sv, AesFormat format, Kompressionsstrategie kompression, long volumenGroesse) throws IOException {
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		long anzahl = 0;
+		OutputStream ausgabe = null;
+		try {
+			ausgabe = zielStream(ziel, volumenGroesse);
+			OutputStream verschluesselt = verschluesselungsStream(ausgabe, sv, format);
+			if (lohntParallel(quellen)) {
+				return zippeParallel(quellen, entryNamen, zusatz, verschluesselt, kompression, puffer);
+			}
+			ZipOutputStream zos = new ZipOutputStream(verschluesselt);
+			for (int i = 0; i < quellen.size(); i++) {
+				File quelle = quellen.get(i);
+				ZipEntry ze = new ZipEntry(entryNamen.get(i));
+				ze.setTime(quelle.lastModified());
+				InputStream in = new FileInputStream(quelle);
+				try {
+					if (kompression == null) {
+						zos.putNextEntry(ze);
+						anzahl += kopiere(in, zos, puffer);
+						zos.closeEntry();
+					} else {
+						// erst den Anfang lesen, danach steht die Stufe fest und der Eintrag kann beginnen
+						int n = leseVoll(in, puffer, Math.min(kompression.getProbe(), puffer.length));
+						Kompressionsstrategie.Stufe stufe = kompression.waehle(ze, puffer, n);
+						zos.setLevel(stufe.getDeflateLevel());
+						zos.putNextEntry(ze);
+						zos.write(puffer, 0, n);
+						anzahl += n + kopiere(in, zos, puffer);
+						zos.closeEntry();
+						kompression.vermerke(ze, stufe);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+			for (Map.Entry<String, byte[]> e : zusatz.entrySet()) {
+				zos.putNextEntry(new ZipEntry(e.getKey()));
+				zos.write(e.getValue());
+				zos.closeEntry();
+			}
+			zos.close(); // nur wenn alles geklappt hat, sonst siehe verwirf
+		} catch (IOException | RuntimeException e) {
+			verwirf(ausgabe, ziel, volumenGroesse); // halbe Dateien helfen niemandem
+			throw e;
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+		return anzahl;
+	}
+
+	private static boolean lohntParallel(List<File> quellen) {
+		if (PARALLELITAET < 2) {
+			return false;
+		}
+		long summe = 0;
+		for (File f : quellen) {
+			summe += f.length();
+		}
+		return summe >= ZippingTools.PARALLEL_AB;
+	}
+
+	/**
+	 * Wie die Schleife mit dem ZipOutputStream, aber jeder Eintrag wird vom {@link ParallelZipSchreiber} in Blöcken
+	 * auf allen Kernen komprimiert. Der Anfang für die Entropie-Probe wird vor den Rest der Datei gehängt.
+	 * <i>out</i> wird nur geschlossen, wenn alles geklappt hat; nach einem Fehler räumt der Aufrufer auf.
+	 */
+	private static long zippeParallel(List<File> quellen, List<String> entryNamen, Map<String, byte[]> zusatz, OutputStream out, 
+			Kompressionsstrategie kompression, byte[] puffer) throws IOException {
+		long anzahl = 0;
+		ParallelZipSchreiber zip = new ParallelZipSchreiber(out, ForkJoinPool.commonPool(), PARALLELITAET,
+				ParallelZipSchreiber.STANDARD_BLOCKGROESSE);
+		for (int i = 0; i < quellen.size(); i++) {
+			File quelle = quellen.get(i);
+			ZipEntry ze = new ZipEntry(entryNamen.get(i));
+			ze.setTime(quelle.lastModified());
+			InputStream in = new FileInputStream(quelle);
+			try {
+				if (kompression == null) {
+					anzahl += zip.schreibeEintrag(ze, in, Deflater.DEFAULT_COMPRESSION);
+				} else {
+					int n = leseVoll(in, puffer, Math.min(kompression.getProbe(), puffer.length));
+					Kompressionsstrategie.Stufe stufe = kompression.waehle(ze, puffer, n);
+					anzahl += zip.schreibeEintrag(ze, new SequenceInputStream(new ByteArrayInputStream(puffer, 0, n), in),
+							stufe.getDeflateLevel());
+					kompression.vermerke(ze, stufe);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		for (Map.Entry<String, byte[]> e : zusatz.entrySet()) {
+			zip.schreibeEintrag(new ZipEntry(e.getKey()), new ByteArrayInputStream(e.getValue()), Deflater.DEFAULT_COMPRESSION);
+		}
+		zip.close();
+		return anzahl;
+	}
+
+	/**
+	 * Verschlüsselt eine Datei (z.B. ein fertiges Zip) im Stream-Format.
+	 * @param quelle - die zu verschlüsselnde Datei
+	 * @param ziel - die .AES256-Datei
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der gelesenen Bytes
+	 * @throws IOException
+	 */
+	public static long verschluessele(File quelle, File ziel, Schluesselverwaltung sv) throws IOException {
+		return verschluessele(quelle, ziel, sv, AesFormat.STREAM);
+	}
+
+	/**
+	 * Verschlüsselt eine Datei im angegebenen Format.
+	 * @param quelle - die zu verschlüsselnde Datei
+	 * @param ziel - die .AES256-Datei
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @return Anzahl der gelesenen Bytes
+	 * @throws IOException
+	 */
+	public static long verschluessele(File quelle, File ziel, Schluesselverwaltung sv, AesFormat format) throws IOException {
+		return verschluessele(quelle, ziel, sv, format, 0);
+	}
+
+	/**
+	 * Verschlüsselt eine Datei und teilt das Ergebnis gleich beim Schreiben in Volumes auf (siehe {@link Volumen}).
+	 * @param quelle - die zu verschlüsselnde Datei
+	 * @param ziel - die .AES256-Datei; mit Volumes entstehen stattdessen <i>ziel</i>.001, .002 usw.
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM, oder CONTAINER nur ohne Volumes
+	 * @param volumenGroesse - Höchstgröße eines Volumes, 0 für eine einzige Datei
+	 * @return Anzahl der gelesenen Bytes
+	 * @throws IOException
+	 */
+	public static long verschluessele(File quelle, File ziel, Schluesselverwaltung sv, AesFormat format, long volumenGroesse) throws IOException {
+		pruefeVolumen(format, volumenGroesse);
+		long t = Metriken.start();
+		try {
+			long anzahl = verschluesseleDatei(quelle, ziel, sv, format, volumenGroesse);
+			Metriken.erfasse(Messpunkt.VERSCHLUESSELN, t, anzahl, ausgabeGroesse(ziel, volumenGroesse));
+			return anzahl;
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.VERSCHLUESSELN);
+			throw e;
+		}
+	}
+
+	private static long verschluesseleDatei(File quelle, File ziel, Schluesselverwaltung sv, AesFormat format, long volumenGroesse) throws IOException {
+		if (format == AesFormat.STREAM && quelle.length() >= KANAL_AB && volumenGroesse <= 0) {
+			return ueberKanal(quelle, ziel, sv, true);
+		}
+		InputStream in = new FileInputStream(quelle);
+		OutputStream ausgabe = null;
+		try {
+			ausgabe = zielStream(ziel, volumenGroesse);
+			OutputStream out = verschluesselungsStream(ausgabe, sv, format);
+			long anzahl = kopiere(in, out);
+			out.close();
+			return anzahl;
+		} catch (IOException | RuntimeException e) {
+			verwirf(ausgabe, ziel, volumenGroesse);
+			throw e;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Entschlüsselt eine Datei im Stream- oder Container-Format, das Format wird am Dateianfang erkannt.
+	 * Schlägt die Integritätsprüfung fehl, wird das Ziel gelöscht. Ist <i>quelle</i> das erste Volume einer
+	 * aufgeteilten Datei, werden die weiteren Volumes der Reihe nach dazugelesen.
+	 * @param quelle - die .AES256-Datei oder ihr erstes Volume
+	 * @param ziel - die Klartext-Datei (normalerweise ein Zip)
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws IOException auch, wenn die Datei im alten CryptoHID-Format ist
+	 */
+	public static long entschluessele(File quelle, File ziel, Schluesselverwaltung sv) throws IOException {
+		long t = Metriken.start();
+		try {
+			long anzahl = entschluesseleDatei(quelle, ziel, sv);
+			Metriken.erfasse(Messpunkt.ENTSCHLUESSELN, t, eingabeGroesse(quelle), anzahl);
+			return anzahl;
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.ENTSCHLUESSELN);
+			throw e;
+		}
+	}
+
+	private static long entschluesseleDatei(File quelle, File ziel, Schluesselverwaltung sv) throws IOException {
+		boolean volumen = Volumen.istVolumen(quelle);
+		AesFormat format = Volumen.formatVon(quelle);
+		if (format == AesFormat.CONTAINER && !volumen) {
+			return entschluesseleContainer(quelle, ziel, sv);
+		}
+		if (format != AesFormat.STREAM) {
+			throw new IOException(quelle + " ist im Format " + format + (volumen ? ", das nicht in Volumes gelesen werden kann" 
+					: " und kann nur über CryptoHID entschlüsselt werden"));
+		}
+		if (quelle.length() >= KANAL_AB && !volumen) {
+			return ueberKanal(quelle, ziel, sv, false);
+		}
+		InputStream in = new AesEntschluesselungsStream(volumen ? new VolumenLeser(quelle) : new FileInputStream(quelle), sv, STANDARD_PUFFER);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(ziel), STANDARD_PUFFER);
+			try {
+				return kopiere(in, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			ziel.delete();
+			throw e;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Entschlüsselt ein .AES256-Zip (Stream- oder Container-Format) und entpackt es im selben Durchgang: der Klartext
+	 * geht direkt in einen ZipInputStream und von dort in die Zieldateien, ein Zwischen-Zip gibt es nicht. Jedes Byte
+	 * wird einmal gelesen und einmal geschrieben, im Speicher sind nur Puffer.
+	 * <br/>Im Stream-Format steht der HMAC erst am Ende. Deshalb gehen die Einträge zuerst in Zwischendateien, die erst
+	 * nach dem Lesen bis zum Ende auf ihre Namen umbenannt werden; stimmt der HMAC nicht (oder ein Eintrag, oder ein Name
+	 * zeigt aus dem Verzeichnis hinaus), werden nur die Zwischendateien gelöscht und das Zielverzeichnis bleibt, wie es war.
+	 * @param quelle - die .AES256-Datei
+	 * @param zielVerzeichnis - wohin entpackt wird
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return die entpackten Dateien
+	 * @throws IOException
+	 */
+	public static List<File> entschluesseleUndEntpacke(File quelle, File zielVerzeichnis, Schluesselverwaltung sv) throws IOException {
+		long t = Metriken.start();
+		List<File> entpackt;
+		InputStream in = entschluesselungsStream(quelle, sv);
+		try {
+			// liest bis zum Ende und benennt erst danach um: nach einem falschen HMAC bleibt das Ziel, wie es war
+			entpackt = ZippingTools.entpackeNach(in, zielVerzeichnis);
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.ENTSCHLUESSELN);
+			throw e;
+		} finally {
+			in.close();
+		}
+		long summe = 0;
+		for (File f : entpackt) {
+			summe += f.length();
+		}
+		Metriken.erfasse(Messpunkt.ENTSCHLUESSELN, t, eingabeGroesse(quelle), summe);
+		return entpackt;
+	}
+
+	/**
+	 * Prüft eine .AES256-Datei (Stream- oder Container-Format) komplett, ohne etwas zu schreiben: Entschlüsselung samt
+	 * HMAC bzw. Segment-Tags, und wenn ein Zip drin ist, CRC, Größe und Name jedes Eintrags.
+	 * @param quelle - die .AES256-Datei
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der Einträge im Zip, 0 wenn kein Zip drin ist
+	 * @throws IOException wenn irgendetwas nicht stimmt
+	 */
+	public static int pruefe(File quelle, Schluesselverwaltung sv) throws IOException {
+		InputStream in = entschluesselungsStream(quelle, sv);
+		try {
+			int anzahl = ZippingTools.pruefe(in);
+			leseBisZumEnde(in);
+			return anzahl;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Zippt einen beliebigen Stream als einen Eintrag und verschlüsselt das Zip gleich mit, z.B. von stdin nach stdout.
+	 * Es gibt weder Dateien noch Zwischenspeicher, nur Puffer fester Größe.
+	 * <br/>Keiner der beiden Streams wird geschlossen, <i>ziel</i> wird am Ende geflusht. Geht beim Lesen etwas schief,
+	 * wird das Zip nicht abgeschlossen: was schon in <i>ziel</i> steht, lässt sich dann nicht fehlerfrei entschlüsseln.
+	 * @param quelle - der Klartext
+	 * @param entryName - Name des Eintrags im Zip
+	 * @param ziel - wohin das verschlüsselte Zip geht
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @param kompression - die Strategie, null für immer Standard-Deflate
+	 * @return Anzahl der gelesenen Klartext-Bytes
+	 * @throws IOException
+	 */
+	public static long zippeUndVerschluessele(InputStream quelle, String entryName, OutputStream ziel, Schluesselverwaltung sv,
+			AesFormat format, Kompressionsstrategie kompression) throws IOException {
+		long t = Metriken.start();
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		Durchreiche aus = new Durchreiche(ziel);
+		try {
+			long anzahl;
+			ZipOutputStream zos = new ZipOutputStream(verschluesselungsStream(aus, sv, format));
+			ZipEntry ze = new ZipEntry(entryName);
+			ze.setTime(System.currentTimeMillis());
+			int n = 0;
+			Kompressionsstrategie.Stufe stufe = null;
+			if (kompression != null) {
+				n = leseVoll(quelle, puffer, Math.min(kompression.getProbe(), puffer.length));
+				stufe = kompression.waehle(ze, puffer, n);
+				zos.setLevel(stufe.getDeflateLevel());
+			}
+			zos.putNextEntry(ze);
+			zos.write(puffer, 0, n);
+			anzahl = n + kopiere(quelle, zos, puffer);
+			zos.closeEntry();
+			if (kompression != null) {
+				kompression.vermerke(ze, stufe);
+			}
+			// nur wenn alles gelesen ist: close() schreibt Central Directory und HMAC bzw. Index. Nach einem Fehler bleibt
+			// das Ergebnis unvollständig und fällt beim Entschlüsseln auf, statt als gültiges, abgeschnittenes Zip durchzugehen.
+			zos.close();
+			Metriken.erfasse(Messpunkt.VERSCHLUESSELN, t, anzahl, aus.anzahl);
+			return anzahl;
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.VERSCHLUESSELN);
+			throw e;
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+
+	/**
+	 * Entschlüsselt ein .AES256-Zip im Stream-Format aus einem beliebigen Stream und entpackt es im selben Durchgang in
+	 * einen Stream, z.B. von stdin nach stdout. Mehrere Einträge kommen hintereinander heraus (wie bei <code>unzip -p</code>).
+	 * <br/>Der HMAC steht erst am Ende. Wenn er nicht stimmt, fliegt die IOException erst, nachdem der Klartext schon
+	 * geschrieben ist - wer liest, muss also auf den Fehler warten, bevor er dem Ergebnis traut. Das Container-Format geht
+	 * hier nicht, das braucht wahlfreien Zugriff auf eine Datei.
+	 * <br/>Keiner der beiden Streams wird geschlossen, <i>ziel</i> wird am Ende geflusht.
+	 * @param quelle - das verschlüsselte Zip
+	 * @param entryName - nur dieser Eintrag, null für alle
+	 * @param ziel - wohin der Klartext geht
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return Anzahl der geschriebenen Klartext-Bytes
+	 * @throws ZipException wenn es den gewünschten Eintrag nicht gibt
+	 * @throws IOException
+	 */
+	public static long entschluesseleUndEntpacke(InputStream quelle, String entryName, OutputStream ziel, Schluesselverwaltung sv)
+			throws IOException {
+		long t = Metriken.start();
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		try {
+			InputStream in = new AesEntschluesselungsStream(new FilterInputStream(quelle) {
+				@Override
+				public void close() {
+					// die Quelle gehört dem Aufrufer
+				}
+			}, sv, STANDARD_PUFFER);
+			try {
+				long anzahl = 0;
+				boolean gefunden = false;
+				ZipInputStream zin = new ZipInputStream(new FilterInputStream(in) {
+					@Override
+					public void close() {
+						// es wird noch bis zum HMAC weitergelesen
+					}
+				});
+				ZipEntry z;
+				while ((z = zin.getNextEntry()) != null) {
+					if (!z.isDirectory() && (entryName == null || entryName.equals(z.getName()))) {
+						anzahl += kopiere(zin, ziel, puffer);
+						gefunden = true;
+					}
+				}
+				leseBisZumEnde(in);
+				ziel.flush();
+				if (entryName != null && !gefunden) {
+					throw new ZipException("Eintrag " + entryName + " gibt es nicht");
+				}
+				Metriken.erfasse(Messpunkt.ENTSCHLUESSELN, t, 0, anzahl); // wie viel aus der Quelle kam, weiß nur der Aufrufer
+				return anzahl;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Metriken.erfasseFehler(Messpunkt.ENTSCHLUESSELN);
+			throw e;
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+
+	/**
+	 * Liest das Verzeichnis eines .AES256-Zips (Stream- oder Container-Format, auch in Volumes) mit
+	 * {@link ZippingTools#fetchZipDirectory(ZipInputStream)}, ohne etwas auf die Platte zu schreiben.
+	 * <br/>Danach wird bis zum Ende gelesen, damit im Stream-Format auch der HMAC geprüft ist, bevor jemand dem
+	 * Verzeichnis traut.
+	 * @param quelle - die .AES256-Datei
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @return die Einträge, mit Größe und CRC
+	 * @throws IOException
+	 */
+	public static List<ZipEntry> verzeichnis(File quelle, Schluesselverwaltung sv) throws IOException {
+		InputStream in = entschluesselungsStream(quelle, sv);
+		try {
+			List<ZipEntry> eintraege = ZippingTools.fetchZipDirectory(new ZipInputStream(ohneSchliessen(in)));
+			leseBisZumEnde(in);
+			return eintraege;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Entschlüsselt einen einzelnen Eintrag aus einem .AES256-Zip und liefert dessen Daten.
+	 * <br/>Im Stream-Format wird danach bis zum Ende gelesen, die Daten kommen erst zurück, wenn der HMAC stimmt. Im
+	 * Container-Format ist jedes Segment für sich geprüft, dort hört das Lesen nach dem Eintrag auf.
+	 * @param quelle - die .AES256-Datei
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param ze - der gesuchte Eintrag
+	 * @return die Daten, ein leeres Array wenn es den Eintrag nicht gibt
+	 * @throws IOException auch wenn der HMAC nicht stimmt
+	 */
+	public static byte[] ladeEintrag(File quelle, Schluesselverwaltung sv, ZipEntry ze) throws IOException {
+		boolean stream = Volumen.formatVon(quelle) == AesFormat.STREAM;
+		InputStream in = entschluesselungsStream(quelle, sv);
+		try {
+			byte[] daten = ZippingTools.loadDataFromZipEntry(new ZipInputStream(stream ? ohneSchliessen(in) : in), ze);
+			if (stream) {
+				leseBisZumEnde(in);
+			}
+			return daten;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return <i>in</i>, nur dass close() nichts tut - damit danach noch bis zum HMAC weitergelesen werden kann
+	 */
+	private static InputStream ohneSchliessen(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public void close() {
+				// der Aufrufer liest weiter und schließt selbst
+			}
+		};
+	}
+
+	private static InputStream entschluesselungsStream(File quelle, Schluesselverwaltung sv) throws IOException {
+		boolean volumen = Volumen.istVolumen(quelle);
+		AesFormat format = Volumen.formatVon(quelle);
+		if (format == AesFormat.CONTAINER && !volumen) {
+			return new AesContainerLeser(quelle, sv).alsStream();
+		}
+		if (format != AesFormat.STREAM) {
+			throw new IOException(quelle + " ist im Format " + format + (volumen ? ", das nicht in Volumes gelesen werden kann" 
+					: " und kann nur über CryptoHID entschlüsselt werden"));
+		}
+		return new AesEntschluesselungsStream(volumen ? new VolumenLeser(quelle) : new FileInputStream(quelle), sv, STANDARD_PUFFER);
+	}
+
+	/**
+	 * @return eine einzelne Datei oder, bei Volumes, ein {@link VolumenSchreiber}
+	 */
+	private static OutputStream zielStream(File ziel, long volumenGroesse) throws IOException {
+		if (volumenGroesse > 0) {
+			return new VolumenSchreiber(ziel, volumenGroesse);
+		}
+		return new BufferedOutputStream(new FileOutputStream(ziel), STANDARD_PUFFER);
+	}
+
+	private static void pruefeVolumen(AesFormat format, long volumenGroesse) {
+		if (volumenGroesse > 0 && format != AesFormat.STREAM) {
+			throw new IllegalArgumentException("Volumes gibt es nur im Stream-Format, nicht im Format " + format);
+		}
+	}
+
+	/**
+	 * Räumt nach einem Fehler beim Schreiben auf. Die Streams über <i>ausgabe</i> werden absichtlich nicht geschlossen,
+	 * sie würden sonst noch ordentlich abschließen (Central Directory, HMAC, Kennung des letzten Volumes) - für eine
+	 * Datei, die gleich darauf gelöscht wird.
+	 * @param ausgabe - was {@link #zielStream(File, long)} geliefert hat, null wenn schon das nicht ging
+	 */
+	private static void verwirf(OutputStream ausgabe, File ziel, long volumenGroesse) {
+		if (ausgabe instanceof VolumenSchreiber) {
+			((VolumenSchreiber) ausgabe).verwerfe();
+			return;
+		}
+		if (ausgabe != null) {
+			try {
+				ausgabe.close();
+			} catch (IOException e) {
+				// wird sowieso gelöscht
+			}
+		}
+		loescheZiel(ziel, volumenGroesse);
+	}
+
+	private static void loescheZiel(File ziel, long volumenGroesse) {
+		if (volumenGroesse > 0) {
+			Volumen.loesche(ziel, 1);
+		} else {
+			ziel.delete();
+		}
+	}
+
+	private static long ausgabeGroesse(File ziel, long volumenGroesse) {
+		return volumenGroesse > 0 ? Volumen.groesse(ziel) : ziel.length();
+	}
+
+	/**
+	 * @return die Größe der Datei bzw. aller Volumes, wenn es das erste Volume ist
+	 */
+	private static long eingabeGroesse(File quelle) {
+		if (Volumen.istErstesVolumen(quelle.getName())) {
+			return Volumen.groesse(new File(quelle.getParentFile(), Volumen.basisName(quelle.getName())));
+		}
+		return quelle.length();
+	}
+
+	/**
+	 * Liest den Rest nach dem Zip (Central Directory) - erst am Ende prüft der Stream den HMAC.
+	 */
+	private static void leseBisZumEnde(InputStream in) throws IOException {
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		try {
+			while (in.read(puffer) >= 0) {
+				// nur lesen
+			}
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+
+	/**
+	 * Ver- oder entschlüsselt im Stream-Format von Datei zu Datei über FileChannels. Bei einem Fehler wird das Ziel gelöscht.
+	 */
+	private static long ueberKanal(File quelle, File ziel, Schluesselverwaltung sv, boolean verschluesseln) throws IOException {
+		ByteBuffer puffer = Pufferpool.KANAL.holeBuffer();
+		FileChannel in = FileChannel.open(quelle.toPath(), StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(ziel.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				return verschluesseln ? AesStreamKanal.verschluessele(in, out, sv, puffer) : AesStreamKanal.entschluessele(in, out, sv, puffer);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			ziel.delete();
+			throw e;
+		} finally {
+			in.close();
+			Pufferpool.KANAL.gibZurueck(puffer);
+		}
+	}
+
+	private static long entschluesseleContainer(File quelle, File ziel, Schluesselverwaltung sv) throws IOException {
+		AesContainerLeser leser = new AesContainerLeser(quelle, sv);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(ziel), STANDARD_PUFFER);
+			try {
+				return leser.entschluesseleNach(out, ForkJoinPool.commonPool(), PARALLELITAET);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			ziel.delete();
+			throw e;
+		} finally {
+			leser.close();
+		}
+	}
+
+	/**
+	 * Legt den passenden Verschlüsselungs-Stream um <i>out</i>.
+	 * @param out - Ziel für die verschlüsselten Daten, wird beim close() mitgeschlossen
+	 * @param sv - Schlüsselverwaltung des Laufs
+	 * @param format - STREAM oder CONTAINER
+	 * @return der Stream, in den man den Klartext schreibt
+	 * @throws IOException
+	 */
+	public static OutputStream verschluesselungsStream(OutputStream out, Schluesselverwaltung sv, AesFormat format) throws IOException {
+		switch (format) {
+		case STREAM:
+			return new AesVerschluesselungsStream(out, sv, STANDARD_PUFFER);
+		case CONTAINER:
+			return new AesContainerSchreiber(out, sv, AesContainerFormat.STANDARD_SEGMENTGROESSE, 
+					ForkJoinPool.commonPool(), PARALLELITAET);
+		default:
+			throw new IllegalArgumentException("Im Format " + format + " kann nicht gestreamt werden");
+		}
+	}
+
+	/**
+	 * Liest, bis <i>laenge</i> Bytes da sind oder der Stream zu Ende ist.
+	 * @return wie viele Bytes tatsächlich gelesen wurden
+	 */
+	private static int leseVoll(InputStream in, byte[] puffer, int laenge) throws IOException {
+		int n = 0;
+		int len;
+		while (n < laenge && (len = in.read(puffer, n, laenge - n)) >= 0) {
+			n += len;
+		}
+		return n;
+	}
+
+	/**
+	 * Wie {@link #kopiere(InputStream, OutputStream, byte[])} mit einem Puffer aus dem {@link Pufferpool#STANDARD}.
+	 * @param in - Quelle, wird nicht geschlossen
+	 * @param out - Ziel, wird nicht geschlossen
+	 * @return Anzahl der kopierten Bytes
+	 * @throws IOException
+	 */
+	public static long kopiere(InputStream in, OutputStream out) throws IOException {
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		try {
+			return kopiere(in, out, puffer);
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+
+	/**
+	 * Kopiert alles von <i>in</i> nach <i>out</i> über den übergebenen Puffer. Schließt keinen der Streams.
+	 * @param in - Quelle
+	 * @param out - Ziel
+	 * @param puffer - Arbeitspuffer
+	 * @return Anzahl der kopierten Bytes
+	 * @throws IOException
+	 */
+	public static long kopiere(InputStream in, OutputStream out, byte[] puffer) throws IOException {
+		long gesamt = 0;
+		int len;
+		while ((len = in.read(puffer)) > 0) {
+			out.write(puffer, 0, len);
+			gesamt += len;
+		}
+		return gesamt;
+	}
+
+	/**
+	 * Reicht alles an <i>ziel</i> weiter und zählt mit, schließt es aber nicht (z.B. stdout, das noch gebraucht wird).
+	 */
+	private static class Durchreiche extends OutputStream {
+		private final OutputStream ziel;
+		long anzahl = 0;
+
+		Durchreiche(OutputStream ziel) {
+			this.ziel = ziel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ziel.write(b);
+			anzahl++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ziel.write(b, off, len);
+			anzahl += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			ziel.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			ziel.flush();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import at.diwh.cryptoPrimitive.crypto.AesFormat;
+
+/**
+ * Beschreibt die Volumes, in die eine verschlüsselte Datei beim Schreiben aufgeteilt werden kann (z.B. für Mail-Anhänge
+ * mit Größenlimit). Aus <code>x.AES256</code> werden <code>x.AES256.001</code>, <code>x.AES256.002</code>, ...
+ * <br/>Jedes Volume: <code>MAGIC(8) | Satz-ID(16) | Nummer(4) | Flags(1) | Nutzlänge(8) | CRC32 der Nutzdaten(4) | Nutzdaten</code>
+ * <br/>Die Nutzdaten aller Volumes hintereinander ergeben genau die .AES256-Datei, die man ohne Aufteilung bekommen
+ * hätte. Die Satz-ID ist pro Datei zufällig, Flag-Bit 0 markiert das letzte Volume. Damit fallen vertauschte, fehlende,
+ * abgeschnittene und fremde Volumes schon beim Lesen auf und nicht erst beim HMAC am Ende.
+ * <br/>Geschrieben wird von {@link VolumenSchreiber}, gelesen von {@link VolumenLeser} - beides in einem Durchgang, ohne
+ * die Volumes vorher zusammenzukopieren.
+ * @author JavaAlchemist
+ *
+ */
+public class Volumen {
+
+	public static final byte[] MAGIC = { 'C', 'P', 'V', 'O', 'L', '0', '0', '1' };
+	public static final int ID_LAENGE = 16;
+	public static final int HEADER_LAENGE = MAGIC.length + ID_LAENGE + 4 + 1 + 8 + 4;
+	/**
+	 * Kleinere Volumes wären fast nur Header
+	 */
+	public static final long MINDESTGROESSE = 64 * 1024;
+
+	static final int FLAG_LETZTES = 1;
+
+	private static final Pattern NAME = Pattern.compile("(.*)\\.(\\d{3,})");
+
+	private Volumen() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * @param basis - die Datei, die aufgeteilt wird, z.B. <code>x.AES256</code>
+	 * @param nummer - ab 1
+	 * @return das Volume, z.B. <code>x.AES256.001</code>
+	 */
+	public static File datei(File basis, int nummer) {
+		return new File(basis.getPath() + "." + String.format("%03d", nummer));
+	}
+
+	/**
+	 * @param name - Dateiname
+	 * @return true für das erste Volume einer .AES256-Datei (<code>.AES256.001</code>)
+	 */
+	public static boolean istErstesVolumen(String name) {
+		return nummer(name) == 1;
+	}
+
+	/**
+	 * @param name - Dateiname
+	 * @return true für die weiteren Volumes (<code>.AES256.002</code> usw.), die nur über das erste gelesen werden
+	 */
+	public static boolean istFolgevolumen(String name) {
+		return nummer(name) > 1;
+	}
+
+	/**
+	 * @param name - Name eines Volumes, z.B. <code>x.AES256.001</code>
+	 * @return der Name ohne Volume-Nummer, z.B. <code>x.AES256</code>
+	 */
+	public static String basisName(String name) {
+		Matcher m = NAME.matcher(name);
+		return m.matches() ? m.group(1) : name;
+	}
+
+	/**
+	 * @return die Nummer aus einem Namen <code>*.AES256.nnn</code>, -1 wenn es keiner ist
+	 */
+	private static int nummer(String name) {
+		Matcher m = NAME.matcher(name);
+		if (!m.matches() || !m.group(1).endsWith(".AES256")) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(m.group(2));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Prüft am Dateianfang, ob es ein Volume ist (der Name allein reicht nicht).
+	 * @param f - die Datei
+	 * @return true für ein Volume
+	 * @throws IOException
+	 */
+	public static boolean istVolumen(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] kopf = leseVoll(in, MAGIC.length);
+			return kopf.length == MAGIC.length && Arrays.equals(kopf, MAGIC);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Wie {@link AesFormat#erkenne(File)}, schaut bei einem Volume aber auf seine Nutzdaten. Weil das Format am Anfang
+	 * steht, reicht dafür das erste Volume.
+	 * @param f - .AES256-Datei oder ihr erstes Volume
+	 * @return das Format der verschlüsselten Daten
+	 * @throws IOException
+	 */
+	public static AesFormat formatVon(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] kopf = leseVoll(in, MAGIC.length);
+			if (Arrays.equals(kopf, MAGIC)) {
+				leseVoll(in, HEADER_LAENGE - MAGIC.length);
+				kopf = leseVoll(in, MAGIC.length);
+			}
+			return AesFormat.erkenne(kopf);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param basis - die aufgeteilte Datei
+	 * @return die Summe der Größen aller vorhandenen Volumes, 0 wenn es keine gibt
+	 */
+	public static long groesse(File basis) {
+		long summe = 0;
+		for (int n = 1; datei(basis, n).isFile(); n++) {
+			summe += datei(basis, n).length();
+		}
+		return summe;
+	}
+
+	/**
+	 * Löscht alle Volumes ab <i>ab</i>, solange sie lückenlos vorhanden sind.
+	 * @param basis - die aufgeteilte Datei
+	 * @param ab - erste zu löschende Nummer
+	 */
+	public static void loesche(File basis, int ab) {
+		for (int n = ab; datei(basis, n).isFile(); n++) {
+			datei(basis, n).delete();
+		}
+	}
+
+	static void schreibeLong(byte[] ziel, int offset, long wert) {
+		for (int i = 0; i < 8; i++) {
+			ziel[offset + i] = (byte) (wert >>> (56 - 8 * i));
+		}
+	}
+
+	static long leseLong(byte[] quelle, int offset) {
+		long wert = 0;
+		for (int i = 0; i < 8; i++) {
+			wert = (wert << 8) | (quelle[offset + i] & 0xFF);
+		}
+		return wert;
+	}
+
+	static void schreibeInt(byte[] ziel, int offset, int wert) {
+		for (int i = 0; i < 4; i++) {
+			ziel[offset + i] = (byte) (wert >>> (24 - 8 * i));
+		}
+	}
+
+	static int leseInt(byte[] quelle, int offset) {
+		int wert = 0;
+		for (int i = 0; i < 4; i++) {
+			wert = (wert << 8) | (quelle[offset + i] & 0xFF);
+		}
+		return wert;
+	}
+
+	/**
+	 * Liest bis zu <i>anzahl</i> Bytes, weniger nur am Ende des Streams.
+	 */
+	static byte[] leseVoll(InputStream in, int anzahl) throws IOException {
+		byte[] b = new byte[anzahl];
+		int gelesen = 0;
+		int len;
+		while (gelesen < anzahl && (len = in.read(b, gelesen, anzahl - gelesen)) >= 0) {
+			gelesen += len;
+		}
+		return gelesen == anzahl ? b : Arrays.copyOf(b, gelesen);
+	}
+}
@@ -0,0 +1,123 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Liest die Nutzdaten aller Volumes einer Datei (siehe {@link Volumen}) als einen durchgehenden Stream, ohne sie vorher
+ * zusammenzukopieren. Es ist immer nur ein Volume offen.
+ * <br/>Geprüft wird beim Öffnen jedes Volumes Magic, Satz-ID, Nummer und Dateigröße, am Ende jedes Volumes der CRC.
+ * Ein fehlendes Volume fällt also auf, sobald es gebraucht wird, ein beschädigtes, bevor das nächste gelesen wird.
+ * @author JavaAlchemist
+ *
+ */
+public class VolumenLeser extends InputStream {
+
+	private final File basis;
+	private final CRC32 crc = new CRC32();
+	private byte[] satzId;
+	private int nummer = 0;
+	private InputStream in;
+	private long rest;
+	private int erwarteterCrc;
+	private boolean letztes;
+
+	/**
+	 * @param erstesVolumen - <code>x.AES256.001</code>, die weiteren werden daneben gesucht
+	 * @throws IOException wenn es kein gültiges erstes Volume ist
+	 */
+	public VolumenLeser(File erstesVolumen) throws IOException {
+		this.basis = new File(erstesVolumen.getParentFile(), Volumen.basisName(erstesVolumen.getName()));
+		oeffne(erstesVolumen);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (rest == 0) {
+			pruefeCrc();
+			if (letztes) {
+				return -1;
+			}
+			in.close();
+			in = null;
+			File naechstes = Volumen.datei(basis, nummer + 1);
+			if (!naechstes.isFile()) {
+				throw new IOException("Volume " + naechstes.getName() + " fehlt");
+			}
+			oeffne(naechstes);
+		}
+		int n = in.read(b, off, (int) Math.min(len, rest));
+		if (n < 0) {
+			throw new IOException("Volume " + Volumen.datei(basis, nummer).getName() + " ist zu kurz");
+		}
+		crc.update(b, off, n);
+		rest -= n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+	private void oeffne(File f) throws IOException {
+		InputStream neu = new FileInputStream(f);
+		try {
+			byte[] header = Volumen.leseVoll(neu, Volumen.HEADER_LAENGE);
+			if (header.length < Volumen.HEADER_LAENGE || !Arrays.equals(Volumen.MAGIC, Arrays.copyOf(header, Volumen.MAGIC.length))) {
+				throw new IOException(f.getName() + " ist kein Volume");
+			}
+			int pos = Volumen.MAGIC.length;
+			byte[] id = Arrays.copyOfRange(header, pos, pos + Volumen.ID_LAENGE);
+			pos += Volumen.ID_LAENGE;
+			if (satzId != null && !Arrays.equals(satzId, id)) {
+				throw new IOException(f.getName() + " gehört zu einer anderen Datei");
+			}
+			int n = Volumen.leseInt(header, pos);
+			pos += 4;
+			if (n != nummer + 1) {
+				throw new IOException(f.getName() + " hat die Nummer " + n + ", erwartet war " + (nummer + 1));
+			}
+			boolean l = (header[pos++] & Volumen.FLAG_LETZTES) != 0;
+			long laenge = Volumen.leseLong(header, pos);
+			pos += 8;
+			if (f.length() != Volumen.HEADER_LAENGE + laenge) {
+				throw new IOException(f.getName() + " ist " + f.length() + " Bytes groß, erwartet waren " + (Volumen.HEADER_LAENGE + laenge));
+			}
+			satzId = id;
+			nummer = n;
+			letztes = l;
+			rest = laenge;
+			erwarteterCrc = Volumen.leseInt(header, pos);
+			crc.reset();
+			in = neu;
+		} finally {
+			if (in != neu) {
+				neu.close();
+			}
+		}
+	}
+
+	private void pruefeCrc() throws IOException {
+		if ((int) crc.getValue() != erwarteterCrc) {
+			throw new IOException("Volume " + Volumen.datei(basis, nummer).getName() + " ist beschädigt (CRC)");
+		}
+	}
+}
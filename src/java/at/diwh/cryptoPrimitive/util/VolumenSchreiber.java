@@ -0,0 +1,194 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Schreibt einen Datenstrom in Volumes fester Höchstgröße (siehe {@link Volumen}), während er entsteht. Das nächste
+ * Volume wird erst angelegt, wenn wirklich noch Daten kommen, das letzte ist also nie leer (außer es kam gar nichts).
+ * <br/>Der Header eines Volumes wird zuerst als Platzhalter geschrieben und beim Abschließen an Position 0 mit Länge,
+ * CRC und Flags überschrieben - dafür muss nichts zweimal gelesen werden.
+ * <br/>Im Heap liegt nur ein Puffer aus dem {@link Pufferpool}. Nicht thread-safe, wie jeder OutputStream.
+ * @author JavaAlchemist
+ *
+ */
+public class VolumenSchreiber extends OutputStream {
+
+	private static final SecureRandom ZUFALL = new SecureRandom();
+
+	private final File basis;
+	private final long kapazitaet;
+	private final byte[] satzId = new byte[Volumen.ID_LAENGE];
+	private final List<File> volumen = new ArrayList<File>();
+	private final CRC32 crc = new CRC32();
+	private byte[] puffer;
+	private int imPuffer = 0;
+	private FileChannel kanal;
+	private long nutzlaenge;
+	private boolean geschlossen = false;
+
+	/**
+	 * @param basis - die Datei, die aufgeteilt wird (z.B. <code>x.AES256</code>), sie selbst wird nicht angelegt
+	 * @param maxGroesse - Höchstgröße eines Volumes samt Header, mindestens {@link Volumen#MINDESTGROESSE}
+	 */
+	public VolumenSchreiber(File basis, long maxGroesse) {
+		if (maxGroesse < Volumen.MINDESTGROESSE) {
+			throw new IllegalArgumentException("Volumes müssen mindestens " + Volumen.MINDESTGROESSE + " Bytes groß sein, nicht " + maxGroesse);
+		}
+		this.basis = basis;
+		this.kapazitaet = maxGroesse - Volumen.HEADER_LAENGE;
+		ZUFALL.nextBytes(satzId);
+		this.puffer = Pufferpool.STANDARD.holeArray();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (geschlossen) {
+			throw new IOException("VolumenSchreiber ist bereits geschlossen");
+		}
+		while (len > 0) {
+			if (kanal == null || nutzlaenge == kapazitaet) {
+				naechstesVolumen();
+			}
+			int n = (int) Math.min(len, Math.min(kapazitaet - nutzlaenge, puffer.length - imPuffer));
+			System.arraycopy(b, off, puffer, imPuffer, n);
+			crc.update(b, off, n);
+			imPuffer += n;
+			nutzlaenge += n;
+			off += n;
+			len -= n;
+			if (imPuffer == puffer.length) {
+				leerePuffer();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (kanal != null) {
+			leerePuffer();
+		}
+	}
+
+	/**
+	 * Schließt das letzte Volume ab und löscht Volumes mit höherer Nummer, die von einem früheren Lauf übrig sind.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (geschlossen) {
+			return;
+		}
+		try {
+			if (kanal == null) {
+				naechstesVolumen();
+			}
+			schliesseVolumen(true);
+			Volumen.loesche(basis, volumen.size() + 1);
+		} finally {
+			geschlossen = true;
+			gibPufferZurueck();
+		}
+	}
+
+	/**
+	 * Bricht ab und löscht alle schon geschriebenen Volumes, z.B. nach einem Fehler beim Verschlüsseln.
+	 */
+	public void verwerfe() {
+		geschlossen = true;
+		try {
+			if (kanal != null) {
+				kanal.close();
+			}
+		} catch (IOException e) {
+			// wird sowieso gelöscht
+		}
+		for (File f : volumen) {
+			f.delete();
+		}
+		gibPufferZurueck();
+	}
+
+	/**
+	 * @return die bisher angelegten Volumes, in Reihenfolge
+	 */
+	public List<File> getVolumen() {
+		return Collections.unmodifiableList(volumen);
+	}
+
+	private void naechstesVolumen() throws IOException {
+		if (kanal != null) {
+			schliesseVolumen(false);
+		}
+		File f = Volumen.datei(basis, volumen.size() + 1);
+		kanal = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		volumen.add(f);
+		nutzlaenge = 0;
+		crc.reset();
+		// Platzhalter, der richtige Header kommt beim Abschließen
+		schreibeVoll(ByteBuffer.wrap(new byte[Volumen.HEADER_LAENGE]), -1);
+	}
+
+	private void schliesseVolumen(boolean letztes) throws IOException {
+		try {
+			leerePuffer();
+			byte[] header = new byte[Volumen.HEADER_LAENGE];
+			int pos = 0;
+			System.arraycopy(Volumen.MAGIC, 0, header, pos, Volumen.MAGIC.length);
+			pos += Volumen.MAGIC.length;
+			System.arraycopy(satzId, 0, header, pos, Volumen.ID_LAENGE);
+			pos += Volumen.ID_LAENGE;
+			Volumen.schreibeInt(header, pos, volumen.size());
+			pos += 4;
+			header[pos++] = (byte) (letztes ? Volumen.FLAG_LETZTES : 0);
+			Volumen.schreibeLong(header, pos, nutzlaenge);
+			pos += 8;
+			Volumen.schreibeInt(header, pos, (int) crc.getValue());
+			schreibeVoll(ByteBuffer.wrap(header), 0);
+		} finally {
+			kanal.close();
+			kanal = null;
+		}
+	}
+
+	private void leerePuffer() throws IOException {
+		if (imPuffer > 0) {
+			schreibeVoll(ByteBuffer.wrap(puffer, 0, imPuffer), -1);
+			imPuffer = 0;
+		}
+	}
+
+	/**
+	 * @param position - -1 für die aktuelle Position
+	 */
+	private void schreibeVoll(ByteBuffer bb, long position) throws IOException {
+		long p = position;
+		while (bb.hasRemaining()) {
+			if (position < 0) {
+				kanal.write(bb);
+			} else {
+				p += kanal.write(bb, p);
+			}
+		}
+	}
+
+	private void gibPufferZurueck() {
+		if (puffer != null) {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+			puffer = null;
+		}
+	}
+}
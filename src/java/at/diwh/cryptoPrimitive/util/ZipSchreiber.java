@@ -0,0 +1,322 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+
+/**
+ * Schreibt ein Zip Eintrag für Eintrag, ohne dass alle Daten gleichzeitig im Speicher sein müssen (anders als
+ * {@link ZippingTools#writeZipEntryToNewZipFile(File, java.util.Map)}). Jeder Eintrag geht sofort in die Datei, im
+ * Speicher bleibt nur ein Puffer aus dem {@link Pufferpool} - egal ob das Zip 10 oder 10.000 Einträge hat.
+ * <pre>
+ * ZipSchreiber zip = ZipSchreiber.nach(datei).mitKompression(strategie);
+ * try {
+ *     zip.eintrag(new ZipEntry("a.txt"), pfad).eintrag(verweis, bytes);
+ * } finally {
+ *     zip.close();
+ * }
+ * </pre>
+ * Die Einträge stehen im Zip in der Reihenfolge, in der sie hinzugefügt wurden. Vom übergebenen ZipEntry werden
+ * Zeitstempel, Kommentar, Extra-Feld und Methode übernommen (nur die Größen nicht, die ergeben sich beim Schreiben).
+ * Ist keine Methode gesetzt, entscheidet die {@link Kompressionsstrategie}, ohne Strategie wird Standard-Deflate
+ * genommen. STORED braucht CRC und Größe vor den Daten: bei Pfaden und Puffern werden sie vorab gerechnet, bei einem
+ * InputStream müssen sie im ZipEntry schon stehen.
+ * <br/>Nach jedem Eintrag stehen im übergebenen ZipEntry Größen und CRC, wie beim ZipOutputStream.
+ * @author JavaAlchemist
+ *
+ */
+public class ZipSchreiber implements Closeable {
+
+	private final ZipOutputStream zos;
+	private final File datei; // nur für die Metrik, null wenn in einen Stream geschrieben wird
+	private final byte[] puffer = Pufferpool.STANDARD.holeArray();
+	private final long start = Metriken.start();
+	private Kompressionsstrategie kompression;
+	private int anzahl = 0;
+	private long rohBytes = 0;
+	private boolean geschlossen = false;
+
+	private ZipSchreiber(OutputStream out, File datei) {
+		this.zos = new ZipOutputStream(out);
+		this.datei = datei;
+	}
+
+	/**
+	 * @param f - das Zip-File, wird angelegt bzw. überschrieben
+	 * @return ein neuer Schreiber
+	 * @throws IOException
+	 */
+	public static ZipSchreiber nach(File f) throws IOException {
+		return new ZipSchreiber(new BufferedOutputStream(new FileOutputStream(f), Pufferpool.STANDARD.getGroesse()), f);
+	}
+
+	/**
+	 * @param out - wohin das Zip geschrieben wird, wird bei {@link #close()} mit geschlossen
+	 * @return ein neuer Schreiber
+	 */
+	public static ZipSchreiber nach(OutputStream out) {
+		return new ZipSchreiber(out, null);
+	}
+
+	/**
+	 * @param kompression - wählt die Methode für Einträge, die keine gesetzt haben; null für Standard-Deflate
+	 * @return this
+	 */
+	public ZipSchreiber mitKompression(Kompressionsstrategie kompression) {
+		this.kompression = kompression;
+		return this;
+	}
+
+	/**
+	 * @param kommentar - Kommentar des ganzen Archivs
+	 * @return this
+	 */
+	public ZipSchreiber mitKommentar(String kommentar) {
+		zos.setComment(kommentar);
+		return this;
+	}
+
+	/**
+	 * Schreibt einen Eintrag aus einem Stream.
+	 * @param ze - Name und Metadaten
+	 * @param in - die Daten, wird bis zum Ende gelesen aber nicht geschlossen
+	 * @return this
+	 * @throws IOException
+	 * @throws ZipException bei STORED ohne CRC und Größe im ZipEntry
+	 */
+	public ZipSchreiber eintrag(ZipEntry ze, InputStream in) throws IOException {
+		ZipEntry neu = kopie(ze);
+		if (neu.getMethod() == ZipEntry.STORED && (neu.getCrc() == -1 || neu.getSize() == -1)) {
+			throw new ZipException("STORED aus einem Stream braucht CRC und Größe im ZipEntry: " + ze.getName());
+		}
+		schreibe(ze, neu, in, null);
+		return this;
+	}
+
+	/**
+	 * Schreibt eine Datei als Eintrag. Ohne Zeitstempel im ZipEntry gilt die Änderungszeit der Datei.
+	 * @param ze - Name und Metadaten
+	 * @param quelle - die Datei
+	 * @return this
+	 * @throws IOException
+	 */
+	public ZipSchreiber eintrag(ZipEntry ze, Path quelle) throws IOException {
+		ZipEntry neu = kopie(ze);
+		if (neu.getTime() == -1) {
+			neu.setTime(Files.getLastModifiedTime(quelle).toMillis());
+		}
+		FileChannel kanal = FileChannel.open(quelle, StandardOpenOption.READ);
+		try {
+			Kompressionsstrategie.Stufe stufe = null;
+			if (neu.getMethod() == -1 && kompression != null) {
+				ByteBuffer probe = ByteBuffer.wrap(puffer, 0, (int) Math.min(Math.min(kompression.getProbe(), puffer.length), kanal.size()));
+				while (probe.hasRemaining() && kanal.read(probe, probe.position()) >= 0) {
+					// positionsbasiert, der Kanal bleibt auf 0
+				}
+				stufe = kompression.waehle(neu, puffer, probe.position());
+				if (stufe == Kompressionsstrategie.Stufe.STORED) {
+					neu.setMethod(ZipEntry.STORED);
+				}
+			}
+			if (neu.getMethod() == ZipEntry.STORED && (neu.getCrc() == -1 || neu.getSize() == -1)) {
+				// CRC in einem eigenen Durchgang, die Datei ist ja noch einmal lesbar
+				CRC32 crc = new CRC32();
+				InputStream in = Channels.newInputStream(kanal);
+				int len;
+				while ((len = in.read(puffer)) > 0) {
+					crc.update(puffer, 0, len);
+				}
+				neu.setCrc(crc.getValue());
+				neu.setSize(kanal.size());
+				neu.setCompressedSize(kanal.size());
+				kanal.position(0);
+			}
+			schreibe(ze, neu, Channels.newInputStream(kanal), stufe);
+			return this;
+		} finally {
+			kanal.close();
+		}
+	}
+
+	/**
+	 * Schreibt die restlichen Bytes eines Puffers als Eintrag. Die Position des Puffers wird nicht verändert.
+	 * @param ze - Name und Metadaten
+	 * @param daten - die Daten von position bis limit, auch ein direkter oder gemappter Puffer
+	 * @return this
+	 * @throws IOException
+	 */
+	public ZipSchreiber eintrag(ZipEntry ze, ByteBuffer daten) throws IOException {
+		if (daten.hasArray()) {
+			return eintrag(ze, daten.array(), daten.arrayOffset() + daten.position(), daten.remaining());
+		}
+		ByteBuffer quelle = daten.duplicate();
+		ZipEntry neu = kopie(ze);
+		Kompressionsstrategie.Stufe stufe = null;
+		if (neu.getMethod() == -1 && kompression != null) {
+			int n = Math.min(Math.min(kompression.getProbe(), puffer.length), quelle.remaining());
+			quelle.duplicate().get(puffer, 0, n);
+			stufe = kompression.waehle(ze, puffer, n);
+			if (stufe == Kompressionsstrategie.Stufe.STORED) {
+				neu.setMethod(ZipEntry.STORED);
+			}
+		}
+		if (neu.getMethod() == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(quelle.duplicate());
+			neu.setCrc(crc.getValue());
+			neu.setSize(quelle.remaining());
+			neu.setCompressedSize(quelle.remaining());
+		} else {
+			zos.setLevel(stufe != null ? stufe.getDeflateLevel() : Deflater.DEFAULT_COMPRESSION);
+		}
+		zos.putNextEntry(neu);
+		long laenge = quelle.remaining();
+		while (quelle.hasRemaining()) {
+			int n = Math.min(puffer.length, quelle.remaining());
+			quelle.get(puffer, 0, n);
+			zos.write(puffer, 0, n);
+		}
+		beende(ze, neu, stufe, laenge);
+		return this;
+	}
+
+	/**
+	 * Schreibt ein Byte-Array als Eintrag.
+	 * @param ze - Name und Metadaten
+	 * @param daten - die Daten
+	 * @return this
+	 * @throws IOException
+	 */
+	public ZipSchreiber eintrag(ZipEntry ze, byte[] daten) throws IOException {
+		return eintrag(ze, daten, 0, daten.length);
+	}
+
+	/**
+	 * @return wie viele Einträge bisher geschrieben sind
+	 */
+	public int getAnzahl() {
+		return anzahl;
+	}
+
+	/**
+	 * @return Summe der unkomprimierten Bytes aller Einträge
+	 */
+	public long getRohBytes() {
+		return rohBytes;
+	}
+
+	/**
+	 * Schreibt das Central Directory und schließt den darunterliegenden Stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (geschlossen) {
+			return;
+		}
+		geschlossen = true;
+		try {
+			zos.close();
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+		Metriken.erfasse(Messpunkt.ZIP, start, rohBytes, datei != null ? datei.length() : 0);
+	}
+
+	private ZipSchreiber eintrag(ZipEntry ze, byte[] daten, int off, int len) throws IOException {
+		ZipEntry neu = kopie(ze);
+		Kompressionsstrategie.Stufe stufe = null;
+		if (neu.getMethod() == -1 && kompression != null) {
+			byte[] probe = off == 0 ? daten : Arrays.copyOfRange(daten, off, off + Math.min(len, kompression.getProbe()));
+			stufe = kompression.waehle(ze, probe, Math.min(len, probe.length));
+			if (stufe == Kompressionsstrategie.Stufe.STORED) {
+				neu.setMethod(ZipEntry.STORED);
+			}
+		}
+		if (neu.getMethod() == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(daten, off, len);
+			neu.setCrc(crc.getValue());
+			neu.setSize(len);
+			neu.setCompressedSize(len);
+		} else {
+			zos.setLevel(stufe != null ? stufe.getDeflateLevel() : Deflater.DEFAULT_COMPRESSION);
+		}
+		zos.putNextEntry(neu);
+		zos.write(daten, off, len);
+		beende(ze, neu, stufe, len);
+		return this;
+	}
+
+	/**
+	 * Gemeinsamer Teil für Stream und Datei. Ist noch keine Stufe gewählt und keine Methode gesetzt, entscheidet die
+	 * Strategie anhand des Anfangs. STORED ist dann nicht mehr möglich (CRC fehlt), stattdessen Deflate-Stufe 0.
+	 */
+	private void schreibe(ZipEntry ze, ZipEntry neu, InputStream in, Kompressionsstrategie.Stufe stufe) throws IOException {
+		int n = 0;
+		if (stufe == null && neu.getMethod() == -1 && kompression != null) {
+			n = leseVoll(in, Math.min(kompression.getProbe(), puffer.length));
+			stufe = kompression.waehle(neu, puffer, n);
+		}
+		zos.setLevel(stufe != null ? stufe.getDeflateLevel() : Deflater.DEFAULT_COMPRESSION);
+		zos.putNextEntry(neu);
+		zos.write(puffer, 0, n);
+		long gelesen = n + StreamingTools.kopiere(in, zos, puffer);
+		beende(ze, neu, stufe, gelesen);
+	}
+
+	/**
+	 * Eintrag abschließen, bis in die Datei durchschreiben und Größen/CRC an den Aufrufer zurückgeben.
+	 */
+	private void beende(ZipEntry ze, ZipEntry neu, Kompressionsstrategie.Stufe stufe, long laenge) throws IOException {
+		zos.closeEntry(); // erst danach stehen die Größen im Eintrag
+		zos.flush();
+		if (stufe != null) {
+			kompression.vermerke(neu, stufe);
+		}
+		ze.setSize(neu.getSize());
+		ze.setCompressedSize(neu.getCompressedSize());
+		ze.setCrc(neu.getCrc());
+		anzahl++;
+		rohBytes += laenge;
+	}
+
+	/**
+	 * Übernimmt alle Metadaten, nur die komprimierte Größe nicht - die hängt vom Schreiben ab, und ein falscher Wert
+	 * (z.B. aus einem gelesenen Zip) führt beim Deflate zu einer ZipException.
+	 */
+	static ZipEntry kopie(ZipEntry ze) {
+		ZipEntry neu = new ZipEntry(ze);
+		if (neu.getMethod() != ZipEntry.STORED) {
+			neu.setCompressedSize(-1);
+		}
+		return neu;
+	}
+
+	private int leseVoll(InputStream in, int laenge) throws IOException {
+		int n = 0;
+		int len;
+		while (n < laenge && (len = in.read(puffer, n, laenge - n)) > 0) {
+			n += len;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,456 @@
+package at.diwh.cryptoPrimitive.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Das Inhaltsverzeichnis (Central Directory) eines Zip-Files, gelesen vom Ende der Datei über einen FileChannel.
+ * <br/>Im Gegensatz zum ZipInputStream muss dafür nicht das ganze Archiv durchgelesen werden: das Auflisten kostet
+ * O(Einträge), und für einen einzelnen Eintrag wird direkt zu seinem Local Header gesprungen. ZIP64 wird unterstützt.
+ * <br/>Bereits gelesene Verzeichnisse liegen in einem kleinen Cache. Der Schlüssel ist die Datei-Identität samt
+ * Änderungszeit und Größe, d.h. wird das File geändert, wird es automatisch neu gelesen.
+ * @author JavaAlchemist
+ *
+ */
+public class ZipVerzeichnis {
+
+	private static final int SIG_LOCAL = 0x04034b50;
+	private static final int SIG_CENTRAL = 0x02014b50;
+	private static final int SIG_EOCD = 0x06054b50;
+	private static final int SIG_ZIP64_EOCD = 0x06064b50;
+	private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+	private static final int EOCD_LAENGE = 22;
+	private static final int CACHE_GROESSE = 16;
+	private static final byte[] DUMMY_BYTE = new byte[1];
+	private static final long MAP_FENSTER = 64L * 1024 * 1024;
+
+	private static final Map<String, ZipVerzeichnis> CACHE = new LinkedHashMap<String, ZipVerzeichnis>(CACHE_GROESSE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ZipVerzeichnis> eldest) {
+			return size() > CACHE_GROESSE;
+		}
+	};
+
+	private final File datei;
+	private final List<ZipEntry> eintraege;
+	private final Map<String, Long> lokaleHeader;
+
+	private ZipVerzeichnis(File datei, List<ZipEntry> eintraege, Map<String, Long> lokaleHeader) {
+		this.datei = datei;
+		this.eintraege = Collections.unmodifiableList(eintraege);
+		this.lokaleHeader = lokaleHeader;
+	}
+
+	/**
+	 * Liefert das Verzeichnis eines Zip-Files, aus dem Cache, wenn sich das File seit dem letzten Mal nicht geändert hat.
+	 * @param f - das .zip-File
+	 * @return das Verzeichnis
+	 * @throws ZipException wenn kein gültiges Central Directory gefunden wird
+	 * @throws IOException
+	 */
+	public static ZipVerzeichnis fuer(File f) throws IOException {
+		BasicFileAttributes attr = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		Object identitaet = attr.fileKey() != null ? attr.fileKey() : f.getCanonicalPath();
+		String schluessel = identitaet + "|" + attr.lastModifiedTime().toMillis() + "|" + attr.size();
+		synchronized (CACHE) {
+			ZipVerzeichnis zv = CACHE.get(schluessel);
+			if (zv != null) {
+				return zv;
+			}
+		}
+		ZipVerzeichnis zv = lese(f);
+		synchronized (CACHE) {
+			CACHE.put(schluessel, zv);
+		}
+		return zv;
+	}
+
+	/**
+	 * Leert den Cache, z.B. für Tests oder wenn viele Archive hintereinander nur einmal gelesen werden.
+	 */
+	public static void leereCache() {
+		synchronized (CACHE) {
+			CACHE.clear();
+		}
+	}
+
+	/**
+	 * @return alle Einträge in der Reihenfolge des Central Directory (nicht veränderbar)
+	 */
+	public List<ZipEntry> getEintraege() {
+		return eintraege;
+	}
+
+	/**
+	 * Sucht einen Eintrag nach Namen, wie {@link ZippingTools#areTheyEqual(ZipEntry, ZipEntry, boolean)}.
+	 * @param ze - der gesuchte Eintrag (nur der Name zählt)
+	 * @param strict - true, wenn Groß-Klein-Schreibung beachtet werden soll
+	 * @return den Eintrag aus dem Verzeichnis, null wenn es ihn nicht gibt
+	 */
+	public ZipEntry finde(ZipEntry ze, boolean strict) {
+		for (ZipEntry z : eintraege) {
+			if (ZippingTools.areTheyEqual(ze, z, strict)) {
+				return z;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Liest die Daten eines Eintrags. Das Ergebnis-Array wird gleich in der richtigen Größe angelegt.
+	 * @param ze - der Eintrag (der Name muss exakt passen)
+	 * @return die Daten, ein leeres Array wenn es den Eintrag nicht gibt
+	 * @throws IOException
+	 */
+	public byte[] ladeDaten(ZipEntry ze) throws IOException {
+		ZipEntry z = finde(ze, true);
+		if (z == null) {
+			return new byte[0];
+		}
+		if (z.getSize() > Integer.MAX_VALUE - 8) {
+			throw new IOException("Eintrag " + z.getName() + " ist zu groß für ein byte-Array, bitte kopiereDaten verwenden");
+		}
+		// die Größe steht im Central Directory, also gleich ein passendes Array und keine Kopie am Ende
+		byte[] daten = new byte[(int) z.getSize()];
+		ByteBuffer bb = ByteBuffer.wrap(daten);
+		kopiereDaten(z, new ByteBufferAusgabe(bb));
+		if (bb.hasRemaining()) {
+			throw new ZipException("Eintrag " + z.getName() + " ist kürzer als im Verzeichnis angegeben");
+		}
+		return daten;
+	}
+
+	/**
+	 * Entpackt die Daten eines Eintrags nach <i>out</i>, CRC wird geprüft.
+	 * @param ze - der Eintrag (der Name muss exakt passen)
+	 * @param out - Ziel, wird nicht geschlossen
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt oder er beschädigt ist
+	 * @throws IOException
+	 */
+	public long kopiereDaten(ZipEntry ze, OutputStream out) throws IOException {
+		ZipEntry z = finde(ze, true);
+		if (z == null) {
+			throw new ZipException("Eintrag " + ze.getName() + " gibt es nicht in " + datei);
+		}
+		FileChannel kanal = FileChannel.open(datei.toPath(), StandardOpenOption.READ);
+		try {
+			return entpacke(kanal, datenStart(kanal, z), z, out);
+		} finally {
+			kanal.close();
+		}
+	}
+
+	/**
+	 * Wie {@link #kopiereDaten(ZipEntry, OutputStream)}, aber in einen FileChannel. Gespeicherte (STORED) Einträge
+	 * sind schon fertige Daten und werden per <i>transferTo</i> durchgereicht, ohne Umweg über den Heap; die CRC wird
+	 * vorher über die gemappten Daten geprüft. Das betrifft gerade die großen Brocken (Videos, Bilder, Archive), die
+	 * die {@link Kompressionsstrategie} nicht komprimiert.
+	 * @param ze - der Eintrag (der Name muss exakt passen)
+	 * @param ziel - wird ab der aktuellen Position beschrieben und nicht geschlossen
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt oder er beschädigt ist
+	 * @throws IOException
+	 */
+	public long kopiereDaten(ZipEntry ze, FileChannel ziel) throws IOException {
+		ZipEntry z = finde(ze, true);
+		if (z == null) {
+			throw new ZipException("Eintrag " + ze.getName() + " gibt es nicht in " + datei);
+		}
+		FileChannel kanal = FileChannel.open(datei.toPath(), StandardOpenOption.READ);
+		try {
+			long start = datenStart(kanal, z);
+			if (z.getMethod() != ZipEntry.STORED) {
+				return entpacke(kanal, start, z, Channels.newOutputStream(ziel));
+			}
+			long laenge = z.getCompressedSize();
+			if (start + laenge > kanal.size()) {
+				throw new ZipException("Unerwartetes Dateiende in " + z.getName());
+			}
+			if (z.getCrc() != -1) {
+				CRC32 crc = new CRC32();
+				for (long pos = 0; pos < laenge; pos += MAP_FENSTER) {
+					crc.update(kanal.map(FileChannel.MapMode.READ_ONLY, start + pos, Math.min(MAP_FENSTER, laenge - pos)));
+				}
+				if (crc.getValue() != z.getCrc()) {
+					throw new ZipException("CRC-Fehler in " + z.getName());
+				}
+			}
+			long kopiert = 0;
+			while (kopiert < laenge) {
+				long n = kanal.transferTo(start + kopiert, laenge - kopiert, ziel);
+				if (n <= 0) {
+					throw new ZipException("Unerwartetes Dateiende in " + z.getName());
+				}
+				kopiert += n;
+			}
+			return kopiert;
+		} finally {
+			kanal.close();
+		}
+	}
+
+	private long datenStart(FileChannel kanal, ZipEntry z) throws IOException {
+		long lokal = lokaleHeader.get(z.getName()).longValue();
+		ByteBuffer lh = lese(kanal, lokal, 30);
+		if (lh.getInt(0) != SIG_LOCAL) {
+			throw new ZipException("Kein Local Header für " + z.getName() + " an Position " + lokal);
+		}
+		return lokal + 30 + (lh.getShort(26) & 0xFFFF) + (lh.getShort(28) & 0xFFFF);
+	}
+
+	private long entpacke(FileChannel kanal, long position, ZipEntry z, OutputStream out) throws IOException {
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		try {
+			return entpacke(kanal, position, z, out, puffer);
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+
+	private long entpacke(FileChannel kanal, long position, ZipEntry z, OutputStream out, byte[] puffer) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(puffer);
+		CRC32 crc = new CRC32();
+		long rest = z.getCompressedSize();
+		long geschrieben = 0;
+		if (z.getMethod() == ZipEntry.STORED) {
+			while (rest > 0) {
+				bb.clear().limit((int) Math.min(puffer.length, rest));
+				int len = kanal.read(bb, position);
+				if (len < 0) {
+					throw new ZipException("Unerwartetes Dateiende in " + z.getName());
+				}
+				crc.update(puffer, 0, len);
+				out.write(puffer, 0, len);
+				position += len;
+				rest -= len;
+				geschrieben += len;
+			}
+		} else if (z.getMethod() == ZipEntry.DEFLATED) {
+			byte[] ausgabe = Pufferpool.STANDARD.holeArray();
+			Inflater inflater = new Inflater(true);
+			boolean dummyGegeben = false;
+			try {
+				while (!inflater.finished()) {
+					if (inflater.needsInput()) {
+						if (rest <= 0) {
+							if (dummyGegeben) {
+								throw new ZipException("Deflate-Daten von " + z.getName() + " sind abgeschnitten");
+							}
+							// zlib will bei nowrap manchmal noch ein Dummy-Byte, so macht es ZipFile auch
+							inflater.setInput(DUMMY_BYTE);
+							dummyGegeben = true;
+						} else {
+							bb.clear().limit((int) Math.min(puffer.length, rest));
+							int len = kanal.read(bb, position);
+							if (len < 0) {
+								throw new ZipException("Unerwartetes Dateiende in " + z.getName());
+							}
+							inflater.setInput(puffer, 0, len);
+							position += len;
+							rest -= len;
+						}
+					}
+					int n = inflater.inflate(ausgabe);
+					if (n == 0 && inflater.needsDictionary()) {
+						throw new ZipException("Eintrag " + z.getName() + " braucht ein Dictionary");
+					}
+					crc.update(ausgabe, 0, n);
+					out.write(ausgabe, 0, n);
+					geschrieben += n;
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException("Eintrag " + z.getName() + " ist beschädigt: " + e.getMessage());
+			} finally {
+				inflater.end();
+				Pufferpool.STANDARD.gibZurueck(ausgabe);
+			}
+		} else {
+			throw new ZipException("Kompressionsmethode " + z.getMethod() + " wird nicht unterstützt (" + z.getName() + ")");
+		}
+		if (z.getCrc() != -1 && crc.getValue() != z.getCrc()) {
+			throw new ZipException("CRC-Fehler in " + z.getName());
+		}
+		return geschrieben;
+	}
+
+	/**
+	 * Sucht das End-of-Central-Directory (und ggf. ZIP64) und liest das ganze Central Directory in einem Stück.
+	 */
+	private static ZipVerzeichnis lese(File f) throws IOException {
+		FileChannel kanal = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long groesse = kanal.size();
+			if (groesse < EOCD_LAENGE) {
+				throw new ZipException("Zu kurz für ein Zip-File: " + f);
+			}
+			int suchLaenge = (int) Math.min(groesse, EOCD_LAENGE + 0xFFFF);
+			ByteBuffer ende = lese(kanal, groesse - suchLaenge, suchLaenge);
+			int eocd = -1;
+			for (int i = suchLaenge - EOCD_LAENGE; i >= 0; i--) {
+				if (ende.getInt(i) == SIG_EOCD) {
+					eocd = i;
+					break;
+				}
+			}
+			if (eocd < 0) {
+				throw new ZipException("Kein End-of-Central-Directory gefunden: " + f);
+			}
+			long anzahl = ende.getShort(eocd + 10) & 0xFFFF;
+			long cdGroesse = ende.getInt(eocd + 12) & 0xFFFFFFFFL;
+			long cdOffset = ende.getInt(eocd + 16) & 0xFFFFFFFFL;
+			long eocdPosition = groesse - suchLaenge + eocd;
+			if ((anzahl == 0xFFFF || cdGroesse == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) && eocdPosition >= 20) {
+				ByteBuffer locator = lese(kanal, eocdPosition - 20, 20);
+				if (locator.getInt(0) == SIG_ZIP64_LOCATOR) {
+					ByteBuffer z64 = lese(kanal, locator.getLong(8), 56);
+					if (z64.getInt(0) != SIG_ZIP64_EOCD) {
+						throw new ZipException("ZIP64 End-of-Central-Directory ist beschädigt: " + f);
+					}
+					anzahl = z64.getLong(32);
+					cdGroesse = z64.getLong(40);
+					cdOffset = z64.getLong(48);
+				}
+			}
+			if (cdOffset + cdGroesse > groesse || cdGroesse > Integer.MAX_VALUE) {
+				throw new ZipException("Central Directory liegt außerhalb der Datei: " + f);
+			}
+			return parseCentralDirectory(f, lese(kanal, cdOffset, (int) cdGroesse), anzahl);
+		} finally {
+			kanal.close();
+		}
+	}
+
+	private static ZipVerzeichnis parseCentralDirectory(File f, ByteBuffer cd, long anzahl) throws ZipException {
+		List<ZipEntry> eintraege = new ArrayList<ZipEntry>((int) Math.min(anzahl, 1 << 16));
+		Map<String, Long> lokaleHeader = new HashMap<String, Long>();
+		int pos = 0;
+		for (long i = 0; i < anzahl; i++) {
+			if (pos + 46 > cd.limit() || cd.getInt(pos) != SIG_CENTRAL) {
+				throw new ZipException("Central Directory ist beschädigt (Eintrag " + i + "): " + f);
+			}
+			int methode = cd.getShort(pos + 10) & 0xFFFF;
+			int dosZeit = cd.getShort(pos + 12) & 0xFFFF;
+			int dosDatum = cd.getShort(pos + 14) & 0xFFFF;
+			long crc = cd.getInt(pos + 16) & 0xFFFFFFFFL;
+			long kompr = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+			long unkompr = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLaenge = cd.getShort(pos + 28) & 0xFFFF;
+			int extraLaenge = cd.getShort(pos + 30) & 0xFFFF;
+			int kommentarLaenge = cd.getShort(pos + 32) & 0xFFFF;
+			long lokal = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+			int ende = pos + 46 + nameLaenge + extraLaenge + kommentarLaenge;
+			if (ende > cd.limit()) {
+				throw new ZipException("Central Directory ist beschädigt (Eintrag " + i + "): " + f);
+			}
+			String name = text(cd, pos + 46, nameLaenge);
+			byte[] extra = new byte[extraLaenge];
+			cd.position(pos + 46 + nameLaenge);
+			cd.get(extra);
+			// ZIP64: die Felder, die auf 0xFFFFFFFF stehen, kommen in dieser Reihenfolge im Extra-Feld 0x0001
+			int e = 0;
+			while (e + 4 <= extraLaenge) {
+				int id = (extra[e] & 0xFF) | ((extra[e + 1] & 0xFF) << 8);
+				int laenge = (extra[e + 2] & 0xFF) | ((extra[e + 3] & 0xFF) << 8);
+				if (id == 0x0001) {
+					ByteBuffer z64 = ByteBuffer.wrap(extra, e + 4, Math.min(laenge, extraLaenge - e - 4)).order(ByteOrder.LITTLE_ENDIAN);
+					if (unkompr == 0xFFFFFFFFL && z64.remaining() >= 8) {
+						unkompr = z64.getLong();
+					}
+					if (kompr == 0xFFFFFFFFL && z64.remaining() >= 8) {
+						kompr = z64.getLong();
+					}
+					if (lokal == 0xFFFFFFFFL && z64.remaining() >= 8) {
+						lokal = z64.getLong();
+					}
+				}
+				e += 4 + laenge;
+			}
+			// ZipEntry nimmt nur STORED und DEFLATED und keine negativen Größen, sonst kommt eine IllegalArgumentException
+			if (methode != ZipEntry.STORED && methode != ZipEntry.DEFLATED) {
+				throw new ZipException("Kompressionsmethode " + methode + " wird nicht unterstützt (Eintrag " + name + "): " + f);
+			}
+			if (unkompr < 0 || kompr < 0 || lokal < 0) {
+				throw new ZipException("ZIP64-Extra-Feld ist beschädigt (Eintrag " + name + "): " + f);
+			}
+			ZipEntry ze = new ZipEntry(name);
+			ze.setMethod(methode);
+			ze.setCrc(crc);
+			ze.setSize(unkompr);
+			ze.setCompressedSize(kompr);
+			long zeit = dosZeitInMillis(dosDatum, dosZeit);
+			if (zeit != -1) {
+				ze.setTime(zeit);
+			}
+			if (extraLaenge > 0) {
+				try {
+					ze.setExtra(extra);
+				} catch (IllegalArgumentException iae) {
+					// kaputtes Extra-Feld, die Daten sind trotzdem lesbar
+				}
+			}
+			if (kommentarLaenge > 0) {
+				ze.setComment(text(cd, pos + 46 + nameLaenge + extraLaenge, kommentarLaenge));
+			}
+			eintraege.add(ze);
+			if (!lokaleHeader.containsKey(name)) {
+				lokaleHeader.put(name, Long.valueOf(lokal));
+			}
+			pos = ende;
+		}
+		return new ZipVerzeichnis(f, eintraege, lokaleHeader);
+	}
+
+	private static String text(ByteBuffer bb, int position, int laenge) {
+		byte[] b = new byte[laenge];
+		bb.position(position);
+		bb.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static long dosZeitInMillis(int datum, int zeit) {
+		try {
+			LocalDateTime ldt = LocalDateTime.of(((datum >> 9) & 0x7F) + 1980, (datum >> 5) & 0x0F, datum & 0x1F,
+					(zeit >> 11) & 0x1F, (zeit >> 5) & 0x3F, (zeit << 1) & 0x3E);
+			return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			return -1;
+		}
+	}
+
+	private static ByteBuffer lese(FileChannel kanal, long position, int laenge) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(laenge).order(ByteOrder.LITTLE_ENDIAN);
+		while (bb.hasRemaining()) {
+			if (kanal.read(bb, position + bb.position()) < 0) {
+				throw new ZipException("Unerwartetes Dateiende");
+			}
+		}
+		bb.flip();
+		return bb;
+	}
+}
@@ -1,24 +1,41 @@
 package at.diwh.cryptoPrimitive.util;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
 import at.diwh.utils.date.Datumsformatierer;
 import at.diwh.utils.enums.ContentTypes;
 import at.diwh.utils.file.tools.FormatByteAngabe;
@@ -26,14 +43,31 @@ import at.diwh.utils.object.Nullchecker;
 
 public class ZippingTools {
 
+	/**
+	 * Ab so vielen Rohdaten wird ein Zip mit dem {@link ParallelZipSchreiber} auf allen Kernen komprimiert, darunter
+	 * lohnt sich das Aufteilen nicht.
+	 */
+	public static final long PARALLEL_AB = 8L * 1024 * 1024;
+
 	/**
 	 * Soll eine Liste aller Einträge liefern, die das Zip-File hat. Weil ein .zip-File ist de facto ein Zipfile.
+	 * <br/>Gelesen wird nur das Central Directory am Dateiende (siehe {@link ZipVerzeichnis}), nicht das ganze Archiv. 
+	 * Nur wenn das fehlt oder kaputt ist, wird wie früher das ganze File durchgescannt.
 	 * @param f - das .zip-File
 	 * @return Liste von ZipEntries
 	 * @throws IOException
 	 * @author 246J
 	 */
 	public static List<ZipEntry> fetchZipDirectory(File f) throws IOException {
+		try {
+			List<ZipEntry> retList = new ArrayList<ZipEntry>();
+			for (ZipEntry z : ZipVerzeichnis.fuer(f).getEintraege()) {
+				retList.add(new ZipEntry(z)); // Kopien, damit niemand den Cache verändert
+			}
+			return retList;
+		} catch (ZipException e) {
+			// z.B. abgeschnittenes Archiv, der Stream kommt trotzdem an die vorderen Einträge
+		}
 		List<ZipEntry> retList = new ArrayList<ZipEntry>();
 		FileInputStream fi = new FileInputStream(f);
 		ZipInputStream zin = new ZipInputStream(fi);
@@ -60,18 +94,14 @@ public class ZippingTools {
 	
 	/**
 	 * Soll eine Liste aller Einträge liefern, die beliebiger <i>InputStream</i> hat, wenn dieser Stream faktisch ein Zipfile ist.
+	 * <br/>Egal welcher Stream (Datei, Socket, stdin, entschlüsselt...), er wird bis zum letzten Eintrag gelesen und dann geschlossen.
 	 * @param s - der InputStream, das faktisch ein .zip-File enthält
 	 * @return Liste von ZipEntries
 	 * @throws IOException
 	 * @author 246J
 	 */
 	public static List<ZipEntry> fetchZipDirectory(InputStream s) throws IOException {
-		List<ZipEntry> retList = new ArrayList<ZipEntry>();
-		ByteArrayInputStream fi = (ByteArrayInputStream) s;
-		ZipInputStream zin = new ZipInputStream(fi);
-		retList = fetchZipDirectory(zin);
-		fi.close();
-		return retList;
+		return fetchZipDirectory(new ZipInputStream(s));
 	}
 	
 	/**
@@ -86,8 +116,11 @@ public class ZippingTools {
 		List<ZipEntry> retList = new ArrayList<ZipEntry>();
 		ZipEntry z = zin.getNextEntry();
 		while (z != null) {
+			// erst kopieren, wenn der Stream über die Daten hinweg ist: bei gestreamt geschriebenen Zips stehen Größe und
+			// CRC erst im Data Descriptor dahinter
+			ZipEntry naechster = zin.getNextEntry();
 			retList.add(new ZipEntry(z));
-			z = zin.getNextEntry();
+			z = naechster;
 		}
 		zin.close();
 		return retList;
@@ -95,6 +128,7 @@ public class ZippingTools {
 	
 	/**
 	 * Liest aus einem übergebenen File einen bestimmten Eintrag aus. Der Eintrag muss als ZipEntry-Objekt übergeben werden.
+	 * <br/>Über das Central Directory wird direkt zum Eintrag gesprungen, statt das Archiv bis dorthin zu entpacken.
 	 * @param f - das File, von dem gelesen werden soll
 	 * @param ze - der ZipEntry, dessen Datengelesen werden sollen
 	 * @return die Daten als byte-Array
@@ -102,10 +136,23 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static byte[] loadDataFromZipEntry(File f, ZipEntry ze) throws IOException {
-		FileInputStream fi = new FileInputStream(f);
-		ZipInputStream zin = new ZipInputStream(fi);
-		byte[] returnBarr = loadDataFromZipEntry(zin, ze);
-		fi.close();
+		long t = Metriken.start();
+		ZipVerzeichnis zv = null;
+		try {
+			zv = ZipVerzeichnis.fuer(f);
+		} catch (ZipException e) {
+			// kein lesbares Central Directory, dann eben linear wie früher
+		}
+		byte[] returnBarr;
+		if (zv != null) {
+			returnBarr = zv.ladeDaten(ze);
+		} else {
+			FileInputStream fi = new FileInputStream(f);
+			ZipInputStream zin = new ZipInputStream(fi);
+			returnBarr = loadDataFromZipEntry(zin, ze);
+			fi.close();
+		}
+		Metriken.erfasse(Messpunkt.ENTPACKEN, t, ze.getCompressedSize(), returnBarr.length);
 		return returnBarr;
 	}
 	
@@ -127,6 +174,7 @@ public class ZippingTools {
 	
 	/**
 	 * Liest aus einem beliebigen <i>InputStream</i> einen bestimmten Eintrag aus. Der Eintrag muss als ZipEntry-Objekt übergeben werden.
+	 * <br/>Der Stream muss kein ByteArrayInputStream sein, er wird nur bis zum Eintrag gelesen und dann geschlossen.
 	 * @param s - der InputStream
 	 * @param ze - der ZipEntry, dessen Datengelesen werden sollen
 	 * @return die Daten als byte-Array
@@ -134,16 +182,14 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static byte[] loadDataFromZipEntry(InputStream s, ZipEntry ze) throws IOException {
-		ByteArrayInputStream fi = (ByteArrayInputStream) s;
-		ZipInputStream zin = new ZipInputStream(fi);
-		byte[] returnBarr = loadDataFromZipEntry(zin, ze);
-		fi.close();
-		return returnBarr;
+		return loadDataFromZipEntry(new ZipInputStream(s), ze);
 	}
 	
 	/**
 	 * Das ist die zentrale Lesemethode. Wird über die verschiedenen public-Methoden mit den
 	 * anwendungstauglichen Parameterlisten gerufen. Aber egal was daher kommt, <b>gelesen</b> wird hier.
+	 * <br/>Steht die Größe schon im Local Header, wird das Ergebnis-Array gleich passend angelegt und direkt befüllt.
+	 * Sonst wird über einen Puffer aus dem {@link Pufferpool} gesammelt.
 	 * @param zin - ein ZipInputStream
 	 * @param ze - das Zip-Entry, dessen Daten gelesen werden sollen
 	 * @return die Daten als byte-Array
@@ -151,49 +197,165 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static byte[] loadDataFromZipEntry(ZipInputStream zin, ZipEntry ze) throws IOException {
-		byte[] buffer = new byte[1024];
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			ZipEntry z = sucheEintrag(zin, ze);
+			if (z == null) {
+				return new byte[0];
+			}
+			if (z.getSize() >= 0 && z.getSize() <= Integer.MAX_VALUE - 8) {
+				byte[] daten = new byte[(int) z.getSize()];
+				ByteBuffer bb = ByteBuffer.wrap(daten);
+				leseIn(zin, bb);
+				if (bb.hasRemaining() || zin.read() != -1) {
+					throw new ZipException("Eintrag " + z.getName() + " passt nicht zur Größe im Local Header");
+				}
+				return daten;
+			}
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			StreamingTools.kopiere(zin, output);
+			return output.toByteArray();
+		} finally {
+			zin.close();
+		}
+	}
+	
+	/**
+	 * Entpackt einen Eintrag direkt in einen OutputStream des Aufrufers, es wird kein byte-Array für das Ergebnis angelegt.
+	 * Der OutputStream wird nicht geschlossen.
+	 * @param f - das Zip-File
+	 * @param ze - der gesuchte Eintrag
+	 * @param out - wohin entpackt wird
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt
+	 * @throws IOException
+	 */
+	public static long loadDataFromZipEntry(File f, ZipEntry ze, OutputStream out) throws IOException {
+		long t = Metriken.start();
+		ZipVerzeichnis zv = null;
+		try {
+			zv = ZipVerzeichnis.fuer(f);
+		} catch (ZipException e) {
+			// kein lesbares Central Directory, dann eben linear
+		}
+		long n = zv != null ? zv.kopiereDaten(ze, out) : loadDataFromZipEntry(new ZipInputStream(new FileInputStream(f)), ze, out);
+		Metriken.erfasse(Messpunkt.ENTPACKEN, t, ze.getCompressedSize(), n);
+		return n;
+	}
+	
+	/**
+	 * Entpackt einen Eintrag direkt in einen ByteBuffer des Aufrufers (heap oder direct). Geschrieben wird ab der
+	 * aktuellen Position, danach steht die Position hinter den Daten. Die nötige Größe liefert {@link ZipEntry#getSize()}
+	 * aus {@link #fetchZipDirectory(File)}.
+	 * @param f - das Zip-File
+	 * @param ze - der gesuchte Eintrag
+	 * @param ziel - der Zielpuffer
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt
+	 * @throws IOException auch wenn der Zielpuffer zu klein ist
+	 */
+	public static int loadDataFromZipEntry(File f, ZipEntry ze, ByteBuffer ziel) throws IOException {
+		return (int) loadDataFromZipEntry(f, ze, new ByteBufferAusgabe(ziel));
+	}
+	
+	/**
+	 * Wie {@link #loadDataFromZipEntry(ZipInputStream, ZipEntry)}, aber die Daten gehen direkt in einen OutputStream.
+	 * Der ZipInputStream wird geschlossen, der OutputStream nicht.
+	 * @param zin - ein ZipInputStream
+	 * @param ze - der gesuchte Eintrag
+	 * @param out - wohin entpackt wird
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt
+	 * @throws IOException
+	 */
+	public static long loadDataFromZipEntry(ZipInputStream zin, ZipEntry ze, OutputStream out) throws IOException {
+		try {
+			if (sucheEintrag(zin, ze) == null) {
+				throw new ZipException("Eintrag " + ze.getName() + " gibt es nicht");
+			}
+			return StreamingTools.kopiere(zin, out);
+		} finally {
+			zin.close();
+		}
+	}
+	
+	/**
+	 * Wie {@link #loadDataFromZipEntry(ZipInputStream, ZipEntry)}, aber die Daten gehen direkt in einen ByteBuffer.
+	 * @param zin - ein ZipInputStream
+	 * @param ze - der gesuchte Eintrag
+	 * @param ziel - der Zielpuffer, geschrieben wird ab der aktuellen Position
+	 * @return Anzahl der geschriebenen Bytes
+	 * @throws ZipException wenn es den Eintrag nicht gibt
+	 * @throws IOException auch wenn der Zielpuffer zu klein ist
+	 */
+	public static int loadDataFromZipEntry(ZipInputStream zin, ZipEntry ze, ByteBuffer ziel) throws IOException {
+		return (int) loadDataFromZipEntry(zin, ze, new ByteBufferAusgabe(ziel));
+	}
+	
+	/**
+	 * Spult den Stream bis zum gesuchten Eintrag vor.
+	 * @return der Eintrag, wie er im Stream steht, oder null
+	 */
+	private static ZipEntry sucheEintrag(ZipInputStream zin, ZipEntry ze) throws IOException {
 		ZipEntry z = zin.getNextEntry();
-		
-		suchBreakMarker: // Marker für Break
 		while (z != null) {
 			if (areTheyEqual(ze, z, true)) {
-				int len;
-				while ((len = zin.read(buffer)) > 0) {
-					output.write(buffer, 0, len);
-				}
-				break suchBreakMarker; // verlasse while-Schleife
+				return z;
 			}
 			z = zin.getNextEntry();
 		}
-		
-		zin.close();
-		return output.toByteArray();
-		
+		return null;
+	}
+	
+	/**
+	 * Liest, bis der ByteBuffer voll ist oder der Eintrag zu Ende. Bei Heap-Buffern wird direkt in das Array gelesen.
+	 */
+	private static void leseIn(InputStream in, ByteBuffer bb) throws IOException {
+		int len = 0;
+		while (bb.hasRemaining() && len >= 0) {
+			len = in.read(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+			if (len > 0) {
+				bb.position(bb.position() + len);
+			}
+		}
 	}
 	
 	/**
 	 * Methode schreibt eine ganze Sammlung von ZipEntries samt Daten in ein File. Die ZipEntries sind in einer Map als Keys
 	 * gespeichert und als Wert zum Key ist das Byte-Array (die Daten) in der Map. 
-	 * <br/>Die Reihenfolge
+	 * <br/>Die Reihenfolge im Zip ist die der Map, d.h. bei einer HashMap zufällig - wer sie braucht, nimmt eine
+	 * LinkedHashMap. Alle Daten müssen gleichzeitig im Speicher sein; für viele oder große Einträge ist der
+	 * {@link ZipSchreiber} besser, der Eintrag für Eintrag schreibt.
 	 * @param f - das Zipfile, das geschrieben werden soll
 	 * @param dataMap Key: ZipEntry, Value: byte[]
 	 * @throws IOException
 	 * @author 246J
 	 */
 	public static void writeZipEntryToNewZipFile(File f, Map<ZipEntry, byte[]> dataMap) throws IOException {
-		FileOutputStream fo = new FileOutputStream(f);
-		ZipOutputStream zos = new ZipOutputStream(fo);
-		
-		Set<Entry<ZipEntry, byte[]>> mapEntries = dataMap.entrySet();
-		
-		for (Entry<ZipEntry, byte[]> e : mapEntries) {
-			zos.putNextEntry(new ZipEntry(e.getKey().getName()));
-			zos.write(e.getValue());
+		writeZipEntryToNewZipFile(f, dataMap, null);
+	}
+	
+	/**
+	 * Wie {@link #writeZipEntryToNewZipFile(File, Map)}, aber die Kompression wird pro Eintrag gewählt.
+	 * @param f - das Zipfile, das geschrieben werden soll
+	 * @param dataMap Key: ZipEntry, Value: byte[]
+	 * @param kompression - entscheidet pro Eintrag zwischen Speichern und Deflate-Stufen, null für immer Standard-Deflate
+	 * @throws IOException
+	 */
+	public static void writeZipEntryToNewZipFile(File f, Map<ZipEntry, byte[]> dataMap, Kompressionsstrategie kompression) throws IOException {
+		long t = Metriken.start();
+		if (lohntParallel(dataMap.values())) {
+			schreibeParallel(new BufferedOutputStream(new FileOutputStream(f), Pufferpool.STANDARD.getGroesse()), dataMap, kompression);
+			Metriken.erfasse(Messpunkt.ZIP, t, rohGroesse(dataMap.values()), f.length());
+			return;
+		}
+		ZipSchreiber zip = ZipSchreiber.nach(f).mitKompression(kompression); // misst selbst
+		try {
+			for (Entry<ZipEntry, byte[]> e : dataMap.entrySet()) {
+				zip.eintrag(e.getKey(), e.getValue());
+			}
+		} finally {
+			zip.close();
 		}
-
-		zos.close();
-		fo.close();
 	}
 	
 	/**
@@ -207,9 +369,80 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static void writeZipEntryToNewZipFile(File f, ZipEntry z, byte[] data) throws IOException {
-		Map<ZipEntry, byte[]> schreibMap = new HashMap<ZipEntry, byte[]>();
-		schreibMap.put(z, data); // wir tun nur ein Element rein
-		writeZipEntryToNewZipFile(f, schreibMap); // und schreiben
+		writeZipEntryToNewZipFile(f, z, data, null);
+	}
+	
+	/**
+	 * Wie {@link #writeZipEntryToNewZipFile(File, ZipEntry, byte[])}, aber die Kompression wird passend zum Inhalt gewählt.
+	 * @param f - das Zipfile, das geschrieben werden soll
+	 * @param z - ZipEntry
+	 * @param data - binäre Daten des zu zippenden Files (byte[])
+	 * @param kompression - entscheidet zwischen Speichern und Deflate-Stufen, null für Standard-Deflate
+	 * @throws IOException
+	 */
+	public static void writeZipEntryToNewZipFile(File f, ZipEntry z, byte[] data, Kompressionsstrategie kompression) throws IOException {
+		long t = Metriken.start();
+		if (lohntParallel(Collections.singleton(data))) {
+			schreibeParallel(new BufferedOutputStream(new FileOutputStream(f), Pufferpool.STANDARD.getGroesse()),
+					Collections.singletonMap(z, data), kompression);
+			Metriken.erfasse(Messpunkt.ZIP, t, data.length, f.length());
+		} else {
+			ZipSchreiber zip = ZipSchreiber.nach(f).mitKompression(kompression); // keine Map für ein einziges Element
+			try {
+				zip.eintrag(z, data);
+			} finally {
+				zip.close();
+			}
+		}
+	}
+	
+	/**
+	 * Zippt eine Datei, ohne sie als Ganzes in den Speicher zu laden, d.h. auch über 2 GB. Komprimiert wird mit dem
+	 * {@link ParallelZipSchreiber}; wählt die Strategie STORED, gehen die Daten per <i>transferTo</i> unverändert
+	 * von Datei zu Datei.
+	 * @param f - das Zipfile, das geschrieben werden soll
+	 * @param z - ZipEntry (Name und Zeit)
+	 * @param quelle - die zu zippende Datei
+	 * @param kompression - entscheidet zwischen Speichern und Deflate-Stufen, null für Standard-Deflate
+	 * @throws IOException
+	 */
+	public static void writeZipEntryToNewZipFile(File f, ZipEntry z, File quelle, Kompressionsstrategie kompression) throws IOException {
+		long t = Metriken.start();
+		FileChannel in = FileChannel.open(quelle.toPath(), StandardOpenOption.READ);
+		try {
+			ParallelZipSchreiber zip = new ParallelZipSchreiber(FileChannel.open(f.toPath(), StandardOpenOption.WRITE, 
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), ForkJoinPool.commonPool(), 
+					StreamingTools.PARALLELITAET, ParallelZipSchreiber.STANDARD_BLOCKGROESSE);
+			try {
+				ZipEntry neu = ZipSchreiber.kopie(z);
+				if (neu.getTime() == -1) {
+					neu.setTime(quelle.lastModified());
+				}
+				if (kompression == null) {
+					zip.schreibeEintrag(neu, Channels.newInputStream(in), Deflater.DEFAULT_COMPRESSION);
+				} else {
+					// positionsbasiert lesen, der Channel bleibt für das Schreiben auf 0
+					ByteBuffer probe = ByteBuffer.allocate((int) Math.min(kompression.getProbe(), in.size()));
+					while (probe.hasRemaining()) {
+						if (in.read(probe, probe.position()) < 0) {
+							break;
+						}
+					}
+					Kompressionsstrategie.Stufe stufe = kompression.waehle(z, probe.array(), probe.position());
+					if (stufe == Kompressionsstrategie.Stufe.STORED) {
+						zip.schreibeGespeichert(neu, in);
+					} else {
+						zip.schreibeEintrag(neu, Channels.newInputStream(in), stufe.getDeflateLevel());
+					}
+					kompression.vermerke(neu, stufe);
+				}
+			} finally {
+				zip.close();
+			}
+		} finally {
+			in.close();
+		}
+		Metriken.erfasse(Messpunkt.ZIP, t, quelle.length(), f.length());
 	}
 	
 	/**
@@ -221,18 +454,25 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static byte[] writeZipEntryToNewZipFile(Map<ZipEntry, byte[]> dataMap) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ZipOutputStream zos = new ZipOutputStream(bos);
-		
-		Set<Entry<ZipEntry, byte[]>> mapEntries = dataMap.entrySet();
-		for (Entry<ZipEntry, byte[]> e : mapEntries) {
-			zos.putNextEntry(new ZipEntry(e.getKey().getName()));
-			zos.write(e.getValue());
+		long t = Metriken.start();
+		long rohGroesse = rohGroesse(dataMap.values());
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(anfangsGroesse(rohGroesse));
+		if (lohntParallel(dataMap.values())) {
+			schreibeParallel(bos, dataMap, null);
+		} else {
+			ZipOutputStream zos = new ZipOutputStream(bos);
+			
+			Set<Entry<ZipEntry, byte[]>> mapEntries = dataMap.entrySet();
+			for (Entry<ZipEntry, byte[]> e : mapEntries) {
+				schreibeEintrag(zos, e.getKey(), e.getValue(), null);
+			}
+	
+			zos.close();
+			bos.close();
 		}
-
-		zos.close();
-		bos.close();
-		return bos.toByteArray();
+		byte[] zip = bos.toByteArray();
+		Metriken.erfasse(Messpunkt.ZIP, t, rohGroesse, zip.length);
+		return zip;
 	}
 	
 	/**
@@ -245,9 +485,279 @@ public class ZippingTools {
 	 * @author 246J
 	 */
 	public static byte[] writeZipEntryToNewZipFile(ZipEntry z, byte[] data) throws IOException {
-		Map<ZipEntry, byte[]> schreibMap = new HashMap<ZipEntry, byte[]>();
-		schreibMap.put(z, data); // wir tun nur ein Element rein
-		return writeZipEntryToNewZipFile(schreibMap);
+		return writeZipEntryToNewZipFile(z, data, null);
+	}
+	
+	/**
+	 * Wie {@link #writeZipEntryToNewZipFile(ZipEntry, byte[])}, aber die Kompression wird passend zum Inhalt gewählt.
+	 * @param z - ZipEntry
+	 * @param data - binäre Daten des zu zippenden Files (byte[])
+	 * @param kompression - entscheidet zwischen Speichern und Deflate-Stufen, null für Standard-Deflate
+	 * @return das Zipfile als Byte-Array
+	 * @throws IOException
+	 */
+	public static byte[] writeZipEntryToNewZipFile(ZipEntry z, byte[] data, Kompressionsstrategie kompression) throws IOException {
+		long t = Metriken.start();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(anfangsGroesse(data.length));
+		if (lohntParallel(Collections.singleton(data))) {
+			schreibeParallel(bos, Collections.singletonMap(z, data), kompression);
+		} else {
+			ZipOutputStream zos = new ZipOutputStream(bos);
+			schreibeEintrag(zos, z, data, kompression); // keine Map für ein einziges Element
+			zos.close();
+		}
+		byte[] zip = bos.toByteArray();
+		Metriken.erfasse(Messpunkt.ZIP, t, data.length, zip.length);
+		return zip;
+	}
+	
+	private static void schreibeEintrag(ZipOutputStream zos, ZipEntry z, byte[] data, Kompressionsstrategie kompression) throws IOException {
+		ZipEntry neu = ZipSchreiber.kopie(z); // Zeit, Kommentar, Extra und Methode bleiben erhalten
+		if (kompression == null || neu.getMethod() != -1) {
+			zos.putNextEntry(neu);
+			zos.write(data);
+			return;
+		}
+		Kompressionsstrategie.Stufe stufe = kompression.waehle(z, data, data.length);
+		if (stufe == Kompressionsstrategie.Stufe.STORED) {
+			// die Daten sind komplett da, also echtes STORED: Größe und CRC müssen vor dem Eintrag feststehen
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			neu.setMethod(ZipEntry.STORED);
+			neu.setSize(data.length);
+			neu.setCompressedSize(data.length);
+			neu.setCrc(crc.getValue());
+		} else {
+			zos.setLevel(stufe.getDeflateLevel());
+		}
+		zos.putNextEntry(neu);
+		zos.write(data);
+		zos.closeEntry(); // erst danach stehen die Größen im Eintrag
+		kompression.vermerke(neu, stufe);
+	}
+	
+	private static boolean lohntParallel(Collection<byte[]> daten) {
+		return StreamingTools.PARALLELITAET >= 2 && rohGroesse(daten) >= PARALLEL_AB;
+	}
+	
+	private static long rohGroesse(Collection<byte[]> daten) {
+		long summe = 0;
+		for (byte[] b : daten) {
+			summe += b.length;
+		}
+		return summe;
+	}
+	
+	/**
+	 * Wie die Schleife über {@link #schreibeEintrag(ZipOutputStream, ZipEntry, byte[], Kompressionsstrategie)}, nur
+	 * dass jeder Eintrag in Blöcken auf allen Kernen komprimiert wird. <i>out</i> wird geschlossen.
+	 */
+	private static void schreibeParallel(OutputStream out, Map<ZipEntry, byte[]> dataMap, Kompressionsstrategie kompression) throws IOException {
+		ParallelZipSchreiber zip = new ParallelZipSchreiber(out, ForkJoinPool.commonPool(), StreamingTools.PARALLELITAET,
+				ParallelZipSchreiber.STANDARD_BLOCKGROESSE);
+		try {
+			for (Entry<ZipEntry, byte[]> e : dataMap.entrySet()) {
+				ZipEntry neu = ZipSchreiber.kopie(e.getKey());
+				byte[] data = e.getValue();
+				if (neu.getMethod() == ZipEntry.STORED) {
+					zip.schreibeGespeichert(neu, data); // ausdrücklich so gewünscht
+					continue;
+				}
+				if (kompression == null) {
+					zip.schreibeEintrag(neu, new ByteArrayInputStream(data), Deflater.DEFAULT_COMPRESSION);
+					continue;
+				}
+				Kompressionsstrategie.Stufe stufe = kompression.waehle(e.getKey(), data, data.length);
+				if (stufe == Kompressionsstrategie.Stufe.STORED) {
+					zip.schreibeGespeichert(neu, data);
+				} else {
+					zip.schreibeEintrag(neu, new ByteArrayInputStream(data), stufe.getDeflateLevel());
+				}
+				kompression.vermerke(neu, stufe);
+			}
+		} finally {
+			zip.close();
+		}
+	}
+	
+	/**
+	 * Startgröße für den ByteArrayOutputStream: das Zip ist selten größer als die Rohdaten plus etwas Verwaltung,
+	 * so wird beim Schreiben kaum umkopiert. Bei sehr großen Daten wird klein angefangen, damit nicht vorab Gigabytes belegt werden.
+	 */
+	private static int anfangsGroesse(long rohGroesse) {
+		return (int) Math.min(rohGroesse / 2 + 1024, 64L * 1024 * 1024);
+	}
+	
+	/**
+	 * Entpackt alle Einträge eines Zip-Files unter ihrem ursprünglichen Namen in ein Verzeichnis. Unterverzeichnisse im
+	 * Zip werden angelegt. Einträge, deren Name aus dem Zielverzeichnis hinauszeigt (<code>../</code>, absolute Pfade),
+	 * werden nicht geschrieben, sondern führen zu einer ZipException.
+	 * @param f - das .zip-File
+	 * @param zielVerzeichnis - wohin entpackt wird
+	 * @return Liste der geschriebenen Dateien
+	 * @throws IOException
+	 */
+	public static List<File> entpackeNach(File f, File zielVerzeichnis) throws IOException {
+		long t = Metriken.start();
+		long geschrieben = 0;
+		List<File> retList = new ArrayList<File>();
+		ZipVerzeichnis zv = ZipVerzeichnis.fuer(f);
+		for (ZipEntry z : zv.getEintraege()) {
+			File ziel = sicheresZiel(zielVerzeichnis, z.getName());
+			if (z.isDirectory()) {
+				ziel.mkdirs();
+				continue;
+			}
+			ziel.getParentFile().mkdirs();
+			FileChannel out = FileChannel.open(ziel.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				geschrieben += zv.kopiereDaten(z, out);
+			} finally {
+				out.close();
+			}
+			if (z.getTime() != -1) {
+				ziel.setLastModified(z.getTime());
+			}
+			retList.add(ziel);
+		}
+		Metriken.erfasse(Messpunkt.ENTPACKEN, t, f.length(), geschrieben);
+		return retList;
+	}
+	
+	/**
+	 * Entpackt ein Zip, das als Stream kommt (z.B. direkt aus der Entschlüsselung), in einem Durchgang: jeder Eintrag
+	 * geht sofort in eine Zwischendatei neben seinem Ziel, das Zip selbst landet nie auf der Platte. Im Speicher ist nur
+	 * ein Puffer.
+	 * <br/>Erst wenn <i>zip</i> bis zum Ende gelesen ist, werden die Zwischendateien auf ihre Namen umbenannt. Kommt das
+	 * Zip aus dem Stream-Format, ist dann auch der HMAC geprüft - vorhandene Dateien gleichen Namens werden also nur von
+	 * geprüftem Klartext ersetzt. Geht vorher etwas schief, werden nur die Zwischendateien gelöscht.
+	 * <br/>Wie bei {@link #entpackeNach(File, File)} führen Namen, die aus dem Zielverzeichnis hinauszeigen, zu einer
+	 * ZipException. CRC und Größe jedes Eintrags prüft der ZipInputStream.
+	 * @param zip - das Zip, wird bis zum Ende gelesen aber nicht geschlossen
+	 * @param zielVerzeichnis - wohin entpackt wird
+	 * @return Liste der geschriebenen Dateien
+	 * @throws IOException
+	 */
+	public static List<File> entpackeNach(InputStream zip, File zielVerzeichnis) throws IOException {
+		long t = Metriken.start();
+		List<File> retList = new ArrayList<File>();
+		Map<File, File> zwischendateien = new LinkedHashMap<File, File>();
+		long geschrieben;
+		try {
+			geschrieben = leseAlleEintraege(zip, zielVerzeichnis, retList, zwischendateien);
+			leseBisZumEnde(zip);
+		} catch (IOException e) {
+			for (File f : zwischendateien.keySet()) {
+				f.delete(); // nur was dieser Lauf angelegt hat
+			}
+			throw e;
+		}
+		for (Map.Entry<File, File> e : zwischendateien.entrySet()) {
+			Files.move(e.getKey().toPath(), e.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		Metriken.erfasse(Messpunkt.ENTPACKEN, t, 0, geschrieben);
+		return retList;
+	}
+	
+	/**
+	 * Liest ein Zip von vorne bis hinten, ohne etwas zu schreiben: alle Einträge werden entpackt und gegen CRC und
+	 * Größe geprüft, die Namen wie beim Entpacken auf <code>../</code> und absolute Pfade.
+	 * @param zip - das Zip, wird nicht geschlossen
+	 * @return Anzahl der Einträge
+	 * @throws IOException wenn ein Eintrag nicht stimmt
+	 */
+	public static int pruefe(InputStream zip) throws IOException {
+		List<File> eintraege = new ArrayList<File>();
+		leseAlleEintraege(zip, null, eintraege, null);
+		return eintraege.size();
+	}
+	
+	/**
+	 * @param zielVerzeichnis - null heißt nur prüfen, dann kommen die (nicht angelegten) Ziele trotzdem in die Liste
+	 * @param zwischendateien - Key: die geschriebene Zwischendatei, Value: ihr endgültiger Name; null beim Prüfen
+	 * @return Anzahl der entpackten Bytes
+	 */
+	private static long leseAlleEintraege(InputStream zip, File zielVerzeichnis, List<File> retList, Map<File, File> zwischendateien) 
+			throws IOException {
+		boolean schreiben = zielVerzeichnis != null;
+		File basis = schreiben ? zielVerzeichnis : new File("."); // für die Prüfung der Namen
+		long summe = 0;
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		ZipInputStream zin = new ZipInputStream(new FilterInputStream(zip) {
+			@Override
+			public void close() {
+				// der Aufrufer liest danach evtl. noch weiter (z.B. bis zum HMAC)
+			}
+		});
+		try {
+			ZipEntry z;
+			while ((z = zin.getNextEntry()) != null) {
+				File ziel = sicheresZiel(basis, z.getName());
+				if (z.isDirectory()) {
+					if (schreiben) {
+						ziel.mkdirs();
+					}
+					continue;
+				}
+				retList.add(ziel);
+				if (!schreiben) {
+					int len;
+					while ((len = zin.read(puffer)) >= 0) {
+						summe += len;
+					}
+					continue;
+				}
+				ziel.getParentFile().mkdirs();
+				File zwischen = File.createTempFile(".entpacken", ".teil", ziel.getParentFile());
+				zwischendateien.put(zwischen, ziel);
+				OutputStream out = new FileOutputStream(zwischen);
+				try {
+					summe += StreamingTools.kopiere(zin, out, puffer);
+				} finally {
+					out.close();
+				}
+				if (z.getTime() != -1) {
+					zwischen.setLastModified(z.getTime());
+				}
+			}
+		} finally {
+			zin.close();
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+		return summe;
+	}
+	
+	/**
+	 * Liest den Rest nach dem letzten Eintrag (Central Directory und, bei einem entschlüsselnden Stream, den HMAC).
+	 */
+	private static void leseBisZumEnde(InputStream in) throws IOException {
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		try {
+			while (in.read(puffer) >= 0) {
+				// nur lesen
+			}
+		} finally {
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+	}
+	
+	/**
+	 * Löst den Namen eines Zip-Eintrags gegen das Zielverzeichnis auf und stellt sicher, dass das Ergebnis darin liegt.
+	 * @param zielVerzeichnis - Basis
+	 * @param name - Name des Eintrags
+	 * @return die Zieldatei
+	 * @throws ZipException wenn der Name aus dem Verzeichnis hinauszeigt
+	 * @throws IOException
+	 */
+	public static File sicheresZiel(File zielVerzeichnis, String name) throws IOException {
+		String basis = zielVerzeichnis.getCanonicalPath();
+		File ziel = new File(zielVerzeichnis, name);
+		String pfad = ziel.getCanonicalPath();
+		if (Nullchecker.istNOL(name) || new File(name).isAbsolute() || !pfad.startsWith(basis + File.separator)) {
+			throw new ZipException("Eintrag zeigt aus dem Zielverzeichnis hinaus: " + name);
+		}
+		return ziel;
 	}
 	
 	/**
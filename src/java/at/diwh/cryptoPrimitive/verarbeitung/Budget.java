@@ -0,0 +1,27 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+/**
+ * Zählt die Bytes, die gerade in Arbeit sind. Wer mehr belegen will, als frei ist, wartet.
+ * @author JavaAlchemist
+ *
+ */
+class Budget {
+	private final long maximum;
+	private long belegt = 0;
+
+	Budget(long maximum) {
+		this.maximum = maximum;
+	}
+
+	synchronized void belege(long anteil) throws InterruptedException {
+		while (belegt + anteil > maximum) {
+			wait();
+		}
+		belegt += anteil;
+	}
+
+	synchronized void freigeben(long anteil) {
+		belegt -= anteil;
+		notifyAll();
+	}
+}
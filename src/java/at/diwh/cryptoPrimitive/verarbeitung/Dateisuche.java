@@ -0,0 +1,275 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Durchsucht ein Verzeichnis (wahlweise samt Unterverzeichnissen) in einem eigenen Thread und liefert die gefundenen
+ * Dateien als Iterator, <b>während</b> noch gesucht wird. Die Verarbeitung kann also mit der ersten Datei anfangen
+ * und muss nicht warten, bis ein Baum mit hunderttausenden Dateien fertig gelistet ist.
+ * <br/>Zwischen Suche und Verarbeitung liegt eine Warteschlange fester Länge: ist die Verarbeitung langsamer,
+ * wartet die Suche. Der Speicher bleibt damit gleich, egal wie groß der Baum ist.
+ * <br/>Geliefert werden Pfade relativ zum Startverzeichnis, immer mit <code>/</code> getrennt - genau so, wie sie
+ * als Name im Zip landen sollen. Symbolische Links auf Verzeichnisse werden nicht verfolgt.
+ * <br/><b>Filter</b>: Glob-Muster wie bei {@link java.nio.file.FileSystem#getPathMatcher(String)}. Ein Muster ohne
+ * <code>/</code> wird gegen den Dateinamen geprüft (<code>*.pdf</code>), eines mit <code>/</code> gegen den relativen
+ * Pfad (<code>archiv/**</code>). Ohne Einschluss-Muster wird alles genommen; passt ein Ausschluss-Muster auf ein
+ * Verzeichnis, wird es gar nicht erst betreten.
+ * @author JavaAlchemist
+ *
+ */
+public class Dateisuche implements Iterator<String>, AutoCloseable {
+
+	private static final int WARTESCHLANGE = 1024;
+	private static final String ENDE = new String("ENDE"); // eigenes Objekt, wird per == erkannt
+
+	private final Path basis;
+	private final boolean rekursiv;
+	private final List<PathMatcher> einschliessen;
+	private final List<PathMatcher> ausschliessen;
+	private final List<Boolean> einschliessenPfad;
+	private final List<Boolean> ausschliessenPfad;
+	private final BlockingQueue<String> warteschlange = new ArrayBlockingQueue<String>(WARTESCHLANGE);
+	private Thread sucher;
+	private String naechstes;
+	private boolean fertig;
+	private volatile IOException fehler;
+	private volatile long gefunden;
+
+	/**
+	 * @param verzeichnis - Startverzeichnis
+	 * @param rekursiv - true, wenn auch Unterverzeichnisse durchsucht werden
+	 * @param einschliessen - Glob-Muster, leer für alles
+	 * @param ausschliessen - Glob-Muster, leer für nichts
+	 */
+	public Dateisuche(File verzeichnis, boolean rekursiv, List<String> einschliessen, List<String> ausschliessen) {
+		this.basis = verzeichnis.toPath();
+		this.rekursiv = rekursiv;
+		this.einschliessen = new ArrayList<PathMatcher>();
+		this.einschliessenPfad = new ArrayList<Boolean>();
+		this.ausschliessen = new ArrayList<PathMatcher>();
+		this.ausschliessenPfad = new ArrayList<Boolean>();
+		uebersetze(einschliessen, this.einschliessen, this.einschliessenPfad);
+		uebersetze(ausschliessen, this.ausschliessen, this.ausschliessenPfad);
+	}
+
+	/**
+	 * Zerlegt eine kommagetrennte Liste von Mustern, wie sie auf der Kommandozeile kommt.
+	 * @param liste - z.B. <code>*.txt,*.csv</code>, darf null sein
+	 * @return die einzelnen Muster
+	 */
+	public static List<String> muster(String liste) {
+		if (liste == null || liste.trim().isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<String> ergebnis = new ArrayList<String>();
+		for (String m : liste.split(",")) {
+			if (!m.trim().isEmpty()) {
+				ergebnis.add(m.trim());
+			}
+		}
+		return ergebnis;
+	}
+
+	/**
+	 * Startet die Suche im Hintergrund.
+	 * @return this, zum Verketten
+	 */
+	public Dateisuche starte() {
+		sucher = new Thread(() -> suche(), "dateisuche");
+		sucher.setDaemon(true);
+		sucher.start();
+		return this;
+	}
+
+	/**
+	 * Blockiert, bis die nächste Datei gefunden oder die Suche zu Ende ist.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (naechstes != null) {
+			return true;
+		}
+		if (fertig) {
+			return false;
+		}
+		try {
+			String s = warteschlange.take();
+			if (s == ENDE) {
+				fertig = true;
+				return false;
+			}
+			naechstes = s;
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fertig = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @return der nächste Pfad relativ zum Startverzeichnis
+	 */
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String s = naechstes;
+		naechstes = null;
+		return s;
+	}
+
+	/**
+	 * @return wie viele Dateien bisher gefunden wurden (nach Filter)
+	 */
+	public long getAnzahlGefunden() {
+		return gefunden;
+	}
+
+	/**
+	 * @return ein Fehler, der die Suche abgebrochen hat (z.B. Startverzeichnis nicht lesbar), sonst null.
+	 * Nicht lesbare Unterverzeichnisse brechen nicht ab, die werden nur gemeldet.
+	 */
+	public IOException getFehler() {
+		return fehler;
+	}
+
+	/**
+	 * Bricht eine noch laufende Suche ab.
+	 */
+	@Override
+	public void close() {
+		if (sucher != null) {
+			sucher.interrupt();
+		}
+	}
+
+	private void suche() {
+		try {
+			Files.walkFileTree(basis, EnumSet.noneOf(FileVisitOption.class), rekursiv ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (!dir.equals(basis) && !betritt(dir)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile() && nimmt(file)) {
+						try {
+							warteschlange.put(relativ(file));
+							gefunden++;
+						} catch (InterruptedException e) {
+							return FileVisitResult.TERMINATE;
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					if (file.equals(basis)) {
+						fehler = e;
+						return FileVisitResult.TERMINATE;
+					}
+					System.out.println("Kann nicht gelesen werden, übersprungen: " + file + " (" + e.getMessage() + ")");
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			fehler = e;
+		} finally {
+			try {
+				warteschlange.put(ENDE);
+			} catch (InterruptedException e) {
+				// abgebrochen, der Leser fragt dann nicht mehr
+			}
+		}
+	}
+
+	/**
+	 * Prüft eine Datei gegen die Filter, wie es die Suche selbst macht (das Journal des Manifests wird nie genommen).
+	 * @param datei - liegt unterhalb des Startverzeichnisses
+	 * @return true, wenn die Datei verarbeitet werden soll
+	 */
+	public boolean nimmt(Path datei) {
+		if (Manifest.STANDARD_NAME.equals(datei.getFileName().toString())) {
+			return false;
+		}
+		return (einschliessen.isEmpty() || passt(einschliessen, einschliessenPfad, datei)) && !passt(ausschliessen, ausschliessenPfad, datei);
+	}
+
+	/**
+	 * @param verzeichnis - liegt unterhalb des Startverzeichnisses
+	 * @return false, wenn ein Ausschluss-Muster auf das Verzeichnis passt
+	 */
+	public boolean betritt(Path verzeichnis) {
+		return !passt(ausschliessen, ausschliessenPfad, verzeichnis);
+	}
+
+	/**
+	 * @return das Startverzeichnis
+	 */
+	public Path getBasis() {
+		return basis;
+	}
+
+	/**
+	 * @return true, wenn auch Unterverzeichnisse durchsucht werden
+	 */
+	public boolean istRekursiv() {
+		return rekursiv;
+	}
+
+	private boolean passt(List<PathMatcher> matcher, List<Boolean> aufPfad, Path p) {
+		Path rel = basis.relativize(p);
+		for (int i = 0; i < matcher.size(); i++) {
+			if (matcher.get(i).matches(aufPfad.get(i).booleanValue() ? rel : rel.getFileName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param p - liegt unterhalb des Startverzeichnisses
+	 * @return der Pfad relativ zum Startverzeichnis, mit <code>/</code> getrennt - so wie ihn der Iterator liefert
+	 */
+	public String relativ(Path p) {
+		StringBuilder sb = new StringBuilder();
+		for (Path teil : basis.relativize(p)) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(teil.toString());
+		}
+		return sb.toString();
+	}
+
+	private static void uebersetze(List<String> muster, List<PathMatcher> matcher, List<Boolean> aufPfad) {
+		for (String m : muster) {
+			matcher.add(FileSystems.getDefault().getPathMatcher("glob:" + m));
+			aufPfad.add(Boolean.valueOf(m.contains("/")));
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.diwh.cryptoPrimitive.util.Pufferpool;
+import at.diwh.cryptoPrimitive.util.ZippingTools;
+
+/**
+ * Findet Dateien mit identischem Inhalt, damit er nur einmal gezippt und verschlüsselt wird. Ins Archiv kommt der
+ * Inhalt unter dem Namen der ersten Datei, dazu ein Eintrag {@link #VERWEISE}, der für jede Kopie sagt, von welchem
+ * Eintrag sie stammt. Beim Entpacken werden die Kopien daraus wieder angelegt ({@link #stelleWiederHer(File, File)}).
+ * Ein Entpacker, der davon nichts weiß, liefert das Original und die Verweis-Datei (Text, eine Zeile pro Kopie).
+ * <br/>Verglichen wird in drei Schritten, damit nur wenig gelesen wird: zuerst die Größe (Dateien mit einer Größe,
+ * die sonst keiner hat, werden gar nicht gelesen), dann ein Hash über den Anfang, erst dann SHA-256 über alles.
+ * @author JavaAlchemist
+ *
+ */
+public class Deduplizierung {
+
+	/**
+	 * Name des Eintrags mit den Verweisen, Zeilen <code>kopie TAB original</code> (UTF-8)
+	 */
+	public static final String VERWEISE = ".cryptoPrimitive.dedup";
+
+	private static final int ANFANG = 64 * 1024;
+	private static final String TRENNER = "\t";
+
+	private Deduplizierung() {
+		// nur statische Methoden
+	}
+
+	/**
+	 * Sucht unter den Dateien die mit gleichem Inhalt.
+	 * @param namen - Dateinamen relativ zu <i>verzeichnis</i>
+	 * @param verzeichnis - Quelle
+	 * @param maxGroesse - größere Dateien werden nicht verglichen (z.B. weil sie nicht in den Speicher passen)
+	 * @return Key: die erste Datei einer Gruppe (Reihenfolge wie <i>namen</i>), Value: ihre Kopien; Dateien ohne
+	 * Kopie kommen nicht vor
+	 * @throws IOException
+	 */
+	public static Map<String, List<String>> findeKopien(List<String> namen, String verzeichnis, long maxGroesse) throws IOException {
+		Map<Long, List<String>> nachGroesse = new LinkedHashMap<Long, List<String>>();
+		for (String name : namen) {
+			File f = new File(verzeichnis + "/" + name);
+			if (f.length() > maxGroesse) {
+				continue;
+			}
+			List<String> gruppe = nachGroesse.get(f.length());
+			if (gruppe == null) {
+				gruppe = new ArrayList<String>();
+				nachGroesse.put(f.length(), gruppe);
+			}
+			gruppe.add(name);
+		}
+		Map<String, List<String>> ergebnis = new HashMap<String, List<String>>();
+		for (List<String> gleichGross : nachGroesse.values()) {
+			if (gleichGross.size() < 2) {
+				continue;
+			}
+			for (List<String> gleicherAnfang : teile(gleichGross, verzeichnis, ANFANG).values()) {
+				if (gleicherAnfang.size() < 2) {
+					continue;
+				}
+				// bei kleinen Dateien war der Anfang schon alles
+				boolean ganz = new File(verzeichnis + "/" + gleicherAnfang.get(0)).length() <= ANFANG;
+				Collection<List<String>> gleich = ganz ? Collections.singleton(gleicherAnfang)
+						: teile(gleicherAnfang, verzeichnis, Long.MAX_VALUE).values();
+				for (List<String> g : gleich) {
+					if (g.size() > 1) {
+						ergebnis.put(g.get(0), new ArrayList<String>(g.subList(1, g.size())));
+					}
+				}
+			}
+		}
+		// wieder in die Reihenfolge der Eingabe
+		Map<String, List<String>> sortiert = new LinkedHashMap<String, List<String>>();
+		for (String name : namen) {
+			if (ergebnis.containsKey(name)) {
+				sortiert.put(name, ergebnis.get(name));
+			}
+		}
+		return sortiert;
+	}
+
+	/**
+	 * Baut den Inhalt des Eintrags {@link #VERWEISE} für die Originale, die in ein Archiv kommen.
+	 * @param kopien - Ergebnis von {@link #findeKopien(List, String, long)}
+	 * @param originale - die Einträge des Archivs
+	 * @return die Verweise, null wenn keines der Originale Kopien hat
+	 */
+	public static byte[] verweise(Map<String, List<String>> kopien, List<String> originale) {
+		StringBuilder sb = new StringBuilder();
+		for (String original : originale) {
+			List<String> k = kopien.get(original);
+			if (k == null) {
+				continue;
+			}
+			for (String kopie : k) {
+				sb.append(maskiere(kopie)).append(TRENNER).append(maskiere(original)).append("\n");
+			}
+		}
+		return sb.length() == 0 ? null : sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Legt nach dem Entpacken die Kopien wieder an und löscht danach die Verweis-Datei. Die Kopien bekommen die
+	 * Änderungszeit ihres Originals. Namen, die aus dem Verzeichnis hinauszeigen, führen wie beim Entpacken zu einer
+	 * ZipException.
+	 * @param verweisDatei - die entpackte Datei {@link #VERWEISE}
+	 * @param verzeichnis - wohin entpackt wurde
+	 * @return die angelegten Kopien
+	 * @throws IOException
+	 */
+	public static List<File> stelleWiederHer(File verweisDatei, File verzeichnis) throws IOException {
+		List<File> angelegt = new ArrayList<File>();
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(verweisDatei), StandardCharsets.UTF_8));
+		try {
+			String zeile;
+			while ((zeile = r.readLine()) != null) {
+				int trenner = zeile.indexOf(TRENNER);
+				if (trenner < 0) {
+					continue;
+				}
+				File original = ZippingTools.sicheresZiel(verzeichnis, demaskiere(zeile.substring(trenner + 1)));
+				File kopie = ZippingTools.sicheresZiel(verzeichnis, demaskiere(zeile.substring(0, trenner)));
+				kopie.getParentFile().mkdirs();
+				Files.copy(original.toPath(), kopie.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+				angelegt.add(kopie);
+			}
+		} finally {
+			r.close();
+		}
+		verweisDatei.delete();
+		return angelegt;
+	}
+
+	/**
+	 * Teilt Dateien nach dem SHA-256 ihrer ersten <i>laenge</i> Bytes auf.
+	 */
+	private static Map<String, List<String>> teile(List<String> namen, String verzeichnis, long laenge) throws IOException {
+		Map<String, List<String>> ergebnis = new LinkedHashMap<String, List<String>>();
+		for (String name : namen) {
+			String hash = laenge == Long.MAX_VALUE ? Manifest.sha256(new File(verzeichnis + "/" + name))
+					: anfangsHash(new File(verzeichnis + "/" + name), (int) laenge);
+			List<String> gruppe = ergebnis.get(hash);
+			if (gruppe == null) {
+				gruppe = new ArrayList<String>();
+				ergebnis.put(hash, gruppe);
+			}
+			gruppe.add(name);
+		}
+		return ergebnis;
+	}
+
+	private static String anfangsHash(File f, int laenge) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 fehlt in dieser JVM", e);
+		}
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		InputStream in = new FileInputStream(f);
+		try {
+			int rest = laenge;
+			int len;
+			while (rest > 0 && (len = in.read(puffer, 0, Math.min(rest, puffer.length))) > 0) {
+				md.update(puffer, 0, len);
+				rest -= len;
+			}
+		} finally {
+			in.close();
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Wie im {@link Manifest}: Tabs und Zeilenumbrüche im Namen würden das Zeilenformat zerstören.
+	 */
+	private static String maskiere(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String demaskiere(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,353 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import at.diwh.cryptoPrimitive.util.Pufferpool;
+
+/**
+ * Merkt sich über Läufe hinweg, welche Quelldateien schon verarbeitet wurden, damit ein erneuter Lauf nur noch die
+ * neuen oder geänderten Dateien anfasst und ein abgebrochener Lauf dort weitermacht, wo er stehen geblieben ist.
+ * <br/>Gespeichert wird als Journal, an das nur angehängt wird: eine Zeile pro fertig verarbeiteter Datei mit
+ * Pfad, Größe, Änderungszeit, SHA-256 und Zieldatei. Jede Zeile wird sofort auf die Platte gezwungen (fsync) und
+ * trägt eine eigene CRC32. Stürzt der Lauf mitten im Schreiben ab, ist höchstens die letzte Zeile kaputt und wird
+ * beim nächsten Lesen ignoriert - die Datei wird dann eben nochmal verarbeitet.
+ * <br/>Eine Datei gilt als unverändert, wenn Größe und Änderungszeit passen. Passt nur die Größe (z.B. nach einem
+ * <i>touch</i> oder Kopieren), entscheidet der Hash. Wer alles neu haben will, löscht das Journal.
+ * <br/>Sammeln sich zu viele überholte Zeilen an, wird das Journal beim Öffnen kompaktiert (neu schreiben, dann
+ * atomar umbenennen). Zwei Läufe mit demselben Journal gleichzeitig verhindert ein Dateilock.
+ * @author JavaAlchemist
+ *
+ */
+public class Manifest implements AutoCloseable {
+
+	public static final String STANDARD_NAME = ".cryptoPrimitive.manifest";
+	private static final String VERSION = "M1";
+	private static final String TRENNER = "\t";
+
+	private final File journal;
+	private final Map<String, Eintrag> eintraege = new HashMap<String, Eintrag>();
+	private final Map<String, String> bekannteHashes = new HashMap<String, String>();
+	private final Map<String, List<File>> herkunft = new HashMap<String, List<File>>();
+	private FileChannel kanal;
+	private FileLock sperre;
+	private int zeilen;
+
+	/**
+	 * Was über eine verarbeitete Quelldatei bekannt ist.
+	 */
+	static class Eintrag {
+		final String quelle;
+		final long groesse;
+		final long geaendert;
+		final String hash;
+		final String ziel;
+
+		Eintrag(String quelle, long groesse, long geaendert, String hash, String ziel) {
+			this.quelle = quelle;
+			this.groesse = groesse;
+			this.geaendert = geaendert;
+			this.hash = hash;
+			this.ziel = ziel;
+		}
+	}
+
+	/**
+	 * Liest das Journal (falls es schon existiert) und öffnet es zum Anhängen.
+	 * @param journal - die Journal-Datei, normalerweise {@link #STANDARD_NAME} im Zielverzeichnis
+	 * @throws IOException auch wenn ein anderer Lauf das Journal gerade verwendet
+	 */
+	public Manifest(File journal) throws IOException {
+		this.journal = journal;
+		oeffne();
+		lese();
+		if (zeilen > 1000 && zeilen > 2 * eintraege.size()) {
+			close(); // unter Windows lässt sich eine offene Datei nicht ersetzen
+			kompaktiere();
+			oeffne();
+			lese();
+		}
+	}
+
+	/**
+	 * Filtert eine Liste von Dateinamen auf die, die noch verarbeitet werden müssen.
+	 * @param verzeichnis - Quellverzeichnis
+	 * @param namen - Dateinamen relativ zum Verzeichnis
+	 * @return die neuen oder geänderten Dateinamen, Reihenfolge bleibt; was fehlt, ist unverändert
+	 * @throws IOException
+	 */
+	public List<String> nochZuVerarbeiten(String verzeichnis, List<String> namen) throws IOException {
+		List<String> ergebnis = new ArrayList<String>();
+		for (String element : namen) {
+			if (!istUnveraendert(new File(verzeichnis + "/" + element))) {
+				ergebnis.add(element);
+			}
+		}
+		return ergebnis;
+	}
+
+	/**
+	 * @param quelle - die Quelldatei
+	 * @return true, wenn die Datei laut Journal schon verarbeitet wurde und sich seitdem nicht geändert hat
+	 * @throws IOException
+	 */
+	public boolean istUnveraendert(File quelle) throws IOException {
+		String pfad = quelle.getCanonicalPath();
+		Eintrag e;
+		synchronized (this) {
+			e = eintraege.get(pfad);
+		}
+		if (e == null || e.groesse != quelle.length()) {
+			return false;
+		}
+		if (e.geaendert == quelle.lastModified()) {
+			return true;
+		}
+		String hash = sha256(quelle); // außerhalb des Locks, damit parallele Worker gleichzeitig hashen können
+		if (!hash.equals(e.hash)) {
+			synchronized (this) {
+				bekannteHashes.put(pfad, hash); // spart beim Vermerken das nochmalige Lesen
+			}
+			return false;
+		}
+		// nur der Zeitstempel ist neu: festhalten, damit beim nächsten Mal nicht wieder gehasht werden muss
+		schreibe(new Eintrag(pfad, quelle.length(), quelle.lastModified(), hash, e.ziel));
+		return true;
+	}
+
+	/**
+	 * Merkt sich, aus welchen Quelldateien eine Zwischendatei (z.B. ein Zip im Quellverzeichnis) entstanden ist.
+	 * Wird die Zwischendatei vermerkt, werden ihre Quellen mit vermerkt.
+	 * @param erzeugt - die Zwischendatei
+	 * @param quellen - die Dateien, die darin stecken
+	 * @throws IOException
+	 */
+	public synchronized void ordneZu(File erzeugt, List<File> quellen) throws IOException {
+		herkunft.put(erzeugt.getCanonicalPath(), new ArrayList<File>(quellen));
+	}
+
+	/**
+	 * Hält fest, dass eine Quelldatei fertig verarbeitet ist. Erst wenn diese Methode zurückkommt, gilt die Datei als
+	 * erledigt. Sie muss also <b>nach</b> dem vollständigen Schreiben der Zieldatei gerufen werden.
+	 * @param quelle - die Quelldatei (oder Zwischendatei, siehe {@link #ordneZu(File, List)})
+	 * @param ziel - die geschriebene Datei
+	 * @throws IOException
+	 */
+	public void vermerke(File quelle, File ziel) throws IOException {
+		String pfad = quelle.getCanonicalPath();
+		List<File> quellen;
+		String hash;
+		synchronized (this) {
+			quellen = herkunft.remove(pfad);
+			hash = bekannteHashes.remove(pfad);
+		}
+		if (quellen != null) {
+			for (File q : quellen) {
+				vermerke(q, ziel);
+			}
+		}
+		if (hash == null) {
+			hash = sha256(quelle);
+		}
+		schreibe(new Eintrag(pfad, quelle.length(), quelle.lastModified(), hash, ziel.getCanonicalPath()));
+	}
+
+	/**
+	 * @return Anzahl der Quelldateien im Journal
+	 */
+	public synchronized int getAnzahl() {
+		return eintraege.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (kanal != null) {
+			sperre.release();
+			kanal.close();
+			kanal = null;
+		}
+	}
+
+	/**
+	 * SHA-256 über den Inhalt einer Datei, als Hex-String.
+	 * @param f - die Datei
+	 * @return der Hash in Kleinbuchstaben
+	 * @throws IOException
+	 */
+	public static String sha256(File f) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 fehlt in dieser JVM", e);
+		}
+		byte[] puffer = Pufferpool.STANDARD.holeArray();
+		InputStream in = new FileInputStream(f);
+		try {
+			int len;
+			while ((len = in.read(puffer)) > 0) {
+				md.update(puffer, 0, len);
+			}
+		} finally {
+			in.close();
+			Pufferpool.STANDARD.gibZurueck(puffer);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	private synchronized void schreibe(Eintrag e) throws IOException {
+		if (kanal == null) {
+			throw new IOException("Das Manifest " + journal + " ist schon geschlossen");
+		}
+		ByteBuffer bb = ByteBuffer.wrap(zeile(e).getBytes(StandardCharsets.UTF_8));
+		while (bb.hasRemaining()) {
+			kanal.write(bb);
+		}
+		kanal.force(false); // erst jetzt ist die Datei wirklich erledigt
+		eintraege.put(e.quelle, e);
+		zeilen++;
+	}
+
+	/**
+	 * Öffnet und sperrt das Journal. Gelesen wird über denselben Kanal, weil die Sperre unter Windows auch
+	 * andere Handles desselben Prozesses aussperrt.
+	 */
+	private void oeffne() throws IOException {
+		kanal = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			sperre = kanal.tryLock();
+		} catch (OverlappingFileLockException e) {
+			sperre = null; // dieselbe JVM hat es schon offen
+		}
+		if (sperre == null) {
+			kanal.close();
+			kanal = null;
+			throw new IOException("Das Manifest " + journal + " wird gerade von einem anderen Lauf verwendet");
+		}
+	}
+
+	private void lese() throws IOException {
+		eintraege.clear();
+		zeilen = 0;
+		kanal.position(0);
+		BufferedReader br = new BufferedReader(new InputStreamReader(Channels.newInputStream(kanal), StandardCharsets.UTF_8));
+		String zeile;
+		while ((zeile = br.readLine()) != null) { // br wird nicht geschlossen, das würde den Kanal schließen
+			Eintrag e = parse(zeile);
+			if (e != null) {
+				eintraege.put(e.quelle, e); // spätere Zeilen überschreiben frühere
+				zeilen++;
+			}
+		}
+		long groesse = kanal.size();
+		kanal.position(groesse);
+		if (groesse > 0) {
+			ByteBuffer letztes = ByteBuffer.allocate(1);
+			kanal.read(letztes, groesse - 1);
+			if (letztes.get(0) != '\n') {
+				// abgeschnittene letzte Zeile abschließen, sonst klebt die nächste Zeile dran und ist auch kaputt
+				kanal.write(ByteBuffer.wrap(new byte[] { '\n' }));
+			}
+		}
+	}
+
+	/**
+	 * Schreibt nur die aktuellen Einträge in eine neue Datei und ersetzt damit das alte Journal.
+	 */
+	private void kompaktiere() throws IOException {
+		File neu = new File(journal.getPath() + ".neu");
+		FileChannel k = FileChannel.open(neu.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			List<String> pfade = new ArrayList<String>(eintraege.keySet());
+			Collections.sort(pfade);
+			for (String pfad : pfade) {
+				ByteBuffer bb = ByteBuffer.wrap(zeile(eintraege.get(pfad)).getBytes(StandardCharsets.UTF_8));
+				while (bb.hasRemaining()) {
+					k.write(bb);
+				}
+			}
+			k.force(true);
+		} finally {
+			k.close();
+		}
+		Files.move(neu.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		zeilen = eintraege.size();
+	}
+
+	static String zeile(Eintrag e) {
+		String inhalt = VERSION + TRENNER + maskiere(e.quelle) + TRENNER + e.groesse + TRENNER + e.geaendert
+				+ TRENNER + e.hash + TRENNER + maskiere(e.ziel);
+		return inhalt + TRENNER + crc(inhalt) + "\n";
+	}
+
+	/**
+	 * @return der Eintrag, oder null wenn die Zeile kaputt ist (abgeschnitten, falsche CRC, unbekannte Version)
+	 */
+	static Eintrag parse(String zeile) {
+		int letzter = zeile.lastIndexOf(TRENNER);
+		if (letzter < 0 || !zeile.substring(letzter + 1).equals(crc(zeile.substring(0, letzter)))) {
+			return null;
+		}
+		String[] teile = zeile.substring(0, letzter).split(TRENNER, -1);
+		if (teile.length != 6 || !VERSION.equals(teile[0])) {
+			return null;
+		}
+		try {
+			return new Eintrag(demaskiere(teile[1]), Long.parseLong(teile[2]), Long.parseLong(teile[3]), teile[4], demaskiere(teile[5]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String crc(String s) {
+		CRC32 crc = new CRC32();
+		crc.update(s.getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Tabs, Zeilenumbrüche und Backslashes in Pfaden würden das Zeilenformat zerstören, also werden sie maskiert.
+	 */
+	private static String maskiere(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String demaskiere(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,161 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+
+/**
+ * Verteilt die Arbeit für einzelne Dateien auf einen Pool von Worker-Threads. Jede Datei ist unabhängig,
+ * also kann Zip und AES für mehrere Dateien gleichzeitig laufen.
+ * <br/>Damit der Heap nicht explodiert, hat jede Datei "Kosten" in Bytes (grob: wie viel sie im Speicher braucht).
+ * Es werden nur so viele Dateien gleichzeitig angefangen, wie ins Budget passen. Eine Datei, die allein schon
+ * teurer ist als das Budget, läuft eben allein.
+ * <br/>Fehler werden pro Datei gesammelt, der Rest läuft weiter.
+ * @author JavaAlchemist
+ *
+ */
+public class ParallelVerarbeiter {
+
+	/**
+	 * Die eigentliche Arbeit für eine Datei.
+	 */
+	public interface Aufgabe {
+		/**
+		 * @param element - Dateiname relativ zum Quellverzeichnis
+		 * @return die geschriebene Datei oder null, wenn die Datei übersprungen wurde
+		 * @throws Exception
+		 */
+		File verarbeite(String element) throws Exception;
+	}
+
+	/**
+	 * Schätzt, wie viele Bytes die Verarbeitung einer Datei höchstens gleichzeitig im Speicher hält.
+	 */
+	public interface Kostenschaetzung {
+		long schaetze(String element);
+	}
+
+	/**
+	 * So viele Elemente pro Thread dürfen gleichzeitig unterwegs sein (laufend oder fertig, aber noch nicht gemeldet).
+	 */
+	private static final int VORLAUF_PRO_THREAD = 8;
+
+	private final int threads;
+	private final long maxBytesInArbeit;
+
+	/**
+	 * @param threads - Anzahl der Worker-Threads (mindestens 1)
+	 * @param maxBytesInArbeit - Obergrenze für die Summe der Kosten aller laufenden Dateien
+	 */
+	public ParallelVerarbeiter(int threads, long maxBytesInArbeit) {
+		if (threads < 1 || maxBytesInArbeit < 1) {
+			throw new IllegalArgumentException("threads und maxBytesInArbeit müssen positiv sein");
+		}
+		this.threads = threads;
+		this.maxBytesInArbeit = maxBytesInArbeit;
+	}
+
+	/**
+	 * Bekommt die Ergebnisse, sobald sie fertig sind (in der Reihenfolge der Eingabe, im aufrufenden Thread).
+	 */
+	public interface Rueckmeldung {
+		void fertig(Verarbeitungsergebnis ergebnis);
+	}
+
+	/**
+	 * Verarbeitet alle Elemente und wartet, bis alle fertig sind.
+	 * @param elemente - Dateinamen
+	 * @param kosten - Schätzung des Speicherbedarfs pro Datei
+	 * @param aufgabe - was mit jeder Datei passieren soll
+	 * @return ein Ergebnis pro Element, in der Reihenfolge der Eingabe
+	 * @throws InterruptedException wenn der aufrufende Thread unterbrochen wird
+	 */
+	public List<Verarbeitungsergebnis> verarbeite(List<String> elemente, Kostenschaetzung kosten, final Aufgabe aufgabe)
+			throws InterruptedException {
+		final List<Verarbeitungsergebnis> ergebnisse = new ArrayList<Verarbeitungsergebnis>();
+		verarbeite(elemente.iterator(), kosten, aufgabe, ergebnis -> ergebnisse.add(ergebnis));
+		return ergebnisse;
+	}
+
+	/**
+	 * Wie {@link #verarbeite(List, Kostenschaetzung, Aufgabe)}, aber die Elemente dürfen erst nach und nach kommen 
+	 * (z.B. während ein Verzeichnisbaum noch durchsucht wird) und die Ergebnisse werden nicht gesammelt, sondern 
+	 * gleich weitergereicht. Es sind nie mehr als ein paar Elemente pro Thread gleichzeitig unterwegs, d.h. der
+	 * Speicher hängt nicht von der Anzahl der Elemente ab.
+	 * @param elemente - Dateinamen, <i>hasNext</i> darf blockieren
+	 * @param kosten - Schätzung des Speicherbedarfs pro Datei
+	 * @param aufgabe - was mit jeder Datei passieren soll
+	 * @param rueckmeldung - bekommt jedes Ergebnis
+	 * @throws InterruptedException wenn der aufrufende Thread unterbrochen wird
+	 */
+	public void verarbeite(Iterator<String> elemente, Kostenschaetzung kosten, final Aufgabe aufgabe, Rueckmeldung rueckmeldung)
+			throws InterruptedException {
+		final Budget budget = new Budget(maxBytesInArbeit);
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new WorkerFactory());
+		Deque<Future<Verarbeitungsergebnis>> laufend = new ArrayDeque<Future<Verarbeitungsergebnis>>();
+		Deque<String> laufendeNamen = new ArrayDeque<String>();
+		try {
+			while (elemente.hasNext()) {
+				final String element = elemente.next();
+				final long anteil = Math.max(1, Math.min(kosten.schaetze(element), maxBytesInArbeit));
+				budget.belege(anteil); // blockiert hier, d.h. auch die Warteschlange bleibt klein
+				laufend.add(pool.submit(() -> {
+					long start = System.currentTimeMillis();
+					long messung = Metriken.start();
+					try {
+						File ziel = aufgabe.verarbeite(element);
+						if (ziel != null) {
+							Metriken.erfasse(Messpunkt.DATEI, messung, 0, ziel.length());
+						}
+						return new Verarbeitungsergebnis(element, ziel, null, System.currentTimeMillis() - start);
+					} catch (Throwable t) {
+						Metriken.erfasseFehler(Messpunkt.DATEI);
+						return new Verarbeitungsergebnis(element, null, t, System.currentTimeMillis() - start);
+					} finally {
+						budget.freigeben(anteil);
+					}
+				}));
+				laufendeNamen.add(element);
+				while (laufend.size() > threads * VORLAUF_PRO_THREAD || (!laufend.isEmpty() && laufend.peek().isDone())) {
+					melde(laufend.poll(), laufendeNamen.poll(), rueckmeldung);
+				}
+			}
+			while (!laufend.isEmpty()) {
+				melde(laufend.poll(), laufendeNamen.poll(), rueckmeldung);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void melde(Future<Verarbeitungsergebnis> f, String element, Rueckmeldung rueckmeldung) throws InterruptedException {
+		try {
+			rueckmeldung.fertig(f.get());
+		} catch (ExecutionException e) { // kann eigentlich nicht passieren, die Aufgabe fängt alles
+			rueckmeldung.fertig(new Verarbeitungsergebnis(element, null, e.getCause(), 0));
+		}
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger zaehler = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "verarbeiter-" + zaehler.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import at.diwh.cryptoPrimitive.metrik.Messpunkt;
+import at.diwh.cryptoPrimitive.metrik.Metriken;
+
+/**
+ * Verarbeitet Dateien in drei Stufen: Lesen, Rechnen (Zip/AES) und Schreiben. Jede Stufe hat ihre eigenen Threads,
+ * d.h. während eine Datei verschlüsselt wird, wird die nächste schon gelesen und die vorige geschrieben. Die CPU
+ * wartet nicht auf die Platte und umgekehrt - das bringt vor allem bei langsamen Platten und NFS etwas.
+ * <br/>Lesen und Schreiben laufen auf virtuellen Threads, wenn die JVM das kann (ab Java 21). Gebaut wird weiter für
+ * Java 11, der Executor wird deshalb per Reflection geholt. Auf älteren JVMs gibt es stattdessen einen festen Pool
+ * normaler Threads. Gerechnet wird immer auf einem Pool mit so vielen Threads wie angegeben (meist: Anzahl Kerne).
+ * <br/>Zwischen den Stufen wird nicht beliebig viel gepuffert: wie beim {@link ParallelVerarbeiter} hat jede Datei
+ * Kosten in Bytes, und es wird erst gelesen, wenn die ins Budget passen. Dazu kommt eine Obergrenze für die Anzahl
+ * der Dateien unterwegs. Damit sind auch die Warteschlangen vor den Stufen begrenzt.
+ * <br/>Fehler werden pro Datei gesammelt, eine fehlgeschlagene Datei durchläuft die weiteren Stufen nicht.
+ * @author JavaAlchemist
+ *
+ */
+public class Stufenverarbeiter {
+
+	/**
+	 * Was eine Datei auf ihrem Weg durch die Stufen mit sich trägt.
+	 */
+	public static class Auftrag {
+		private final String element;
+		private byte[] daten;
+		private File ziel;
+
+		Auftrag(String element) {
+			this.element = element;
+		}
+
+		/**
+		 * @return Dateiname relativ zum Quellverzeichnis
+		 */
+		public String getElement() {
+			return element;
+		}
+
+		/**
+		 * @return die Daten für die nächste Stufe, null wenn es nichts (mehr) zu tun gibt
+		 */
+		public byte[] getDaten() {
+			return daten;
+		}
+
+		public void setDaten(byte[] daten) {
+			this.daten = daten;
+		}
+
+		/**
+		 * @return die Zieldatei, null wenn übersprungen
+		 */
+		public File getZiel() {
+			return ziel;
+		}
+
+		public void setZiel(File ziel) {
+			this.ziel = ziel;
+		}
+	}
+
+	/**
+	 * Eine Stufe der Verarbeitung. Die Stufen eines Auftrags laufen nacheinander, nie gleichzeitig.
+	 */
+	public interface Stufe {
+		void bearbeite(Auftrag auftrag) throws Exception;
+	}
+
+	private static final int VORLAUF_PRO_THREAD = 4;
+	private static final String[] STUFEN = { "Lesen", "Rechnen", "Schreiben" };
+
+	private final int rechenThreads;
+	private final int ioThreads;
+	private final long maxBytesInArbeit;
+	private final AtomicLongArray stufenzeit = new AtomicLongArray(STUFEN.length);
+	private boolean virtuell;
+
+	/**
+	 * @param rechenThreads - Threads für die Stufe Rechnen (mindestens 1)
+	 * @param ioThreads - Threads für Lesen und Schreiben, falls es keine virtuellen Threads gibt (mindestens 1)
+	 * @param maxBytesInArbeit - Obergrenze für die Summe der Kosten aller Dateien unterwegs
+	 */
+	public Stufenverarbeiter(int rechenThreads, int ioThreads, long maxBytesInArbeit) {
+		if (rechenThreads < 1 || ioThreads < 1 || maxBytesInArbeit < 1) {
+			throw new IllegalArgumentException("rechenThreads, ioThreads und maxBytesInArbeit müssen positiv sein");
+		}
+		this.rechenThreads = rechenThreads;
+		this.ioThreads = ioThreads;
+		this.maxBytesInArbeit = maxBytesInArbeit;
+	}
+
+	/**
+	 * Schickt alle Elemente durch die drei Stufen und wartet, bis alle fertig sind.
+	 * @param elemente - Dateinamen
+	 * @param kosten - Schätzung des Speicherbedarfs pro Datei
+	 * @param lesen - I/O, z.B. die Quelldatei in {@link Auftrag#setDaten(byte[])} laden
+	 * @param rechnen - CPU, z.B. Zip und AES über die Daten
+	 * @param schreiben - I/O, die Daten nach {@link Auftrag#getZiel()} schreiben
+	 * @return ein Ergebnis pro Element, in der Reihenfolge der Eingabe
+	 * @throws InterruptedException wenn der aufrufende Thread unterbrochen wird
+	 */
+	public List<Verarbeitungsergebnis> verarbeite(List<String> elemente, ParallelVerarbeiter.Kostenschaetzung kosten,
+			final Stufe lesen, final Stufe rechnen, final Stufe schreiben) throws InterruptedException {
+		final Budget budget = new Budget(maxBytesInArbeit);
+		ExecutorService io = ioExecutor();
+		ExecutorService cpu = Executors.newFixedThreadPool(rechenThreads, new StufenFactory("rechnen-"));
+		List<Verarbeitungsergebnis> ergebnisse = new ArrayList<Verarbeitungsergebnis>();
+		Deque<CompletableFuture<Verarbeitungsergebnis>> laufend = new ArrayDeque<CompletableFuture<Verarbeitungsergebnis>>();
+		Deque<String> laufendeNamen = new ArrayDeque<String>();
+		try {
+			for (final String element : elemente) {
+				final long anteil = Math.max(1, Math.min(kosten.schaetze(element), maxBytesInArbeit));
+				budget.belege(anteil); // blockiert, bis hinten genug fertig geschrieben ist
+				final Auftrag auftrag = new Auftrag(element);
+				final long start = System.currentTimeMillis();
+				final long messung = Metriken.start();
+				CompletableFuture<Verarbeitungsergebnis> f = CompletableFuture
+						.runAsync(() -> fuehreAus(0, lesen, auftrag), io)
+						.thenRunAsync(() -> fuehreAus(1, rechnen, auftrag), cpu)
+						.thenRunAsync(() -> fuehreAus(2, schreiben, auftrag), io)
+						.handle((ok, t) -> {
+							budget.freigeben(anteil);
+							auftrag.setDaten(null);
+							Throwable fehler = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+							if (fehler != null) {
+								Metriken.erfasseFehler(Messpunkt.DATEI);
+							} else if (auftrag.getZiel() != null) {
+								Metriken.erfasse(Messpunkt.DATEI, messung, 0, auftrag.getZiel().length());
+							}
+							return new Verarbeitungsergebnis(element, fehler == null ? auftrag.getZiel() : null, fehler,
+									System.currentTimeMillis() - start);
+						});
+				laufend.add(f);
+				laufendeNamen.add(element);
+				while (laufend.size() > rechenThreads * VORLAUF_PRO_THREAD || (!laufend.isEmpty() && laufend.peek().isDone())) {
+					ergebnisse.add(hole(laufend.poll(), laufendeNamen.poll()));
+				}
+			}
+			while (!laufend.isEmpty()) {
+				ergebnisse.add(hole(laufend.poll(), laufendeNamen.poll()));
+			}
+		} finally {
+			io.shutdownNow();
+			cpu.shutdownNow();
+		}
+		return ergebnisse;
+	}
+
+	/**
+	 * @return true, wenn Lesen und Schreiben beim letzten Lauf auf virtuellen Threads lief
+	 */
+	public boolean istVirtuell() {
+		return virtuell;
+	}
+
+	/**
+	 * @return wie lange die Stufen zusammen gearbeitet haben; ist die Summe größer als die Laufzeit, haben sie sich
+	 * überlappt
+	 */
+	public String zusammenfassung() {
+		StringBuffer sb = new StringBuffer("Stufen (" + (virtuell ? "virtuelle" : "normale") + " I/O-Threads):");
+		for (int i = 0; i < STUFEN.length; i++) {
+			sb.append(" " + STUFEN[i] + " " + stufenzeit.get(i) + " ms");
+		}
+		return sb.toString();
+	}
+
+	private void fuehreAus(int index, Stufe stufe, Auftrag auftrag) {
+		long start = System.currentTimeMillis();
+		try {
+			stufe.bearbeite(auftrag);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		} finally {
+			stufenzeit.addAndGet(index, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Virtuelle Threads, wenn es sie gibt (Java 21, bzw. 19/20 mit --enable-preview), sonst ein fester Pool.
+	 */
+	private ExecutorService ioExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService e = (ExecutorService) m.invoke(null);
+			virtuell = true;
+			return e;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// ältere JVM oder Preview nicht freigeschaltet
+			virtuell = false;
+			return Executors.newFixedThreadPool(ioThreads, new StufenFactory("io-"));
+		}
+	}
+
+	private static Verarbeitungsergebnis hole(CompletableFuture<Verarbeitungsergebnis> f, String element) throws InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) { // kann eigentlich nicht passieren, handle fängt alles
+			return new Verarbeitungsergebnis(element, null, e.getCause(), 0);
+		}
+	}
+
+	private static class StufenFactory implements ThreadFactory {
+		private final String praefix;
+		private final AtomicInteger zaehler = new AtomicInteger();
+
+		StufenFactory(String praefix) {
+			this.praefix = praefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, praefix + zaehler.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
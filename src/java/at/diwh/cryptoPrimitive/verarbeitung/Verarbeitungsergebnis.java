@@ -0,0 +1,58 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.File;
+
+/**
+ * Was bei der Verarbeitung einer einzelnen Datei herausgekommen ist: entweder die Zieldatei oder der Fehler.
+ * Ein Fehler bei einer Datei bricht den Rest nicht ab, er landet hier.
+ * @author JavaAlchemist
+ *
+ */
+public class Verarbeitungsergebnis {
+
+	private final String dateiname;
+	private final File zielDatei;
+	private final Throwable fehler;
+	private final long dauerMillis;
+
+	public Verarbeitungsergebnis(String dateiname, File zielDatei, Throwable fehler, long dauerMillis) {
+		this.dateiname = dateiname;
+		this.zielDatei = zielDatei;
+		this.fehler = fehler;
+		this.dauerMillis = dauerMillis;
+	}
+
+	public String getDateiname() {
+		return dateiname;
+	}
+
+	/**
+	 * @return die geschriebene Datei, null wenn übersprungen oder fehlgeschlagen
+	 */
+	public File getZielDatei() {
+		return zielDatei;
+	}
+
+	public Throwable getFehler() {
+		return fehler;
+	}
+
+	public long getDauerMillis() {
+		return dauerMillis;
+	}
+
+	public boolean istErfolgreich() {
+		return fehler == null;
+	}
+
+	@Override
+	public String toString() {
+		if (!istErfolgreich()) {
+			return dateiname + " -> FEHLER: " + fehler;
+		}
+		if (zielDatei == null) {
+			return dateiname + " -> übersprungen";
+		}
+		return dateiname + " -> " + zielDatei.getPath() + " (" + dauerMillis + " ms)";
+	}
+}
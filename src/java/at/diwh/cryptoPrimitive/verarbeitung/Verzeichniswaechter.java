@@ -0,0 +1,327 @@
+package at.diwh.cryptoPrimitive.verarbeitung;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Beobachtet das Quellverzeichnis über einen {@link WatchService} und liefert neue oder geänderte Dateien als
+ * Iterator, solange bis {@link #close()} aufgerufen wird. Damit bleibt ein Lauf als Dienst stehen: JVM, Provider und
+ * abgeleitete Schlüssel sind schon warm, eine neue Datei wird sofort verarbeitet statt beim nächsten Start.
+ * <br/>Eine Datei wird erst geliefert, wenn sie fertig geschrieben ist, d.h. wenn Größe und Änderungszeit für die
+ * Ruhezeit gleich geblieben sind. Ein Event allein reicht nicht, beim Kopieren einer großen Datei kommen viele.
+ * <br/>Beim Start werden auch die Dateien geliefert, die schon da sind (gleiche Ruhezeit). Filter, Rekursion und die
+ * Form der Namen kommen von einer {@link Dateisuche}, die selbst nicht gestartet wird. Neue Unterverzeichnisse werden
+ * im rekursiven Modus gleich mit beobachtet. Gehen Events verloren (Überlauf), wird das Verzeichnis neu durchsucht.
+ * <br/>Dieselbe Datei kommt nur dann noch einmal, wenn sich Größe oder Änderungszeit danach geändert haben oder wenn sie
+ * gelöscht und wieder angelegt wurde.
+ * @author JavaAlchemist
+ *
+ */
+public class Verzeichniswaechter implements Iterator<String>, AutoCloseable {
+
+	private static final int WARTESCHLANGE = 1024;
+	private static final String ENDE = new String("ENDE"); // eigenes Objekt, wird per == erkannt
+
+	private final Dateisuche filter;
+	private final long ruheMillis;
+	private final BlockingQueue<String> warteschlange = new ArrayBlockingQueue<String>(WARTESCHLANGE);
+	// noch nicht ruhige Dateien, in der Reihenfolge, in der sie aufgetaucht sind
+	private final Map<Path, Stand> kandidaten = new LinkedHashMap<Path, Stand>();
+	// schon geliefert, mit dem Stand von damals; gelöschte Dateien fliegen wieder raus, sonst wächst das ohne Ende
+	private final Map<Path, Stand> geliefert = new HashMap<Path, Stand>();
+	private final Map<WatchKey, Path> verzeichnisse = new HashMap<WatchKey, Path>();
+	private WatchService dienst;
+	private Thread waechter;
+	private String naechstes;
+	private boolean fertig;
+	private volatile boolean beendet;
+	private volatile IOException fehler;
+	private volatile long gefunden;
+
+	/**
+	 * @param filter - bestimmt Verzeichnis, Rekursion und Muster; wird nicht gestartet
+	 * @param ruheMillis - so lange müssen Größe und Änderungszeit gleich bleiben
+	 */
+	public Verzeichniswaechter(Dateisuche filter, long ruheMillis) {
+		if (ruheMillis < 0) {
+			throw new IllegalArgumentException("ruheMillis darf nicht negativ sein");
+		}
+		this.filter = filter;
+		this.ruheMillis = ruheMillis;
+	}
+
+	/**
+	 * Meldet das Verzeichnis beim Betriebssystem an und startet die Beobachtung im Hintergrund.
+	 * @return this, zum Verketten
+	 * @throws IOException wenn das Verzeichnis nicht beobachtet werden kann
+	 */
+	public Verzeichniswaechter starte() throws IOException {
+		dienst = filter.getBasis().getFileSystem().newWatchService();
+		melde(filter.getBasis()); // zuerst anmelden, dann durchsuchen - sonst fehlt, was dazwischen kommt
+		waechter = new Thread(() -> beobachte(), "verzeichniswaechter");
+		waechter.setDaemon(true);
+		waechter.start();
+		return this;
+	}
+
+	/**
+	 * Blockiert, bis die nächste Datei ruhig ist oder {@link #close()} aufgerufen wurde.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (naechstes != null) {
+			return true;
+		}
+		if (fertig) {
+			return false;
+		}
+		try {
+			String s = warteschlange.take();
+			if (s == ENDE) {
+				fertig = true;
+				return false;
+			}
+			naechstes = s;
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fertig = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @return der nächste Pfad relativ zum beobachteten Verzeichnis
+	 */
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String s = naechstes;
+		naechstes = null;
+		return s;
+	}
+
+	/**
+	 * @return wie viele Dateien bisher geliefert wurden
+	 */
+	public long getAnzahlGefunden() {
+		return gefunden;
+	}
+
+	/**
+	 * @return ein Fehler, der die Beobachtung abgebrochen hat, sonst null
+	 */
+	public IOException getFehler() {
+		return fehler;
+	}
+
+	/**
+	 * Beendet die Beobachtung. Der Iterator liefert danach noch, was schon geliefert werden sollte, und ist dann zu Ende.
+	 */
+	@Override
+	public void close() {
+		beendet = true;
+		if (dienst != null) {
+			try {
+				dienst.close(); // weckt den Wächter auf
+			} catch (IOException e) {
+				// der Wächter hört trotzdem auf
+			}
+		}
+	}
+
+	private void beobachte() {
+		try {
+			durchsuche(filter.getBasis());
+			long takt = Math.max(20, Math.min(ruheMillis / 4, 500));
+			while (!beendet) {
+				WatchKey key = dienst.poll(kandidaten.isEmpty() ? 1000 : takt, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					verarbeite(key);
+					key = dienst.poll();
+				}
+				pruefeKandidaten();
+			}
+		} catch (ClosedWatchServiceException e) {
+			// close() wurde aufgerufen
+		} catch (InterruptedException e) {
+			// ebenfalls Ende
+		} catch (IOException e) {
+			fehler = e;
+		} finally {
+			try {
+				warteschlange.put(ENDE);
+			} catch (InterruptedException e) {
+				// abgebrochen, der Leser fragt dann nicht mehr
+			}
+		}
+	}
+
+	private void verarbeite(WatchKey key) throws IOException {
+		Path verzeichnis = verzeichnisse.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				System.out.println("Zu viele Änderungen auf einmal, durchsuche " + filter.getBasis() + " neu");
+				geliefert.keySet().removeIf(p -> !Files.exists(p, LinkOption.NOFOLLOW_LINKS)); // die Löschungen fehlen auch
+				durchsuche(filter.getBasis());
+				continue;
+			}
+			if (verzeichnis == null) {
+				continue;
+			}
+			Path p = verzeichnis.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				vergiss(p);
+			} else if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+				if (filter.istRekursiv() && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && filter.betritt(p)) {
+					durchsuche(p); // was schon drin ist, bevor wir angemeldet waren, kommt ohne Event
+				}
+			} else if (filter.nimmt(p)) {
+				vormerken(p);
+			}
+		}
+		if (!key.reset()) {
+			verzeichnisse.remove(key); // Verzeichnis ist weg
+		}
+	}
+
+	/**
+	 * Meldet <i>start</i> (und im rekursiven Modus alle Unterverzeichnisse) an und merkt alle Dateien darin vor.
+	 */
+	private void durchsuche(Path start) throws IOException {
+		Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), filter.istRekursiv() ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(filter.getBasis()) && !filter.betritt(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (!verzeichnisse.containsValue(dir)) {
+					melde(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && filter.nimmt(file)) {
+					vormerken(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if (file.equals(filter.getBasis())) {
+					throw e;
+				}
+				System.out.println("Kann nicht gelesen werden, übersprungen: " + file + " (" + e.getMessage() + ")");
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void melde(Path verzeichnis) throws IOException {
+		WatchKey key = verzeichnis.register(dienst, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		verzeichnisse.put(key, verzeichnis);
+	}
+
+	private void vormerken(Path p) {
+		if (!kandidaten.containsKey(p)) {
+			kandidaten.put(p, new Stand(-1, -1, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Vergisst eine gelöschte Datei, oder bei einem gelöschten Verzeichnis alles darunter. Kommt sie wieder, wird sie
+	 * wieder geliefert.
+	 */
+	private void vergiss(Path p) {
+		kandidaten.keySet().removeIf(k -> k.startsWith(p));
+		geliefert.keySet().removeIf(k -> k.startsWith(p));
+	}
+
+	/**
+	 * Liefert alle Kandidaten, deren Größe und Änderungszeit seit der Ruhezeit gleich sind.
+	 */
+	private void pruefeKandidaten() throws InterruptedException {
+		long jetzt = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, Stand>> it = kandidaten.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Stand> e = it.next();
+			Path p = e.getKey();
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException ex) {
+				it.remove(); // schon wieder weg (z.B. umbenannte Temp-Datei)
+				geliefert.remove(p);
+				continue;
+			}
+			if (!attrs.isRegularFile()) {
+				it.remove();
+				continue;
+			}
+			Stand alt = e.getValue();
+			long groesse = attrs.size();
+			long zeit = attrs.lastModifiedTime().toMillis();
+			if (groesse != alt.groesse || zeit != alt.zeit) {
+				e.setValue(new Stand(groesse, zeit, jetzt)); // ändert sich noch, Ruhezeit beginnt neu
+				if (ruheMillis > 0) {
+					continue;
+				}
+			} else if (jetzt - alt.seit < ruheMillis) {
+				continue;
+			}
+			it.remove();
+			Stand neu = new Stand(groesse, zeit, jetzt);
+			if (neu.gleich(geliefert.get(p))) {
+				continue; // nur ein Event ohne Änderung, z.B. vom Lesen oder von touch mit gleicher Zeit
+			}
+			geliefert.put(p, neu);
+			warteschlange.put(filter.relativ(p));
+			gefunden++;
+		}
+	}
+
+	/**
+	 * Größe und Änderungszeit einer Datei, und seit wann sie so sind.
+	 */
+	private static class Stand {
+		final long groesse;
+		final long zeit;
+		final long seit;
+
+		Stand(long groesse, long zeit, long seit) {
+			this.groesse = groesse;
+			this.zeit = zeit;
+			this.seit = seit;
+		}
+
+		boolean gleich(Stand anderer) {
+			return anderer != null && anderer.groesse == groesse && anderer.zeit == zeit;
+		}
+	}
+}